@@ -0,0 +1,130 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import calculator.parser.Parser;
+import calculator.parser.ScriptLoader;
+import datastructures.interfaces.IList;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class Experiment5 {
+    public static final int NUM_TRIALS = 5;
+    public static final long MAX_NUM_STATEMENTS = 20000;
+    public static final long STEP = 1000;
+
+    private static final String REPL_LINE = "y := 3 * sin(x) + (x - 2) ^ 2 / 7\n";
+
+    public static void main(String[] args) {
+        IList<Long> statementCounts = AnalysisUtils.makeDoubleLinkedList(0L, MAX_NUM_STATEMENTS, STEP);
+
+        System.out.println("Starting experiment 5, test 1");
+        IList<Long> test1Results = AnalysisUtils.runTrials(statementCounts, Experiment5::test1, NUM_TRIALS);
+
+        System.out.println("Starting experiment 5, test 2");
+        IList<Long> test2Results = AnalysisUtils.runTrials(statementCounts, Experiment5::test2, NUM_TRIALS);
+
+        System.out.println("Starting experiment 5, test 3");
+        IList<Long> test3Results = AnalysisUtils.runTrials(statementCounts, Experiment5::test3, NUM_TRIALS);
+
+        System.out.println("Starting experiment 5, test 4");
+        IList<Long> test4Results = AnalysisUtils.runTrials(statementCounts, Experiment5::test4, NUM_TRIALS);
+
+        System.out.println("Starting experiment 5, test 5");
+        IList<Long> test5Results = AnalysisUtils.runTrials(statementCounts, Experiment5::test5, NUM_TRIALS);
+
+        System.out.println("Starting experiment 5, test 6");
+        IList<Long> test6Results = AnalysisUtils.runTrials(statementCounts, Experiment5::test6, NUM_TRIALS);
+
+        System.out.println("Saving experiment 5 results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("NumStatements", statementCounts);
+        writer.addColumn("Test1Results", test1Results);
+        writer.addColumn("Test2Results", test2Results);
+        writer.addColumn("Test3Results", test3Results);
+        writer.addColumn("Test4Results", test4Results);
+        writer.addColumn("Test5Results", test5Results);
+        writer.addColumn("Test6Results", test6Results);
+        writer.writeToFile("experimentdata/experiment5.csv");
+
+        System.out.println("All done!");
+    }
+
+    /**
+     * All six tests measure parse throughput. Tests 1 and 2 parse 'numStatements' short lines
+     * one at a time, the way the REPL does; tests 3 and 4 parse a single script containing
+     * 'numStatements' lines, using ANTLR and the hand-written fast parser respectively.
+     * Tests 5 and 6 are the same as tests 3 and 4, but split the script into chunks that are
+     * parsed in parallel by a ScriptLoader.
+     *
+     * @param numStatements the number of statements to parse. This will be the x-axis of your plot.
+     * @return the amount of time this test took to run, in milliseconds.
+     */
+    public static long test1(long numStatements) {
+        // A single parser is reused for every line, so the lexer and parser are only set up once.
+        Parser parser = new Parser();
+
+        long start = System.currentTimeMillis();
+        for (long i = 0; i < numStatements; i++) {
+            parser.parse(REPL_LINE);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    public static long test2(long numStatements) {
+        long start = System.currentTimeMillis();
+        for (long i = 0; i < numStatements; i++) {
+            // Constructing a fresh parser every time is how parsing used to work.
+            new Parser().parse(REPL_LINE);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    public static long test3(long numStatements) {
+        // We don't include the cost of building the script when running this test
+        StringBuilder script = new StringBuilder();
+        for (long i = 0; i < numStatements; i++) {
+            script.append(REPL_LINE);
+        }
+        String input = script.toString();
+        Parser parser = new Parser();
+
+        long start = System.currentTimeMillis();
+        parser.parse(input);
+        return System.currentTimeMillis() - start;
+    }
+
+    public static long test4(long numStatements) {
+        StringBuilder script = new StringBuilder();
+        for (long i = 0; i < numStatements; i++) {
+            script.append(REPL_LINE);
+        }
+        String input = script.toString();
+        Parser parser = new Parser(true);
+
+        long start = System.currentTimeMillis();
+        parser.parse(input);
+        return System.currentTimeMillis() - start;
+    }
+
+    public static long test5(long numStatements) {
+        return timeScriptLoader(numStatements, false);
+    }
+
+    public static long test6(long numStatements) {
+        return timeScriptLoader(numStatements, true);
+    }
+
+    private static long timeScriptLoader(long numStatements, boolean useFastParser) {
+        StringBuilder script = new StringBuilder();
+        for (long i = 0; i < numStatements; i++) {
+            script.append(REPL_LINE);
+        }
+        String input = script.toString();
+        ScriptLoader loader = new ScriptLoader(ForkJoinPool.commonPool(), useFastParser, 16 * 1024);
+
+        long start = System.currentTimeMillis();
+        loader.load(input);
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,79 @@
+package calculator;
+
+import calculator.ast.AstNode;
+import calculator.errors.MemoryLimitExceededError;
+import datastructures.concrete.dictionaries.ArrayDictionary;
+import datastructures.interfaces.IDictionary;
+
+/**
+ * A session's variables, which keep track of roughly how much memory their values use.
+ *
+ * The total is updated on every put and remove from the sizes of the values involved (see
+ * AstNode.getApproximateSize), so it never needs to walk the trees. Values may share subtrees
+ * with each other; those are counted once for every value they appear in, so the total errs
+ * on the high side.
+ *
+ * If a limit is set, a put that would take the total over it is rejected with a
+ * MemoryLimitExceededError, and the variables are left unchanged. Puts that don't increase
+ * the total are always allowed, so a session that is over its limit (because it was lowered)
+ * can still free memory by reassigning variables.
+ */
+class AccountingDictionary implements IDictionary<String, AstNode> {
+    private final IDictionary<String, AstNode> values;
+    private long retainedBytes;
+    private long limitBytes;
+
+    public AccountingDictionary() {
+        this.values = new ArrayDictionary<>();
+        this.retainedBytes = 0;
+        this.limitBytes = 0;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by all values together.
+     */
+    public long getRetainedBytes() {
+        return this.retainedBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes all values may use together. Zero means there is no
+     * limit.
+     */
+    public void setLimitBytes(long limitBytes) {
+        this.limitBytes = limitBytes;
+    }
+
+    @Override
+    public AstNode get(String key) {
+        return this.values.get(key);
+    }
+
+    @Override
+    public void put(String key, AstNode value) {
+        long oldSize = this.values.containsKey(key) ? this.values.get(key).getApproximateSize() : 0;
+        long newTotal = this.retainedBytes - oldSize + value.getApproximateSize();
+        if (this.limitBytes > 0 && newTotal > this.limitBytes && newTotal > this.retainedBytes) {
+            throw new MemoryLimitExceededError(newTotal, this.limitBytes);
+        }
+        this.values.put(key, value);
+        this.retainedBytes = newTotal;
+    }
+
+    @Override
+    public AstNode remove(String key) {
+        AstNode value = this.values.remove(key);
+        this.retainedBytes -= value.getApproximateSize();
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return this.values.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return this.values.size();
+    }
+}
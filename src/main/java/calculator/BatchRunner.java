@@ -0,0 +1,282 @@
+package calculator;
+
+import calculator.ast.AstNode;
+import calculator.errors.EvaluationError;
+import calculator.errors.ParseError;
+import calculator.errors.QuitError;
+import calculator.gui.OffscreenImageDrawer;
+import calculator.parser.ScriptLoader;
+import calculator.parser.StatementReader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A command-line entry point that runs calculator scripts without a GUI, for use on servers
+ * and in shell pipelines. Usage:
+ *
+ *     java calculator.BatchRunner [--stats] [--antlr] [--parallel-parse] [--plot-dir DIR] [FILE...]
+ *
+ * Each file (or stdin, if no files are given or the file is '-') is evaluated one statement
+ * at a time, and the output of every statement is written to stdout on its own line. Errors
+ * are reported the same way the REPL reports them (as are unexpected exceptions, such as
+ * failing to save a plot), and evaluation continues with the next statement; the exit status
+ * is 1 if any statement failed.
+ *
+ *     --stats         Print the time spent parsing, evaluating, and printing, and the overall
+ *                     throughput, to stderr once done.
+ *     --antlr         Use the ANTLR-based parser instead of the (faster to start) fast parser.
+ *     --parallel-parse
+ *                     Read each script into memory and parse it on all cores with a
+ *                     ScriptLoader before evaluating it. A script with a syntax error then
+ *                     fails as a whole, instead of statement by statement.
+ *     --plot-dir DIR  Save plots as PNG files into DIR (default: the current directory).
+ *
+ * This class never touches Swing: plots are drawn into offscreen images, which are only
+ * created once a script actually plots something.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class BatchRunner {
+    public static final int DEFAULT_PLOT_WIDTH = 800;
+    public static final int DEFAULT_PLOT_HEIGHT = 600;
+
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+    private static final String USAGE =
+            "Usage: java calculator.BatchRunner [--stats] [--antlr] [--parallel-parse] [--plot-dir DIR] [FILE...]";
+
+    private final Calculator calculator;
+    private final PrintWriter output;
+    private ScriptLoader loader;
+
+    private long numStatements;
+    private long numErrors;
+    private long parseNanos;
+    private long evaluateNanos;
+    private long printNanos;
+
+    public static void main(String[] args) throws IOException {
+        // Must be set before anything touches AWT (e.g. to draw a plot).
+        System.setProperty("java.awt.headless", "true");
+
+        boolean printStats = false;
+        boolean useFastParser = true;
+        boolean parallelParse = false;
+        File plotDirectory = new File(".");
+        int firstFile = args.length;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--stats")) {
+                printStats = true;
+            } else if (args[i].equals("--antlr")) {
+                useFastParser = false;
+            } else if (args[i].equals("--parallel-parse")) {
+                parallelParse = true;
+            } else if (args[i].equals("--plot-dir") && i + 1 < args.length) {
+                i += 1;
+                plotDirectory = new File(args[i]);
+            } else if (args[i].equals("--help")) {
+                System.out.println(USAGE);
+                return;
+            } else if (args[i].startsWith("--")) {
+                System.err.println(USAGE);
+                System.exit(2);
+            } else {
+                firstFile = i;
+                break;
+            }
+        }
+
+        Calculator calculator = new Calculator(
+                new OffscreenImageDrawer(DEFAULT_PLOT_WIDTH, DEFAULT_PLOT_HEIGHT, plotDirectory));
+        calculator.setUseFastParser(useFastParser);
+        Writer stdout = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        BatchRunner runner = new BatchRunner(calculator, new BufferedWriter(stdout, OUTPUT_BUFFER_SIZE));
+        if (parallelParse) {
+            runner.setScriptLoader(new ScriptLoader(ForkJoinPool.commonPool(), useFastParser, ScriptLoader.DEFAULT_CHUNK_SIZE));
+        }
+
+        long start = System.nanoTime();
+        boolean finished = true;
+        try {
+            if (firstFile == args.length) {
+                finished = runner.run(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            }
+            for (int i = firstFile; i < args.length && finished; i++) {
+                if (args[i].equals("-")) {
+                    finished = runner.run(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+                } else {
+                    try (Reader input = new InputStreamReader(new FileInputStream(args[i]), StandardCharsets.UTF_8)) {
+                        finished = runner.run(input);
+                    }
+                }
+            }
+        } finally {
+            // Whatever happens, the output of the statements that did run isn't lost.
+            runner.flush();
+        }
+        long totalNanos = System.nanoTime() - start;
+
+        if (printStats) {
+            runner.printStats(System.err, totalNanos);
+        }
+        System.exit(runner.getNumErrors() == 0 ? 0 : 1);
+    }
+
+    /**
+     * Creates a runner that evaluates scripts using the given calculator, and writes their
+     * output to 'output'. The output is only guaranteed to be written once 'flush' is called.
+     */
+    public BatchRunner(Calculator calculator, Writer output) {
+        this.calculator = calculator;
+        this.output = new PrintWriter(output, false);
+    }
+
+    /**
+     * Makes the runner read each script into memory and parse it up front with the given
+     * loader, instead of parsing it one statement at a time. Pass null to go back to the
+     * default.
+     */
+    public void setScriptLoader(ScriptLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Evaluates every statement in the given script, and returns 'true' if the whole script
+     * ran or 'false' if it asked to quit.
+     */
+    public boolean run(Reader input) {
+        if (this.loader != null) {
+            return this.runPreloaded(input);
+        }
+        StatementReader statements = new StatementReader(input);
+        while (true) {
+            long start = System.nanoTime();
+            String statement = statements.nextStatement();
+            if (statement == null) {
+                this.parseNanos += System.nanoTime() - start;
+                return true;
+            }
+            this.numStatements += 1;
+
+            String response;
+            try {
+                AstNode ast = this.calculator.parse(statement, statements.getStatementLine());
+                long parsed = System.nanoTime();
+                this.parseNanos += parsed - start;
+                start = parsed;
+
+                response = this.calculator.evaluate(ast).toString();
+                this.evaluateNanos += System.nanoTime() - start;
+            } catch (EvaluationError ex) {
+                this.numErrors += 1;
+                response = "ERROR: " + ex.getMessage();
+            } catch (QuitError ex) {
+                return false;
+            } catch (RuntimeException ex) {
+                // e.g. failing to save a plot; that statement failed, but the rest can still run
+                this.numErrors += 1;
+                response = "ERROR: " + ex;
+            }
+
+            start = System.nanoTime();
+            this.output.println(response);
+            this.printNanos += System.nanoTime() - start;
+        }
+    }
+
+    private boolean runPreloaded(Reader input) {
+        long start = System.nanoTime();
+        AstNode script;
+        try {
+            script = this.loader.load(readAll(input));
+        } catch (EvaluationError ex) {
+            this.numErrors += 1;
+            this.output.println("ERROR: " + ex.getMessage());
+            return true;
+        } catch (RuntimeException ex) {
+            this.numErrors += 1;
+            this.output.println("ERROR: " + ex);
+            return true;
+        }
+        this.parseNanos += System.nanoTime() - start;
+
+        for (AstNode statement : script.getChildren()) {
+            this.numStatements += 1;
+            start = System.nanoTime();
+            String response;
+            try {
+                response = this.calculator.evaluate(statement).toString();
+                this.evaluateNanos += System.nanoTime() - start;
+            } catch (EvaluationError ex) {
+                this.numErrors += 1;
+                response = "ERROR: " + ex.getMessage();
+            } catch (QuitError ex) {
+                return false;
+            } catch (RuntimeException ex) {
+                this.numErrors += 1;
+                response = "ERROR: " + ex;
+            }
+
+            start = System.nanoTime();
+            this.output.println(response);
+            this.printNanos += System.nanoTime() - start;
+        }
+        return true;
+    }
+
+    private static String readAll(Reader input) {
+        StringBuilder out = new StringBuilder();
+        char[] buffer = new char[8192];
+        try {
+            int numRead;
+            while ((numRead = input.read(buffer)) != -1) {
+                out.append(buffer, 0, numRead);
+            }
+        } catch (IOException ex) {
+            throw new ParseError("Unable to read script: " + ex.getMessage(), ex);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes out any buffered output.
+     */
+    public void flush() {
+        long start = System.nanoTime();
+        this.output.flush();
+        this.printNanos += System.nanoTime() - start;
+    }
+
+    public long getNumStatements() {
+        return this.numStatements;
+    }
+
+    public long getNumErrors() {
+        return this.numErrors;
+    }
+
+    /**
+     * Prints how long parsing, evaluating and printing took, and how many statements were
+     * run per second given the total elapsed time.
+     */
+    public void printStats(PrintStream out, long totalNanos) {
+        double totalSeconds = totalNanos / 1e9;
+        out.printf("statements: %d (%d errors)%n", this.numStatements, this.numErrors);
+        out.printf("parse:      %.3f ms%n", this.parseNanos / 1e6);
+        out.printf("evaluate:   %.3f ms%n", this.evaluateNanos / 1e6);
+        out.printf("print:      %.3f ms%n", this.printNanos / 1e6);
+        out.printf("total:      %.3f ms%n", totalNanos / 1e6);
+        out.printf("throughput: %.0f statements/sec%n",
+                totalSeconds > 0 ? this.numStatements / totalSeconds : 0.0);
+    }
+}
@@ -1,79 +1,243 @@
 package calculator;
 
-import calculator.ast.operators.ExpressionOperator;
 import calculator.ast.AstNode;
-import calculator.ast.operators.ControlOperator;
-import calculator.ast.operators.ControlOperators;
-import calculator.ast.operators.ExpressionOperators;
-import calculator.ast.operators.GuiOperator;
-import calculator.ast.operators.GuiOperators;
 import calculator.gui.ImageDrawer;
-import calculator.parser.Parser;
-import datastructures.concrete.dictionaries.ArrayDictionary;
-import datastructures.interfaces.IDictionary;
+import calculator.parser.StatementReader;
+
+import java.io.Reader;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * A Calculator class that can parse and evaluate strings.
+ *
+ * Each Calculator is a session: it has its own variables and ImageDrawer, and shares
+ * everything else (operators, parsers) with other sessions through a CalculatorEngine.
+ * Sessions are cheap to create, and different sessions can be used on different threads at
+ * the same time. A single session may also be used from several threads, but evaluates only
+ * one input at a time.
+ *
+ * Evaluations can be limited in time (see 'setTimeout') and in the number of nodes they visit
+ * (see 'setNodeBudget'), and cancelled from another thread (see 'cancel'). An evaluation that
+ * hits one of these limits throws an EvaluationAbortedError.
+ *
+ * The session also keeps track of roughly how much memory its variables use (see
+ * 'getRetainedBytes'), and can limit it, as well as the size of the trees built while
+ * evaluating (see 'setMemoryLimit').
  */
 public class Calculator {
     // Components used by the calculator
-    private Parser parser;
+    private CalculatorEngine engine;
+    private final AccountingDictionary variables;
+    private ImageDrawer imageDrawer;
     private Interpreter interpreter;
 
+    // Limits on evaluations (zero means no limit)
+    private long timeoutMillis;
+    private long nodeBudget;
+    private long memoryLimitBytes;
+    private ProgressListener progressListener;
+    private volatile EvaluationContext running;
+
     public Calculator() {
-        this(null);
+        this(CalculatorEngine.getDefault(), null);
     }
 
     public Calculator(ImageDrawer imageDrawer) {
-        this.parser = new Parser();
-
-        // Create dictionaries of handler methods for the calculator's operators
-        IDictionary<String, ExpressionOperator> regularOperators = new ArrayDictionary<>();
-        IDictionary<String, ControlOperator> controlOperators = new ArrayDictionary<>();
-        IDictionary<String, GuiOperator> guiOperators = new ArrayDictionary<>();
-
-        // Regular operators are operators that only have access to the Calculator's
-        // variables (and may read and write to them).
-        regularOperators.put("simplify", ExpressionOperators::handleSimplify);
-        regularOperators.put("toDouble", ExpressionOperators::handleToDouble);
-
-        // GUI operators also have access to the Calculator's ImageDrawer for
-        // plotting capabilities
-        guiOperators.put("plot", GuiOperators::handlePlot);
-        guiOperators.put("clear", GuiOperators::handleClear);
-
-        // Control operators have access to the Interpreter in addition to the
-        // variables, and may use the Interpreter to control evaluation of their
-        // children.
-        controlOperators.put("block", ControlOperators::handleBlock);
-        controlOperators.put("assign", ControlOperators::handleAssign);
-        controlOperators.put("quit", ControlOperators::handleQuit);
-        controlOperators.put("exit", ControlOperators::handleQuit);
-
-        this.interpreter = new Interpreter(regularOperators, guiOperators, controlOperators);
-        this.interpreter.setImageDrawer(imageDrawer);
+        this(CalculatorEngine.getDefault(), imageDrawer);
+    }
+
+    public Calculator(CalculatorEngine engine, ImageDrawer imageDrawer) {
+        this.engine = engine;
+        this.variables = new AccountingDictionary();
+        this.imageDrawer = imageDrawer;
+        this.interpreter = engine.newInterpreter(this.variables, imageDrawer);
+    }
+
+    /**
+     * Returns the engine this session currently uses.
+     */
+    public synchronized CalculatorEngine getEngine() {
+        return this.engine;
     }
 
     /**
      * Sets the ImageDrawer used to draw plots.
      */
-    public void setImageDrawer(ImageDrawer imageDrawer) {
+    public synchronized void setImageDrawer(ImageDrawer imageDrawer) {
+        this.imageDrawer = imageDrawer;
         this.interpreter.setImageDrawer(imageDrawer);
     }
 
+    /**
+     * Selects which parser the calculator uses: the hand-written fast parser if
+     * 'useFastParser' is true, or the ANTLR-based parser otherwise (the default).
+     */
+    public synchronized void setUseFastParser(boolean useFastParser) {
+        this.setEngine(this.engine.withUseFastParser(useFastParser));
+    }
+
+    /**
+     * If 'parallelBlocks' is true, independent statements within a block are evaluated
+     * concurrently (see ControlOperators.handleParallelBlock). The output is the same either
+     * way; this is off by default.
+     */
+    public synchronized void setParallelBlocks(boolean parallelBlocks) {
+        this.setEngine(this.engine.withParallelBlocks(parallelBlocks));
+    }
+
+    /**
+     * Aborts any single call to one of the evaluate methods that takes longer than
+     * 'timeoutMillis' milliseconds. Zero (the default) means there is no limit.
+     */
+    public synchronized void setTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Aborts any single call to one of the evaluate methods that visits more than roughly
+     * 'nodeBudget' nodes (see EvaluationContext). Zero (the default) means there is no limit.
+     */
+    public synchronized void setNodeBudget(long nodeBudget) {
+        if (nodeBudget < 0) {
+            throw new IllegalArgumentException("Node budget must not be negative");
+        }
+        this.nodeBudget = nodeBudget;
+    }
+
+    /**
+     * Limits the memory the session may use to roughly 'limitBytes' bytes (see
+     * AstNode.getApproximateSize for how it's estimated). Zero (the default) means there is
+     * no limit.
+     *
+     * The limit applies to the variables taken together: an assignment that would take them
+     * over it fails with a MemoryLimitExceededError and leaves the variable unchanged. It also
+     * applies to every single tree built while evaluating, so an expression that blows up
+     * while being simplified is stopped as soon as it gets too large, rather than once it's
+     * done.
+     */
+    public synchronized void setMemoryLimit(long limitBytes) {
+        if (limitBytes < 0) {
+            throw new IllegalArgumentException("Memory limit must not be negative");
+        }
+        this.memoryLimitBytes = limitBytes;
+        this.variables.setLimitBytes(limitBytes);
+    }
+
+    /**
+     * Returns roughly how much memory the values of this session's variables use, in bytes.
+     */
+    public synchronized long getRetainedBytes() {
+        return this.variables.getRetainedBytes();
+    }
+
+    /**
+     * Sets the listener that receives progress reports while inputs are evaluated, or removes
+     * it if 'listener' is null. See ProgressListener.
+     */
+    public synchronized void setProgressListener(ProgressListener listener) {
+        this.progressListener = listener;
+    }
+
+    /**
+     * Aborts the evaluation currently in progress, if any. Unlike the other methods, this
+     * doesn't wait for the evaluation to finish, so it can be called from any thread at any
+     * time.
+     */
+    public void cancel() {
+        EvaluationContext context = this.running;
+        if (context != null) {
+            context.cancel();
+        }
+    }
+
+    /**
+     * Runs 'body' under a new EvaluationContext that enforces this session's limits. Must be
+     * called while holding 'this'.
+     */
+    private <T> T supervise(Supplier<T> body) {
+        EvaluationContext context = new EvaluationContext();
+        if (this.timeoutMillis > 0) {
+            context.setDeadline(System.nanoTime() + this.timeoutMillis * 1_000_000);
+        }
+        context.setNodeBudget(this.nodeBudget);
+        context.setProgressListener(this.progressListener);
+        if (this.memoryLimitBytes > 0) {
+            context.setMaxTreeNodes(Math.max(1, this.memoryLimitBytes / AstNode.ESTIMATED_BYTES_PER_NODE));
+        }
+        this.running = context;
+        try {
+            return context.call(body);
+        } finally {
+            this.running = null;
+        }
+    }
+
+    private void setEngine(CalculatorEngine newEngine) {
+        if (newEngine != this.engine) {
+            // The variables carry over; only the operators change.
+            this.engine = newEngine;
+            this.interpreter = newEngine.newInterpreter(this.variables, this.imageDrawer);
+        }
+    }
+
     /**
      * Evaluates the input string, and returns the output as a string.
      */
-    public String evaluate(String input) {
+    public synchronized String evaluate(String input) {
         if (input.trim().equals("")) {
             return "";
         }
         // Parse the input string into an AST
-        AstNode ast = this.parser.parse(input + "\n");
+        AstNode ast = this.engine.getParser().parse(input + "\n");
         // Evaluate the AST and get the output
-        AstNode output = interpreter.evaluate(ast);
+        AstNode output = this.supervise(() -> this.interpreter.evaluate(ast));
         // Return the output as a string
         return output.toString();
     }
 
+    /**
+     * Parses a single statement (including its trailing line break) into an AST, without
+     * evaluating it.
+     */
+    public synchronized AstNode parse(String statement) {
+        return this.engine.getParser().parse(statement);
+    }
+
+    /**
+     * Parses a single statement that starts on line 'firstLine' of a script, like the method
+     * above, so that errors give positions in the script.
+     */
+    public synchronized AstNode parse(String statement, int firstLine) {
+        return this.engine.getParser().parse(statement, firstLine);
+    }
+
+    /**
+     * Evaluates an AST returned by 'parse', and returns the output AST.
+     */
+    public synchronized AstNode evaluate(AstNode ast) {
+        return this.supervise(() -> this.interpreter.evaluate(ast));
+    }
+
+    /**
+     * Evaluates a script one statement at a time: each top-level statement is read from the
+     * input, parsed, evaluated, and then discarded before the next one is read, and its output
+     * is passed to 'output'. Memory use therefore stays flat no matter how long the script is.
+     *
+     * Unlike 'evaluate', statements before the first error have already been evaluated (and
+     * their output reported) by the time the error is thrown. The limits apply to each
+     * statement separately.
+     */
+    public synchronized void evaluateStream(Reader input, Consumer<String> output) {
+        StatementReader statements = new StatementReader(input);
+        String statement;
+        while ((statement = statements.nextStatement()) != null) {
+            AstNode ast = this.engine.getParser().parse(statement, statements.getStatementLine());
+            AstNode out = this.supervise(() -> this.interpreter.evaluate(ast));
+            output.accept(out.toString());
+        }
+    }
 }
@@ -0,0 +1,138 @@
+package calculator;
+
+import calculator.ast.AstNode;
+import calculator.ast.operators.ControlOperator;
+import calculator.ast.operators.ControlOperators;
+import calculator.ast.operators.ExpressionOperator;
+import calculator.ast.operators.ExpressionOperators;
+import calculator.ast.operators.GuiOperator;
+import calculator.ast.operators.GuiOperators;
+import calculator.gui.ImageDrawer;
+import calculator.parser.Parser;
+import datastructures.concrete.dictionaries.ArrayDictionary;
+import datastructures.concrete.dictionaries.ReadOnlyDictionary;
+import datastructures.interfaces.IDictionary;
+
+/**
+ * The part of the calculator that is the same for every user: the tables of operator handlers
+ * and the parsers. An engine never changes after it's created, so a single one can be shared
+ * by any number of Calculator sessions on any number of threads.
+ *
+ * Parsers are not thread-safe, so the engine keeps one per thread instead of one per session;
+ * creating a session therefore costs little more than creating its (empty) variables.
+ *
+ * There are only four possible engines (fast parser or not, parallel blocks or not), so they
+ * are all created up front and shared: use 'get' or 'getDefault' to obtain one.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public final class CalculatorEngine {
+    private static final CalculatorEngine[] ENGINES = {
+        new CalculatorEngine(false, false),
+        new CalculatorEngine(false, true),
+        new CalculatorEngine(true, false),
+        new CalculatorEngine(true, true),
+    };
+
+    private final boolean useFastParser;
+    private final boolean parallelBlocks;
+    private final IDictionary<String, ExpressionOperator> regularOperators;
+    private final IDictionary<String, GuiOperator> guiOperators;
+    private final IDictionary<String, ControlOperator> controlOperators;
+    private final ThreadLocal<Parser> parsers;
+
+    private CalculatorEngine(boolean useFastParser, boolean parallelBlocks) {
+        this.useFastParser = useFastParser;
+        this.parallelBlocks = parallelBlocks;
+
+        // Create dictionaries of handler methods for the calculator's operators
+        IDictionary<String, ExpressionOperator> regularOperators = new ArrayDictionary<>();
+        IDictionary<String, ControlOperator> controlOperators = new ArrayDictionary<>();
+        IDictionary<String, GuiOperator> guiOperators = new ArrayDictionary<>();
+
+        // Regular operators are operators that only have access to the Calculator's
+        // variables (and may read and write to them).
+        regularOperators.put("simplify", ExpressionOperators::handleSimplify);
+        regularOperators.put("toDouble", ExpressionOperators::handleToDouble);
+
+        // GUI operators also have access to the Calculator's ImageDrawer for
+        // plotting capabilities
+        guiOperators.put("plot", GuiOperators::handlePlot);
+        guiOperators.put("plot2d", GuiOperators::handlePlot2d);
+        guiOperators.put("contour", GuiOperators::handleContour);
+        guiOperators.put("clear", GuiOperators::handleClear);
+
+        // Control operators have access to the Interpreter in addition to the
+        // variables, and may use the Interpreter to control evaluation of their
+        // children.
+        if (parallelBlocks) {
+            controlOperators.put("block", ControlOperators::handleParallelBlock);
+        } else {
+            controlOperators.put("block", ControlOperators::handleBlock);
+        }
+        controlOperators.put("assign", ControlOperators::handleAssign);
+        controlOperators.put("quit", ControlOperators::handleQuit);
+        controlOperators.put("exit", ControlOperators::handleQuit);
+
+        this.regularOperators = new ReadOnlyDictionary<>(regularOperators);
+        this.guiOperators = new ReadOnlyDictionary<>(guiOperators);
+        this.controlOperators = new ReadOnlyDictionary<>(controlOperators);
+        this.parsers = ThreadLocal.withInitial(() -> new Parser(useFastParser));
+    }
+
+    /**
+     * Returns the engine with the default settings: the ANTLR-based parser, and blocks
+     * evaluated one statement at a time.
+     */
+    public static CalculatorEngine getDefault() {
+        return get(false, false);
+    }
+
+    /**
+     * Returns the engine with the given settings. See Calculator.setUseFastParser and
+     * Calculator.setParallelBlocks for what they mean.
+     */
+    public static CalculatorEngine get(boolean useFastParser, boolean parallelBlocks) {
+        return ENGINES[(useFastParser ? 2 : 0) + (parallelBlocks ? 1 : 0)];
+    }
+
+    public boolean usesFastParser() {
+        return this.useFastParser;
+    }
+
+    public boolean usesParallelBlocks() {
+        return this.parallelBlocks;
+    }
+
+    public CalculatorEngine withUseFastParser(boolean newUseFastParser) {
+        return get(newUseFastParser, this.parallelBlocks);
+    }
+
+    public CalculatorEngine withParallelBlocks(boolean newParallelBlocks) {
+        return get(this.useFastParser, newParallelBlocks);
+    }
+
+    /**
+     * Creates a new session, with no variables defined and no ImageDrawer. Plotting in such a
+     * session fails with an EvaluationError.
+     */
+    public Calculator newSession() {
+        return new Calculator(this, null);
+    }
+
+    /**
+     * Returns the parser belonging to the current thread.
+     */
+    public Parser getParser() {
+        return this.parsers.get();
+    }
+
+    /**
+     * Creates an interpreter that uses this engine's operators with the given variables.
+     */
+    Interpreter newInterpreter(IDictionary<String, AstNode> variables, ImageDrawer imageDrawer) {
+        return new Interpreter(
+                this.regularOperators, this.guiOperators, this.controlOperators,
+                variables, imageDrawer);
+    }
+}
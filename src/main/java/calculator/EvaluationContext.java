@@ -0,0 +1,360 @@
+package calculator;
+
+import calculator.ast.AstNode;
+import calculator.errors.EvaluationAbortedError;
+import calculator.errors.MemoryLimitExceededError;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lets long-running evaluations be supervised while they run.
+ *
+ * The evaluator calls 'EvaluationContext.checkpoint()' regularly: once per node visited by
+ * toDouble and simplify, once per statement in a block, and once per plotted sample. If the
+ * current thread is running an evaluation under a context (see 'call'), every CHECK_INTERVAL
+ * checkpoints that context gets a chance to step in:
+ *
+ * - If it has a deadline that has passed, a node budget that has been used up, or has been
+ *   cancelled (from any thread), the evaluation is aborted with an EvaluationAbortedError.
+ * - Otherwise, its 'check' method is called, which subclasses can override, for example to
+ *   pause the evaluation so other work can run.
+ *
+ * A context can also limit the size of the trees built during evaluation. Whenever simplify
+ * builds a new node, it reports it with 'allocated', and if the tree rooted at that node has
+ * more than the context's maximum number of nodes, the evaluation fails with a
+ * MemoryLimitExceededError. This is checked on every node, using the node counts AstNode
+ * keeps anyway, so it costs next to nothing and never overshoots.
+ *
+ * Since the limits are only looked at every CHECK_INTERVAL checkpoints, an evaluation may
+ * overshoot its node budget by less than that many nodes.
+ *
+ * Contexts nest: an evaluation started under a context while another one is active is
+ * supervised by both. Work the parallel evaluators hand to other threads doesn't go through
+ * this context's checkpoints. It is only checked for cancellation and deadlines instead,
+ * either directly (see 'checkAborted') or by running it under a worker context (see
+ * 'newWorkerContext'). Node budgets and tree sizes can only be enforced on the evaluating
+ * thread, so contexts that have them don't allow parallelism (see 'isParallelismAllowed').
+ *
+ * Finally, long-running operations report their progress with 'progress', which is passed on
+ * to the context's ProgressListener, if it has one.
+ *
+ * A context only costs anything while it has something to enforce (worker contexts always
+ * do). When no such context is in use anywhere, a checkpoint is a single volatile read.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class EvaluationContext {
+    /**
+     * The number of checkpoints between two checks.
+     */
+    public static final int CHECK_INTERVAL = 256;
+
+    private static final ThreadLocal<EvaluationContext> CURRENT = new ThreadLocal<>();
+
+    // The number of contexts that are currently in use and have something to enforce.
+    private static final AtomicInteger NUM_ACTIVE = new AtomicInteger(0);
+
+    // The number of contexts that are currently in use and have a progress listener.
+    private static final AtomicInteger NUM_LISTENING = new AtomicInteger(0);
+
+    private long deadline;
+    private boolean hasDeadline;
+    private long nodeBudget;
+    private long maxTreeNodes;
+    private long peakTreeNodes;
+    private volatile boolean cancelled;
+    private ProgressListener progressListener;
+
+    private int countdown = CHECK_INTERVAL;
+    private long numVisited;
+    private EvaluationContext parent;
+
+    // Both guarded by 'this'
+    private boolean running;
+    private boolean active;
+
+    /**
+     * Called by the evaluator at every checkpoint.
+     */
+    public static void checkpoint() {
+        if (NUM_ACTIVE.get() == 0) {
+            return;
+        }
+        EvaluationContext context = CURRENT.get();
+        if (context != null) {
+            context.visit();
+        }
+    }
+
+    /**
+     * Called by the evaluator whenever it builds a new tree (or part of one) during evaluation.
+     */
+    public static void allocated(AstNode node) {
+        if (NUM_ACTIVE.get() == 0) {
+            return;
+        }
+        EvaluationContext context = CURRENT.get();
+        for (; context != null; context = context.parent) {
+            context.checkTree(node);
+        }
+    }
+
+    /**
+     * Called by long-running operations to report that they've done 'done' out of roughly
+     * 'total' units of work.
+     */
+    public static void progress(String operation, long done, long total) {
+        if (NUM_LISTENING.get() == 0) {
+            return;
+        }
+        EvaluationContext context = CURRENT.get();
+        if (context != null) {
+            context.reportProgress(operation, done, total);
+        }
+    }
+
+    /**
+     * Returns false if the current thread is evaluating under a context (or contexts) that
+     * want the evaluation to stay on this thread, or that have a node budget or a maximum
+     * tree size (which work on other threads would escape), in which case operations that
+     * could use several cores shouldn't.
+     */
+    public static boolean isParallelismAllowed() {
+        for (EvaluationContext context = CURRENT.get(); context != null; context = context.parent) {
+            if (!context.allowsParallelism() || context.nodeBudget > 0 || context.maxTreeNodes > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the context the current thread is evaluating under, or null if there is none.
+     */
+    public static EvaluationContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Aborts evaluations under this context once System.nanoTime() has passed 'deadline'.
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+        this.hasDeadline = true;
+    }
+
+    /**
+     * Aborts evaluations under this context once they've visited more than 'nodeBudget'
+     * nodes in total. Zero (the default) means there is no limit.
+     */
+    public void setNodeBudget(long nodeBudget) {
+        this.nodeBudget = nodeBudget;
+    }
+
+    /**
+     * Aborts the evaluation running under this context at its next check, or the next one
+     * started under it if none is running. May be called from any thread.
+     */
+    public void cancel() {
+        synchronized (this) {
+            this.cancelled = true;
+            if (this.running) {
+                this.activate();
+            }
+        }
+    }
+
+    /**
+     * Makes evaluations under this context fail with a MemoryLimitExceededError as soon as they
+     * build a tree of more than 'maxTreeNodes' nodes. Zero (the default) means there is no
+     * limit.
+     */
+    public void setMaxTreeNodes(long maxTreeNodes) {
+        this.maxTreeNodes = maxTreeNodes;
+    }
+
+    /**
+     * Returns the number of nodes in the largest tree built under this context so far. This is
+     * only tracked while the context is enforcing something.
+     */
+    public long getPeakTreeNodes() {
+        return this.peakTreeNodes;
+    }
+
+    /**
+     * Sets the listener that receives progress reports from evaluations under this context, or
+     * removes it if 'listener' is null.
+     */
+    public void setProgressListener(ProgressListener listener) {
+        this.progressListener = listener;
+    }
+
+    /**
+     * Passes a progress report on to the listeners of this context and the ones it's nested
+     * in. Unlike 'progress', this may be called from any thread; reports are never passed on
+     * concurrently.
+     */
+    public synchronized void reportProgress(String operation, long done, long total) {
+        for (EvaluationContext context = this; context != null; context = context.parent) {
+            if (context.progressListener != null) {
+                context.progressListener.progressChanged(operation, done, total);
+            }
+        }
+    }
+
+    /**
+     * Throws an EvaluationAbortedError if evaluations under this context (or one it's nested
+     * in) have been cancelled or have run past their deadline. Unlike the checkpoints, this may
+     * be called from any thread, so parallel operations can use it to stop their workers.
+     */
+    public void checkAborted() {
+        for (EvaluationContext context = this; context != null; context = context.parent) {
+            context.checkCancelledOrTimedOut();
+        }
+    }
+
+    /**
+     * Returns a new context for work that an evaluation under this context hands to another
+     * thread. Evaluations under it are aborted at their checkpoints as soon as 'checkAborted'
+     * would throw for this context; none of this context's other limits carry over.
+     */
+    public EvaluationContext newWorkerContext() {
+        EvaluationContext owner = this;
+        return new EvaluationContext() {
+            @Override
+            public void checkAborted() {
+                super.checkAborted();
+                owner.checkAborted();
+            }
+
+            @Override
+            protected void check() {
+                owner.checkAborted();
+            }
+        };
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Returns (roughly, see above) the number of nodes evaluations under this context have
+     * visited so far.
+     */
+    public long getNumVisited() {
+        return this.numVisited;
+    }
+
+    /**
+     * Runs 'body' on the current thread, under this context.
+     */
+    public <T> T call(Supplier<T> body) {
+        EvaluationContext previous = CURRENT.get();
+        synchronized (this) {
+            this.running = true;
+            if (this.hasDeadline || this.nodeBudget > 0 || this.maxTreeNodes > 0 || this.cancelled
+                    || this.getClass() != EvaluationContext.class) {
+                // Subclasses are assumed to override 'check', so they always need to see
+                // the checkpoints.
+                this.activate();
+            }
+        }
+        this.parent = previous;
+        CURRENT.set(this);
+        ProgressListener listener = this.progressListener;
+        if (listener != null) {
+            NUM_LISTENING.incrementAndGet();
+        }
+        try {
+            return body.get();
+        } finally {
+            if (listener != null) {
+                NUM_LISTENING.decrementAndGet();
+            }
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+            this.parent = null;
+            synchronized (this) {
+                this.running = false;
+                if (this.active) {
+                    this.active = false;
+                    NUM_ACTIVE.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the checkpoints stop taking the fast path. Must be called while holding 'this'.
+     */
+    private void activate() {
+        if (!this.active) {
+            this.active = true;
+            NUM_ACTIVE.incrementAndGet();
+        }
+    }
+
+    private void visit() {
+        this.countdown -= 1;
+        if (this.countdown <= 0) {
+            this.countdown = CHECK_INTERVAL;
+            for (EvaluationContext context = this; context != null; context = context.parent) {
+                context.poll();
+            }
+        }
+    }
+
+    private void checkTree(AstNode node) {
+        long size = node.getSubtreeSize();
+        if (size > this.peakTreeNodes) {
+            this.peakTreeNodes = size;
+            if (this.maxTreeNodes > 0 && size > this.maxTreeNodes) {
+                throw new MemoryLimitExceededError(
+                        node.getApproximateSize(), this.maxTreeNodes * AstNode.ESTIMATED_BYTES_PER_NODE);
+            }
+        }
+    }
+
+    private void poll() {
+        this.numVisited += CHECK_INTERVAL;
+        this.checkCancelledOrTimedOut();
+        if (this.nodeBudget > 0 && this.numVisited > this.nodeBudget) {
+            throw new EvaluationAbortedError(
+                    EvaluationAbortedError.Reason.NODE_BUDGET,
+                    "Evaluation exceeded its budget of " + this.nodeBudget + " nodes");
+        }
+        this.check();
+    }
+
+    private void checkCancelledOrTimedOut() {
+        if (this.cancelled) {
+            throw new EvaluationAbortedError(
+                    EvaluationAbortedError.Reason.CANCELLED, "Evaluation was cancelled");
+        }
+        if (this.hasDeadline && System.nanoTime() - this.deadline > 0) {
+            throw new EvaluationAbortedError(
+                    EvaluationAbortedError.Reason.TIMEOUT, "Evaluation timed out");
+        }
+    }
+
+    /**
+     * Called every CHECK_INTERVAL checkpoints, on the thread doing the evaluation. Does nothing
+     * by default.
+     */
+    protected void check() {
+    }
+
+    /**
+     * Returns whether evaluations under this context may spread work over several threads.
+     * Subclasses that need to see all the work at their checkpoints (because 'check' pauses
+     * the evaluation, for example) should return false. Returns true by default.
+     */
+    protected boolean allowsParallelism() {
+        return true;
+    }
+}
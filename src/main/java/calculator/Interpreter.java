@@ -4,9 +4,9 @@ import calculator.ast.operators.ExpressionOperator;
 import calculator.ast.AstNode;
 import calculator.ast.operators.ControlOperator;
 import calculator.ast.operators.GuiOperator;
+import calculator.errors.EvaluationError;
 import calculator.gui.ImageDrawer;
 import datastructures.concrete.DoubleLinkedList;
-import datastructures.concrete.dictionaries.ArrayDictionary;
 import datastructures.interfaces.IDictionary;
 import datastructures.interfaces.IList;
 
@@ -22,13 +22,44 @@ public class Interpreter {
     private ImageDrawer imageDrawer;
 
     Interpreter(IDictionary<String, ExpressionOperator> regularOperators,
-                       IDictionary<String, GuiOperator> guiOperators,
-                       IDictionary<String, ControlOperator> controlOperators) {
+                IDictionary<String, GuiOperator> guiOperators,
+                IDictionary<String, ControlOperator> controlOperators,
+                IDictionary<String, AstNode> variables,
+                ImageDrawer imageDrawer) {
         this.regularOperators = regularOperators;
         this.guiOperators = guiOperators;
         this.controlOperators = controlOperators;
-        this.variables = new ArrayDictionary<>();
-        this.imageDrawer = null;
+        this.variables = variables;
+        this.imageDrawer = imageDrawer;
+    }
+
+    /**
+     * Returns an interpreter that has the same operators and ImageDrawer as this one, but
+     * reads and writes variables in the given dictionary instead.
+     */
+    public Interpreter withVariables(IDictionary<String, AstNode> newVariables) {
+        return new Interpreter(
+                this.regularOperators, this.guiOperators, this.controlOperators,
+                newVariables, this.imageDrawer);
+    }
+
+    /**
+     * Returns 'true' if the given AST uses any control or GUI operators anywhere. Evaluating an
+     * AST that doesn't can only read variables, and can't have any other side effects.
+     */
+    public boolean usesControlOrGuiOperators(AstNode node) {
+        if (!node.isOperation()) {
+            return false;
+        }
+        if (this.controlOperators.containsKey(node.getName()) || this.guiOperators.containsKey(node.getName())) {
+            return true;
+        }
+        for (AstNode child : node.getChildren()) {
+            if (this.usesControlOrGuiOperators(child)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -87,6 +118,11 @@ public class Interpreter {
                     ExpressionOperator expressionOperatorHandler = this.regularOperators.get(nodeName);
                     output = expressionOperatorHandler.apply(output, this.variables);
                 } else if (this.guiOperators.containsKey(nodeName)) {
+                    if (this.imageDrawer == null) {
+                        // e.g. sessions created by CalculatorEngine.newSession, which the
+                        // server uses
+                        throw new EvaluationError("Plotting is not supported in this session");
+                    }
                     GuiOperator operatorHandler = this.guiOperators.get(nodeName);
                     output = operatorHandler.apply(output, this.variables, this.imageDrawer);
                 }
@@ -0,0 +1,17 @@
+package calculator;
+
+/**
+ * Receives progress reports from long-running operations while they are evaluated (see
+ * Calculator.setProgressListener). Currently, 'plot' reports once per sample it computes.
+ *
+ * Reports are made on the thread doing the evaluation, or on worker threads helping with it,
+ * but never two at once. They can come in very quickly, so implementations should return
+ * quickly, and must not touch Swing components directly.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+    /**
+     * Reports that the given operation has done 'done' out of roughly 'total' units of work.
+     */
+    void progressChanged(String operation, long done, long total);
+}
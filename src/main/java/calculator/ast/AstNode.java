@@ -18,6 +18,13 @@ import java.util.Iterator;
 public final class AstNode {
     private static final int STRONGEST_PRECEDENCE = 0;
     private static final int WEAKEST_PRECEDENCE = Integer.MAX_VALUE;
+
+    /**
+     * A rough estimate of the memory a single node takes up, including its name and its list
+     * of children, on a 64-bit JVM. (Measured on freshly parsed trees; trees built by simplify
+     * share their leaves with the tree they came from, so they take up somewhat less.)
+     */
+    public static final int ESTIMATED_BYTES_PER_NODE = 128;
     private static IDictionary<String, Integer> precedenceMap;
 
     // This code runs once when the class is loaded to initialize the precedenceMap.
@@ -34,6 +41,7 @@ public final class AstNode {
     private final String name;
     private final IList<AstNode> children;
     private final ExprType type;
+    private final int subtreeSize;
 
     /**
      * Creates a leaf node representing a single number.
@@ -76,6 +84,13 @@ public final class AstNode {
         this.name = name;
         this.children = new ReadOnlyList<>(children);
         this.type = type;
+
+        long size = 1;
+        for (AstNode child : children) {
+            size += child.subtreeSize;
+        }
+        // Subtrees may be shared, so the count can in principle exceed the number of nodes.
+        this.subtreeSize = (int) Math.min(size, Integer.MAX_VALUE);
     }
 
     /**
@@ -137,6 +152,21 @@ public final class AstNode {
         return this.type == ExprType.OPERATION;
     }
 
+    /**
+     * Returns the number of nodes in the tree rooted at this node (including this node).
+     */
+    public int getSubtreeSize() {
+        return this.subtreeSize;
+    }
+
+    /**
+     * Returns a rough estimate of the memory used by the tree rooted at this node, in bytes,
+     * computed from its number of nodes. Shared subtrees are counted every time they appear.
+     */
+    public long getApproximateSize() {
+        return (long) this.subtreeSize * ESTIMATED_BYTES_PER_NODE;
+    }
+
     /**
      * Returns the variable or operation name.
      *
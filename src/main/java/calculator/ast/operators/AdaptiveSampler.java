@@ -0,0 +1,233 @@
+package calculator.ast.operators;
+
+import calculator.EvaluationContext;
+
+import java.util.Arrays;
+
+/**
+ * Chooses where to sample a CompiledExpression so that its plot looks right, using as few
+ * evaluations as it can. Used by plot when no step is given.
+ *
+ * The range is first sampled at a coarse, fixed spacing. The spread of those values gives
+ * the size of a pixel on the y axis, which is our tolerance. Every interval between two
+ * neighbouring samples is then refined recursively:
+ *
+ * - First, interval arithmetic bounds the expression over the whole interval (see
+ *   CompiledExpression.evaluateBounds). If the bounds are less than a pixel apart, nothing
+ *   between the endpoints could show up on the plot, so the interval is done without any
+ *   more evaluations. This is what lets flat regions be skipped.
+ * - Otherwise, the midpoint is evaluated. If it lies within a pixel of the straight line
+ *   between the endpoints, and the bounds are finite and not much wider than the values seen,
+ *   the curve is straight enough here, and the interval is done.
+ * - Otherwise, both halves are refined in turn.
+ *
+ * Infinite bounds mean the expression may have a singularity in the interval (like '1 / x'
+ * around 0), so those intervals keep being split, which puts many samples around it, until
+ * MAX_DEPTH is reached. Intervals where the expression is undefined at both ends aren't
+ * refined at all.
+ *
+ * Every initial interval gets an equal share of MAX_SAMPLES, so a single hard region can't
+ * use up all the samples.
+ *
+ * Expressions compiled together (see CompiledExpression) are sampled at the same points, each
+ * with its own tolerance: an interval is only done once it's done for every one of them.
+ */
+final class AdaptiveSampler {
+    /**
+     * The maximum number of times the initial intervals are halved.
+     */
+    static final int MAX_DEPTH = 16;
+
+    /**
+     * The maximum number of samples in a plot.
+     */
+    static final int MAX_SAMPLES = 1 << 16;
+
+    // The minimum number of initial intervals
+    private static final int MIN_INTERVALS = 32;
+
+    private final CompiledExpression expression;
+    private final int numIntervals;
+    private final int height;
+    private final double[] registers;
+    private final double[] lows;
+    private final double[] highs;
+    private final double[] bounds;
+
+    private double[] tolerances;
+    private double[] xValues;
+    private double[][] yValues;
+    private int numSamples;
+    private int sampleLimit;
+    private int numEvaluations;
+
+    /**
+     * Creates a sampler for a plot 'width' by 'height' pixels large.
+     */
+    public AdaptiveSampler(CompiledExpression expression, int width, int height) {
+        this.expression = expression;
+        this.numIntervals = Math.max(MIN_INTERVALS, width / 4);
+        this.height = Math.max(1, height);
+        this.registers = expression.newRegisters();
+        this.lows = expression.newRegisters();
+        this.highs = expression.newRegisters();
+        this.bounds = new double[2];
+    }
+
+    /**
+     * Samples the expression from 'min' to 'max' (both included). The samples are in
+     * increasing order of x.
+     */
+    public void sample(double min, double max) {
+        int numResults = this.expression.getNumResults();
+        this.xValues = new double[4 * this.numIntervals];
+        this.yValues = new double[numResults][4 * this.numIntervals];
+        this.numSamples = 0;
+        this.numEvaluations = 0;
+
+        // Coarse pass
+        double[] xs = new double[this.numIntervals + 1];
+        double[][] ys = new double[this.numIntervals + 1][];
+        for (int i = 0; i <= this.numIntervals; i++) {
+            xs[i] = i == this.numIntervals ? max : min + (max - min) * i / this.numIntervals;
+            ys[i] = this.evaluate(xs[i]);
+        }
+        this.tolerances = new double[numResults];
+        for (int r = 0; r < numResults; r++) {
+            double yMin = Double.POSITIVE_INFINITY;
+            double yMax = Double.NEGATIVE_INFINITY;
+            for (double[] values : ys) {
+                if (!Double.isInfinite(values[r]) && !Double.isNaN(values[r])) {
+                    yMin = Math.min(yMin, values[r]);
+                    yMax = Math.max(yMax, values[r]);
+                }
+            }
+            double span;
+            if (yMax > yMin) {
+                span = yMax - yMin;
+            } else if (yMax == yMin) {
+                // Looks constant; the plot will be scaled to about the size of the value.
+                span = Math.max(1, Math.abs(yMax));
+            } else {
+                // No finite values at all
+                span = 1;
+            }
+            this.tolerances[r] = span / this.height;
+        }
+
+        // Refinement
+        int share = Math.max(1, (MAX_SAMPLES - this.numIntervals - 1) / this.numIntervals);
+        for (int i = 0; i < this.numIntervals; i++) {
+            this.add(xs[i], ys[i]);
+            this.sampleLimit = this.numSamples + share;
+            this.refine(xs[i], ys[i], xs[i + 1], ys[i + 1], 0);
+            EvaluationContext.progress("plot", i + 1, this.numIntervals);
+        }
+        this.add(xs[this.numIntervals], ys[this.numIntervals]);
+    }
+
+    public double[] getXValues() {
+        return Arrays.copyOf(this.xValues, this.numSamples);
+    }
+
+    /**
+     * Returns the values of result 'index' of the expression at each of the x values.
+     */
+    public double[] getYValues(int index) {
+        return Arrays.copyOf(this.yValues[index], this.numSamples);
+    }
+
+    /**
+     * Returns the number of times the expression was evaluated at a single point.
+     */
+    public int getNumEvaluations() {
+        return this.numEvaluations;
+    }
+
+    /**
+     * Adds samples strictly between 'a' and 'b', whose values are already known.
+     */
+    private void refine(double a, double[] fa, double b, double[] fb, int depth) {
+        if (depth >= MAX_DEPTH || this.numSamples >= this.sampleLimit) {
+            return;
+        }
+
+        // Whether each result is done, if the midpoint is close enough to the line
+        boolean flat = true;
+        boolean[] bounded = new boolean[fa.length];
+        this.expression.evaluateBounds(a, b, this.lows, this.highs, this.bounds);
+        for (int r = 0; r < fa.length; r++) {
+            if (Double.isNaN(fa[r]) && Double.isNaN(fb[r])) {
+                // Most likely outside the domain of the expression (like 'x ^ 0.5' for x < 0),
+                // where the bounds are no help.
+                continue;
+            }
+            double low = this.expression.getResult(r, this.lows);
+            double high = this.expression.getResult(r, this.highs);
+            bounded[r] = !Double.isInfinite(low) && !Double.isInfinite(high);
+            // Unless it's flat enough that nothing in between would show up
+            flat = flat && bounded[r] && high - low <= this.tolerances[r];
+        }
+        if (flat) {
+            return;
+        }
+
+        double m = a + (b - a) / 2;
+        if (m <= a || m >= b) {
+            // Can't split any further.
+            return;
+        }
+        double[] fm = this.evaluate(m);
+
+        boolean straight = true;
+        for (int r = 0; r < fa.length && straight; r++) {
+            if (Double.isNaN(fa[r]) && Double.isNaN(fb[r])) {
+                continue;
+            }
+            double low = this.expression.getResult(r, this.lows);
+            double high = this.expression.getResult(r, this.highs);
+            double deviation = Math.abs(fm[r] - (fa[r] + (fb[r] - fa[r]) / 2));
+            double spread = Math.max(fm[r], Math.max(fa[r], fb[r])) - Math.min(fm[r], Math.min(fa[r], fb[r]));
+            // Straight enough, and nothing much seems to be hiding in between?
+            straight = bounded[r]
+                    && deviation <= this.tolerances[r]
+                    && high - low <= 2 * spread + 2 * this.tolerances[r];
+        }
+        if (straight) {
+            this.add(m, fm);
+            return;
+        }
+
+        this.refine(a, fa, m, fm, depth + 1);
+        this.add(m, fm);
+        this.refine(m, fm, b, fb, depth + 1);
+    }
+
+    /**
+     * Returns the values of every result of the expression at 'x'.
+     */
+    private double[] evaluate(double x) {
+        EvaluationContext.checkpoint();
+        this.numEvaluations += 1;
+        double[] values = new double[this.expression.getNumResults()];
+        values[0] = this.expression.evaluate(x, this.registers);
+        for (int r = 1; r < values.length; r++) {
+            values[r] = this.expression.getResult(r, this.registers);
+        }
+        return values;
+    }
+
+    private void add(double x, double[] y) {
+        if (this.numSamples == this.xValues.length) {
+            this.xValues = Arrays.copyOf(this.xValues, this.numSamples * 2);
+            for (int r = 0; r < this.yValues.length; r++) {
+                this.yValues[r] = Arrays.copyOf(this.yValues[r], this.numSamples * 2);
+            }
+        }
+        this.xValues[this.numSamples] = x;
+        for (int r = 0; r < this.yValues.length; r++) {
+            this.yValues[r][this.numSamples] = y[r];
+        }
+        this.numSamples += 1;
+    }
+}
@@ -0,0 +1,580 @@
+package calculator.ast.operators;
+
+import calculator.EvaluationContext;
+import calculator.ast.AstNode;
+import calculator.errors.EvaluationError;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An expression in a single variable, compiled so it can be evaluated for many different
+ * values of that variable quickly and without allocating anything. Used by plot.
+ *
+ * Compiling walks the tree once, in the same order as 'ExpressionOperators.toDoubleHelper',
+ * substituting the values of all other variables. Parts of the expression that don't depend
+ * on the variable are computed right away; everything else becomes a list of instructions,
+ * each of which reads one or two registers and writes its result to a new one. Every
+ * instruction does exactly what toDoubleHelper does for the same node, so the results are
+ * bit-for-bit identical.
+ *
+ * Evaluating an expression always visits every node, so an expression that fails to evaluate
+ * fails the same way for every value of the variable. Compiling therefore throws the same
+ * error toDoubleHelper would have thrown.
+ *
+ * Several expressions can be compiled together (for plotting several curves at once), into a
+ * single list of instructions with one result register per expression. Identical
+ * subexpressions are only compiled once, both within and across the expressions: an
+ * instruction that would do the same operation on the same registers as an earlier one just
+ * reuses its result, and every variable other than the plotted one is compiled once, however
+ * often it appears. So 'plot(sin(x) * a, sin(x) * b, x, 0, 1)' computes 'sin(x)' once per point.
+ * Since the instructions are pure, this doesn't change any of the results.
+ *
+ * Expressions can also be compiled as functions of two variables (for plot2d and contour),
+ * in which case 'evaluate' takes the values of both.
+ *
+ * The same instructions can also be run on intervals instead of single values (see
+ * 'evaluateBounds'), which gives bounds on the value of the expression over a whole range of
+ * the variable.
+ *
+ * Two compiled expressions are equal if they have the same instructions and constants, which
+ * means they compute the same values (whatever the variables they came from were called).
+ * This is what SampleTileCache uses to recognize an expression it has sampled before.
+ */
+final class CompiledExpression {
+    private static final byte ADD = 0;
+    private static final byte SUBTRACT = 1;
+    private static final byte MULTIPLY = 2;
+    private static final byte DIVIDE = 3;
+    private static final byte POWER = 4;
+    private static final byte SIN = 5;
+    private static final byte COS = 6;
+    private static final byte NEGATE = 7;
+
+    // Register 0 holds the variable (and register 1 the second one, if there are two).
+    private static final int VARIABLE_REGISTER = 0;
+    private static final int SECOND_VARIABLE_REGISTER = 1;
+
+    private final byte[] opcodes;
+    private final int[] leftOperands;
+    private final int[] rightOperands;
+    private final double[] constants;
+    private final int[] resultRegisters;
+    private final int numVariables;
+    private final int hash;
+
+    private CompiledExpression(Compiler compiler, int[] resultRegisters) {
+        this.numVariables = compiler.variableNames.length;
+        this.opcodes = Arrays.copyOf(compiler.opcodes, compiler.numInstructions);
+        this.leftOperands = Arrays.copyOf(compiler.leftOperands, compiler.numInstructions);
+        this.rightOperands = Arrays.copyOf(compiler.rightOperands, compiler.numInstructions);
+        this.constants = Arrays.copyOf(compiler.registers, compiler.numRegisters);
+        this.resultRegisters = resultRegisters;
+
+        int hash = Arrays.hashCode(this.opcodes);
+        hash = 31 * hash + Arrays.hashCode(this.leftOperands);
+        hash = 31 * hash + Arrays.hashCode(this.rightOperands);
+        hash = 31 * hash + Arrays.hashCode(this.constants);
+        this.hash = 31 * hash + Arrays.hashCode(resultRegisters);
+    }
+
+    /**
+     * Compiles 'expression' as a function of the variable named 'variable', which must not be
+     * defined in 'variables'.
+     *
+     * @throws EvaluationError  if evaluating the expression would throw one
+     */
+    public static CompiledExpression compile(
+            AstNode expression, String variable, IDictionary<String, AstNode> variables) {
+        Compiler compiler = new Compiler(new String[] {variable}, variables);
+        int[] results = {compiler.compileNode(expression)};
+        compiler.finish(results);
+        return new CompiledExpression(compiler, results);
+    }
+
+    /**
+     * Compiles 'expression' as a function of the two variables named 'xVariable' and
+     * 'yVariable', which must be different and not defined in 'variables'. Evaluate it with
+     * 'evaluate(x, y, registers)'.
+     *
+     * @throws EvaluationError  if evaluating the expression would throw one
+     */
+    public static CompiledExpression compile(AstNode expression, String xVariable, String yVariable,
+                                             IDictionary<String, AstNode> variables) {
+        Compiler compiler = new Compiler(new String[] {xVariable, yVariable}, variables);
+        int[] results = {compiler.compileNode(expression)};
+        compiler.finish(results);
+        return new CompiledExpression(compiler, results);
+    }
+
+    /**
+     * Compiles 'expressions' together, as functions of the variable named 'variable', which
+     * must not be defined in 'variables'. Result i of the compiled expression (see
+     * 'getResult') is the value of expression i.
+     *
+     * @throws EvaluationError  if evaluating any of the expressions would throw one
+     */
+    public static CompiledExpression compile(
+            IList<AstNode> expressions, String variable, IDictionary<String, AstNode> variables) {
+        Compiler compiler = new Compiler(new String[] {variable}, variables);
+        int[] results = new int[expressions.size()];
+        int i = 0;
+        for (AstNode expression : expressions) {
+            results[i] = compiler.compileNode(expression);
+            i += 1;
+        }
+        compiler.finish(results);
+        return new CompiledExpression(compiler, results);
+    }
+
+    /**
+     * Returns the number of instructions evaluating the expression takes.
+     */
+    public int getNumInstructions() {
+        return this.opcodes.length;
+    }
+
+    /**
+     * Returns the number of expressions that were compiled together.
+     */
+    public int getNumResults() {
+        return this.resultRegisters.length;
+    }
+
+    /**
+     * Returns the value of expression 'index' computed by the last call to 'evaluate' with
+     * the given registers. (Called with the 'lows' or 'highs' passed to 'evaluateBounds', this
+     * returns its bounds instead.)
+     */
+    public double getResult(int index, double[] registers) {
+        return registers[this.resultRegisters[index]];
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof CompiledExpression)) {
+            return false;
+        }
+        CompiledExpression that = (CompiledExpression) other;
+        return this.hash == that.hash
+                && Arrays.equals(this.resultRegisters, that.resultRegisters)
+                && Arrays.equals(this.opcodes, that.opcodes)
+                && Arrays.equals(this.leftOperands, that.leftOperands)
+                && Arrays.equals(this.rightOperands, that.rightOperands)
+                && Arrays.equals(this.constants, that.constants);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    /**
+     * Returns a new scratch buffer for 'evaluate'. Each thread evaluating the expression needs
+     * its own.
+     */
+    public double[] newRegisters() {
+        return this.constants.clone();
+    }
+
+    /**
+     * Evaluates the expression with the variable set to 'x', using 'registers' (obtained from
+     * 'newRegisters') as scratch space. Returns the value of the first expression; the others
+     * can be read with 'getResult'.
+     */
+    public double evaluate(double x, double[] registers) {
+        registers[VARIABLE_REGISTER] = x;
+        byte[] opcodes = this.opcodes;
+        int[] leftOperands = this.leftOperands;
+        int[] rightOperands = this.rightOperands;
+        int numVariables = this.numVariables;
+        // Instruction i writes to the register right after those of the variables and the
+        // instructions before it. (Unary instructions have the same left and right operand.)
+        for (int i = 0; i < opcodes.length; i++) {
+            registers[i + numVariables] = apply(opcodes[i], registers[leftOperands[i]], registers[rightOperands[i]]);
+        }
+        return registers[this.resultRegisters[0]];
+    }
+
+    /**
+     * Evaluates an expression compiled as a function of two variables, with them set to 'x'
+     * and 'y', using 'registers' (obtained from 'newRegisters') as scratch space.
+     */
+    public double evaluate(double x, double y, double[] registers) {
+        registers[SECOND_VARIABLE_REGISTER] = y;
+        return this.evaluate(x, registers);
+    }
+
+    /**
+     * Returns bounds on the value of the expression for every value of the variable between
+     * 'low' and 'high', using interval arithmetic: each instruction computes the range of
+     * values it could produce given the ranges of its operands. 'lows' and 'highs' (both
+     * obtained from 'newRegisters') are used as scratch space, and the bounds on the first
+     * expression are returned in bounds[0] and bounds[1] (see 'getResult' for the others).
+     *
+     * The bounds are rounded outwards, so they're never too narrow, but they can be quite a
+     * bit wider than the actual range (each appearance of the variable is treated as if it
+     * could vary independently). Where the expression may be undefined or unbounded (such as
+     * '1 / x' around 0), the bounds are infinite.
+     *
+     * Only for expressions in a single variable.
+     */
+    public void evaluateBounds(double low, double high, double[] lows, double[] highs, double[] bounds) {
+        lows[VARIABLE_REGISTER] = low;
+        highs[VARIABLE_REGISTER] = high;
+        for (int i = 0; i < this.opcodes.length; i++) {
+            int left = this.leftOperands[i];
+            int right = this.rightOperands[i];
+            applyBounds(this.opcodes[i], lows[left], highs[left], lows[right], highs[right], bounds);
+            lows[i + this.numVariables] = bounds[0];
+            highs[i + this.numVariables] = bounds[1];
+        }
+        bounds[0] = lows[this.resultRegisters[0]];
+        bounds[1] = highs[this.resultRegisters[0]];
+    }
+
+    /**
+     * Builds the instructions. The first registers hold the variables, the next
+     * numInstructions registers hold the results of the instructions, in order, and the
+     * registers after that hold constants.
+     *
+     * Since we don't know how many instructions there will be until we're done, constants are
+     * first given negative numbers, and renumbered at the end.
+     *
+     * Equal constants share a register, and so do instructions doing the same operation on the
+     * same registers, so identical subexpressions end up in the same register.
+     */
+    private static class Compiler {
+        private final String[] variableNames;
+        private final IDictionary<String, AstNode> variables;
+
+        private byte[] opcodes = new byte[16];
+        private int[] leftOperands = new int[16];
+        private int[] rightOperands = new int[16];
+        private int numInstructions = 0;
+
+        private double[] constantValues = new double[16];
+        private int numConstants = 0;
+
+        // The registers already holding each constant (by its bits), instruction and variable
+        private final Map<Long, Integer> constantRegisters = new HashMap<>();
+        private final Map<Instruction, Integer> instructionRegisters = new HashMap<>();
+        private final Map<String, Integer> variableRegisters = new HashMap<>();
+
+        // Filled in once compiling is done
+        private double[] registers;
+        private int numRegisters;
+
+        public Compiler(String[] variableNames, IDictionary<String, AstNode> variables) {
+            this.variableNames = variableNames;
+            this.variables = variables;
+        }
+
+        /**
+         * Renumbers the constants to come after the instructions' results, including in
+         * 'results' (which were returned by compileNode).
+         */
+        public void finish(int[] results) {
+            int base = this.variableNames.length + this.numInstructions;
+            this.numRegisters = base + this.numConstants;
+            this.registers = new double[this.numRegisters];
+            System.arraycopy(this.constantValues, 0, this.registers, base, this.numConstants);
+            for (int i = 0; i < this.numInstructions; i++) {
+                this.leftOperands[i] = renumber(this.leftOperands[i], base);
+                this.rightOperands[i] = renumber(this.rightOperands[i], base);
+            }
+            for (int i = 0; i < results.length; i++) {
+                results[i] = renumber(results[i], base);
+            }
+        }
+
+        private static int renumber(int register, int base) {
+            return register < 0 ? base + (-register - 1) : register;
+        }
+
+        /**
+         * Returns the register holding the value of 'node': a non-negative number for the
+         * variable and the instructions' results, and a negative one for constants.
+         */
+        private int compileNode(AstNode node) {
+            EvaluationContext.checkpoint();
+            if (node.isNumber()) {
+                return this.constant(node.getNumericValue());
+            } else if (node.isVariable()) {
+                for (int i = 0; i < this.variableNames.length; i++) {
+                    if (node.getName().equals(this.variableNames[i])) {
+                        // The variables are in the first registers, in order.
+                        return VARIABLE_REGISTER + i;
+                    }
+                }
+                if (!this.variables.containsKey(node.getName())) {
+                    throw new EvaluationError("Variable undefined");
+                }
+                Integer register = this.variableRegisters.get(node.getName());
+                if (register == null) {
+                    register = this.compileNode(this.variables.get(node.getName()));
+                    this.variableRegisters.put(node.getName(), register);
+                }
+                return register;
+            }
+
+            String name = node.getName();
+            IList<AstNode> children = node.getChildren();
+            byte opcode;
+            if (name.equals("*")) {
+                opcode = MULTIPLY;
+            } else if (name.equals("/")) {
+                opcode = DIVIDE;
+            } else if (name.equals("+")) {
+                opcode = ADD;
+            } else if (name.equals("-")) {
+                opcode = SUBTRACT;
+            } else if (name.equals("^")) {
+                opcode = POWER;
+            } else if (name.equals("sin")) {
+                opcode = SIN;
+            } else if (name.equals("cos")) {
+                opcode = COS;
+            } else if (name.equals("negate")) {
+                opcode = NEGATE;
+            } else {
+                throw new EvaluationError("Unkown Operation");
+            }
+
+            int left = this.compileNode(children.get(0));
+            int right = left;
+            if (opcode < SIN) {
+                right = this.compileNode(children.get(1));
+            }
+
+            if (left < 0 && right < 0) {
+                // Doesn't depend on the variable: compute it now, the same way evaluate would.
+                double value = apply(opcode, this.constantValues[-left - 1], this.constantValues[-right - 1]);
+                return this.constant(value);
+            }
+            return this.instruction(opcode, left, right);
+        }
+
+        private int constant(double value) {
+            // Compared bit for bit, so that 0.0 and -0.0 stay apart
+            Integer register = this.constantRegisters.get(Double.doubleToLongBits(value));
+            if (register != null) {
+                return register;
+            }
+            if (this.numConstants == this.constantValues.length) {
+                this.constantValues = Arrays.copyOf(this.constantValues, this.numConstants * 2);
+            }
+            this.constantValues[this.numConstants] = value;
+            this.numConstants += 1;
+            this.constantRegisters.put(Double.doubleToLongBits(value), -this.numConstants);
+            return -this.numConstants;
+        }
+
+        private int instruction(byte opcode, int left, int right) {
+            Instruction key = new Instruction(opcode, left, right);
+            Integer existing = this.instructionRegisters.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            if (this.numInstructions == this.opcodes.length) {
+                int newLength = this.numInstructions * 2;
+                this.opcodes = Arrays.copyOf(this.opcodes, newLength);
+                this.leftOperands = Arrays.copyOf(this.leftOperands, newLength);
+                this.rightOperands = Arrays.copyOf(this.rightOperands, newLength);
+            }
+            this.opcodes[this.numInstructions] = opcode;
+            this.leftOperands[this.numInstructions] = left;
+            this.rightOperands[this.numInstructions] = right;
+            this.numInstructions += 1;
+            int register = this.variableNames.length + this.numInstructions - 1;
+            this.instructionRegisters.put(key, register);
+            return register;
+        }
+    }
+
+    private static class Instruction {
+        private final byte opcode;
+        private final int left;
+        private final int right;
+
+        public Instruction(byte opcode, int left, int right) {
+            this.opcode = opcode;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Instruction)) {
+                return false;
+            }
+            Instruction that = (Instruction) other;
+            return this.opcode == that.opcode && this.left == that.left && this.right == that.right;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * this.opcode + this.left) + this.right;
+        }
+    }
+
+    /**
+     * Computes bounds on the result of the given operation, for any left operand between
+     * 'leftLow' and 'leftHigh' and any right operand between 'rightLow' and 'rightHigh', and
+     * stores them in out[0] and out[1].
+     */
+    private static void applyBounds(byte opcode, double leftLow, double leftHigh,
+                                    double rightLow, double rightHigh, double[] out) {
+        double low;
+        double high;
+        switch (opcode) {
+            case ADD:
+                low = leftLow + rightLow;
+                high = leftHigh + rightHigh;
+                break;
+            case SUBTRACT:
+                low = leftLow - rightHigh;
+                high = leftHigh - rightLow;
+                break;
+            case MULTIPLY:
+                low = min4(leftLow * rightLow, leftLow * rightHigh, leftHigh * rightLow, leftHigh * rightHigh);
+                high = max4(leftLow * rightLow, leftLow * rightHigh, leftHigh * rightLow, leftHigh * rightHigh);
+                break;
+            case DIVIDE:
+                if (rightLow <= 0 && rightHigh >= 0) {
+                    // Dividing by something that may be 0
+                    low = Double.NEGATIVE_INFINITY;
+                    high = Double.POSITIVE_INFINITY;
+                } else {
+                    low = min4(leftLow / rightLow, leftLow / rightHigh, leftHigh / rightLow, leftHigh / rightHigh);
+                    high = max4(leftLow / rightLow, leftLow / rightHigh, leftHigh / rightLow, leftHigh / rightHigh);
+                }
+                break;
+            case POWER:
+                powerBounds(leftLow, leftHigh, rightLow, rightHigh, out);
+                low = out[0];
+                high = out[1];
+                break;
+            case SIN:
+                // The maxima of sin are at pi/2 + 2k pi, and the minima at -pi/2 + 2k pi.
+                periodicBounds(Math.sin(leftLow), Math.sin(leftHigh), leftLow, leftHigh, Math.PI / 2, out);
+                low = out[0];
+                high = out[1];
+                break;
+            case COS:
+                // The maxima of cos are at 2k pi, and the minima at pi + 2k pi.
+                periodicBounds(Math.cos(leftLow), Math.cos(leftHigh), leftLow, leftHigh, 0, out);
+                low = out[0];
+                high = out[1];
+                break;
+            default:
+                low = 0.0 - leftHigh;
+                high = 0.0 - leftLow;
+                break;
+        }
+
+        if (Double.isNaN(low) || Double.isNaN(high)) {
+            // Something like infinity - infinity or 0 * infinity: we don't know anything.
+            low = Double.NEGATIVE_INFINITY;
+            high = Double.POSITIVE_INFINITY;
+        }
+        out[0] = Math.nextDown(low);
+        out[1] = Math.nextUp(high);
+    }
+
+    private static void powerBounds(double baseLow, double baseHigh,
+                                    double exponentLow, double exponentHigh, double[] out) {
+        boolean integerExponent = exponentLow == exponentHigh
+                && exponentLow == Math.rint(exponentLow)
+                && !Double.isInfinite(exponentLow);
+        if (baseLow > 0 || (baseLow == 0 && exponentLow > 0)) {
+            // x ^ y is monotonic in both x and y here, so the extremes are at the corners.
+            double a = Math.pow(baseLow, exponentLow);
+            double b = Math.pow(baseLow, exponentHigh);
+            double c = Math.pow(baseHigh, exponentLow);
+            double d = Math.pow(baseHigh, exponentHigh);
+            out[0] = min4(a, b, c, d);
+            out[1] = max4(a, b, c, d);
+        } else if (integerExponent && (exponentLow >= 0 || baseHigh < 0)) {
+            // x ^ n for a fixed integer n, where x can't be 0 if n is negative
+            double a = Math.pow(baseLow, exponentLow);
+            double b = Math.pow(baseHigh, exponentLow);
+            out[0] = Math.min(a, b);
+            out[1] = Math.max(a, b);
+            if (baseLow < 0 && baseHigh > 0 && exponentLow % 2 == 0) {
+                // An even power of something that may be 0
+                out[0] = 0;
+            }
+        } else {
+            // Negative bases with exponents that may not be integers give NaN, and 0 to a
+            // negative power is infinite.
+            out[0] = Double.NEGATIVE_INFINITY;
+            out[1] = Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Computes bounds on sin or cos over [low, high], given the values at the endpoints and
+     * the position of one of its maxima (the minima are pi further).
+     */
+    private static void periodicBounds(double atLow, double atHigh, double low, double high,
+                                       double maximum, double[] out) {
+        if (!(high - low < 2 * Math.PI)) {
+            out[0] = -1;
+            out[1] = 1;
+            return;
+        }
+        out[0] = Math.min(atLow, atHigh);
+        out[1] = Math.max(atLow, atHigh);
+        if (containsPeriodicPoint(low, high, maximum)) {
+            out[1] = 1;
+        }
+        if (containsPeriodicPoint(low, high, maximum + Math.PI)) {
+            out[0] = -1;
+        }
+    }
+
+    /**
+     * Returns whether [low, high] contains 'point' + 2k pi for some integer k. Errs on the side
+     * of true when it's too close to call.
+     */
+    private static boolean containsPeriodicPoint(double low, double high, double point) {
+        double k = Math.ceil((low - point) / (2 * Math.PI) - 1e-9);
+        return point + 2 * Math.PI * k <= high + 1e-9 * Math.max(1, Math.abs(high));
+    }
+
+    private static double min4(double a, double b, double c, double d) {
+        return Math.min(Math.min(a, b), Math.min(c, d));
+    }
+
+    private static double max4(double a, double b, double c, double d) {
+        return Math.max(Math.max(a, b), Math.max(c, d));
+    }
+
+    private static double apply(byte opcode, double left, double right) {
+        switch (opcode) {
+            case ADD:
+                return left + right;
+            case SUBTRACT:
+                return left - right;
+            case MULTIPLY:
+                return left * right;
+            case DIVIDE:
+                return left / right;
+            case POWER:
+                return Math.pow(left, right);
+            case SIN:
+                return Math.sin(left);
+            case COS:
+                return Math.cos(left);
+            default:
+                return 0.0 - left;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package calculator.ast.operators;
 
+import calculator.EvaluationContext;
 import calculator.ast.AstNode;
 import calculator.errors.EvaluationError;
 import calculator.errors.QuitError;
@@ -33,6 +34,7 @@ public class ControlOperators {
 
         // We then evaluate each child, one by one.
         for (AstNode child : node.getChildren()) {
+            EvaluationContext.checkpoint();
             out = interpreter.evaluate(child);
         }
 
@@ -41,6 +43,21 @@ public class ControlOperators {
         return out;
     }
 
+    /**
+     * An alternative handler for the `block(a, b, c, ..., z)` node, which evaluates
+     * independent children concurrently. The result (and any changes to the variables) is
+     * always the same as with 'handleBlock'; see ParallelBlockEvaluator for how that works.
+     *
+     * If the current EvaluationContext doesn't allow parallelism, this is just 'handleBlock'.
+     */
+    public static AstNode handleParallelBlock(AstNode node, IDictionary<String, AstNode> vars, Interpreter interpreter) {
+        if (!EvaluationContext.isParallelismAllowed()) {
+            return handleBlock(node, vars, interpreter);
+        }
+        AstNode.assertOperatorValid("block", node);
+        return new ParallelBlockEvaluator(interpreter, vars).evaluate(node.getChildren());
+    }
+
     public static AstNode handleAssign(AstNode node, IDictionary<String, AstNode> vars, Interpreter interpreter) {
         // Same thing: optional sanity check
         AstNode.assertOperatorValid("assign", 2, node);
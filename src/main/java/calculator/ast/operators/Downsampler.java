@@ -0,0 +1,143 @@
+package calculator.ast.operators;
+
+import calculator.gui.ImageDrawer;
+
+import java.util.Arrays;
+
+/**
+ * Thins out the points of a plot before they are drawn, keeping only those that can make a
+ * difference to the image.
+ *
+ * The x range is split into one bucket per pixel column. In each bucket, only the first and
+ * last points, and the points with the smallest and largest y values, are kept (this is
+ * sometimes called the M4 algorithm). The points that are dropped are all in the same column
+ * as, and between the lowest and highest of, the points that are kept, so the plot looks the
+ * same, but a plot never has more than about 4 points per pixel column, however many points
+ * were sampled.
+ *
+ * Points whose x or y value is NaN are never drawn, so they are dropped too.
+ *
+ * This only works if the points are drawn by ImageDrawer's raster renderer, which fills in each
+ * pixel column from its lowest to its highest point. Plots with RASTER_THRESHOLD points or
+ * fewer are drawn by JFreeChart instead, one shape per point, which would leave gaps wherever
+ * the curve is steep. 'downsampleSeries' takes care of that.
+ */
+final class Downsampler {
+    /**
+     * The number of points kept per pixel column, at most.
+     */
+    static final int POINTS_PER_COLUMN = 4;
+
+    private Downsampler() {
+    }
+
+    /**
+     * Downsamples every series of a plot 'width' pixels wide on its own, and returns them as
+     * {xValues, yValues}, where xValues[s] and yValues[s] are the points left of series s.
+     *
+     * So that what's left is still drawn by the raster renderer, the x range is split into at
+     * least RASTER_THRESHOLD columns (usually more than there are pixels), and if that still
+     * leaves too few points (when most of them are NaN, say), all of them are returned.
+     */
+    public static double[][][] downsampleSeries(double[] xValues, double[][] yValues, int width) {
+        int numColumns = Math.max(width, ImageDrawer.RASTER_THRESHOLD);
+        double[][][] points = new double[2][yValues.length][];
+        long numPoints = 0;
+        for (int s = 0; s < yValues.length; s++) {
+            double[][] downsampled = downsample(xValues, yValues[s], numColumns);
+            points[0][s] = downsampled[0];
+            points[1][s] = downsampled[1];
+            numPoints += downsampled[0].length;
+        }
+        if (numPoints <= ImageDrawer.RASTER_THRESHOLD) {
+            for (int s = 0; s < yValues.length; s++) {
+                points[0][s] = xValues;
+                points[1][s] = yValues[s];
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Returns the points to draw, as {xValues, yValues}, for a plot 'width' pixels wide. If
+     * there are already few enough points, the arrays passed in are returned as they are.
+     * Points are kept in the same order as they were passed in.
+     */
+    public static double[][] downsample(double[] xValues, double[] yValues, int width) {
+        int numColumns = Math.max(1, width);
+        if (xValues.length <= POINTS_PER_COLUMN * numColumns) {
+            return new double[][] {xValues, yValues};
+        }
+
+        double xMin = Double.POSITIVE_INFINITY;
+        double xMax = Double.NEGATIVE_INFINITY;
+        for (double x : xValues) {
+            // Comparisons are false for NaN, so these skip it.
+            if (x < xMin) {
+                xMin = x;
+            }
+            if (x > xMax) {
+                xMax = x;
+            }
+        }
+        double scale = xMax > xMin ? numColumns / (xMax - xMin) : 0;
+
+        // The indexes of the points to keep in each column, or -1 if the column is empty
+        int[] first = new int[numColumns];
+        int[] last = new int[numColumns];
+        int[] lowest = new int[numColumns];
+        int[] highest = new int[numColumns];
+        Arrays.fill(first, -1);
+
+        for (int i = 0; i < xValues.length; i++) {
+            double x = xValues[i];
+            double y = yValues[i];
+            if (Double.isNaN(x) || Double.isNaN(y)) {
+                continue;
+            }
+            // Infinite values of x (if any) end up in the first or last column.
+            int column = (int) Math.max(0, Math.min(numColumns - 1, (x - xMin) * scale));
+            if (first[column] < 0) {
+                first[column] = i;
+                lowest[column] = i;
+                highest[column] = i;
+            } else if (y < yValues[lowest[column]]) {
+                lowest[column] = i;
+            } else if (y > yValues[highest[column]]) {
+                highest[column] = i;
+            }
+            last[column] = i;
+        }
+
+        int[] kept = new int[POINTS_PER_COLUMN * numColumns];
+        int numKept = 0;
+        int[] candidates = new int[POINTS_PER_COLUMN];
+        for (int column = 0; column < numColumns; column++) {
+            if (first[column] < 0) {
+                continue;
+            }
+            candidates[0] = first[column];
+            candidates[1] = lowest[column];
+            candidates[2] = highest[column];
+            candidates[3] = last[column];
+            Arrays.sort(candidates);
+            for (int j = 0; j < POINTS_PER_COLUMN; j++) {
+                if (j == 0 || candidates[j] != candidates[j - 1]) {
+                    kept[numKept] = candidates[j];
+                    numKept += 1;
+                }
+            }
+        }
+
+        // If x isn't increasing, going column by column would reorder the points.
+        Arrays.sort(kept, 0, numKept);
+
+        double[] outX = new double[numKept];
+        double[] outY = new double[numKept];
+        for (int i = 0; i < numKept; i++) {
+            outX[i] = xValues[kept[i]];
+            outY[i] = yValues[kept[i]];
+        }
+        return new double[][] {outX, outY};
+    }
+}
@@ -1,5 +1,6 @@
 package calculator.ast.operators;
 
+import calculator.EvaluationContext;
 import calculator.ast.AstNode;
 import calculator.errors.EvaluationError;
 import datastructures.concrete.DoubleLinkedList;
@@ -46,11 +47,13 @@ public class ExpressionOperators {
         // equivalent class you took) about the 'public-private pair' pattern.
         AstNode.assertOperatorValid("toDouble", 1, node);
         AstNode exprToConvert = node.getChildren().get(0);
-        return new AstNode(toDoubleHelper(exprToConvert, variables));
+        // Very large expressions are split up and evaluated on several cores.
+        return new AstNode(ParallelToDouble.toDouble(exprToConvert, variables));
     }
 
     // This method has default (package-private) access so that it can be used in handlePlot.
     static double toDoubleHelper(AstNode node, IDictionary<String, AstNode> variables) {
+        EvaluationContext.checkpoint();
         // There are three types of nodes, so we have three cases.
         if (node.isNumber()) {
             // if it is a number
@@ -132,6 +135,7 @@ public class ExpressionOperators {
     }
 
     private static AstNode simplifyHelper(AstNode node, IDictionary<String, AstNode> variables) {
+        EvaluationContext.checkpoint();
         if (node.isNumber()) {
             // if node is a number
             return node;
@@ -164,6 +168,7 @@ public class ExpressionOperators {
                     newChildren.add(simplifyHelper(children.get(1), variables));
                 }
                 node = new AstNode(name, newChildren);
+                EvaluationContext.allocated(node);
             }
             return node;
         }
@@ -0,0 +1,137 @@
+package calculator.ast.operators;
+
+import calculator.EvaluationContext;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates a CompiledExpression in two variables at every point of a grid, using all cores
+ * when there are enough points to be worth it. Used by plot2d and contour.
+ *
+ * The grid is split into square tiles of TILE_SIZE by TILE_SIZE points, which are evaluated
+ * as ForkJoin tasks, just like ParallelSampler does with ranges of points: each task has its
+ * own registers and writes to its own part of the output, checks whether the evaluation was
+ * cancelled or timed out after every row of its tile, and reports progress as it goes. (Square
+ * tiles rather than whole rows keep the values a task writes close together in memory.)
+ *
+ * Small grids (and all grids, if the current EvaluationContext doesn't allow parallelism) are
+ * sampled on the calling thread, with a checkpoint per point.
+ */
+final class GridSampler {
+    /**
+     * The number of points along each side of a tile.
+     */
+    static final int TILE_SIZE = 64;
+
+    private GridSampler() {
+    }
+
+    /**
+     * Returns the value of 'expression' at every point of the grid, as values[row][column],
+     * which is the value at x = xValues[column] and y = yValues[row]. 'operation' is the name
+     * progress is reported under.
+     */
+    public static double[][] sample(CompiledExpression expression, double[] xValues, double[] yValues,
+                                    String operation) {
+        int columns = xValues.length;
+        int rows = yValues.length;
+        double[][] values = new double[rows][columns];
+        long numPoints = (long) columns * rows;
+        long cost = numPoints * (expression.getNumInstructions() + 1);
+
+        if (cost < ParallelSampler.THRESHOLD || !EvaluationContext.isParallelismAllowed()) {
+            double[] registers = expression.newRegisters();
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    EvaluationContext.checkpoint();
+                    values[row][column] = expression.evaluate(xValues[column], yValues[row], registers);
+                }
+                EvaluationContext.progress(operation, (long) (row + 1) * columns, numPoints);
+            }
+            return values;
+        }
+
+        Job job = new Job(expression, xValues, yValues, values, operation, EvaluationContext.current());
+        int tilesAcross = (columns + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesDown = (rows + TILE_SIZE - 1) / TILE_SIZE;
+        ForkJoinPool.commonPool().invoke(new TileTask(job, tilesAcross, 0, tilesAcross * tilesDown));
+        return values;
+    }
+
+    /**
+     * Everything the tasks of a single call to 'sample' share.
+     */
+    private static class Job {
+        private final CompiledExpression expression;
+        private final double[] xValues;
+        private final double[] yValues;
+        private final double[][] values;
+        private final String operation;
+        private final EvaluationContext context;
+        private final AtomicLong numDone;
+
+        public Job(CompiledExpression expression, double[] xValues, double[] yValues,
+                   double[][] values, String operation, EvaluationContext context) {
+            this.expression = expression;
+            this.xValues = xValues;
+            this.yValues = yValues;
+            this.values = values;
+            this.operation = operation;
+            this.context = context;
+            this.numDone = new AtomicLong(0);
+        }
+    }
+
+    /**
+     * Samples the job's tiles number 'start' to 'end - 1', numbered row by row, splitting them
+     * up if there's more than one.
+     */
+    private static class TileTask extends RecursiveAction {
+        private final Job job;
+        private final int tilesAcross;
+        private final int start;
+        private final int end;
+
+        public TileTask(Job job, int tilesAcross, int start, int end) {
+            this.job = job;
+            this.tilesAcross = tilesAcross;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start > 1) {
+                int middle = this.start + (this.end - this.start) / 2;
+                invokeAll(
+                        new TileTask(this.job, this.tilesAcross, this.start, middle),
+                        new TileTask(this.job, this.tilesAcross, middle, this.end));
+                return;
+            }
+
+            Job job = this.job;
+            int firstColumn = (this.start % this.tilesAcross) * TILE_SIZE;
+            int firstRow = (this.start / this.tilesAcross) * TILE_SIZE;
+            int endColumn = Math.min(job.xValues.length, firstColumn + TILE_SIZE);
+            int endRow = Math.min(job.yValues.length, firstRow + TILE_SIZE);
+            double[] registers = job.expression.newRegisters();
+            for (int row = firstRow; row < endRow; row++) {
+                if (job.context != null) {
+                    job.context.checkAborted();
+                }
+                double y = job.yValues[row];
+                double[] output = job.values[row];
+                for (int column = firstColumn; column < endColumn; column++) {
+                    output[column] = job.expression.evaluate(job.xValues[column], y, registers);
+                }
+                long done = job.numDone.addAndGet(endColumn - firstColumn);
+                if (job.context != null) {
+                    long total = (long) job.xValues.length * job.yValues.length;
+                    job.context.reportProgress(job.operation, done, total);
+                }
+            }
+        }
+    }
+}
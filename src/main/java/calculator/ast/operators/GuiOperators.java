@@ -7,7 +7,22 @@ import datastructures.concrete.DoubleLinkedList;
 import datastructures.interfaces.IDictionary;
 import datastructures.interfaces.IList;
 
+import java.util.HashSet;
+import java.util.Set;
+
 public class GuiOperators {
+    // Plots that take fewer instructions than this are quick enough to just draw when done.
+    private static final long PROGRESSIVE_THRESHOLD = 1 << 22;
+
+    // The number of points in the first pass of a progressive plot, roughly
+    private static final int COARSE_SAMPLES = 256;
+
+    // The most points along each side of the grid of a 2D plot
+    private static final int MAX_RESOLUTION = 2000;
+
+    // The most contour lines a contour plot can ask for
+    private static final int MAX_LEVELS = 100;
+
     /**
      * This function is responsible for handling the `clear()` operation node.
      *
@@ -17,6 +32,8 @@ public class GuiOperators {
         AstNode.assertOperatorValid("clear", wrapper);
 
         drawer.getGraphics().clearRect(0, 0, drawer.getWidth(), drawer.getHeight());
+        // There's no plot left to zoom or pan.
+        drawer.setPlotSource(null, 0, 0);
 
         return wrapper;
     }
@@ -53,57 +70,531 @@ public class GuiOperators {
      *
      * ---
      *
+     * The step may be left out, as in 'plot(1 / x, x, -1, 1)'. The points are then chosen
+     * adaptively (see AdaptiveSampler): few where the curve is flat or straight, and many
+     * where it bends sharply or jumps, for about the detail the ImageDrawer can show.
+     *
+     * ---
+     *
+     * Several expressions can be plotted together, as different series of the same plot, by
+     * listing them all before the variable:
+     *
+     * >>> plot(sin(x), cos(x), sin(x) * cos(x), x, -5, 5, 0.01)
+     *
+     * The expressions are compiled together (see CompiledExpression) and sampled at the same
+     * points in a single pass, so parts they have in common (like 'sin(x)' and 'cos(x)' above)
+     * are only computed once per point.
+     *
      * @throws EvaluationError  if any of the child expressions other than 'var' contains an undefined variable
      * @throws EvaluationError  if 'var' contains a defined variable or is not a variable
      * @throws EvaluationError  if varMin > varMax
      * @throws EvaluationError  if 'step' is zero or negative
      */
     public static AstNode handlePlot(AstNode node, IDictionary<String, AstNode> variables, ImageDrawer drawer) {
-        AstNode.assertOperatorValid("plot", 5, node);
-        // Children are : (exprToPlot, var, varMin, varMax, step)
+        AstNode.assertOperatorValid("plot", node);
+        if (node.getChildren().size() < 4) {
+            AstNode.assertOperatorValid("plot", 5, node);
+        }
+        // Children are : (exprToPlot, ..., var, varMin, varMax, step), and step may be left out
         IList<AstNode> children = node.getChildren();
-        // exprToPlot is the expression used for the "Y" value
+        int varIndex = findVariable(children, variables);
+        if (varIndex < 0) {
+            // if var is not a variable or if var is already defined in the dictionary
+            throw new EvaluationError("The variable passed is not a variable, or it is already defined");
+        }
+        // exprsToPlot are the expressions used for the "Y" values
         // var is the "X" value
         // min is the starting "X" value
         // max is the ending "X" value
         // step is the value we increment x by to get to the ending value
-        AstNode exprToPlot = children.get(0);
-        AstNode var = children.get(1);
-        double min = ExpressionOperators.toDoubleHelper(children.get(2), variables);
-        double max = ExpressionOperators.toDoubleHelper(children.get(3), variables);
-        AstNode step = children.get(4);
-
-        // Lists of X and Y Values
-        IList<Double> xValues = new DoubleLinkedList<>();
-        IList<Double> yValues = new DoubleLinkedList<>();
-
-        if (!var.isVariable() || variables.containsKey(var.getName())) {
-            // if var is not a variable or if var is already defined in the dictionary
-            throw new EvaluationError("The variable passed is not a variable, or it is already defined");
+        IList<AstNode> exprsToPlot = new DoubleLinkedList<>();
+        for (int i = 0; i < varIndex; i++) {
+            exprsToPlot.add(children.get(i));
         }
+        AstNode var = children.get(varIndex);
+        double min = ExpressionOperators.toDoubleHelper(children.get(varIndex + 1), variables);
+        double max = ExpressionOperators.toDoubleHelper(children.get(varIndex + 2), variables);
+
         if (min > max) {
             // if min is greater than max
             throw new EvaluationError("Minimum is greater than the Maximum");
         }
-        if (ExpressionOperators.toDoubleHelper(step, variables) <= 0) {
-            // if step is negative or is 0
-            throw new EvaluationError("Step is zero or negative");
+        boolean hasStep = children.size() == varIndex + 4;
+        double stepValue = 0;
+        if (hasStep) {
+            AstNode step = children.get(varIndex + 3);
+            stepValue = ExpressionOperators.toDoubleHelper(step, variables);
+            if (stepValue <= 0) {
+                // if step is negative or is 0
+                throw new EvaluationError("Step is zero or negative");
+            }
         }
 
-        // loops from min to max incrementing min by the step given
-        // and adds the X and Y values to their respective lists during each step
-        for (double i = min; i <= max; i += ExpressionOperators.toDoubleHelper(step, variables)) {
-            xValues.add(i);
-            variables.put(var.getName(), new AstNode(i));
-            double yValue = ExpressionOperators.toDoubleHelper(exprToPlot, variables);
-            yValues.add(yValue);
+        // The expressions are compiled once, instead of walking the trees (and putting the
+        // variable in the dictionary) for every point. Each one is also compiled on its own,
+        // which is what the SampleTileCache knows it by.
+        CompiledExpression compiled = CompiledExpression.compile(exprsToPlot, var.getName(), variables);
+        CompiledExpression[] series = new CompiledExpression[varIndex];
+        String[] names = new String[varIndex];
+        for (int i = 0; i < varIndex; i++) {
+            series[i] = varIndex == 1
+                    ? compiled
+                    : CompiledExpression.compile(exprsToPlot.get(i), var.getName(), variables);
+            names[i] = exprsToPlot.get(i).toString();
         }
-        // plots the graph using the X and Y values from the respective lists passed
-        drawer.drawScatterPlot("Plot", "x", "output", xValues, yValues);
-        // Removes the "temporary" variable put in the dictionary to evaluate the expression during the loop
-        variables.remove(var.getName());
+
+        if (!hasStep) {
+            AdaptiveSampler sampler = new AdaptiveSampler(compiled, drawer.getWidth(), drawer.getHeight());
+            sampler.sample(min, max);
+            double[][] yValues = new double[varIndex][];
+            for (int i = 0; i < varIndex; i++) {
+                yValues[i] = sampler.getYValues(i);
+            }
+            drawPlot(drawer, names, sampler.getXValues(), yValues);
+            drawer.setPlotSource(new TiledPlotSource(compiled, series, names, SampleTileCache.SHARED), min, max);
+            return new AstNode(1);
+        }
+
+        // The X values are min, min + step, min + 2 * step, ... up to max. Computing each one
+        // from its index (rather than adding up steps) keeps rounding errors from piling up.
+        // If min is a multiple of the step, they're computed as multiples of the step too, so
+        // plots over overlapping ranges have the same points (and can share cached tiles)
+        // wherever they start. Otherwise they're computed from min.
+        double origin = min;
+        long firstIndex = 0;
+        double index = Math.rint(min / stepValue);
+        if (Math.abs(index) <= 1L << 52 && index * stepValue == min) {
+            origin = 0;
+            firstIndex = (long) index;
+        }
+        int numSamples = countSamples(origin, firstIndex, max, stepValue, varIndex);
+        double[] xValues = new double[numSamples];
+        double[][] yValues = new double[varIndex][numSamples];
+
+        // Large plots are sampled on all cores, and shown as they are refined. Points that
+        // were plotted recently are reused.
+        sampleWithCache(compiled, series, names, origin, stepValue, firstIndex, xValues, yValues, drawer);
+
+        // plots the graph using the X and Y values from the respective arrays passed
+        drawPlot(drawer, names, xValues, yValues);
+        // lets the user zoom and pan around the plot, if the drawer supports it
+        drawer.setPlotSource(new TiledPlotSource(compiled, series, names, SampleTileCache.SHARED), min, max);
         // returns an arbitrary number because it causes less errors. the return does not do anything special
         return new AstNode(1);
     }
+
+    /**
+     * Takes as input a 'plot2d(expr, x, xMin, xMax, y, yMin, yMax)' AstNode, the dictionary of
+     * variables, and an ImageDrawer, and draws a heatmap of "expr" as a function of the two
+     * variables "x" and "y", varying "x" from xMin to xMax and "y" from yMin to yMax. Returns
+     * some arbitrary AstNode.
+     *
+     * >>> plot2d(sin(x) * cos(y), x, -5, 5, y, -5, 5)
+     *
+     * The expression is evaluated on a grid with about a point per pixel of the ImageDrawer,
+     * on all cores (see GridSampler). The number of points along each side of the grid can
+     * also be given, as in 'plot2d(x * y, x, 0, 1, y, 0, 1, 50)'.
+     *
+     * @throws EvaluationError  if any of the child expressions other than 'x' and 'y' contains an undefined variable
+     * @throws EvaluationError  if 'x' or 'y' contains a defined variable or is not a variable, or if they're the same
+     * @throws EvaluationError  if xMin > xMax or yMin > yMax
+     * @throws EvaluationError  if the resolution isn't a whole number from 2 to MAX_RESOLUTION
+     */
+    public static AstNode handlePlot2d(AstNode node, IDictionary<String, AstNode> variables, ImageDrawer drawer) {
+        AstNode.assertOperatorValid("plot2d", node);
+        IList<AstNode> children = node.getChildren();
+        if (children.size() != 8) {
+            AstNode.assertOperatorValid("plot2d", 7, node);
+        }
+        AstNode resolution = children.size() == 8 ? children.get(7) : null;
+        Field field = sampleField(children, resolution, variables, drawer, "plot2d");
+
+        drawer.drawHeatmap("Plot", field.xName, field.yName, field.values,
+                field.xMin, field.xMax, field.yMin, field.yMax);
+        // 2D plots can't be zoomed; this keeps the viewport from zooming the previous plot.
+        drawer.setPlotSource(null, 0, 0);
+        return new AstNode(1);
+    }
+
+    /**
+     * Takes as input a 'contour(expr, x, xMin, xMax, y, yMin, yMax, levels)' AstNode, the
+     * dictionary of variables, and an ImageDrawer, and draws 'levels' contour lines of "expr"
+     * as a function of "x" and "y", over the same area as plot2d would. Returns some arbitrary
+     * AstNode.
+     *
+     * The contour lines are where the expression equals one of 'levels' values, spread evenly
+     * between its smallest and largest values on the area. They're found with marching squares
+     * (see MarchingSquares) on a grid sampled just like plot2d does; a last argument gives the
+     * number of points along each side of that grid, as in plot2d.
+     *
+     * If 'levels' is left out, the curve where the expression is 0 is drawn instead. That draws
+     * the curves given by equations, such as this circle:
+     *
+     * >>> contour(x^2 + y^2 - 1, x, -2, 2, y, -2, 2)
+     *
+     * @throws EvaluationError  if any of the child expressions other than 'x' and 'y' contains an undefined variable
+     * @throws EvaluationError  if 'x' or 'y' contains a defined variable or is not a variable, or if they're the same
+     * @throws EvaluationError  if xMin > xMax or yMin > yMax
+     * @throws EvaluationError  if 'levels' isn't a whole number from 1 to MAX_LEVELS
+     * @throws EvaluationError  if the resolution isn't a whole number from 2 to MAX_RESOLUTION
+     */
+    public static AstNode handleContour(AstNode node, IDictionary<String, AstNode> variables, ImageDrawer drawer) {
+        AstNode.assertOperatorValid("contour", node);
+        IList<AstNode> children = node.getChildren();
+        if (children.size() != 8 && children.size() != 9) {
+            AstNode.assertOperatorValid("contour", 7, node);
+        }
+        int numLevels = 0;
+        if (children.size() >= 8) {
+            numLevels = toWholeNumber(children.get(7), variables, 1, MAX_LEVELS,
+                    "Number of levels must be a whole number from 1 to " + MAX_LEVELS);
+        }
+        AstNode resolution = children.size() == 9 ? children.get(8) : null;
+        Field field = sampleField(children, resolution, variables, drawer, "contour");
+
+        double[] levels = numLevels == 0
+                ? new double[] {0}
+                : MarchingSquares.levels(field.values, numLevels);
+        double[][] segments = MarchingSquares.contours(field.values, field.xValues, field.yValues, levels);
+
+        drawer.drawContours("Plot", field.xName, field.yName, levels, segments,
+                field.xMin, field.xMax, field.yMin, field.yMax);
+        drawer.setPlotSource(null, 0, 0);
+        return new AstNode(1);
+    }
+
+    /**
+     * A function of two variables, sampled on a grid: values[row][column] is its value at
+     * x = xValues[column] and y = yValues[row].
+     */
+    private static class Field {
+        private final String xName;
+        private final String yName;
+        private final double xMin;
+        private final double xMax;
+        private final double yMin;
+        private final double yMax;
+        private final double[] xValues;
+        private final double[] yValues;
+        private final double[][] values;
+
+        public Field(String xName, String yName, double[] xValues, double[] yValues, double[][] values) {
+            this.xName = xName;
+            this.yName = yName;
+            this.xMin = xValues[0];
+            this.xMax = xValues[xValues.length - 1];
+            this.yMin = yValues[0];
+            this.yMax = yValues[yValues.length - 1];
+            this.xValues = xValues;
+            this.yValues = yValues;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Samples the expression of a plot2d or contour node, whose first seven children are
+     * (expr, x, xMin, xMax, y, yMin, yMax), on a grid with 'resolution' points along each side
+     * (or about one per pixel of the drawer if it's null).
+     */
+    private static Field sampleField(IList<AstNode> children, AstNode resolution,
+                                     IDictionary<String, AstNode> variables, ImageDrawer drawer,
+                                     String operation) {
+        AstNode x = children.get(1);
+        AstNode y = children.get(4);
+        if (!x.isVariable() || variables.containsKey(x.getName())
+                || !y.isVariable() || variables.containsKey(y.getName())) {
+            throw new EvaluationError("The variables passed are not variables, or are already defined");
+        }
+        if (x.getName().equals(y.getName())) {
+            throw new EvaluationError("The two variables passed are the same");
+        }
+        double xMin = ExpressionOperators.toDoubleHelper(children.get(2), variables);
+        double xMax = ExpressionOperators.toDoubleHelper(children.get(3), variables);
+        double yMin = ExpressionOperators.toDoubleHelper(children.get(5), variables);
+        double yMax = ExpressionOperators.toDoubleHelper(children.get(6), variables);
+        if (xMin > xMax || yMin > yMax) {
+            throw new EvaluationError("Minimum is greater than the Maximum");
+        }
+
+        int columns;
+        int rows;
+        if (resolution == null) {
+            columns = Math.max(2, Math.min(MAX_RESOLUTION, drawer.getWidth()));
+            rows = Math.max(2, Math.min(MAX_RESOLUTION, drawer.getHeight()));
+        } else {
+            columns = toWholeNumber(resolution, variables, 2, MAX_RESOLUTION,
+                    "Resolution must be a whole number from 2 to " + MAX_RESOLUTION);
+            rows = columns;
+        }
+
+        CompiledExpression compiled = CompiledExpression.compile(
+                children.get(0), x.getName(), y.getName(), variables);
+        double[] xValues = gridValues(xMin, xMax, columns);
+        double[] yValues = gridValues(yMin, yMax, rows);
+        double[][] values = GridSampler.sample(compiled, xValues, yValues, operation);
+        return new Field(x.getName(), y.getName(), xValues, yValues, values);
+    }
+
+    /**
+     * Returns 'count' values spread evenly from 'min' to 'max', both included. Each one is
+     * computed from its index, like the points of a plot with a step.
+     */
+    private static double[] gridValues(double min, double max, int count) {
+        double[] values = new double[count];
+        for (int i = 0; i < count - 1; i++) {
+            values[i] = min + (max - min) * i / (count - 1);
+        }
+        values[count - 1] = max;
+        return values;
+    }
+
+    /**
+     * Returns the value of 'node', which must be a whole number from 'min' to 'max'.
+     *
+     * @throws EvaluationError  with the given message if it isn't
+     */
+    private static int toWholeNumber(AstNode node, IDictionary<String, AstNode> variables,
+                                     int min, int max, String message) {
+        double value = ExpressionOperators.toDoubleHelper(node, variables);
+        if (!(value >= min && value <= max) || value != Math.floor(value)) {
+            throw new EvaluationError(message);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns the index of 'var' among the children of a plot node, or -1 if there's no such
+     * child. 'var' comes right before the last two children (min and max) or, if there's a
+     * step, the last three, and must be a variable that isn't defined. All the children
+     * before it are expressions to plot.
+     *
+     * Usually only one of those two children is an undefined variable. Both can be, though. In
+     * 'plot(1 / x, x, x, -1, 1)', they're the same variable, and only the one without a step
+     * leaves an expression that can be plotted. In 'plot(x, x, a, 10, 0.1)' with 'a' undefined,
+     * no reading works, so the one used by the expressions before it (directly, or through the
+     * values of other variables) is picked: 'x' here, so the error is that 'a' is undefined
+     * rather than that 10 is greater than 0.1.
+     *
+     * @throws EvaluationError  if both children could be 'var', and that doesn't settle it
+     */
+    private static int findVariable(IList<AstNode> children, IDictionary<String, AstNode> variables) {
+        int withoutStep = children.size() - 3;
+        int withStep = children.size() - 4;
+        boolean couldBeWithoutStep = isUndefinedVariable(children, withoutStep, variables);
+        boolean couldBeWithStep = isUndefinedVariable(children, withStep, variables);
+        if (couldBeWithoutStep && couldBeWithStep) {
+            if (children.get(withoutStep).getName().equals(children.get(withStep).getName())) {
+                return withoutStep;
+            }
+            boolean usedWithoutStep = isUsedBefore(children, withoutStep, variables);
+            boolean usedWithStep = isUsedBefore(children, withStep, variables);
+            if (usedWithoutStep == usedWithStep) {
+                throw new EvaluationError(String.format(
+                        "Can't tell whether '%s' or '%s' is the variable to plot against",
+                        children.get(withStep).getName(), children.get(withoutStep).getName()));
+            }
+            return usedWithoutStep ? withoutStep : withStep;
+        } else if (couldBeWithoutStep) {
+            return withoutStep;
+        } else if (couldBeWithStep) {
+            return withStep;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if children[index] (which must come after at least one expression to plot)
+     * is a variable that isn't defined.
+     */
+    private static boolean isUndefinedVariable(IList<AstNode> children, int index,
+                                               IDictionary<String, AstNode> variables) {
+        if (index < 1) {
+            return false;
+        }
+        AstNode child = children.get(index);
+        return child.isVariable() && !variables.containsKey(child.getName());
+    }
+
+    /**
+     * Returns true if any of the children before children[index] uses the variable named by
+     * children[index].
+     */
+    private static boolean isUsedBefore(IList<AstNode> children, int index,
+                                        IDictionary<String, AstNode> variables) {
+        String name = children.get(index).getName();
+        Set<String> visited = new HashSet<>();
+        for (int i = 0; i < index; i++) {
+            if (uses(children.get(i), name, variables, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if 'node' uses the variable 'name', either directly or through the value of
+     * a variable it uses. Variables in 'visited' have been looked at already.
+     */
+    private static boolean uses(AstNode node, String name, IDictionary<String, AstNode> variables,
+                                Set<String> visited) {
+        if (node.isVariable()) {
+            if (node.getName().equals(name)) {
+                return true;
+            }
+            // Values can refer to their own variable, so each one is only looked at once.
+            return variables.containsKey(node.getName()) && visited.add(node.getName())
+                    && uses(variables.get(node.getName()), name, variables, visited);
+        } else if (node.isOperation()) {
+            for (AstNode child : node.getChildren()) {
+                if (uses(child, name, variables, visited)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fills in the points of a plot (at x = origin + (firstIndex + i) * step) that are in the
+     * SampleTileCache, and samples the rest (progressively if none were cached), then caches
+     * those. Points are only taken from the cache if they're there for every series.
+     */
+    private static void sampleWithCache(CompiledExpression compiled, CompiledExpression[] series,
+                                        String[] names, double origin, double step, long firstIndex,
+                                        double[] xValues, double[][] yValues, ImageDrawer drawer) {
+        SampleTileCache cache = SampleTileCache.SHARED;
+        boolean[] filled = cache.fill(series[0], origin, step, firstIndex, xValues, yValues[0]);
+        for (int s = 1; s < series.length; s++) {
+            boolean[] seriesFilled = cache.fill(series[s], origin, step, firstIndex, xValues, yValues[s]);
+            for (int tile = 0; tile < filled.length; tile++) {
+                filled[tile] = filled[tile] && seriesFilled[tile];
+            }
+        }
+        int numFilled = 0;
+        for (boolean tileFilled : filled) {
+            numFilled += tileFilled ? 1 : 0;
+        }
+
+        if (numFilled == 0) {
+            sampleProgressively(compiled, names, origin, step, firstIndex, xValues, yValues, drawer);
+        } else {
+            // Sample each run of tiles that wasn't cached.
+            long numDone = (long) numFilled * SampleTileCache.TILE_SIZE;
+            int tile = 0;
+            while (tile < filled.length) {
+                if (filled[tile]) {
+                    tile += 1;
+                    continue;
+                }
+                int first = SampleTileCache.tileStart(firstIndex, tile);
+                while (tile < filled.length && !filled[tile]) {
+                    tile += 1;
+                }
+                int end = tile < filled.length ? SampleTileCache.tileStart(firstIndex, tile) : xValues.length;
+                ParallelSampler.sample(
+                        compiled, origin, step, firstIndex, xValues, yValues, first, end, 1, numDone);
+                numDone += end - first;
+            }
+        }
+        for (int s = 0; s < series.length; s++) {
+            cache.store(series[s], origin, step, firstIndex, yValues[s], filled);
+        }
+    }
+
+    /**
+     * Samples a plot in passes: first every STRIDE-th point over the whole range, then the
+     * points halfway between those, and so on, halving the stride until every point is done.
+     * Whenever the drawer is ready for a new frame between passes, the points done so far are
+     * drawn, so the shape of an expensive plot shows up right away (and the user can cancel it
+     * if it isn't what they wanted), and then gets sharper.
+     *
+     * Every point ends up computed exactly once, just as if they'd all been sampled in one go.
+     */
+    private static void sampleProgressively(CompiledExpression compiled, String[] names,
+                                            double origin, double step, long firstIndex,
+                                            double[] xValues, double[][] yValues, ImageDrawer drawer) {
+        long cost = (long) xValues.length * (compiled.getNumInstructions() + 1);
+        if (cost < PROGRESSIVE_THRESHOLD || !drawer.isFrameDue()) {
+            ParallelSampler.sample(compiled, origin, step, firstIndex, xValues, yValues, 0, xValues.length, 1, 0);
+            return;
+        }
+
+        // The first pass has about COARSE_SAMPLES points.
+        int stride = Integer.highestOneBit(Math.max(1, xValues.length / COARSE_SAMPLES));
+        ParallelSampler.sample(compiled, origin, step, firstIndex, xValues, yValues, 0, xValues.length, stride, 0);
+        long numDone = (xValues.length - 1) / stride + 1;
+        drawPartialPlot(drawer, names, xValues, yValues, stride);
+
+        for (; stride > 1; stride /= 2) {
+            int half = stride / 2;
+            ParallelSampler.sample(
+                    compiled, origin, step, firstIndex, xValues, yValues, half, xValues.length, stride, numDone);
+            numDone = (xValues.length - 1) / half + 1;
+            if (half > 1 && drawer.isFrameDue()) {
+                drawPartialPlot(drawer, names, xValues, yValues, half);
+            }
+        }
+    }
+
+    private static void drawPartialPlot(ImageDrawer drawer, String[] names,
+                                        double[] xValues, double[][] yValues, int stride) {
+        int count = (xValues.length - 1) / stride + 1;
+        double[] xs = new double[count];
+        double[][] ys = new double[yValues.length][count];
+        for (int j = 0; j < count; j++) {
+            xs[j] = xValues[j * stride];
+            for (int s = 0; s < yValues.length; s++) {
+                ys[s][j] = yValues[s][j * stride];
+            }
+        }
+        double[][][] points = Downsampler.downsampleSeries(xs, ys, drawer.getWidth());
+        drawer.drawPartialScatterPlot("Plot", "x", "output", names, points[0], points[1]);
+    }
+
+    /**
+     * Draws the sampled points, leaving out the ones that wouldn't change what the plot looks
+     * like (see Downsampler): a million points would take far longer to draw than to compute.
+     */
+    private static void drawPlot(ImageDrawer drawer, String[] names, double[] xValues, double[][] yValues) {
+        double[][][] points = Downsampler.downsampleSeries(xValues, yValues, drawer.getWidth());
+        drawer.drawScatterPlot("Plot", "x", "output", names, points[0], points[1]);
+    }
+
+    /**
+     * Returns the number of points in a plot of 'numSeries' expressions at x = origin +
+     * (firstIndex + i) * step, for i from 0, up to 'max' (inclusive).
+     *
+     * @throws EvaluationError  if that many points wouldn't fit in memory
+     */
+    static int countSamples(double origin, long firstIndex, double max, double step, int numSeries) {
+        double min = origin + firstIndex * step;
+        if (!(min <= max)) {
+            // One of them is NaN, so no value is between them
+            return 0;
+        }
+        double estimate = Math.floor((max - min) / step);
+        if (Double.isNaN(estimate)) {
+            // Only if the step is NaN: after the first point, there is no next one
+            return 1;
+        }
+
+        // One array of doubles for x and one per series, which we don't want to take up more
+        // than half the heap
+        long maxSamples = Math.min(
+                Integer.MAX_VALUE - 8, Runtime.getRuntime().maxMemory() / (16 * (numSeries + 1)));
+        if (estimate >= maxSamples) {
+            throw new EvaluationError("Too many points to plot; try a larger step");
+        }
+
+        // The division may be off by one either way because of rounding, so we check.
+        long count = (long) estimate + 1;
+        while (count < maxSamples && origin + (firstIndex + count) * step <= max) {
+            count += 1;
+        }
+        while (count > 1 && origin + (firstIndex + count - 1) * step > max) {
+            count -= 1;
+        }
+        return (int) count;
+    }
 }
 
@@ -0,0 +1,233 @@
+package calculator.ast.operators;
+
+import calculator.EvaluationContext;
+
+import java.util.Arrays;
+
+/**
+ * Finds contour lines (the curves where a function of two variables equals some level) in a
+ * grid of values, such as the one GridSampler returns, using marching squares.
+ *
+ * Every cell of the grid (the square between four neighbouring points) is looked at on its
+ * own. Which of its corners are at or above the level tells which of its edges the contour
+ * crosses, and where along each edge is found by linear interpolation between the corners.
+ * Each cell then adds zero, one or two line segments to the contour. When two opposite corners
+ * are above the level and the other two below (a "saddle"), the average of the corners decides
+ * whether the two above are joined through the middle of the cell or kept apart.
+ *
+ * Cells with a corner that is NaN or infinite are skipped: there's no telling where, or
+ * whether, the contour crosses them.
+ *
+ * The contours at several levels are found in a single pass over the grid: each cell is only
+ * looked at for the levels between its smallest and largest corners, so asking for more levels
+ * costs little more than the segments they add.
+ */
+final class MarchingSquares {
+    // The edges of a cell
+    private static final int BOTTOM = 0;
+    private static final int RIGHT = 1;
+    private static final int TOP = 2;
+    private static final int LEFT = 3;
+
+    // SEGMENTS[c] lists the pairs of edges joined by a segment in a cell whose corners at or
+    // above the level are given by the bits of c: 1 for bottom left, 2 for bottom right, 4 for
+    // top right and 8 for top left. The saddles (5 and 10) are listed with their corners kept
+    // apart; see SADDLE_SEGMENTS.
+    private static final int[][] SEGMENTS = {
+        {},
+        {LEFT, BOTTOM},
+        {BOTTOM, RIGHT},
+        {LEFT, RIGHT},
+        {RIGHT, TOP},
+        {LEFT, BOTTOM, RIGHT, TOP},
+        {BOTTOM, TOP},
+        {LEFT, TOP},
+        {LEFT, TOP},
+        {BOTTOM, TOP},
+        {BOTTOM, RIGHT, LEFT, TOP},
+        {RIGHT, TOP},
+        {LEFT, RIGHT},
+        {BOTTOM, RIGHT},
+        {LEFT, BOTTOM},
+        {},
+    };
+
+    // The segments of the saddles when the corners at or above the level are joined
+    private static final int[][] SADDLE_SEGMENTS = {
+        {BOTTOM, RIGHT, LEFT, TOP},
+        {LEFT, BOTTOM, RIGHT, TOP},
+    };
+
+    private MarchingSquares() {
+    }
+
+    /**
+     * Returns the segments of the contour of 'values' at 'level', as {x0, y0, x1, y1, ...}:
+     * each group of four numbers is a segment from (x0, y0) to (x1, y1). 'values' is indexed
+     * as values[row][column], which is the value at x = xValues[column] and y = yValues[row].
+     */
+    public static double[] contour(double[][] values, double[] xValues, double[] yValues, double level) {
+        return contours(values, xValues, yValues, new double[] {level})[0];
+    }
+
+    /**
+     * Returns the segments of the contours of 'values' at each of 'levels', which must be in
+     * increasing order: the result's element i holds the segments at levels[i], just as
+     * 'contour' would return them.
+     */
+    public static double[][] contours(double[][] values, double[] xValues, double[] yValues, double[] levels) {
+        double[][] segments = new double[levels.length][64];
+        int[] numValues = new int[levels.length];
+        double[] point = new double[2];
+        if (levels.length == 0) {
+            return segments;
+        }
+        double lowest = levels[0];
+        double highest = levels[levels.length - 1];
+
+        for (int row = 0; row + 1 < yValues.length; row++) {
+            EvaluationContext.checkpoint();
+            double[] below = values[row];
+            double[] above = values[row + 1];
+            for (int column = 0; column + 1 < xValues.length; column++) {
+                double bottomLeft = below[column];
+                double bottomRight = below[column + 1];
+                double topRight = above[column + 1];
+                double topLeft = above[column];
+                if (!isFinite(bottomLeft) || !isFinite(bottomRight)
+                        || !isFinite(topRight) || !isFinite(topLeft)) {
+                    continue;
+                }
+                // The contour at a level crosses the cell if some corner is below the level
+                // and some corner is at or above it.
+                double min = Math.min(Math.min(bottomLeft, bottomRight), Math.min(topRight, topLeft));
+                double max = Math.max(Math.max(bottomLeft, bottomRight), Math.max(topRight, topLeft));
+                if (max < lowest || min >= highest) {
+                    continue;
+                }
+
+                for (int level = firstAbove(levels, min); level < levels.length && levels[level] <= max; level++) {
+                    double value = levels[level];
+                    int corners = (bottomLeft >= value ? 1 : 0)
+                            | (bottomRight >= value ? 2 : 0)
+                            | (topRight >= value ? 4 : 0)
+                            | (topLeft >= value ? 8 : 0);
+                    int[] edges = SEGMENTS[corners];
+                    if (corners == 5 || corners == 10) {
+                        double center = (bottomLeft + bottomRight + topRight + topLeft) / 4;
+                        if (center >= value) {
+                            edges = SADDLE_SEGMENTS[corners == 5 ? 0 : 1];
+                        }
+                    }
+
+                    double[] output = segments[level];
+                    int count = numValues[level];
+                    if (count + 2 * edges.length > output.length) {
+                        output = Arrays.copyOf(output, 2 * output.length + 2 * edges.length);
+                        segments[level] = output;
+                    }
+                    for (int edge : edges) {
+                        crossing(edge, value, bottomLeft, bottomRight, topRight, topLeft,
+                                xValues[column], xValues[column + 1], yValues[row], yValues[row + 1], point);
+                        output[count] = point[0];
+                        output[count + 1] = point[1];
+                        count += 2;
+                    }
+                    numValues[level] = count;
+                }
+            }
+        }
+
+        for (int level = 0; level < levels.length; level++) {
+            segments[level] = Arrays.copyOf(segments[level], numValues[level]);
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the index of the first of 'levels' (in increasing order) that is greater than
+     * 'value', or levels.length if there's none.
+     */
+    private static int firstAbove(double[] levels, double value) {
+        int low = 0;
+        int high = levels.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (levels[middle] > value) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns 'count' levels evenly spaced between the smallest and largest finite values in
+     * the grid (leaving those two out), or none if there are no finite values.
+     */
+    public static double[] levels(double[][] values, int count) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double[] row : values) {
+            for (double value : row) {
+                if (isFinite(value)) {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+        }
+        if (!(min <= max)) {
+            return new double[0];
+        }
+        double[] levels = new double[count];
+        for (int i = 0; i < count; i++) {
+            levels[i] = min + (max - min) * (i + 1) / (count + 1);
+        }
+        return levels;
+    }
+
+    /**
+     * Stores in 'point' where the contour crosses the given edge of the cell from (x0, y0) to
+     * (x1, y1), whose corners have the given values.
+     */
+    private static void crossing(int edge, double level,
+                                 double bottomLeft, double bottomRight, double topRight, double topLeft,
+                                 double x0, double x1, double y0, double y1, double[] point) {
+        switch (edge) {
+            case BOTTOM:
+                point[0] = interpolate(x0, x1, bottomLeft, bottomRight, level);
+                point[1] = y0;
+                break;
+            case RIGHT:
+                point[0] = x1;
+                point[1] = interpolate(y0, y1, bottomRight, topRight, level);
+                break;
+            case TOP:
+                point[0] = interpolate(x0, x1, topLeft, topRight, level);
+                point[1] = y1;
+                break;
+            default:
+                point[0] = x0;
+                point[1] = interpolate(y0, y1, bottomLeft, topLeft, level);
+                break;
+        }
+    }
+
+    /**
+     * Returns where between 'a' and 'b' a linear function that is 'valueA' at 'a' and 'valueB'
+     * at 'b' equals 'level'.
+     */
+    private static double interpolate(double a, double b, double valueA, double valueB, double level) {
+        double t = (level - valueA) / (valueB - valueA);
+        if (!(t >= 0 && t <= 1)) {
+            // Only when the values are equal (or nearly so), so anywhere will do
+            t = 0.5;
+        }
+        return a + (b - a) * t;
+    }
+
+    private static boolean isFinite(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+}
@@ -0,0 +1,285 @@
+package calculator.ast.operators;
+
+import calculator.EvaluationContext;
+import calculator.Interpreter;
+import calculator.ast.AstNode;
+import calculator.errors.EvaluationError;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Evaluates the statements of a 'block' concurrently where that can't change the result.
+ *
+ * Statements are split into two kinds:
+ *
+ * - Pure statements are expressions, or assignments to a variable, that don't use any control
+ *   or GUI operators. All they can do is read variables and (for assignments) write one.
+ * - Everything else (plots, nested blocks, quit, ...) is a barrier: it runs on its own, on the
+ *   calling thread, after everything before it and before anything after it.
+ *
+ * Each run of pure statements between two barriers is a segment. Within a segment, we build a
+ * dependency graph from the variables every statement reads and writes: a statement waits for
+ * the latest earlier statement that assigned each variable it reads, directly or through the
+ * value of another variable. Everything else runs in parallel on the common ForkJoinPool.
+ *
+ * Statements never write to the shared variables directly. Each one writes into its own buffer
+ * and reads the values of earlier statements from their buffers, so the shared variables stay
+ * unchanged while a segment runs. Once a segment is done, the buffers are committed in program
+ * order. If a statement fails, everything before it is committed, nothing after it is, and its
+ * error is rethrown, just like when the statements run one by one.
+ *
+ * Statements run on other threads are evaluated under a worker context (see
+ * EvaluationContext.newWorkerContext), so they stop as soon as the evaluation is cancelled or
+ * times out.
+ */
+class ParallelBlockEvaluator {
+    private final Interpreter interpreter;
+    private final IDictionary<String, AstNode> variables;
+
+    public ParallelBlockEvaluator(Interpreter interpreter, IDictionary<String, AstNode> variables) {
+        this.interpreter = interpreter;
+        this.variables = variables;
+    }
+
+    /**
+     * Evaluates the given statements, and returns the output of the last one (or 1 if there
+     * are none).
+     */
+    public AstNode evaluate(IList<AstNode> statements) {
+        AstNode out = new AstNode(1);
+        List<AstNode> segment = new ArrayList<>();
+        for (AstNode statement : statements) {
+            if (this.isPure(statement)) {
+                segment.add(statement);
+            } else {
+                if (!segment.isEmpty()) {
+                    this.evaluateSegment(segment);
+                    segment.clear();
+                }
+                out = this.interpreter.evaluate(statement);
+            }
+        }
+        if (!segment.isEmpty()) {
+            out = this.evaluateSegment(segment);
+        }
+        return out;
+    }
+
+    private boolean isPure(AstNode statement) {
+        if (isAssignment(statement)) {
+            return !this.interpreter.usesControlOrGuiOperators(statement.getChildren().get(1));
+        }
+        return !this.interpreter.usesControlOrGuiOperators(statement);
+    }
+
+    private static boolean isAssignment(AstNode statement) {
+        return statement.isOperation()
+                && statement.getName().equals("assign")
+                && statement.getChildren().size() == 2
+                && statement.getChildren().get(0).isVariable();
+    }
+
+    /**
+     * Evaluates a run of pure statements, commits their assignments, and returns the output
+     * of the last one.
+     */
+    private AstNode evaluateSegment(List<AstNode> segment) {
+        if (segment.size() == 1) {
+            return this.interpreter.evaluate(segment.get(0));
+        }
+
+        Task[] tasks = this.analyze(segment);
+        EvaluationContext context = EvaluationContext.current();
+        for (Task task : tasks) {
+            task.start(tasks, context);
+        }
+
+        AstNode out = null;
+        for (Task task : tasks) {
+            try {
+                out = task.future.join();
+            } catch (CompletionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new EvaluationError(cause.getMessage(), cause);
+            }
+            if (task.target != null) {
+                this.variables.put(task.target, task.view.written);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Works out which earlier statements in the segment each statement depends on.
+     */
+    private Task[] analyze(List<AstNode> segment) {
+        // For every variable assigned so far in this segment: the index of the last statement
+        // that assigned it, and the variables its new value may still refer to (the ones that
+        // were undefined when it was assigned).
+        Map<String, Integer> lastWriter = new HashMap<>();
+        Map<String, Set<String>> unresolved = new HashMap<>();
+
+        Task[] tasks = new Task[segment.size()];
+        for (int i = 0; i < tasks.length; i++) {
+            AstNode statement = segment.get(i);
+            String target = null;
+            AstNode expression = statement;
+            if (isAssignment(statement)) {
+                target = statement.getChildren().get(0).getName();
+                expression = statement.getChildren().get(1);
+            }
+
+            Task task = new Task(statement, target);
+            Set<String> undefined = new HashSet<>();
+            Set<String> visited = new HashSet<>();
+            ArrayDeque<String> pending = new ArrayDeque<>();
+            collectVariables(expression, pending);
+
+            while (!pending.isEmpty()) {
+                String name = pending.pop();
+                if (!visited.add(name)) {
+                    continue;
+                }
+                Integer writer = lastWriter.get(name);
+                if (writer != null) {
+                    task.dependencies.add(writer);
+                    task.view.visibleWriters.put(name, writer);
+                    pending.addAll(unresolved.get(name));
+                } else if (this.variables.containsKey(name)) {
+                    collectVariables(this.variables.get(name), pending);
+                } else {
+                    undefined.add(name);
+                }
+            }
+
+            if (target != null) {
+                lastWriter.put(target, i);
+                unresolved.put(target, undefined);
+            }
+            tasks[i] = task;
+        }
+        return tasks;
+    }
+
+    private static void collectVariables(AstNode node, ArrayDeque<String> out) {
+        if (node.isVariable()) {
+            out.push(node.getName());
+        } else if (node.isOperation()) {
+            for (AstNode child : node.getChildren()) {
+                collectVariables(child, out);
+            }
+        }
+    }
+
+    private class Task {
+        private final AstNode statement;
+        private final String target;
+        private final Set<Integer> dependencies;
+        private final SegmentVariables view;
+        private CompletableFuture<AstNode> future;
+
+        public Task(AstNode statement, String target) {
+            this.statement = statement;
+            this.target = target;
+            this.dependencies = new HashSet<>();
+            this.view = new SegmentVariables(target);
+        }
+
+        public void start(Task[] tasks, EvaluationContext context) {
+            Interpreter local = ParallelBlockEvaluator.this.interpreter.withVariables(this.view);
+            this.view.tasks = tasks;
+            if (this.dependencies.isEmpty()) {
+                this.future = CompletableFuture.supplyAsync(
+                        () -> this.evaluate(local, context), ForkJoinPool.commonPool());
+            } else {
+                CompletableFuture<?>[] waitFor = new CompletableFuture<?>[this.dependencies.size()];
+                int i = 0;
+                for (int dependency : this.dependencies) {
+                    waitFor[i] = tasks[dependency].future;
+                    i += 1;
+                }
+                this.future = CompletableFuture.allOf(waitFor).thenApplyAsync(
+                        ignored -> this.evaluate(local, context), ForkJoinPool.commonPool());
+            }
+        }
+
+        private AstNode evaluate(Interpreter local, EvaluationContext context) {
+            if (context == null) {
+                return local.evaluate(this.statement);
+            }
+            return context.newWorkerContext().call(() -> local.evaluate(this.statement));
+        }
+    }
+
+    /**
+     * The variables as seen by a single statement: the shared variables as they were at the
+     * start of the segment, overlaid with the values assigned by the earlier statements it
+     * depends on. The statement's own assignment is kept here until it's committed.
+     */
+    private class SegmentVariables implements IDictionary<String, AstNode> {
+        private final String target;
+        private final Map<String, Integer> visibleWriters;
+        private Task[] tasks;
+        private AstNode written;
+
+        public SegmentVariables(String target) {
+            this.target = target;
+            this.visibleWriters = new HashMap<>();
+        }
+
+        @Override
+        public AstNode get(String key) {
+            if (this.written != null && key.equals(this.target)) {
+                return this.written;
+            }
+            Integer writer = this.visibleWriters.get(key);
+            if (writer != null) {
+                return this.tasks[writer].view.written;
+            }
+            return ParallelBlockEvaluator.this.variables.get(key);
+        }
+
+        @Override
+        public void put(String key, AstNode value) {
+            if (!key.equals(this.target)) {
+                throw new IllegalStateException("Unexpected assignment to " + key);
+            }
+            this.written = value;
+        }
+
+        @Override
+        public AstNode remove(String key) {
+            // None of the operators a pure statement can use ever remove variables.
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean containsKey(String key) {
+            if (this.written != null && key.equals(this.target)) {
+                return true;
+            }
+            return this.visibleWriters.containsKey(key) || ParallelBlockEvaluator.this.variables.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
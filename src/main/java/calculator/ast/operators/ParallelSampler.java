@@ -0,0 +1,177 @@
+package calculator.ast.operators;
+
+import calculator.EvaluationContext;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates a CompiledExpression at evenly spaced points (min, min + step, min + 2 * step, ...),
+ * using all cores when there are enough of them to be worth it.
+ *
+ * The points are split into chunks that are evaluated as ForkJoin tasks. Each task has its own
+ * registers, and writes its results into its own slice of the output arrays, so the tasks
+ * never share anything they write to. Every point is computed exactly as it would be on a
+ * single thread, so the output doesn't depend on how the work was split up.
+ *
+ * Small ranges (and all ranges, if the current EvaluationContext doesn't allow parallelism)
+ * are sampled on the calling thread, with a checkpoint per point. Workers can't
+ * use checkpoints (see EvaluationContext), so they instead check whether the evaluation was
+ * cancelled or timed out every CHECK_INTERVAL points, and report progress as they go.
+ *
+ * The points can also be sampled a few at a time, in strided passes (see the second 'sample'
+ * method), so that a rough plot can be shown before all of them are done.
+ *
+ * Expressions compiled together (see CompiledExpression) are sampled in the same pass, with
+ * one array of y values per expression.
+ */
+final class ParallelSampler {
+    /**
+     * Ranges that take fewer than this many instructions in total aren't worth splitting up,
+     * and neither are chunks of that size.
+     */
+    static final int THRESHOLD = 1 << 15;
+
+    private static final int CHECK_INTERVAL = 256;
+
+    private ParallelSampler() {
+    }
+
+    /**
+     * Fills 'xValues' with the points to sample, and 'yValues' with the value of the expression
+     * at each of them.
+     */
+    public static void sample(CompiledExpression expression, double min, double step,
+                              double[] xValues, double[] yValues) {
+        sample(expression, min, step, 0, xValues, new double[][] {yValues}, 0, xValues.length, 1, 0);
+    }
+
+    /**
+     * Like the method above, but fills in yValues[r] with the values of result r of the
+     * expression, for every one of its results.
+     */
+    public static void sample(CompiledExpression expression, double min, double step,
+                              double[] xValues, double[][] yValues) {
+        sample(expression, min, step, 0, xValues, yValues, 0, xValues.length, 1, 0);
+    }
+
+    /**
+     * Like the method above, but the point at index i is x = origin + (firstIndex + i) * step,
+     * and only the points at indexes 'first', 'first + stride', 'first + 2 * stride', ... up to
+     * (but not including) 'end' are filled in; the others are left alone. 'numDone' is the
+     * number of points that were already sampled before, which is only used to report progress.
+     */
+    public static void sample(CompiledExpression expression, double origin, double step, long firstIndex,
+                              double[] xValues, double[][] yValues,
+                              int first, int end, int stride, long numDone) {
+        if (first >= end) {
+            return;
+        }
+        int count = (end - 1 - first) / stride + 1;
+        long cost = (long) count * (expression.getNumInstructions() + 1);
+        if (cost < THRESHOLD || !EvaluationContext.isParallelismAllowed()) {
+            double[] registers = expression.newRegisters();
+            for (int j = 0; j < count; j++) {
+                EvaluationContext.checkpoint();
+                int i = first + j * stride;
+                double x = origin + (firstIndex + i) * step;
+                xValues[i] = x;
+                yValues[0][i] = expression.evaluate(x, registers);
+                for (int r = 1; r < yValues.length; r++) {
+                    yValues[r][i] = expression.getResult(r, registers);
+                }
+                EvaluationContext.progress("plot", numDone + j + 1, xValues.length);
+            }
+            return;
+        }
+
+        int chunkSize = Math.max(1, THRESHOLD / (expression.getNumInstructions() + 1));
+        Job job = new Job(
+                expression, origin, step, firstIndex, xValues, yValues, first, stride, numDone,
+                EvaluationContext.current());
+        ForkJoinPool.commonPool().invoke(new SampleTask(job, chunkSize, 0, count));
+    }
+
+    /**
+     * Everything the tasks of a single call to 'sample' share.
+     */
+    private static class Job {
+        private final CompiledExpression expression;
+        private final double origin;
+        private final double step;
+        private final long firstIndex;
+        private final double[] xValues;
+        private final double[][] yValues;
+        private final int first;
+        private final int stride;
+        private final EvaluationContext context;
+        private final AtomicLong numDone;
+
+        public Job(CompiledExpression expression, double origin, double step, long firstIndex,
+                   double[] xValues, double[][] yValues, int first, int stride, long numDone,
+                   EvaluationContext context) {
+            this.expression = expression;
+            this.origin = origin;
+            this.step = step;
+            this.firstIndex = firstIndex;
+            this.xValues = xValues;
+            this.yValues = yValues;
+            this.first = first;
+            this.stride = stride;
+            this.context = context;
+            this.numDone = new AtomicLong(numDone);
+        }
+    }
+
+    /**
+     * Samples the job's points number 'start' to 'end - 1' (not counting the ones the stride
+     * skips over), splitting them up further if there are more than 'chunkSize' of them.
+     */
+    private static class SampleTask extends RecursiveAction {
+        private final Job job;
+        private final int chunkSize;
+        private final int start;
+        private final int end;
+
+        public SampleTask(Job job, int chunkSize, int start, int end) {
+            this.job = job;
+            this.chunkSize = chunkSize;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start > this.chunkSize) {
+                int middle = this.start + (this.end - this.start) / 2;
+                invokeAll(
+                        new SampleTask(this.job, this.chunkSize, this.start, middle),
+                        new SampleTask(this.job, this.chunkSize, middle, this.end));
+                return;
+            }
+
+            Job job = this.job;
+            double[] registers = job.expression.newRegisters();
+            for (int blockStart = this.start; blockStart < this.end; blockStart += CHECK_INTERVAL) {
+                if (job.context != null) {
+                    job.context.checkAborted();
+                }
+                int blockEnd = Math.min(this.end, blockStart + CHECK_INTERVAL);
+                for (int j = blockStart; j < blockEnd; j++) {
+                    int i = job.first + j * job.stride;
+                    double x = job.origin + (job.firstIndex + i) * job.step;
+                    job.xValues[i] = x;
+                    job.yValues[0][i] = job.expression.evaluate(x, registers);
+                    for (int r = 1; r < job.yValues.length; r++) {
+                        job.yValues[r][i] = job.expression.getResult(r, registers);
+                    }
+                }
+                long done = job.numDone.addAndGet(blockEnd - blockStart);
+                if (job.context != null) {
+                    job.context.reportProgress("plot", done, job.xValues.length);
+                }
+            }
+        }
+    }
+}
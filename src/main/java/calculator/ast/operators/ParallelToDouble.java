@@ -0,0 +1,255 @@
+package calculator.ast.operators;
+
+import calculator.EvaluationContext;
+import calculator.ast.AstNode;
+import calculator.errors.EvaluationError;
+import datastructures.interfaces.IDictionary;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the same value as 'ExpressionOperators.toDoubleHelper', but evaluates very large
+ * expressions using all cores.
+ *
+ * Variables are first replaced by their values, so that a large expression stored in a
+ * variable is split up just like one written out. Then subtrees with fewer than THRESHOLD
+ * nodes are always handed to toDoubleHelper. Above that,
+ * chains of the left-associative operators (+, -, *, /), which is what long sums and
+ * products parse into, are flattened into their list of operands. (This also means long
+ * chains no longer need one stack frame per operator.) The operands are then
+ * evaluated as ForkJoin tasks (small ones batched together), and the results are combined
+ * one by one, left to right, exactly like the sequential evaluator would. Nothing is ever
+ * reassociated, so the result is bit-for-bit identical.
+ *
+ * If several operands fail to evaluate, the error thrown is the one from the leftmost operand,
+ * which is also the one the sequential evaluator would have hit first.
+ *
+ * If the current EvaluationContext doesn't allow parallelism, the operands are evaluated one
+ * by one on the calling thread instead, but chains are still flattened. Otherwise, since the
+ * workers can't use checkpoints, they check whether the evaluation was cancelled or timed out
+ * before each operand.
+ */
+final class ParallelToDouble {
+    /**
+     * Subtrees smaller than this many nodes aren't worth splitting up.
+     */
+    static final int THRESHOLD = 1 << 14;
+
+    private ParallelToDouble() {
+    }
+
+    public static double toDouble(AstNode node, IDictionary<String, AstNode> variables) {
+        node = resolve(node, variables);
+        if (node.getSubtreeSize() < THRESHOLD) {
+            return ExpressionOperators.toDoubleHelper(node, variables);
+        }
+        Job job = new Job(variables, EvaluationContext.isParallelismAllowed(), EvaluationContext.current());
+        EvaluateTask task = new EvaluateTask(new AstNode[] {node}, 0, 1, job);
+        if (job.parallel) {
+            ForkJoinPool.commonPool().invoke(task);
+        } else {
+            task.compute();
+        }
+        return task.getResult(0);
+    }
+
+    private static double evaluate(AstNode node, Job job) {
+        node = resolve(node, job.variables);
+        if (node.getSubtreeSize() < THRESHOLD) {
+            return ExpressionOperators.toDoubleHelper(node, job.variables);
+        }
+
+        String name = node.getName();
+        if (isLeftAssociative(name)) {
+            return evaluateChain(node, job);
+        } else if (name.equals("^")) {
+            AstNode[] operands = {node.getChildren().get(0), node.getChildren().get(1)};
+            double[] values = evaluateAll(operands, job);
+            return Math.pow(values[0], values[1]);
+        } else if (name.equals("sin")) {
+            return Math.sin(evaluate(node.getChildren().get(0), job));
+        } else if (name.equals("cos")) {
+            return Math.cos(evaluate(node.getChildren().get(0), job));
+        } else if (name.equals("negate")) {
+            return 0.0 - evaluate(node.getChildren().get(0), job);
+        } else {
+            // Unknown operations fail before looking at their children.
+            return ExpressionOperators.toDoubleHelper(node, job.variables);
+        }
+    }
+
+    /**
+     * Returns what 'node' stands for: the value of the variable it names (and so on, if that's
+     * a variable too), or 'node' itself if it isn't a variable. If some value refers back to
+     * a variable already followed, that variable is returned, for toDoubleHelper to deal with.
+     *
+     * @throws EvaluationError  if a variable followed isn't defined
+     */
+    private static AstNode resolve(AstNode node, IDictionary<String, AstNode> variables) {
+        Set<String> followed = null;
+        while (node.isVariable()) {
+            if (!variables.containsKey(node.getName())) {
+                throw new EvaluationError("Variable undefined");
+            }
+            if (followed == null) {
+                followed = new HashSet<>();
+            }
+            if (!followed.add(node.getName())) {
+                break;
+            }
+            node = variables.get(node.getName());
+        }
+        return node;
+    }
+
+    /**
+     * Evaluates something like '((a + b) - c) * d' as the operands [a, b, c, d] combined with
+     * the operators [+, -, *].
+     */
+    private static double evaluateChain(AstNode node, Job job) {
+        List<AstNode> rightOperands = new ArrayList<>();
+        List<String> operators = new ArrayList<>();
+        AstNode current = node;
+        while (current.isOperation() && isLeftAssociative(current.getName())) {
+            operators.add(current.getName());
+            rightOperands.add(current.getChildren().get(1));
+            current = current.getChildren().get(0);
+        }
+
+        // We walked down from the last operator, so everything is in reverse order.
+        int numOperators = operators.size();
+        AstNode[] operands = new AstNode[numOperators + 1];
+        operands[0] = current;
+        for (int i = 0; i < numOperators; i++) {
+            operands[i + 1] = rightOperands.get(numOperators - 1 - i);
+        }
+
+        double[] values = evaluateAll(operands, job);
+        double result = values[0];
+        for (int i = 0; i < numOperators; i++) {
+            String operator = operators.get(numOperators - 1 - i);
+            double value = values[i + 1];
+            if (operator.equals("+")) {
+                result = result + value;
+            } else if (operator.equals("-")) {
+                result = result - value;
+            } else if (operator.equals("*")) {
+                result = result * value;
+            } else {
+                result = result / value;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isLeftAssociative(String name) {
+        return name.equals("+") || name.equals("-") || name.equals("*") || name.equals("/");
+    }
+
+    /**
+     * Evaluates all of the operands in parallel (if the job allows it), and returns their values
+     * in the same order. Consecutive small operands are grouped into a single task of about
+     * THRESHOLD nodes.
+     */
+    private static double[] evaluateAll(AstNode[] operands, Job job) {
+        List<EvaluateTask> tasks = new ArrayList<>();
+        int start = 0;
+        int batchSize = 0;
+        for (int i = 0; i < operands.length; i++) {
+            batchSize += operands[i].getSubtreeSize();
+            if (batchSize >= THRESHOLD || i == operands.length - 1) {
+                tasks.add(new EvaluateTask(operands, start, i + 1, job));
+                start = i + 1;
+                batchSize = 0;
+            }
+        }
+        if (job.parallel) {
+            RecursiveAction.invokeAll(tasks);
+        } else {
+            for (EvaluateTask task : tasks) {
+                task.compute();
+                if (task.error != null) {
+                    // The values after it are never looked at.
+                    break;
+                }
+            }
+        }
+
+        double[] values = new double[operands.length];
+        for (EvaluateTask task : tasks) {
+            for (int i = task.start; i < task.end; i++) {
+                values[i] = task.getResult(i);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * What every task evaluating (part of) the same expression needs to know.
+     */
+    private static class Job {
+        private final IDictionary<String, AstNode> variables;
+        private final boolean parallel;
+        private final EvaluationContext context;
+
+        public Job(IDictionary<String, AstNode> variables, boolean parallel, EvaluationContext context) {
+            this.variables = variables;
+            this.parallel = parallel;
+            this.context = context;
+        }
+    }
+
+    /**
+     * Evaluates operands[start] to operands[end - 1] in order, stopping at the first error.
+     */
+    private static class EvaluateTask extends RecursiveAction {
+        private final AstNode[] operands;
+        private final int start;
+        private final int end;
+        private final Job job;
+        private final double[] results;
+        private RuntimeException error;
+        private int errorIndex;
+
+        public EvaluateTask(AstNode[] operands, int start, int end, Job job) {
+            this.operands = operands;
+            this.start = start;
+            this.end = end;
+            this.job = job;
+            this.results = new double[end - start];
+            this.errorIndex = end;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = this.start; i < this.end; i++) {
+                try {
+                    if (this.job.parallel && this.job.context != null) {
+                        this.job.context.checkAborted();
+                    }
+                    this.results[i - this.start] = evaluate(this.operands[i], this.job);
+                } catch (RuntimeException ex) {
+                    this.error = ex;
+                    this.errorIndex = i;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Returns the value of operands[index], or throws the error that evaluating it (or an
+         * earlier operand in this task) caused.
+         */
+        public double getResult(int index) {
+            if (index >= this.errorIndex) {
+                throw this.error;
+            }
+            return this.results[index - this.start];
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package calculator.ast.operators;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the values of expressions that were plotted recently, so that plotting the same
+ * expression again over some of the same points (or zooming and panning around a plot, see
+ * TiledPlotSource) only evaluates the points that weren't plotted before.
+ *
+ * Points are grouped into tiles of TILE_SIZE consecutive points of a grid: tile t of the grid
+ * (origin, step) holds the values of the expression at x = origin + i * step, for i from
+ * t * TILE_SIZE to (t + 1) * TILE_SIZE - 1. A plot can start anywhere on the grid, and only
+ * uses the tiles it covers entirely. Tiles are keyed by the expression (compiled
+ * expressions are compared by their instructions and constants, so plotting 'sin(x)' and
+ * 'sin(t)' gives the same tiles, but 'sin(a * x)' doesn't once 'a' changes), the grid and the
+ * tile number.
+ *
+ * Only whole tiles are cached. Once the cache holds more than its capacity, the least
+ * recently used tiles are dropped.
+ *
+ * The cache is shared by every session, and is thread-safe.
+ */
+final class SampleTileCache {
+    /**
+     * The number of points in a tile.
+     */
+    static final int TILE_SIZE = 256;
+
+    /**
+     * The cache used by plot.
+     */
+    static final SampleTileCache SHARED = new SampleTileCache(32 << 20);
+
+    private final long maxTiles;
+    private final Map<Key, double[]> tiles;
+    private long numHits;
+    private long numMisses;
+
+    /**
+     * Creates a cache holding at most about 'capacityBytes' worth of values.
+     */
+    SampleTileCache(long capacityBytes) {
+        long maxTiles = Math.max(1, capacityBytes / (TILE_SIZE * Double.BYTES));
+        this.maxTiles = maxTiles;
+        this.tiles = new LinkedHashMap<Key, double[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, double[]> eldest) {
+                return this.size() > maxTiles;
+            }
+        };
+    }
+
+    /**
+     * Returns the values of 'expression' in the given tile, or null if they aren't cached. The
+     * array returned must not be changed.
+     */
+    public synchronized double[] get(CompiledExpression expression, double origin, double step, long tile) {
+        double[] values = this.tiles.get(new Key(expression, origin, step, tile));
+        if (values == null) {
+            this.numMisses += 1;
+        } else {
+            this.numHits += 1;
+        }
+        return values;
+    }
+
+    /**
+     * Caches the values of 'expression' in the given tile. The cache keeps 'values' itself,
+     * so it must not be changed afterwards.
+     */
+    public synchronized void put(CompiledExpression expression, double origin, double step,
+                                 long tile, double[] values) {
+        if (values.length != TILE_SIZE) {
+            throw new IllegalArgumentException("A tile has " + TILE_SIZE + " values");
+        }
+        this.tiles.put(new Key(expression, origin, step, tile), values);
+    }
+
+    /**
+     * Fills in every whole tile of the plot of 'expression' at x = origin + (firstIndex + i)
+     * * step (for i from 0 to xValues.length - 1) that's in the cache. Returns, for every tile
+     * the plot covers (the first and last of which may not be whole), whether it was filled
+     * in. Tile j of the plot starts at xValues[tileStart(firstIndex, j)].
+     */
+    public boolean[] fill(CompiledExpression expression, double origin, double step, long firstIndex,
+                          double[] xValues, double[] yValues) {
+        long firstTile = Math.floorDiv(firstIndex, TILE_SIZE);
+        boolean[] filled = new boolean[numTiles(firstIndex, xValues.length)];
+        for (int tile = 0; tile < filled.length; tile++) {
+            int start = tileStart(firstIndex, tile);
+            if (!isWhole(firstIndex, tile, xValues.length)) {
+                continue;
+            }
+            double[] values = this.get(expression, origin, step, firstTile + tile);
+            if (values != null) {
+                for (int j = 0; j < TILE_SIZE; j++) {
+                    xValues[start + j] = origin + (firstIndex + start + j) * step;
+                }
+                System.arraycopy(values, 0, yValues, start, TILE_SIZE);
+                filled[tile] = true;
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * Caches every whole tile of the plot of 'expression' at x = origin + (firstIndex + i)
+     * * step that wasn't filled in by 'fill'. Plots bigger than a quarter of the cache aren't
+     * cached at all: they'd push out everything else, and likely themselves too, before being
+     * reused.
+     */
+    public void store(CompiledExpression expression, double origin, double step, long firstIndex,
+                      double[] yValues, boolean[] filled) {
+        if (yValues.length / TILE_SIZE > this.maxTiles / 4) {
+            return;
+        }
+        long firstTile = Math.floorDiv(firstIndex, TILE_SIZE);
+        for (int tile = 0; tile < filled.length; tile++) {
+            if (filled[tile] || !isWhole(firstIndex, tile, yValues.length)) {
+                continue;
+            }
+            double[] values = new double[TILE_SIZE];
+            System.arraycopy(yValues, tileStart(firstIndex, tile), values, 0, TILE_SIZE);
+            this.put(expression, origin, step, firstTile + tile, values);
+        }
+    }
+
+    /**
+     * Returns the number of tiles that 'count' points starting at point number 'firstIndex'
+     * of a grid cover, whole or not.
+     */
+    static int numTiles(long firstIndex, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        long firstTile = Math.floorDiv(firstIndex, TILE_SIZE);
+        long lastTile = Math.floorDiv(firstIndex + count - 1, TILE_SIZE);
+        return (int) (lastTile - firstTile + 1);
+    }
+
+    /**
+     * Returns the index, in the points of a plot starting at point number 'firstIndex' of a
+     * grid, of the first point in the plot's tile number 'tile' (counting from 0).
+     */
+    static int tileStart(long firstIndex, int tile) {
+        return Math.max(0, tile * TILE_SIZE - (int) Math.floorMod(firstIndex, (long) TILE_SIZE));
+    }
+
+    /**
+     * Returns true if all of the plot's tile number 'tile' is among its 'count' points.
+     */
+    private static boolean isWhole(long firstIndex, int tile, int count) {
+        int start = tile * TILE_SIZE - (int) Math.floorMod(firstIndex, (long) TILE_SIZE);
+        return start >= 0 && start + TILE_SIZE <= count;
+    }
+
+    /**
+     * Returns the number of tiles currently cached.
+     */
+    public synchronized int getNumTiles() {
+        return this.tiles.size();
+    }
+
+    /**
+     * Returns the number of lookups that found their tile so far.
+     */
+    public synchronized long getNumHits() {
+        return this.numHits;
+    }
+
+    /**
+     * Returns the number of lookups that didn't find their tile so far.
+     */
+    public synchronized long getNumMisses() {
+        return this.numMisses;
+    }
+
+    public synchronized void clear() {
+        this.tiles.clear();
+    }
+
+    private static class Key {
+        private final CompiledExpression expression;
+        private final double origin;
+        private final double step;
+        private final long tile;
+
+        public Key(CompiledExpression expression, double origin, double step, long tile) {
+            this.expression = expression;
+            this.origin = origin;
+            this.step = step;
+            this.tile = tile;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) other;
+            // Compared bit for bit, like Double.equals does
+            return this.tile == that.tile
+                    && Double.doubleToLongBits(this.origin) == Double.doubleToLongBits(that.origin)
+                    && Double.doubleToLongBits(this.step) == Double.doubleToLongBits(that.step)
+                    && this.expression.equals(that.expression);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.expression.hashCode();
+            hash = 31 * hash + Double.hashCode(this.origin);
+            hash = 31 * hash + Double.hashCode(this.step);
+            return 31 * hash + Long.hashCode(this.tile);
+        }
+    }
+}
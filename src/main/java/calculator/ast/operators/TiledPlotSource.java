@@ -0,0 +1,117 @@
+package calculator.ast.operators;
+
+import calculator.gui.PlotSource;
+
+/**
+ * Samples a compiled expression over whatever range a PlotViewport asks for, using tiles
+ * from a SampleTileCache so that zooming and panning only evaluate newly exposed points.
+ *
+ * A plot from min to max is sampled on the grid x = i * step, where step is the largest power
+ * of two that gives at least SAMPLES_PER_COLUMN points per pixel column. Since the step is a
+ * power of two, every x on the grid is computed exactly, so the same tiles come up whatever
+ * range is being shown: panning reuses all the tiles still on screen, and zooming by a factor
+ * of two or more in either direction reuses some of them.
+ *
+ * A plot of several expressions caches the tiles of each one separately (so they're shared
+ * with plots of the expressions on their own), but evaluates the missing ones for all of the
+ * expressions in one pass, using the expressions compiled together.
+ */
+final class TiledPlotSource implements PlotSource {
+    /**
+     * The minimum number of points sampled per pixel column.
+     */
+    static final int SAMPLES_PER_COLUMN = 2;
+
+    private final CompiledExpression expression;
+    private final CompiledExpression[] series;
+    private final String[] seriesNames;
+    private final SampleTileCache cache;
+
+    /**
+     * Creates a source for a plot of a single expression.
+     */
+    public TiledPlotSource(CompiledExpression expression, String name, SampleTileCache cache) {
+        this(expression, new CompiledExpression[] {expression}, new String[] {name}, cache);
+    }
+
+    /**
+     * Creates a source for a plot of several expressions, where 'expression' is all of them
+     * compiled together and series[i] is expression i compiled on its own.
+     */
+    public TiledPlotSource(CompiledExpression expression, CompiledExpression[] series,
+                           String[] seriesNames, SampleTileCache cache) {
+        this.expression = expression;
+        this.series = series;
+        this.seriesNames = seriesNames;
+        this.cache = cache;
+    }
+
+    @Override
+    public String[] getSeriesNames() {
+        return this.seriesNames.clone();
+    }
+
+    @Override
+    public double[][][] sample(double min, double max, int width) {
+        int numSeries = this.series.length;
+        double step = gridStep(min, max, width);
+        if (!(max > min) || step == 0) {
+            // Nothing sensible to sample
+            return new double[][][] {new double[numSeries][0], new double[numSeries][0]};
+        }
+
+        long firstIndex = (long) Math.floor(min / step);
+        long lastIndex = (long) Math.ceil(max / step);
+        int count = (int) (lastIndex - firstIndex + 1);
+        double[] xValues = new double[count];
+        double[][] yValues = new double[numSeries][count];
+
+        int size = SampleTileCache.TILE_SIZE;
+        for (long tile = Math.floorDiv(firstIndex, size); tile <= Math.floorDiv(lastIndex, size); tile++) {
+            double[][] values = new double[numSeries][];
+            boolean missing = false;
+            for (int s = 0; s < numSeries; s++) {
+                values[s] = this.cache.get(this.series[s], 0, step, tile);
+                missing = missing || values[s] == null;
+            }
+            if (missing) {
+                double[] tileXs = new double[size];
+                values = new double[numSeries][size];
+                ParallelSampler.sample(this.expression, tile * size * step, step, tileXs, values);
+                for (int s = 0; s < numSeries; s++) {
+                    this.cache.put(this.series[s], 0, step, tile, values[s]);
+                }
+            }
+
+            // Copy the part of the tile that's in the range.
+            long tileStart = tile * size;
+            long from = Math.max(firstIndex, tileStart);
+            long to = Math.min(lastIndex, tileStart + size - 1);
+            for (long i = from; i <= to; i++) {
+                xValues[(int) (i - firstIndex)] = i * step;
+                for (int s = 0; s < numSeries; s++) {
+                    yValues[s][(int) (i - firstIndex)] = values[s][(int) (i - tileStart)];
+                }
+            }
+        }
+
+        return Downsampler.downsampleSeries(xValues, yValues, width);
+    }
+
+    /**
+     * Returns the step of the grid to sample a plot from 'min' to 'max' on, or 0 if there is
+     * no usable one.
+     */
+    static double gridStep(double min, double max, int width) {
+        double ideal = (max - min) / (Math.max(1, width) * (double) SAMPLES_PER_COLUMN);
+        if (!(ideal >= Double.MIN_NORMAL) || Double.isInfinite(ideal)) {
+            return 0;
+        }
+        double step = Math.scalb(1.0, Math.getExponent(ideal));
+        // Too many points to index (only if min and max are huge and the range is tiny)
+        if (Math.max(Math.abs(min), Math.abs(max)) / step > 1L << 52) {
+            return 0;
+        }
+        return step;
+    }
+}
@@ -0,0 +1,24 @@
+package calculator.errors;
+
+/**
+ * An error indicating that an evaluation was stopped before it finished, because it ran out
+ * of time, visited too many nodes, or was cancelled (see calculator.EvaluationContext).
+ */
+public class EvaluationAbortedError extends EvaluationError {
+    public enum Reason {
+        TIMEOUT,
+        NODE_BUDGET,
+        CANCELLED,
+    }
+
+    private final Reason reason;
+
+    public EvaluationAbortedError(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return this.reason;
+    }
+}
@@ -0,0 +1,28 @@
+package calculator.errors;
+
+/**
+ * An error indicating that evaluating something would have used more memory than the
+ * session allows (see Calculator.setMemoryLimit). Sizes are estimates, based on the number
+ * of nodes in the trees involved.
+ */
+public class MemoryLimitExceededError extends EvaluationError {
+    private final long requestedBytes;
+    private final long limitBytes;
+
+    public MemoryLimitExceededError(long requestedBytes, long limitBytes) {
+        super(String.format(
+                "Memory limit exceeded: needed about %d KB, but the limit is %d KB",
+                requestedBytes / 1024,
+                limitBytes / 1024));
+        this.requestedBytes = requestedBytes;
+        this.limitBytes = limitBytes;
+    }
+
+    public long getRequestedBytes() {
+        return this.requestedBytes;
+    }
+
+    public long getLimitBytes() {
+        return this.limitBytes;
+    }
+}
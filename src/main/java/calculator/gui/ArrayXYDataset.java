@@ -0,0 +1,269 @@
+package calculator.gui;
+
+import org.jfree.data.DomainInfo;
+import org.jfree.data.DomainOrder;
+import org.jfree.data.Range;
+import org.jfree.data.RangeInfo;
+import org.jfree.data.xy.AbstractXYDataset;
+import org.jfree.data.xy.XYDomainInfo;
+import org.jfree.data.xy.XYRangeInfo;
+
+import java.util.List;
+
+/**
+ * An XYDataset holding one or more series of points, each stored as two arrays of doubles.
+ *
+ * The arrays are used as they are, not copied, so they must not be changed while the dataset
+ * is in use. Unlike an XYSeries, nothing is boxed, sorted or checked for duplicates when the
+ * data is set; the only work done is a single pass over the points, to find their bounds
+ * (which JFreeChart would otherwise scan for every time it lays out the axes) and to check
+ * whether the x values are in increasing order (which lets JFreeChart skip the points outside
+ * of the visible area without looking at them).
+ *
+ * Points with a NaN or infinite coordinate don't count towards the bounds.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class ArrayXYDataset extends AbstractXYDataset
+        implements DomainInfo, RangeInfo, XYDomainInfo, XYRangeInfo {
+    private static final double[] EMPTY = new double[0];
+
+    private final Comparable<?> defaultSeriesKey;
+    private Comparable<?>[] seriesKeys;
+    private double[][] xValues;
+    private double[][] yValues;
+    // The bounds of each series, and of all of them together (null if there are no points)
+    private Range[] seriesDomainBounds;
+    private Range[] seriesRangeBounds;
+    private Range domainBounds;
+    private Range rangeBounds;
+    private boolean ascending;
+
+    /**
+     * Creates an empty dataset. 'seriesKey' is the key of the series set with 'setData'.
+     */
+    public ArrayXYDataset(Comparable<?> seriesKey) {
+        this.defaultSeriesKey = seriesKey;
+        this.setData(EMPTY, EMPTY);
+    }
+
+    /**
+     * Replaces the points in the dataset with a single series, and notifies its listeners.
+     *
+     * @throws IllegalArgumentException  if the arrays aren't the same length
+     */
+    public void setData(double[] xValues, double[] yValues) {
+        this.setData(
+                new Comparable<?>[] {this.defaultSeriesKey},
+                new double[][] {xValues},
+                new double[][] {yValues});
+    }
+
+    /**
+     * Replaces the points in the dataset with one series per key, where series i has the key
+     * seriesKeys[i] and the points (xValues[i][j], yValues[i][j]), and notifies its listeners.
+     *
+     * @throws IllegalArgumentException  if there aren't as many x arrays, y arrays and keys, or
+     *                                   if the x and y arrays of a series aren't the same length
+     */
+    public void setData(Comparable<?>[] seriesKeys, double[][] xValues, double[][] yValues) {
+        if (seriesKeys.length != xValues.length || xValues.length != yValues.length) {
+            throw new IllegalArgumentException("Number of series keys, 'x' arrays and 'y' arrays are not the same.");
+        }
+        for (int series = 0; series < xValues.length; series++) {
+            if (xValues[series].length != yValues[series].length) {
+                throw new IllegalArgumentException("Number of 'x' values and 'y' values are not the same.");
+            }
+        }
+        this.seriesKeys = seriesKeys;
+        this.xValues = xValues;
+        this.yValues = yValues;
+        this.seriesDomainBounds = new Range[xValues.length];
+        this.seriesRangeBounds = new Range[xValues.length];
+
+        boolean ascending = true;
+        for (int series = 0; series < xValues.length; series++) {
+            double[] xs = xValues[series];
+            double[] ys = yValues[series];
+            double xMin = Double.POSITIVE_INFINITY;
+            double xMax = Double.NEGATIVE_INFINITY;
+            double yMin = Double.POSITIVE_INFINITY;
+            double yMax = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < xs.length; i++) {
+                double x = xs[i];
+                double y = ys[i];
+                // Written this way so that NaN values count as out of order
+                ascending = ascending && (i == 0 || x >= xs[i - 1]);
+                if (isFinite(x) && isFinite(y)) {
+                    xMin = Math.min(xMin, x);
+                    xMax = Math.max(xMax, x);
+                    yMin = Math.min(yMin, y);
+                    yMax = Math.max(yMax, y);
+                }
+            }
+            this.seriesDomainBounds[series] = xMin <= xMax ? new Range(xMin, xMax) : null;
+            this.seriesRangeBounds[series] = yMin <= yMax ? new Range(yMin, yMax) : null;
+        }
+        this.domainBounds = this.combine(this.seriesDomainBounds, null);
+        this.rangeBounds = this.combine(this.seriesRangeBounds, null);
+        this.ascending = ascending;
+
+        this.fireDatasetChanged();
+    }
+
+    @Override
+    public DomainOrder getDomainOrder() {
+        return this.ascending ? DomainOrder.ASCENDING : DomainOrder.NONE;
+    }
+
+    @Override
+    public int getSeriesCount() {
+        return this.seriesKeys.length;
+    }
+
+    @Override
+    public Comparable getSeriesKey(int series) {
+        this.checkSeries(series);
+        return this.seriesKeys[series];
+    }
+
+    @Override
+    public int getItemCount(int series) {
+        this.checkSeries(series);
+        return this.xValues[series].length;
+    }
+
+    @Override
+    public Number getX(int series, int item) {
+        return this.getXValue(series, item);
+    }
+
+    @Override
+    public double getXValue(int series, int item) {
+        this.checkSeries(series);
+        return this.xValues[series][item];
+    }
+
+    @Override
+    public Number getY(int series, int item) {
+        return this.getYValue(series, item);
+    }
+
+    @Override
+    public double getYValue(int series, int item) {
+        this.checkSeries(series);
+        return this.yValues[series][item];
+    }
+
+    @Override
+    public double getDomainLowerBound(boolean includeInterval) {
+        return this.domainBounds == null ? Double.NaN : this.domainBounds.getLowerBound();
+    }
+
+    @Override
+    public double getDomainUpperBound(boolean includeInterval) {
+        return this.domainBounds == null ? Double.NaN : this.domainBounds.getUpperBound();
+    }
+
+    /**
+     * Returns the smallest range containing every x value, or null if there are no points.
+     */
+    @Override
+    public Range getDomainBounds(boolean includeInterval) {
+        return this.domainBounds;
+    }
+
+    @Override
+    public Range getDomainBounds(List visibleSeriesKeys, boolean includeInterval) {
+        return this.combine(this.seriesDomainBounds, visibleSeriesKeys);
+    }
+
+    @Override
+    public double getRangeLowerBound(boolean includeInterval) {
+        return this.rangeBounds == null ? Double.NaN : this.rangeBounds.getLowerBound();
+    }
+
+    @Override
+    public double getRangeUpperBound(boolean includeInterval) {
+        return this.rangeBounds == null ? Double.NaN : this.rangeBounds.getUpperBound();
+    }
+
+    /**
+     * Returns the smallest range containing every y value, or null if there are no points.
+     */
+    @Override
+    public Range getRangeBounds(boolean includeInterval) {
+        return this.rangeBounds;
+    }
+
+    /**
+     * Returns the smallest range containing every y value of the visible series whose x value
+     * is in 'xRange', or null if there are no such points. This only needs to look at the
+     * points of a series if 'xRange' doesn't cover all of them, which is never the case when
+     * the x axis is scaled to fit.
+     */
+    @Override
+    public Range getRangeBounds(List visibleSeriesKeys, Range xRange, boolean includeInterval) {
+        Range[] visible = new Range[this.seriesKeys.length];
+        for (int series = 0; series < this.seriesKeys.length; series++) {
+            Range domain = this.seriesDomainBounds[series];
+            if (!visibleSeriesKeys.contains(this.seriesKeys[series]) || domain == null) {
+                continue;
+            }
+            if (xRange.getLowerBound() <= domain.getLowerBound()
+                    && domain.getUpperBound() <= xRange.getUpperBound()) {
+                visible[series] = this.seriesRangeBounds[series];
+                continue;
+            }
+
+            double[] xs = this.xValues[series];
+            double[] ys = this.yValues[series];
+            double yMin = Double.POSITIVE_INFINITY;
+            double yMax = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < xs.length; i++) {
+                double x = xs[i];
+                double y = ys[i];
+                if (xRange.getLowerBound() <= x && x <= xRange.getUpperBound() && isFinite(y)) {
+                    yMin = Math.min(yMin, y);
+                    yMax = Math.max(yMax, y);
+                }
+            }
+            visible[series] = yMin <= yMax ? new Range(yMin, yMax) : null;
+        }
+        return this.combine(visible, null);
+    }
+
+    /**
+     * Returns the smallest range containing all of 'ranges' (skipping nulls) whose series'
+     * key is in 'seriesKeys', or all of them if 'seriesKeys' is null. Returns null if there
+     * are none.
+     */
+    private Range combine(Range[] ranges, List<?> seriesKeys) {
+        Range result = null;
+        for (int series = 0; series < ranges.length; series++) {
+            if (seriesKeys != null && !seriesKeys.contains(this.seriesKeys[series])) {
+                continue;
+            }
+            Range range = ranges[series];
+            if (range == null) {
+                continue;
+            }
+            result = result == null
+                    ? range
+                    : new Range(
+                            Math.min(result.getLowerBound(), range.getLowerBound()),
+                            Math.max(result.getUpperBound(), range.getUpperBound()));
+        }
+        return result;
+    }
+
+    private void checkSeries(int series) {
+        if (series < 0 || series >= this.seriesKeys.length) {
+            throw new IllegalArgumentException("No series " + series);
+        }
+    }
+
+    private static boolean isFinite(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+}
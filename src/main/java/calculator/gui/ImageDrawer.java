@@ -3,8 +3,7 @@ package calculator.gui;
 import datastructures.interfaces.IList;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
+import org.jfree.chart.plot.XYPlot;
 
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
@@ -20,10 +19,29 @@ import java.util.Iterator;
 public class ImageDrawer implements ImageObserver {
     private static final int UNKNOWN_DIMENSION = -1;
 
+    /**
+     * Plots with more points than this are drawn by a RasterPlotRenderer instead of JFreeChart,
+     * which gets slow when it has to draw every single point.
+     */
+    public static final int RASTER_THRESHOLD = 2_000;
+
+    /**
+     * Partial plots are redrawn at most this often, in milliseconds.
+     */
+    public static final long FRAME_INTERVAL_MILLIS = 100;
+
     private Graphics graphics;
     private int width = UNKNOWN_DIMENSION;
     private int height = UNKNOWN_DIMENSION;
 
+    // The chart is created by the first plot, and reused by the ones after it.
+    private JFreeChart chart;
+    private ArrayXYDataset dataset;
+    private RasterPlotRenderer rasterRenderer;
+    private long lastFrameNanos;
+    private boolean anyFrames = false;
+    private PlotViewport viewport;
+
     /**
      * Creates a new ImageDrawer object based on the given panel.
      */
@@ -132,35 +150,256 @@ public class ImageDrawer implements ImageObserver {
             throw new IllegalArgumentException("Number of 'x' values and 'y' values are not the same.");
         }
 
+        double[] xArray = new double[xValues.size()];
+        double[] yArray = new double[yValues.size()];
         Iterator<Double> xIter = xValues.iterator();
         Iterator<Double> yIter = yValues.iterator();
+        for (int i = 0; i < xArray.length; i++) {
+            xArray[i] = xIter.next();
+            yArray[i] = yIter.next();
+        }
+        this.drawScatterPlot(title, xAxisLabel, yAxisLabel, xArray, yArray, drawRegion);
+    }
+
+    /**
+     * Draws a scatter plot that occupies the entire window, just like the method taking lists
+     * above, but takes the coordinates as arrays.
+     */
+    public void drawScatterPlot(String title, String xAxisLabel, String yAxisLabel,
+                                double[] xValues, double[] yValues) {
+        if (this.width == UNKNOWN_DIMENSION || this.height == UNKNOWN_DIMENSION) {
+            throw new IllegalStateException("Unexpected fatal error: Image width or height unknown");
+        }
+        this.drawScatterPlot(
+                title, xAxisLabel, yAxisLabel, xValues, yValues,
+                new Rectangle2D.Double(0, 0, this.width, this.height));
+    }
+
+    /**
+     * Draws a scatter plot that occupies the given portion of the window, just like the method
+     * taking lists above, but takes the coordinates as arrays.
+     *
+     * All the other drawScatterPlot methods end up here (except for plots with several
+     * series, see below), so subclasses that want to change how plots are drawn only need to
+     * override this one.
+     */
+    public void drawScatterPlot(String title, String xAxisLabel, String yAxisLabel,
+                                double[] xValues, double[] yValues,
+                                Rectangle2D drawRegion) {
+        this.drawSeries(
+                title, xAxisLabel, yAxisLabel,
+                new String[] {"Series 1"}, new double[][] {xValues}, new double[][] {yValues},
+                drawRegion);
+    }
 
-        // We pair the elements together and add them to a series.
-        // We pick an arbitrary name for this series -- the user will never
-        // see it because we hide the legend anyways.
-        XYSeries series = new XYSeries("Series 1");
-        while (xIter.hasNext()) {
-            series.add(xIter.next(), yIter.next());
-        }
-
-        // We add our series to the series collection. A SeriesCollection
-        // may contain multiple series in case we want to plot multiple
-        // datasets on the same chart. We don't do this, however.
-        XYSeriesCollection seriesCollection = new XYSeriesCollection();
-        seriesCollection.addSeries(series);
-
-        // Finally, we create our chart. We hide the legend mostly because
-        // it's sort of pointless if we only ever plot one series at a time.
-        JFreeChart chart = ChartFactory.createScatterPlot(
-                title,
-                xAxisLabel,
-                yAxisLabel,
-                seriesCollection);
-        chart.removeLegend();
+    /**
+     * Draws a scatter plot of several series of points that occupies the entire window, each
+     * series in its own color, with a legend giving their names.
+     *
+     * Series i is named seriesNames[i], and has the points (xValues[i][j], yValues[i][j]):
+     * just like with the methods above, xValues[i] and yValues[i] are "paired up"
+     * element-by-element. Different series may have different numbers of points.
+     */
+    public void drawScatterPlot(String title, String xAxisLabel, String yAxisLabel,
+                                String[] seriesNames, double[][] xValues, double[][] yValues) {
+        if (this.width == UNKNOWN_DIMENSION || this.height == UNKNOWN_DIMENSION) {
+            throw new IllegalStateException("Unexpected fatal error: Image width or height unknown");
+        }
+        this.drawScatterPlot(
+                title, xAxisLabel, yAxisLabel, seriesNames, xValues, yValues,
+                new Rectangle2D.Double(0, 0, this.width, this.height));
+    }
+
+    /**
+     * Draws a scatter plot of several series of points that occupies the given portion of the
+     * window, just like the method above.
+     *
+     * A plot with a single series is drawn by the single-series drawScatterPlot above, so that
+     * subclasses overriding that one see it; subclasses that want to change how plots with
+     * several series are drawn should override this method too.
+     */
+    public void drawScatterPlot(String title, String xAxisLabel, String yAxisLabel,
+                                String[] seriesNames, double[][] xValues, double[][] yValues,
+                                Rectangle2D drawRegion) {
+        if (seriesNames.length == 1 && xValues.length == 1 && yValues.length == 1) {
+            this.drawScatterPlot(title, xAxisLabel, yAxisLabel, xValues[0], yValues[0], drawRegion);
+        } else {
+            this.drawSeries(title, xAxisLabel, yAxisLabel, seriesNames, xValues, yValues, drawRegion);
+        }
+    }
+
+    private void drawSeries(String title, String xAxisLabel, String yAxisLabel,
+                            String[] seriesNames, double[][] xValues, double[][] yValues,
+                            Rectangle2D drawRegion) {
+        if (seriesNames.length != xValues.length || xValues.length != yValues.length) {
+            throw new IllegalArgumentException("Number of series names, 'x' arrays and 'y' arrays are not the same.");
+        }
+        long numPoints = 0;
+        for (int series = 0; series < xValues.length; series++) {
+            if (xValues[series].length != yValues[series].length) {
+                throw new IllegalArgumentException("Number of 'x' values and 'y' values are not the same.");
+            }
+            numPoints += xValues[series].length;
+        }
+
+        if (numPoints > RASTER_THRESHOLD) {
+            this.getRasterRenderer().render(
+                    this.getGraphics(), title, xAxisLabel, yAxisLabel,
+                    seriesNames, xValues, yValues, drawRegion);
+            return;
+        }
+
+        if (this.chart == null) {
+            // The series names passed in are used as the keys of the series.
+            this.dataset = new ArrayXYDataset("Series 1");
+
+            this.chart = ChartFactory.createScatterPlot(
+                    title,
+                    xAxisLabel,
+                    yAxisLabel,
+                    this.dataset);
+            // Nobody listens for changes to the chart: it's only drawn when we ask.
+            this.chart.setNotify(false);
+        }
+
+        // The points are wrapped, not copied. Setting them makes the axes pick
+        // new ranges, from the bounds the dataset already worked out.
+        this.chart.setTitle(title);
+        XYPlot plot = this.chart.getXYPlot();
+        plot.getDomainAxis().setLabel(xAxisLabel);
+        plot.getRangeAxis().setLabel(yAxisLabel);
+        this.dataset.setData(seriesNames, xValues, yValues);
+        // We hide the legend when there's only one series, since it's sort of pointless then.
+        this.chart.getLegend().setVisible(seriesNames.length > 1);
 
         // We then draw this chart using the underlying Graphics object.
         Graphics2D g2 = (Graphics2D) this.getGraphics();
-        chart.draw(g2, drawRegion);
+        this.chart.draw(g2, drawRegion);
+    }
+
+    /**
+     * Draws a heatmap of a function of two variables that occupies the entire window.
+     *
+     * The function was evaluated on a grid of points spread evenly from xMin to xMax and from
+     * yMin to yMax: values[row][column] is its value at the point in the given row (counting up
+     * from yMin) and column (counting right from xMin). Each value is shown as a color, from
+     * dark blue for the smallest to yellow for the largest. NaN and infinite values are left
+     * blank.
+     */
+    public void drawHeatmap(String title, String xAxisLabel, String yAxisLabel, double[][] values,
+                            double xMin, double xMax, double yMin, double yMax) {
+        if (this.width == UNKNOWN_DIMENSION || this.height == UNKNOWN_DIMENSION) {
+            throw new IllegalStateException("Unexpected fatal error: Image width or height unknown");
+        }
+        this.drawHeatmap(title, xAxisLabel, yAxisLabel, values, xMin, xMax, yMin, yMax,
+                new Rectangle2D.Double(0, 0, this.width, this.height));
+    }
+
+    /**
+     * Draws a heatmap that occupies the given portion of the window, just like the method
+     * above.
+     */
+    public void drawHeatmap(String title, String xAxisLabel, String yAxisLabel, double[][] values,
+                            double xMin, double xMax, double yMin, double yMax,
+                            Rectangle2D drawRegion) {
+        this.getRasterRenderer().renderHeatmap(
+                this.getGraphics(), title, xAxisLabel, yAxisLabel,
+                values, xMin, xMax, yMin, yMax, drawRegion);
+    }
+
+    /**
+     * Draws the contour lines of a function of two variables over the area from xMin to xMax
+     * and yMin to yMax, occupying the entire window.
+     *
+     * The lines where the function equals levels[i] are made up of the line segments in
+     * segments[i], which holds four numbers per segment: {x0, y0, x1, y1, ...} is a segment
+     * from (x0, y0) to (x1, y1), and so on.
+     */
+    public void drawContours(String title, String xAxisLabel, String yAxisLabel,
+                             double[] levels, double[][] segments,
+                             double xMin, double xMax, double yMin, double yMax) {
+        if (this.width == UNKNOWN_DIMENSION || this.height == UNKNOWN_DIMENSION) {
+            throw new IllegalStateException("Unexpected fatal error: Image width or height unknown");
+        }
+        this.drawContours(title, xAxisLabel, yAxisLabel, levels, segments, xMin, xMax, yMin, yMax,
+                new Rectangle2D.Double(0, 0, this.width, this.height));
+    }
+
+    /**
+     * Draws contour lines that occupy the given portion of the window, just like the method
+     * above.
+     */
+    public void drawContours(String title, String xAxisLabel, String yAxisLabel,
+                             double[] levels, double[][] segments,
+                             double xMin, double xMax, double yMin, double yMax,
+                             Rectangle2D drawRegion) {
+        this.getRasterRenderer().renderContours(
+                this.getGraphics(), title, xAxisLabel, yAxisLabel,
+                levels, segments, xMin, xMax, yMin, yMax, drawRegion);
+    }
+
+    private RasterPlotRenderer getRasterRenderer() {
+        if (this.rasterRenderer == null) {
+            this.rasterRenderer = new RasterPlotRenderer(RasterPlotRenderer.Style.SCATTER);
+        }
+        return this.rasterRenderer;
+    }
+
+    /**
+     * Returns true if it's time to show a new partial plot (see drawPartialScatterPlot): that
+     * is, if none has been drawn yet, or the last one was drawn at least FRAME_INTERVAL_MILLIS
+     * ago.
+     *
+     * Subclasses that nobody watches as they draw can return false, to skip partial plots.
+     */
+    public boolean isFrameDue() {
+        return !this.anyFrames
+                || System.nanoTime() - this.lastFrameNanos >= FRAME_INTERVAL_MILLIS * 1_000_000;
+    }
+
+    /**
+     * Draws a rough version of a plot that is still being computed, over the entire window.
+     * The finished plot is drawn with drawScatterPlot, as usual.
+     */
+    public void drawPartialScatterPlot(String title, String xAxisLabel, String yAxisLabel,
+                                       double[] xValues, double[] yValues) {
+        this.drawScatterPlot(title, xAxisLabel, yAxisLabel, xValues, yValues);
+        this.anyFrames = true;
+        this.lastFrameNanos = System.nanoTime();
+    }
+
+    /**
+     * Draws a rough version of a plot of several series that is still being computed, over
+     * the entire window (see drawPartialScatterPlot above). A plot with a single series is
+     * drawn by the method above.
+     */
+    public void drawPartialScatterPlot(String title, String xAxisLabel, String yAxisLabel,
+                                       String[] seriesNames, double[][] xValues, double[][] yValues) {
+        if (seriesNames.length == 1 && xValues.length == 1 && yValues.length == 1) {
+            this.drawPartialScatterPlot(title, xAxisLabel, yAxisLabel, xValues[0], yValues[0]);
+            return;
+        }
+        this.drawScatterPlot(title, xAxisLabel, yAxisLabel, seriesNames, xValues, yValues);
+        this.anyFrames = true;
+        this.lastFrameNanos = System.nanoTime();
+    }
+
+    /**
+     * Sets the viewport that zooms and pans the plots drawn by this drawer.
+     */
+    public void setViewport(PlotViewport viewport) {
+        this.viewport = viewport;
+    }
+
+    /**
+     * Tells the drawer that the plot it just drew shows 'source' from 'min' to 'max', so that
+     * its viewport (if it has one) can let the user zoom and pan around it. 'source' is null
+     * for plots that can't be zoomed or panned.
+     */
+    public void setPlotSource(PlotSource source, double min, double max) {
+        if (this.viewport != null) {
+            this.viewport.show(source, min, max);
+        }
     }
 
     @Override
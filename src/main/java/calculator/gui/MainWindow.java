@@ -3,21 +3,34 @@ package calculator.gui;
 import calculator.errors.EvaluationError;
 import calculator.errors.QuitError;
 import calculator.Calculator;
+import calculator.ProgressListener;
 import calculator.errors.IncompleteInputError;
+import calculator.parser.ParseSession;
 
 import javax.swing.*;
-import javax.swing.text.AbstractDocument;
-import javax.swing.text.AttributeSet;
-import javax.swing.text.BadLocationException;
-import javax.swing.text.DocumentFilter;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
-import java.awt.event.KeyListener;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Defines the UI for the calculator application.
  *
+ * Inputs are evaluated one at a time on a background thread, so the window stays responsive
+ * while something slow (like a large plot) runs. Meanwhile, the status bar shows how far
+ * along it is, and the Cancel button (or the Escape key) stops it. Everything that touches
+ * the UI is done on the event dispatch thread, through SwingUtilities.invokeLater.
+ *
+ * The line being typed is a separate text field; the history above it is a TranscriptView,
+ * which only keeps the most recent entries and only paints what's visible, so the window
+ * stays just as responsive however long the session gets.
+ *
+ * The last plot can be zoomed (with the mouse wheel) and panned (by dragging); see
+ * PlotViewport.
+ *
  * You should not need to read this file in order to complete the assignment.
  */
 public class MainWindow extends JFrame {
@@ -26,6 +39,12 @@ public class MainWindow extends JFrame {
     public static final int DEFAULT_TEXT_ROWS = 10;
     public static final int DEFAULT_FONT_SIZE = 16;
 
+    private static final String PROMPT = ">>> ";
+    private static final String CONTINUATION_PROMPT = "... ";
+
+    // The minimum time between two progress updates in the status bar, in nanoseconds
+    private static final long PROGRESS_INTERVAL = 50_000_000;
+
     public static void launch() {
         EventQueue.invokeLater(() -> {
             MainWindow window = new MainWindow(
@@ -42,6 +61,9 @@ public class MainWindow extends JFrame {
     private int drawingHeight;
     private int textRows;
     private Calculator calculator;
+    private ExecutorService evaluator;
+    private JLabel statusLabel;
+    private Action cancelAction;
 
     public MainWindow(String title, int width, int drawingHeight, int textRows) {
         this.title = title;
@@ -49,6 +71,12 @@ public class MainWindow extends JFrame {
         this.drawingHeight = drawingHeight;
         this.textRows = textRows;
         this.calculator = new Calculator();
+        this.calculator.setProgressListener(new ProgressReporter());
+        this.evaluator = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "calculator-evaluation");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public void construct() {
@@ -61,6 +89,7 @@ public class MainWindow extends JFrame {
                 this.makeTextPane());
         mainPane.setDividerLocation(this.drawingHeight);
         this.add(mainPane);
+        this.add(this.makeStatusBar(), BorderLayout.SOUTH);
 
         // Finish setting up geometry
         this.pack();
@@ -68,6 +97,14 @@ public class MainWindow extends JFrame {
         this.setVisible(true);
     }
 
+    @Override
+    public void dispose() {
+        // Don't leave an evaluation running in the background after the window is gone.
+        this.calculator.cancel();
+        this.evaluator.shutdown();
+        super.dispose();
+    }
+
     private void setupMainWindow() {
         this.setTitle(this.title);
         this.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
@@ -90,161 +127,199 @@ public class MainWindow extends JFrame {
         g.fillRect(0, 0, width + 1, this.drawingHeight + 1);
 
         ImagePanel panel = new ImagePanel(image);
-        this.calculator.setImageDrawer(panel.getImageDrawer());
+        ImageDrawer drawer = panel.getImageDrawer();
+        // Redraws after zooming and panning go through the evaluator, like plots do.
+        drawer.setViewport(new PlotViewport(panel, drawer, this.evaluator));
+        this.calculator.setImageDrawer(drawer);
         return panel;
     }
 
+    public JComponent makeStatusBar() {
+        this.statusLabel = new JLabel("Ready");
+
+        this.cancelAction = new AbstractAction("Cancel") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                MainWindow.this.calculator.cancel();
+                MainWindow.this.statusLabel.setText("Cancelling...");
+            }
+        };
+        this.cancelAction.putValue(Action.SHORT_DESCRIPTION, "Stop the current evaluation (Esc)");
+        this.cancelAction.setEnabled(false);
+
+        JRootPane root = this.getRootPane();
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+                .put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "cancel");
+        root.getActionMap().put("cancel", this.cancelAction);
+
+        JPanel bar = new JPanel(new BorderLayout());
+        bar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 2));
+        bar.add(this.statusLabel, BorderLayout.CENTER);
+        bar.add(new JButton(this.cancelAction), BorderLayout.EAST);
+        return bar;
+    }
+
+    /**
+     * Switches the status bar between "evaluating" and "ready". Must be called on the event
+     * dispatch thread.
+     */
+    private void setBusy(boolean busy) {
+        this.statusLabel.setText(busy ? "Evaluating..." : "Ready");
+        this.cancelAction.setEnabled(busy);
+    }
+
     public JComponent makeTextPane() {
-        // Add GUI
-        JTextArea textArea = new JTextArea();
-        textArea.setRows(this.textRows);
-        textArea.setLineWrap(true);
-        textArea.setWrapStyleWord(true);
-        textArea.setFont(new Font(
-                Font.MONOSPACED,
-                Font.PLAIN,
-                DEFAULT_FONT_SIZE
-        ));
-        textArea.setText(">>> ");
-
-        // Add logic
-        DisallowEditingPastContentFilter filter = new DisallowEditingPastContentFilter(4);
-        ((AbstractDocument) textArea.getDocument()).setDocumentFilter(filter);
-        textArea.addKeyListener(new TextAreaResponder(this, textArea, filter, this.calculator));
-
-        // Add scroll pane
-        JScrollPane scrollPane = new JScrollPane(textArea);
+        Font font = new Font(Font.MONOSPACED, Font.PLAIN, DEFAULT_FONT_SIZE);
+
+        // The history, which can't be edited
+        TranscriptView transcript = new TranscriptView(new Transcript(), font, this.textRows);
+        JScrollPane scrollPane = new JScrollPane(transcript);
         scrollPane.setAlignmentX(Component.LEFT_ALIGNMENT);
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
 
-        return scrollPane;
+        // The line currently being entered
+        JLabel prompt = new JLabel(PROMPT);
+        prompt.setFont(font);
+        JTextField input = new JTextField();
+        input.setFont(font);
+        input.setBorder(BorderFactory.createEmptyBorder());
+        input.addActionListener(new InputResponder(this, transcript, prompt, input));
+
+        JPanel inputLine = new JPanel(new BorderLayout());
+        inputLine.setBackground(Color.WHITE);
+        inputLine.setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 4));
+        inputLine.add(prompt, BorderLayout.WEST);
+        inputLine.add(input, BorderLayout.CENTER);
+
+        JPanel pane = new JPanel(new BorderLayout());
+        pane.add(scrollPane, BorderLayout.CENTER);
+        pane.add(inputLine, BorderLayout.SOUTH);
+        return pane;
     }
 
-    private static class TextAreaResponder implements KeyListener {
-        private JFrame frame;
-        private JTextArea area;
-        private DisallowEditingPastContentFilter filter;
-        private Calculator calculator;
-
-        private String tempText;
-
-        public TextAreaResponder(JFrame frame,
-                                 JTextArea area,
-                                 DisallowEditingPastContentFilter filter,
-                                 Calculator calculator) {
-            this.frame = frame;
-            this.area = area;
-            this.filter = filter;
-            this.calculator = calculator;
-            this.tempText = "";
-        }
+    /**
+     * Passes progress reports from the evaluation thread on to the status bar, at most once
+     * every PROGRESS_INTERVAL.
+     */
+    private class ProgressReporter implements ProgressListener {
+        private long lastReport = System.nanoTime();
 
         @Override
-        public void keyTyped(KeyEvent e) {
-            try {
-                if (e.getKeyChar() == '\n') {
-                    // Get input
-                    int lineno = this.area.getLineCount() - 2;
-                    int start = this.area.getLineStartOffset(lineno);
-                    int end = this.area.getLineEndOffset(lineno);
-                    String enteredText = this.area.getText().substring(start, end);
-                    if (enteredText.startsWith(">>> ") || enteredText.startsWith("... ")) {
-                        enteredText = enteredText.substring(4);
-                    }
-
-                    this.tempText += enteredText;
-
-                    // Run command and handle error processing
-                    boolean complete = true;
-                    String response = "";
-                    try {
-                        response = this.calculator.evaluate(this.tempText);
-                    } catch (IncompleteInputError ex) {
-                        complete = false;
-                    } catch (EvaluationError ex) {
-                        response = "ERROR: " + ex.getMessage();
-                    } catch (QuitError ex) {
-                        this.frame.dispose();
-                        return;
-                    } catch (Exception ex) {
-                        this.frame.dispose();
-                        throw ex;
-                    }
-
-                    // Add response
-                    this.filter.allowEditing();
-                    if (complete) {
-                        this.area.append(response + "\n");
-                        this.area.append(">>> ");
-                        this.tempText = "";
-                    } else {
-                        this.area.append("... ");
-                    }
-                    this.filter.disallowEditing();
-
-                    int newOffset = this.area.getDocument().getLength();
-                    this.filter.setPromptPosition(newOffset);
-                }
-            } catch (BadLocationException ex) {
-                throw new RuntimeException(ex);
+        public void progressChanged(String operation, long done, long total) {
+            long now = System.nanoTime();
+            if (now - this.lastReport < PROGRESS_INTERVAL) {
+                return;
             }
-        }
-
-        @Override
-        public void keyPressed(KeyEvent e) {
-            // Do nothing
-        }
-
-        @Override
-        public void keyReleased(KeyEvent e) {
-            // Do nothing
+            this.lastReport = now;
+            String text = String.format(
+                    "Running %s: %,d of %,d (%d%%)", operation, done, total, done * 100 / total);
+            SwingUtilities.invokeLater(() -> {
+                if (MainWindow.this.cancelAction.isEnabled()) {
+                    MainWindow.this.statusLabel.setText(text);
+                }
+            });
         }
     }
 
-    // Code obtained from https://stackoverflow.com/a/10031051/646543
-    private static class DisallowEditingPastContentFilter extends DocumentFilter {
-        private int promptPosition;
-        private boolean allowFreeEditing;
-
-        public DisallowEditingPastContentFilter(int promptPosition) {
-            this.promptPosition = promptPosition;
-            this.allowFreeEditing = false;
-        }
+    private static class InputResponder implements ActionListener {
+        private MainWindow window;
+        private TranscriptView transcript;
+        private JLabel prompt;
+        private JTextField input;
+        private Calculator calculator;
 
-        public void setPromptPosition(int promptPosition) {
-            this.promptPosition = promptPosition;
+        // Collects continuation lines until the input is complete
+        private ParseSession session;
+
+        // True while an input is being evaluated in the background
+        private boolean busy;
+
+        public InputResponder(MainWindow window,
+                              TranscriptView transcript,
+                              JLabel prompt,
+                              JTextField input) {
+            this.window = window;
+            this.transcript = transcript;
+            this.prompt = prompt;
+            this.input = input;
+            this.calculator = window.calculator;
+            this.session = new ParseSession();
+            this.busy = false;
         }
 
-        public void allowEditing() {
-            this.allowFreeEditing = true;
-        }
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            if (this.busy) {
+                return;
+            }
 
-        public void disallowEditing() {
-            this.allowFreeEditing = false;
-        }
+            // Move the entered line into the history
+            String enteredText = this.input.getText();
+            this.input.setText("");
+            this.transcript.append(Transcript.Kind.INPUT, this.prompt.getText() + enteredText);
 
-        @Override
-        public void insertString(FilterBypass fb, int offset, String string, AttributeSet attr)
-                throws BadLocationException {
-            if (offset >= this.promptPosition || this.allowFreeEditing) {
-                super.insertString(fb, offset, string, attr);
+            // Only run the command once the input is complete, so earlier lines of a
+            // multi-line input don't get re-parsed every time a new line is entered.
+            if (!this.session.feed(enteredText)) {
+                this.prompt.setText(CONTINUATION_PROMPT);
+                return;
             }
+
+            // Evaluate in the background; no more input is accepted until it's done.
+            String text = this.session.getText();
+            this.busy = true;
+            this.input.setEditable(false);
+            this.window.setBusy(true);
+            this.window.evaluator.execute(() -> this.evaluate(text));
         }
 
-        @Override
-        public void remove(FilterBypass fb, int offset, int length)
-                throws BadLocationException {
-            if (offset >= this.promptPosition || this.allowFreeEditing) {
-                super.remove(fb, offset, length);
+        /**
+         * Evaluates the input. Runs on the evaluation thread.
+         */
+        private void evaluate(String text) {
+            Transcript.Kind kind = Transcript.Kind.OUTPUT;
+            String response;
+            try {
+                response = this.calculator.evaluate(text);
+            } catch (IncompleteInputError ex) {
+                kind = null;
+                response = null;
+            } catch (EvaluationError ex) {
+                kind = Transcript.Kind.ERROR;
+                response = "ERROR: " + ex.getMessage();
+            } catch (QuitError ex) {
+                SwingUtilities.invokeLater(this.window::dispose);
+                return;
+            } catch (RuntimeException | Error ex) {
+                SwingUtilities.invokeLater(() -> {
+                    this.window.dispose();
+                    throw ex;
+                });
+                return;
             }
+
+            Transcript.Kind responseKind = kind;
+            String output = response;
+            SwingUtilities.invokeLater(() -> this.finish(responseKind, output));
         }
 
-        @Override
-        public void replace(FilterBypass fb, int offset, int length, String string, AttributeSet attr)
-                throws BadLocationException {
-            if (offset >= this.promptPosition || this.allowFreeEditing) {
-                super.replace(fb, offset, length, string, attr);
+        /**
+         * Shows the response, or asks for more input if the input turned out to be incomplete
+         * (in which case 'kind' is null). Must be called on the event dispatch thread.
+         */
+        private void finish(Transcript.Kind kind, String response) {
+            if (kind == null) {
+                this.prompt.setText(CONTINUATION_PROMPT);
+            } else {
+                this.transcript.append(kind, response);
+                this.prompt.setText(PROMPT);
+                this.session.reset();
             }
+
+            this.busy = false;
+            this.input.setEditable(true);
+            this.input.requestFocusInWindow();
+            this.window.setBusy(false);
         }
     }
 }
@@ -0,0 +1,102 @@
+package calculator.gui;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * An ImageDrawer that draws into an in-memory image instead of a window, for running the
+ * calculator without a GUI. Every plot drawn is also saved as a PNG file in the given
+ * directory (plot-1.png, plot-2.png, ...).
+ *
+ * The image itself is only created the first time something is drawn, so scripts that never
+ * plot anything don't pay for it.
+ */
+public class OffscreenImageDrawer extends ImageDrawer {
+    private final File outputDirectory;
+    private BufferedImage image;
+    private Graphics graphics;
+    private int numPlots;
+
+    public OffscreenImageDrawer(int width, int height, File outputDirectory) {
+        super(null, width, height);
+        this.outputDirectory = outputDirectory;
+        this.numPlots = 0;
+    }
+
+    @Override
+    public Graphics getGraphics() {
+        if (this.graphics == null) {
+            this.image = new BufferedImage(this.getWidth(), this.getHeight(), BufferedImage.TYPE_INT_RGB);
+            this.graphics = this.image.getGraphics();
+            this.graphics.setColor(Color.WHITE);
+            this.graphics.fillRect(0, 0, this.getWidth(), this.getHeight());
+        }
+        return this.graphics;
+    }
+
+    @Override
+    public void drawScatterPlot(String title, String xAxisLabel, String yAxisLabel,
+                                double[] xValues, double[] yValues,
+                                Rectangle2D drawRegion) {
+        super.drawScatterPlot(title, xAxisLabel, yAxisLabel, xValues, yValues, drawRegion);
+        this.save();
+    }
+
+    @Override
+    public void drawScatterPlot(String title, String xAxisLabel, String yAxisLabel,
+                                String[] seriesNames, double[][] xValues, double[][] yValues,
+                                Rectangle2D drawRegion) {
+        super.drawScatterPlot(title, xAxisLabel, yAxisLabel, seriesNames, xValues, yValues, drawRegion);
+        if (seriesNames.length != 1) {
+            // Plots with a single series were saved by the method above.
+            this.save();
+        }
+    }
+
+    @Override
+    public void drawHeatmap(String title, String xAxisLabel, String yAxisLabel, double[][] values,
+                            double xMin, double xMax, double yMin, double yMax,
+                            Rectangle2D drawRegion) {
+        super.drawHeatmap(title, xAxisLabel, yAxisLabel, values, xMin, xMax, yMin, yMax, drawRegion);
+        this.save();
+    }
+
+    @Override
+    public void drawContours(String title, String xAxisLabel, String yAxisLabel,
+                             double[] levels, double[][] segments,
+                             double xMin, double xMax, double yMin, double yMax,
+                             Rectangle2D drawRegion) {
+        super.drawContours(title, xAxisLabel, yAxisLabel, levels, segments, xMin, xMax, yMin, yMax, drawRegion);
+        this.save();
+    }
+
+    /**
+     * Returns false: only finished plots are saved, so there's no point in drawing partial ones.
+     */
+    @Override
+    public boolean isFrameDue() {
+        return false;
+    }
+
+    /**
+     * Returns the number of plots saved so far.
+     */
+    public int getNumPlots() {
+        return this.numPlots;
+    }
+
+    private void save() {
+        this.numPlots += 1;
+        File file = new File(this.outputDirectory, "plot-" + this.numPlots + ".png");
+        try {
+            ImageIO.write(this.image, "png", file);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to save plot to " + file, ex);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package calculator.gui;
+
+/**
+ * Something that can be plotted over any range of x, such as the functions that were plotted
+ * by 'plot', and that a PlotViewport can zoom and pan around.
+ */
+public interface PlotSource {
+    /**
+     * Returns the names of the series in the plot.
+     */
+    String[] getSeriesNames();
+
+    /**
+     * Returns the points to draw for a plot from 'min' to 'max' that is 'width' pixels wide,
+     * as {xValues, yValues}, where xValues[i] and yValues[i] are the points of series i.
+     * Called on the thread that evaluates input, never on the event dispatch thread.
+     */
+    double[][][] sample(double min, double max, int width);
+}
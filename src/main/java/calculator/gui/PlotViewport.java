@@ -0,0 +1,187 @@
+package calculator.gui;
+
+import javax.swing.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets the user zoom and pan around the last plot drawn on an ImagePanel with the mouse:
+ * the wheel zooms in and out around the pointer, dragging pans, and double-clicking goes
+ * back to the range that was originally plotted.
+ *
+ * Every change of range redraws the plot from its PlotSource, on the given executor (the
+ * one evaluating input, so redraws never overlap with a plot being drawn). Changes made while
+ * a redraw is waiting or running are combined, so only the latest range is ever drawn.
+ *
+ * The x range is mapped onto the whole width of the panel, which is slightly wider than the
+ * actual axis; that's close enough for dragging and zooming to feel right.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class PlotViewport {
+    // How much one notch of the mouse wheel zooms in or out
+    private static final double ZOOM_FACTOR = 1.25;
+
+    // Ranges narrower than this, relative to the size of their values, are all rounding errors.
+    private static final double MIN_RELATIVE_WIDTH = 1e-12;
+
+    private final ImagePanel panel;
+    private final ImageDrawer drawer;
+    private final Executor executor;
+    private final AtomicBoolean redrawPending;
+
+    // Guarded by 'this'
+    private PlotSource source;
+    private double originalMin;
+    private double originalMax;
+    private double min;
+    private double max;
+
+    public PlotViewport(ImagePanel panel, ImageDrawer drawer, Executor executor) {
+        this.panel = panel;
+        this.drawer = drawer;
+        this.executor = executor;
+        this.redrawPending = new AtomicBoolean(false);
+
+        MouseHandler handler = new MouseHandler();
+        panel.addMouseListener(handler);
+        panel.addMouseMotionListener(handler);
+        panel.addMouseWheelListener(handler);
+    }
+
+    /**
+     * Makes 'source', which was just plotted from 'min' to 'max', the plot to zoom and pan.
+     * If 'source' is null, the plot shown can't be zoomed or panned.
+     */
+    public synchronized void show(PlotSource source, double min, double max) {
+        this.source = source;
+        this.originalMin = min;
+        this.originalMax = max;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Returns the range currently shown, as {min, max}.
+     */
+    public synchronized double[] getRange() {
+        return new double[] {this.min, this.max};
+    }
+
+    /**
+     * Zooms in (if 'factor' is less than 1) or out, keeping the point at 'fraction' of the
+     * width of the plot in place.
+     */
+    public void zoom(double factor, double fraction) {
+        synchronized (this) {
+            if (this.source == null) {
+                return;
+            }
+            double width = (this.max - this.min) * factor;
+            double scale = Math.max(Math.abs(this.min), Math.abs(this.max));
+            if (width < scale * MIN_RELATIVE_WIDTH || width < Double.MIN_NORMAL || Double.isInfinite(width)) {
+                return;
+            }
+            double anchor = this.min + (this.max - this.min) * fraction;
+            this.min = anchor - width * fraction;
+            this.max = this.min + width;
+        }
+        this.requestRedraw();
+    }
+
+    /**
+     * Moves the range shown by 'fraction' of its width (to the right if positive).
+     */
+    public void pan(double fraction) {
+        synchronized (this) {
+            if (this.source == null) {
+                return;
+            }
+            double shift = (this.max - this.min) * fraction;
+            this.min += shift;
+            this.max += shift;
+        }
+        this.requestRedraw();
+    }
+
+    /**
+     * Goes back to the range that was originally plotted.
+     */
+    public void reset() {
+        synchronized (this) {
+            if (this.source == null) {
+                return;
+            }
+            this.min = this.originalMin;
+            this.max = this.originalMax;
+        }
+        this.requestRedraw();
+    }
+
+    private void requestRedraw() {
+        if (this.redrawPending.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this::redraw);
+            } catch (RejectedExecutionException ex) {
+                // The window is closing.
+                this.redrawPending.set(false);
+            }
+        }
+    }
+
+    private void redraw() {
+        this.redrawPending.set(false);
+        PlotSource source;
+        double min;
+        double max;
+        synchronized (this) {
+            source = this.source;
+            min = this.min;
+            max = this.max;
+        }
+        if (source == null) {
+            // The plot was cleared (or replaced by one that can't be zoomed) since the redraw
+            // was requested.
+            return;
+        }
+        double[][][] points = source.sample(min, max, this.drawer.getWidth());
+        this.drawer.drawScatterPlot("Plot", "x", "output", source.getSeriesNames(), points[0], points[1]);
+        SwingUtilities.invokeLater(this.panel::repaint);
+    }
+
+    private class MouseHandler extends MouseAdapter {
+        private int lastX;
+
+        @Override
+        public void mousePressed(MouseEvent e) {
+            this.lastX = e.getX();
+        }
+
+        @Override
+        public void mouseDragged(MouseEvent e) {
+            int dx = e.getX() - this.lastX;
+            this.lastX = e.getX();
+            if (dx != 0) {
+                // Dragging right moves the plot right, so the range moves left.
+                PlotViewport.this.pan(-(double) dx / PlotViewport.this.panel.getWidth());
+            }
+        }
+
+        @Override
+        public void mouseClicked(MouseEvent e) {
+            if (e.getClickCount() == 2) {
+                PlotViewport.this.reset();
+            }
+        }
+
+        @Override
+        public void mouseWheelMoved(MouseWheelEvent e) {
+            double factor = Math.pow(ZOOM_FACTOR, e.getPreciseWheelRotation());
+            PlotViewport.this.zoom(factor, (double) e.getX() / PlotViewport.this.panel.getWidth());
+        }
+    }
+}
@@ -0,0 +1,666 @@
+package calculator.gui;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Draws plots with a huge number of points, without going through JFreeChart.
+ *
+ * JFreeChart draws every point as a separate shape, so its time grows with the number of
+ * points. This renderer instead makes one pass over the points to find, for every pixel
+ * column of the plot, the lowest and highest pixel row hit (the column's "envelope"), using
+ * plain integer arithmetic. It then fills those spans directly into the pixels of an image,
+ * adds simple axes, ticks and labels, and copies the image onto the Graphics in one go.
+ * Apart from that first pass, the time taken depends only on the size of the plot.
+ *
+ * In a SCATTER plot, every span is drawn as thick as a point. In a LINE plot, each column is
+ * also joined to the next one with any points, from left to right.
+ *
+ * A plot can have several series, which share the axes and are drawn one after the other, each
+ * in its own color (the same ones JFreeChart uses), with a legend naming them.
+ *
+ * It also draws functions of two variables, sampled on a grid: as a heatmap, where every pixel
+ * takes the color of the nearest grid point on a scale from the smallest value (dark blue) to
+ * the largest (yellow), or as contour lines, given as line segments.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class RasterPlotRenderer {
+    public enum Style {
+        SCATTER,
+        LINE,
+    }
+
+    private static final int BACKGROUND = 0xFFFFFF;
+    private static final int[] SERIES_COLORS = {0xFF5555, 0x5555FF, 0x55FF55, 0xFFFF55, 0xFF55FF, 0x55FFFF};
+    private static final Color AXIS_COLOR = Color.DARK_GRAY;
+    private static final Color GRID_COLOR = new Color(0xE0E0E0);
+
+    // The colors values are mapped to in heatmaps (and levels to in contour plots), from
+    // smallest to largest; filled in from COLOR_STOPS below.
+    private static final int[] COLOR_MAP = new int[256];
+    private static final int[] COLOR_STOPS = {0x440154, 0x3B528B, 0x21918C, 0x5EC962, 0xFDE725};
+
+    static {
+        for (int i = 0; i < COLOR_MAP.length; i++) {
+            double position = (double) i / (COLOR_MAP.length - 1) * (COLOR_STOPS.length - 1);
+            int stop = Math.min((int) position, COLOR_STOPS.length - 2);
+            COLOR_MAP[i] = mix(COLOR_STOPS[stop], COLOR_STOPS[stop + 1], position - stop);
+        }
+    }
+
+    // Room around the plot area for the title, tick labels and axis labels, in pixels
+    private static final int LEFT_MARGIN = 70;
+    private static final int RIGHT_MARGIN = 15;
+    private static final int TOP_MARGIN = 30;
+    private static final int BOTTOM_MARGIN = 45;
+
+    // How far apart ticks should be, roughly, in pixels
+    private static final int TICK_SPACING = 80;
+    private static final int TICK_LENGTH = 4;
+    private static final int MAX_TICKS = 100;
+
+    // The size of the color swatches in the legend, and the space around legend entries
+    private static final int SWATCH_SIZE = 8;
+    private static final int LEGEND_PADDING = 4;
+    // Contour plots with more levels than this don't get a legend
+    private static final int MAX_LEGEND_ENTRIES = 10;
+    // Contour lines are antialiased and drawn a bit thicker, unless there are more segments
+    // than this: that's about ten times slower than drawing plain lines, and with that many
+    // segments, each is only a pixel or two long anyway.
+    private static final int MAX_SMOOTH_SEGMENTS = 10_000;
+
+    // The fraction of the range of the data added on each side, as JFreeChart does
+    private static final double AXIS_MARGIN = 0.05;
+
+    private final Style style;
+
+    // Reused from one plot to the next, as long as the size stays the same
+    private BufferedImage canvas;
+    private int[] columnTop;
+    private int[] columnBottom;
+    // The rows of the first and last points in each column, in the order they were given
+    private int[] columnFirst;
+    private int[] columnLast;
+
+    public RasterPlotRenderer(Style style) {
+        this.style = style;
+    }
+
+    /**
+     * Draws a plot of the given points onto 'graphics', filling 'drawRegion'.
+     *
+     * @throws IllegalArgumentException  if the arrays aren't the same length
+     */
+    public void render(Graphics graphics, String title, String xAxisLabel, String yAxisLabel,
+                       double[] xValues, double[] yValues, Rectangle2D drawRegion) {
+        this.render(graphics, title, xAxisLabel, yAxisLabel,
+                new String[] {""}, new double[][] {xValues}, new double[][] {yValues}, drawRegion);
+    }
+
+    /**
+     * Draws a plot of several series onto 'graphics', filling 'drawRegion'. Series i is named
+     * seriesNames[i] and has the points (xValues[i][j], yValues[i][j]). The legend is only
+     * shown if there's more than one series.
+     *
+     * @throws IllegalArgumentException  if there aren't as many x arrays, y arrays and names, or
+     *                                   if the x and y arrays of a series aren't the same length
+     */
+    public void render(Graphics graphics, String title, String xAxisLabel, String yAxisLabel,
+                       String[] seriesNames, double[][] xValues, double[][] yValues,
+                       Rectangle2D drawRegion) {
+        if (seriesNames.length != xValues.length || xValues.length != yValues.length) {
+            throw new IllegalArgumentException("Number of series names, 'x' arrays and 'y' arrays are not the same.");
+        }
+        for (int series = 0; series < xValues.length; series++) {
+            if (xValues[series].length != yValues[series].length) {
+                throw new IllegalArgumentException("Number of 'x' values and 'y' values are not the same.");
+            }
+        }
+        Rectangle region = drawRegion.getBounds();
+        if (region.width <= 0 || region.height <= 0) {
+            return;
+        }
+        Rectangle area = this.prepareCanvas(region);
+        int[] pixels = ((DataBufferInt) this.canvas.getRaster().getDataBuffer()).getData();
+
+        // Find the ranges of the axes.
+        double xMin = Double.POSITIVE_INFINITY;
+        double xMax = Double.NEGATIVE_INFINITY;
+        double yMin = Double.POSITIVE_INFINITY;
+        double yMax = Double.NEGATIVE_INFINITY;
+        for (int series = 0; series < xValues.length; series++) {
+            for (int i = 0; i < xValues[series].length; i++) {
+                double x = xValues[series][i];
+                double y = yValues[series][i];
+                if (isFinite(x) && isFinite(y)) {
+                    xMin = Math.min(xMin, x);
+                    xMax = Math.max(xMax, x);
+                    yMin = Math.min(yMin, y);
+                    yMax = Math.max(yMax, y);
+                }
+            }
+        }
+        double[] xRange = axisRange(xMin, xMax);
+        double[] yRange = axisRange(yMin, yMax);
+
+        Graphics2D g2 = this.canvas.createGraphics();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            this.drawGridAndAxes(g2, area, title, xAxisLabel, yAxisLabel, xRange, yRange, true);
+        } finally {
+            g2.dispose();
+        }
+
+        for (int series = 0; series < xValues.length; series++) {
+            this.findEnvelopes(xValues[series], yValues[series], area, xRange, yRange);
+            this.fillEnvelopes(pixels, region.width, area, SERIES_COLORS[series % SERIES_COLORS.length]);
+        }
+
+        if (seriesNames.length > 1) {
+            g2 = this.canvas.createGraphics();
+            try {
+                g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                int[] colors = new int[seriesNames.length];
+                for (int series = 0; series < colors.length; series++) {
+                    colors[series] = SERIES_COLORS[series % SERIES_COLORS.length];
+                }
+                drawLegend(g2, area, seriesNames, colors);
+            } finally {
+                g2.dispose();
+            }
+        }
+
+        graphics.drawImage(this.canvas, region.x, region.y, null);
+    }
+
+    /**
+     * Draws a heatmap of a function of two variables onto 'graphics', filling 'drawRegion'.
+     * values[row][column] is the value at the point of a grid spanning xMin to xMax and yMin to
+     * yMax evenly, with row 0 at yMin and column 0 at xMin. NaN and infinite values are left
+     * blank. The legend shows which colors the smallest and largest values map to.
+     *
+     * @throws IllegalArgumentException  if the rows of 'values' aren't all the same length
+     */
+    public void renderHeatmap(Graphics graphics, String title, String xAxisLabel, String yAxisLabel,
+                              double[][] values, double xMin, double xMax, double yMin, double yMax,
+                              Rectangle2D drawRegion) {
+        int rows = values.length;
+        int columns = rows == 0 ? 0 : values[0].length;
+        for (double[] row : values) {
+            if (row.length != columns) {
+                throw new IllegalArgumentException("Rows of 'values' are not all the same length.");
+            }
+        }
+        Rectangle region = drawRegion.getBounds();
+        if (region.width <= 0 || region.height <= 0) {
+            return;
+        }
+        Rectangle area = this.prepareCanvas(region);
+        int[] pixels = ((DataBufferInt) this.canvas.getRaster().getDataBuffer()).getData();
+        double[] xRange = gridRange(xMin, xMax);
+        double[] yRange = gridRange(yMin, yMax);
+
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double[] row : values) {
+            for (double value : row) {
+                if (isFinite(value)) {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+        }
+
+        if (min <= max && columns > 0) {
+            // Which grid column and row is nearest to the middle of each pixel column and row;
+            // -1 if the pixel is outside the grid.
+            int[] pixelColumns = nearestGridPoints(area.width, xRange, xMin, xMax, columns, false);
+            int[] pixelRows = nearestGridPoints(area.height, yRange, yMin, yMax, rows, true);
+            double scale = max > min ? (COLOR_MAP.length - 1) / (max - min) : 0;
+            int middle = max > min ? 0 : COLOR_MAP.length / 2;
+            for (int y = 0; y < area.height; y++) {
+                if (pixelRows[y] < 0) {
+                    continue;
+                }
+                double[] row = values[pixelRows[y]];
+                int offset = (area.y + y) * region.width + area.x;
+                for (int x = 0; x < area.width; x++) {
+                    if (pixelColumns[x] < 0) {
+                        continue;
+                    }
+                    double value = row[pixelColumns[x]];
+                    if (isFinite(value)) {
+                        pixels[offset + x] = COLOR_MAP[middle + (int) ((value - min) * scale)];
+                    }
+                }
+            }
+        }
+
+        Graphics2D g2 = this.canvas.createGraphics();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            this.drawGridAndAxes(g2, area, title, xAxisLabel, yAxisLabel, xRange, yRange, false);
+            if (min < max) {
+                drawLegend(g2, area,
+                        new String[] {String.format("%.3g", max), String.format("%.3g", min)},
+                        new int[] {COLOR_MAP[COLOR_MAP.length - 1], COLOR_MAP[0]});
+            }
+        } finally {
+            g2.dispose();
+        }
+
+        graphics.drawImage(this.canvas, region.x, region.y, null);
+    }
+
+    /**
+     * Draws the contour lines of a function of two variables over the area from xMin to xMax
+     * and yMin to yMax onto 'graphics', filling 'drawRegion'. The lines where the function
+     * equals levels[i] are given by segments[i], as {x0, y0, x1, y1, ...}: each group of four
+     * numbers is a segment from (x0, y0) to (x1, y1).
+     *
+     * A single level is drawn in the usual plot color; several are colored from smallest to
+     * largest as in a heatmap, with a legend if there aren't too many of them.
+     *
+     * @throws IllegalArgumentException  if there aren't as many levels as arrays of segments
+     */
+    public void renderContours(Graphics graphics, String title, String xAxisLabel, String yAxisLabel,
+                               double[] levels, double[][] segments,
+                               double xMin, double xMax, double yMin, double yMax,
+                               Rectangle2D drawRegion) {
+        if (levels.length != segments.length) {
+            throw new IllegalArgumentException("Number of levels and arrays of segments are not the same.");
+        }
+        Rectangle region = drawRegion.getBounds();
+        if (region.width <= 0 || region.height <= 0) {
+            return;
+        }
+        Rectangle area = this.prepareCanvas(region);
+        double[] xRange = gridRange(xMin, xMax);
+        double[] yRange = gridRange(yMin, yMax);
+        double xScale = area.width / (xRange[1] - xRange[0]);
+        double yScale = area.height / (yRange[1] - yRange[0]);
+
+        Graphics2D g2 = this.canvas.createGraphics();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            this.drawGridAndAxes(g2, area, title, xAxisLabel, yAxisLabel, xRange, yRange, true);
+
+            long numSegments = 0;
+            for (double[] points : segments) {
+                numSegments += points.length / 4;
+            }
+            int[] colors = new int[levels.length];
+            Graphics2D lines = (Graphics2D) g2.create();
+            try {
+                if (numSegments <= MAX_SMOOTH_SEGMENTS) {
+                    lines.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                    lines.setStroke(new BasicStroke(1.5f));
+                }
+                lines.clip(area);
+                for (int level = 0; level < levels.length; level++) {
+                    colors[level] = levels.length == 1
+                            ? SERIES_COLORS[0]
+                            : COLOR_MAP[level * (COLOR_MAP.length - 1) / (levels.length - 1)];
+                    Path2D.Double path = new Path2D.Double();
+                    double[] points = segments[level];
+                    for (int i = 0; i + 3 < points.length; i += 4) {
+                        path.moveTo(area.x + (points[i] - xRange[0]) * xScale,
+                                area.y + (yRange[1] - points[i + 1]) * yScale);
+                        path.lineTo(area.x + (points[i + 2] - xRange[0]) * xScale,
+                                area.y + (yRange[1] - points[i + 3]) * yScale);
+                    }
+                    lines.setColor(new Color(colors[level]));
+                    lines.draw(path);
+                }
+            } finally {
+                lines.dispose();
+            }
+
+            if (levels.length > 1 && levels.length <= MAX_LEGEND_ENTRIES) {
+                // Largest level first, as they'd be read off a color bar
+                String[] names = new String[levels.length];
+                int[] legendColors = new int[levels.length];
+                for (int level = 0; level < levels.length; level++) {
+                    names[level] = String.format("%.3g", levels[levels.length - 1 - level]);
+                    legendColors[level] = colors[levels.length - 1 - level];
+                }
+                drawLegend(g2, area, names, legendColors);
+            }
+        } finally {
+            g2.dispose();
+        }
+
+        graphics.drawImage(this.canvas, region.x, region.y, null);
+    }
+
+    /**
+     * Makes sure the canvas is the size of 'region' and blank, and returns the plot area,
+     * relative to the region. If there's no room for margins, we do without.
+     */
+    private Rectangle prepareCanvas(Rectangle region) {
+        if (this.canvas == null
+                || this.canvas.getWidth() != region.width
+                || this.canvas.getHeight() != region.height) {
+            this.canvas = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+        }
+        int[] pixels = ((DataBufferInt) this.canvas.getRaster().getDataBuffer()).getData();
+        Arrays.fill(pixels, BACKGROUND);
+
+        if (region.width > 2 * (LEFT_MARGIN + RIGHT_MARGIN)
+                && region.height > 2 * (TOP_MARGIN + BOTTOM_MARGIN)) {
+            return new Rectangle(
+                    LEFT_MARGIN,
+                    TOP_MARGIN,
+                    region.width - LEFT_MARGIN - RIGHT_MARGIN,
+                    region.height - TOP_MARGIN - BOTTOM_MARGIN);
+        }
+        return new Rectangle(0, 0, region.width, region.height);
+    }
+
+    /**
+     * Returns, for each of 'numPixels' pixels along an axis showing 'range', the index of the
+     * nearest of 'numPoints' grid points spread evenly from 'min' to 'max', or -1 if the pixel
+     * is outside the grid. If 'flipped', pixel 0 is at the high end of the axis.
+     */
+    private static int[] nearestGridPoints(int numPixels, double[] range, double min, double max,
+                                           int numPoints, boolean flipped) {
+        int[] nearest = new int[numPixels];
+        double pixelSize = (range[1] - range[0]) / numPixels;
+        for (int pixel = 0; pixel < numPixels; pixel++) {
+            double position = (pixel + 0.5) * pixelSize;
+            double value = flipped ? range[1] - position : range[0] + position;
+            if (numPoints == 1 || max == min) {
+                nearest[pixel] = Math.abs(value - min) <= pixelSize ? 0 : -1;
+                continue;
+            }
+            double index = Math.round((value - min) / (max - min) * (numPoints - 1));
+            nearest[pixel] = index >= 0 && index < numPoints ? (int) index : -1;
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the range of an axis showing a grid from 'min' to 'max': exactly that, unless
+     * it's empty.
+     */
+    private static double[] gridRange(double min, double max) {
+        if (min < max) {
+            return new double[] {min, max};
+        }
+        return axisRange(min, max);
+    }
+
+    /**
+     * Returns the color a fraction 't' of the way from 'from' to 'to'.
+     */
+    private static int mix(int from, int to, double t) {
+        int color = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int a = (from >> shift) & 0xFF;
+            int b = (to >> shift) & 0xFF;
+            color |= ((int) Math.round(a + (b - a) * t)) << shift;
+        }
+        return color;
+    }
+
+    /**
+     * Sets columnTop[c] and columnBottom[c] to the highest and lowest pixel row (relative to
+     * the plot area) to fill in column c, or columnTop[c] to -1 if there's nothing to fill.
+     */
+    private void findEnvelopes(double[] xValues, double[] yValues, Rectangle area,
+                               double[] xRange, double[] yRange) {
+        if (this.columnTop == null || this.columnTop.length != area.width) {
+            this.columnTop = new int[area.width];
+            this.columnBottom = new int[area.width];
+            this.columnFirst = new int[area.width];
+            this.columnLast = new int[area.width];
+        }
+        int[] top = this.columnTop;
+        int[] bottom = this.columnBottom;
+        int[] first = this.columnFirst;
+        int[] last = this.columnLast;
+        Arrays.fill(top, -1);
+
+        double xScale = area.width / (xRange[1] - xRange[0]);
+        double yScale = area.height / (yRange[1] - yRange[0]);
+        int lastColumn = area.width - 1;
+        int lastRow = area.height - 1;
+        for (int i = 0; i < xValues.length; i++) {
+            double x = xValues[i];
+            double y = yValues[i];
+            if (!isFinite(x) || !isFinite(y)) {
+                continue;
+            }
+            int column = (int) ((x - xRange[0]) * xScale);
+            int row = (int) ((yRange[1] - y) * yScale);
+            column = column < 0 ? 0 : (column > lastColumn ? lastColumn : column);
+            row = row < 0 ? 0 : (row > lastRow ? lastRow : row);
+            if (top[column] < 0) {
+                top[column] = row;
+                bottom[column] = row;
+                first[column] = row;
+            } else if (row < top[column]) {
+                top[column] = row;
+            } else if (row > bottom[column]) {
+                bottom[column] = row;
+            }
+            last[column] = row;
+        }
+
+        if (this.style == Style.LINE) {
+            // Join the last point of every column to the first point of the next column that
+            // has any, going through the columns in between.
+            int previous = -1;
+            for (int column = 0; column < area.width; column++) {
+                if (top[column] < 0) {
+                    continue;
+                }
+                if (previous >= 0) {
+                    int from = last[previous];
+                    int to = first[column];
+                    int distance = column - previous;
+                    for (int c = previous + 1; c <= column; c++) {
+                        int rowA = from + (to - from) * (c - 1 - previous) / distance;
+                        int rowB = from + (to - from) * (c - previous) / distance;
+                        int low = Math.min(rowA, rowB);
+                        int high = Math.max(rowA, rowB);
+                        if (top[c] < 0) {
+                            top[c] = low;
+                            bottom[c] = high;
+                        } else {
+                            top[c] = Math.min(top[c], low);
+                            bottom[c] = Math.max(bottom[c], high);
+                        }
+                    }
+                }
+                previous = column;
+            }
+        }
+    }
+
+    private void fillEnvelopes(int[] pixels, int stride, Rectangle area, int color) {
+        // Points are drawn as 3 by 3 squares in a scatter plot
+        int radius = this.style == Style.SCATTER ? 1 : 0;
+        for (int column = 0; column < area.width; column++) {
+            if (this.columnTop[column] < 0) {
+                continue;
+            }
+            int x0 = Math.max(0, column - radius);
+            int x1 = Math.min(area.width - 1, column + radius);
+            int y0 = Math.max(0, this.columnTop[column] - radius);
+            int y1 = Math.min(area.height - 1, this.columnBottom[column] + radius);
+            for (int y = y0; y <= y1; y++) {
+                int offset = (area.y + y) * stride + area.x;
+                Arrays.fill(pixels, offset + x0, offset + x1 + 1, color);
+            }
+        }
+    }
+
+    private void drawGridAndAxes(Graphics2D g2, Rectangle area, String title,
+                                 String xAxisLabel, String yAxisLabel,
+                                 double[] xRange, double[] yRange, boolean gridLines) {
+        FontMetrics metrics = g2.getFontMetrics();
+        int textHeight = metrics.getAscent();
+
+        double xStep = tickStep(xRange[1] - xRange[0], area.width / TICK_SPACING);
+        for (double tick : ticks(xRange, xStep)) {
+            int x = area.x + (int) Math.round((tick - xRange[0]) / (xRange[1] - xRange[0]) * area.width);
+            if (gridLines) {
+                g2.setColor(GRID_COLOR);
+                g2.drawLine(x, area.y, x, area.y + area.height);
+            }
+            g2.setColor(AXIS_COLOR);
+            g2.drawLine(x, area.y + area.height, x, area.y + area.height + TICK_LENGTH);
+            String label = formatTick(tick, xStep);
+            g2.drawString(label,
+                    x - metrics.stringWidth(label) / 2,
+                    area.y + area.height + TICK_LENGTH + textHeight + 2);
+        }
+
+        double yStep = tickStep(yRange[1] - yRange[0], area.height / TICK_SPACING);
+        for (double tick : ticks(yRange, yStep)) {
+            int y = area.y + area.height
+                    - (int) Math.round((tick - yRange[0]) / (yRange[1] - yRange[0]) * area.height);
+            if (gridLines) {
+                g2.setColor(GRID_COLOR);
+                g2.drawLine(area.x, y, area.x + area.width, y);
+            }
+            g2.setColor(AXIS_COLOR);
+            g2.drawLine(area.x - TICK_LENGTH, y, area.x, y);
+            String label = formatTick(tick, yStep);
+            g2.drawString(label,
+                    area.x - TICK_LENGTH - 2 - metrics.stringWidth(label),
+                    y + textHeight / 2);
+        }
+
+        g2.setColor(AXIS_COLOR);
+        g2.drawRect(area.x, area.y, area.width, area.height);
+
+        g2.drawString(xAxisLabel,
+                area.x + (area.width - metrics.stringWidth(xAxisLabel)) / 2,
+                area.y + area.height + TICK_LENGTH + 2 * textHeight + 6);
+        Graphics2D rotated = (Graphics2D) g2.create();
+        try {
+            rotated.rotate(-Math.PI / 2);
+            rotated.drawString(yAxisLabel,
+                    -(area.y + (area.height + metrics.stringWidth(yAxisLabel)) / 2),
+                    textHeight + 2);
+        } finally {
+            rotated.dispose();
+        }
+
+        if (!title.isEmpty()) {
+            Font font = g2.getFont();
+            g2.setFont(font.deriveFont(Font.BOLD, font.getSize2D() * 1.5f));
+            FontMetrics titleMetrics = g2.getFontMetrics();
+            g2.drawString(title,
+                    area.x + (area.width - titleMetrics.stringWidth(title)) / 2,
+                    (area.y + titleMetrics.getAscent()) / 2);
+            g2.setFont(font);
+        }
+    }
+
+    /**
+     * Draws a box in the top right corner of the plot area, listing the series (or levels) with
+     * their colors.
+     */
+    private static void drawLegend(Graphics2D g2, Rectangle area, String[] seriesNames, int[] colors) {
+        FontMetrics metrics = g2.getFontMetrics();
+        int lineHeight = Math.max(SWATCH_SIZE, metrics.getHeight());
+        int textWidth = 0;
+        for (String name : seriesNames) {
+            textWidth = Math.max(textWidth, metrics.stringWidth(name));
+        }
+        int width = 3 * LEGEND_PADDING + SWATCH_SIZE + textWidth;
+        int height = LEGEND_PADDING + seriesNames.length * (lineHeight + LEGEND_PADDING);
+        int left = area.x + area.width - width - LEGEND_PADDING;
+        int top = area.y + LEGEND_PADDING;
+
+        g2.setColor(Color.WHITE);
+        g2.fillRect(left, top, width, height);
+        g2.setColor(AXIS_COLOR);
+        g2.drawRect(left, top, width, height);
+        for (int series = 0; series < seriesNames.length; series++) {
+            int y = top + LEGEND_PADDING + series * (lineHeight + LEGEND_PADDING);
+            g2.setColor(new Color(colors[series]));
+            g2.fillRect(left + LEGEND_PADDING, y + (lineHeight - SWATCH_SIZE) / 2, SWATCH_SIZE, SWATCH_SIZE);
+            g2.setColor(AXIS_COLOR);
+            g2.drawString(seriesNames[series],
+                    left + 2 * LEGEND_PADDING + SWATCH_SIZE,
+                    y + (lineHeight + metrics.getAscent()) / 2 - 1);
+        }
+    }
+
+    /**
+     * Returns the range of an axis showing values from 'min' to 'max', as {low, high}.
+     */
+    private static double[] axisRange(double min, double max) {
+        if (!(min <= max)) {
+            // No data at all
+            return new double[] {0, 1};
+        }
+        double margin = (max - min) * AXIS_MARGIN;
+        if (margin == 0) {
+            margin = Math.max(Math.abs(min) * AXIS_MARGIN, 0.5);
+        }
+        return new double[] {min - margin, max + margin};
+    }
+
+    /**
+     * Returns a round (1, 2 or 5 times a power of ten) distance between ticks, so that there
+     * are about 'numTicks' ticks over 'length'.
+     */
+    private static double tickStep(double length, int numTicks) {
+        double rough = length / Math.max(1, numTicks);
+        double magnitude = Math.pow(10, Math.floor(Math.log10(rough)));
+        double fraction = rough / magnitude;
+        if (fraction <= 1) {
+            return magnitude;
+        } else if (fraction <= 2) {
+            return 2 * magnitude;
+        } else if (fraction <= 5) {
+            return 5 * magnitude;
+        } else {
+            return 10 * magnitude;
+        }
+    }
+
+    /**
+     * Returns the multiples of 'step' in 'range'. Computing each one from its index keeps
+     * rounding errors from piling up (and a step too small to change the value from looping
+     * forever).
+     */
+    private static double[] ticks(double[] range, double step) {
+        double first = Math.ceil(range[0] / step);
+        double count = Math.floor(range[1] / step) - first + 1;
+        if (!(count > 0 && count <= MAX_TICKS)) {
+            return new double[0];
+        }
+        double[] ticks = new double[(int) count];
+        for (int i = 0; i < ticks.length; i++) {
+            ticks[i] = (first + i) * step;
+        }
+        return ticks;
+    }
+
+    private static String formatTick(double value, double step) {
+        if (Math.abs(value) < step / 2) {
+            // Don't show rounding errors like 1.0E-17 for 0.
+            return "0";
+        }
+        int decimals = (int) Math.max(0, -Math.floor(Math.log10(step)));
+        if (decimals > 6 || Math.abs(value) >= 1e7) {
+            return String.format("%.3g", value);
+        }
+        return String.format("%." + decimals + "f", value);
+    }
+
+    private static boolean isFinite(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+}
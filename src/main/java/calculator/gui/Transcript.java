@@ -0,0 +1,269 @@
+package calculator.gui;
+
+/**
+ * The history shown in the calculator window: every line entered, and every response.
+ *
+ * The transcript keeps at most a fixed number of entries; once it's full, adding an entry
+ * drops the oldest one. Every entry is shown as one or more display lines, which are never
+ * longer than MAX_LINE_LENGTH characters (longer lines are split).
+ *
+ * Entries with more than COLLAPSE_LENGTH characters or COLLAPSE_LINES lines (for example, a
+ * huge symbolic result) start out collapsed: they are shown as a single summary line, and
+ * only split into display lines once they are expanded (see 'toggle').
+ *
+ * Finding the entry a display line belongs to takes O(log n) time, and adding an entry takes
+ * O(1) time (plus the time to split it into lines, if it isn't collapsed), no matter how long
+ * the transcript has grown.
+ *
+ * This class is not thread-safe; it is meant to be used on the event dispatch thread only.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class Transcript {
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final int MAX_LINE_LENGTH = 1_000;
+    public static final int COLLAPSE_LENGTH = 4_000;
+    public static final int COLLAPSE_LINES = 50;
+
+    // The number of characters of a collapsed entry shown in its summary line
+    private static final int PREVIEW_LENGTH = 80;
+
+    public enum Kind {
+        INPUT,
+        OUTPUT,
+        ERROR,
+    }
+
+    private final Entry[] entries;
+    private int head;
+    private int size;
+
+    // The display line number of the first line of entries[head]. Display line numbers keep
+    // counting up as entries are dropped, so entries don't need to be renumbered.
+    private long firstLine;
+    private long numLines;
+
+    // Never goes down, even when the longest line is dropped; that only means a bit of
+    // unnecessary room for horizontal scrolling.
+    private int maxLineLength;
+
+    public Transcript() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Transcript(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.entries = new Entry[capacity];
+        this.head = 0;
+        this.size = 0;
+        this.firstLine = 0;
+        this.numLines = 0;
+        this.maxLineLength = 0;
+    }
+
+    /**
+     * Adds an entry at the end of the transcript, dropping the oldest entry if it is full.
+     */
+    public void add(Kind kind, String text) {
+        if (this.size == this.entries.length) {
+            Entry oldest = this.entries[this.head];
+            this.entries[this.head] = null;
+            this.head = (this.head + 1) % this.entries.length;
+            this.size -= 1;
+            this.firstLine += oldest.getNumLines();
+            this.numLines -= oldest.getNumLines();
+        }
+
+        Entry entry = new Entry(kind, text, this.firstLine + this.numLines);
+        this.entries[(this.head + this.size) % this.entries.length] = entry;
+        this.size += 1;
+        this.numLines += entry.getNumLines();
+        this.maxLineLength = Math.max(this.maxLineLength, entry.getMaxLineLength());
+    }
+
+    /**
+     * Returns the number of entries in the transcript.
+     */
+    public int getNumEntries() {
+        return this.size;
+    }
+
+    /**
+     * Returns the number of display lines in the transcript.
+     */
+    public int getNumLines() {
+        return (int) Math.min(this.numLines, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the length of the longest display line so far, in characters.
+     */
+    public int getMaxLineLength() {
+        return this.maxLineLength;
+    }
+
+    /**
+     * Returns the text of the given display line (counting from 0 at the top).
+     */
+    public String getLine(int line) {
+        Entry entry = this.findEntry(line);
+        return entry.getLine((int) (this.firstLine + line - entry.start));
+    }
+
+    /**
+     * Returns the kind of entry the given display line belongs to.
+     */
+    public Kind getKind(int line) {
+        return this.findEntry(line).kind;
+    }
+
+    /**
+     * Returns true if the given display line is the summary line of a collapsed entry.
+     */
+    public boolean isCollapsed(int line) {
+        return this.findEntry(line).collapsed;
+    }
+
+    /**
+     * Expands the entry the given display line belongs to if it is collapsed, or collapses it
+     * again if it was expanded. Returns false (and does nothing) if the entry is too small to
+     * be collapsed.
+     */
+    public boolean toggle(int line) {
+        Entry entry = this.findEntry(line);
+        if (!entry.isCollapsible()) {
+            return false;
+        }
+
+        long oldNumLines = entry.getNumLines();
+        entry.collapsed = !entry.collapsed;
+        long delta = entry.getNumLines() - oldNumLines;
+        this.numLines += delta;
+        this.maxLineLength = Math.max(this.maxLineLength, entry.getMaxLineLength());
+
+        // Everything after this entry moves.
+        boolean after = false;
+        for (int i = 0; i < this.size; i++) {
+            Entry other = this.entries[(this.head + i) % this.entries.length];
+            if (after) {
+                other.start += delta;
+            }
+            after = after || other == entry;
+        }
+        return true;
+    }
+
+    private Entry findEntry(int line) {
+        if (line < 0 || line >= this.numLines) {
+            throw new IndexOutOfBoundsException("No line " + line);
+        }
+        long target = this.firstLine + line;
+
+        // Find the last entry that starts at or before the target line.
+        int low = 0;
+        int high = this.size - 1;
+        while (low < high) {
+            int middle = (low + high + 1) / 2;
+            if (this.entries[(this.head + middle) % this.entries.length].start <= target) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return this.entries[(this.head + low) % this.entries.length];
+    }
+
+    private static class Entry {
+        private final Kind kind;
+        private final String text;
+        private final boolean collapsible;
+        private boolean collapsed;
+        private long start;
+
+        // The display lines, computed the first time they're needed
+        private String[] lines;
+
+        public Entry(Kind kind, String text, long start) {
+            this.kind = kind;
+            this.text = text;
+            this.start = start;
+            this.collapsible = text.length() > COLLAPSE_LENGTH || countLines(text) > COLLAPSE_LINES;
+            this.collapsed = this.collapsible;
+        }
+
+        public boolean isCollapsible() {
+            return this.collapsible;
+        }
+
+        public int getNumLines() {
+            return this.collapsed ? 1 : this.getLines().length;
+        }
+
+        public String getLine(int index) {
+            return this.collapsed ? this.getSummary() : this.getLines()[index];
+        }
+
+        public int getMaxLineLength() {
+            if (this.collapsed) {
+                return this.getSummary().length();
+            }
+            int max = 0;
+            for (String line : this.getLines()) {
+                max = Math.max(max, line.length());
+            }
+            return max;
+        }
+
+        private String getSummary() {
+            int end = this.text.indexOf('\n');
+            if (end < 0 || end > PREVIEW_LENGTH) {
+                end = Math.min(this.text.length(), PREVIEW_LENGTH);
+            }
+            return String.format(
+                    "%s ... [%,d characters, click to expand]",
+                    this.text.substring(0, end),
+                    this.text.length());
+        }
+
+        private String[] getLines() {
+            if (this.lines == null) {
+                this.lines = splitLines(this.text);
+            }
+            return this.lines;
+        }
+    }
+
+    private static int countLines(String text) {
+        int count = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    private static String[] splitLines(String text) {
+        String[] rawLines = text.split("\n", -1);
+        int count = 0;
+        for (String line : rawLines) {
+            count += Math.max(1, (line.length() + MAX_LINE_LENGTH - 1) / MAX_LINE_LENGTH);
+        }
+
+        String[] out = new String[count];
+        int i = 0;
+        for (String line : rawLines) {
+            if (line.isEmpty()) {
+                out[i] = line;
+                i += 1;
+            }
+            for (int start = 0; start < line.length(); start += MAX_LINE_LENGTH) {
+                out[i] = line.substring(start, Math.min(line.length(), start + MAX_LINE_LENGTH));
+                i += 1;
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,139 @@
+package calculator.gui;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+/**
+ * Shows a Transcript, one display line per row, inside a scroll pane.
+ *
+ * Only the rows that are actually visible are painted, and the component's size is computed
+ * from the number of lines and the longest line (the font is monospaced), so neither adding
+ * to the transcript nor scrolling gets slower as it grows.
+ *
+ * Clicking on a collapsed entry expands it; clicking on it again collapses it.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class TranscriptView extends JComponent implements Scrollable {
+    private static final int MARGIN = 4;
+    private static final Color ERROR_COLOR = new Color(0xB00020);
+    private static final Color COLLAPSED_COLOR = Color.GRAY;
+
+    private final Transcript transcript;
+    private final int visibleRows;
+    private int lineHeight;
+    private int ascent;
+    private int charWidth;
+
+    public TranscriptView(Transcript transcript, Font font, int visibleRows) {
+        this.transcript = transcript;
+        this.visibleRows = visibleRows;
+        this.setFont(font);
+        this.setOpaque(true);
+        this.setBackground(Color.WHITE);
+        this.setForeground(Color.BLACK);
+        this.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                TranscriptView.this.toggleAt(e.getY());
+            }
+        });
+    }
+
+    @Override
+    public void setFont(Font font) {
+        super.setFont(font);
+        FontMetrics metrics = this.getFontMetrics(font);
+        this.lineHeight = metrics.getHeight();
+        this.ascent = metrics.getAscent();
+        this.charWidth = metrics.charWidth('m');
+        this.revalidate();
+    }
+
+    /**
+     * Adds an entry to the transcript, and scrolls down to show it.
+     */
+    public void append(Transcript.Kind kind, String text) {
+        this.transcript.add(kind, text);
+        this.revalidate();
+        this.repaint();
+        // Scroll once the new size has been laid out.
+        SwingUtilities.invokeLater(() -> this.scrollRectToVisible(
+                new Rectangle(0, this.getHeight() - this.lineHeight, 1, this.lineHeight)));
+    }
+
+    private void toggleAt(int y) {
+        int line = y / this.lineHeight;
+        if (line < this.transcript.getNumLines() && this.transcript.toggle(line)) {
+            this.revalidate();
+            this.repaint();
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, this.getWidth(), this.getHeight());
+        }
+        g.setColor(this.getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        g.setFont(this.getFont());
+
+        int numLines = this.transcript.getNumLines();
+        int first = Math.max(0, clip.y / this.lineHeight);
+        int last = Math.min(numLines - 1, (clip.y + clip.height) / this.lineHeight);
+        for (int line = first; line <= last; line++) {
+            if (this.transcript.isCollapsed(line)) {
+                g.setColor(COLLAPSED_COLOR);
+            } else if (this.transcript.getKind(line) == Transcript.Kind.ERROR) {
+                g.setColor(ERROR_COLOR);
+            } else {
+                g.setColor(this.getForeground());
+            }
+            g.drawString(this.transcript.getLine(line), MARGIN, line * this.lineHeight + this.ascent);
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        long width = 2L * MARGIN + (long) this.transcript.getMaxLineLength() * this.charWidth;
+        long height = (long) this.transcript.getNumLines() * this.lineHeight;
+        return new Dimension(
+                (int) Math.min(width, Integer.MAX_VALUE),
+                (int) Math.min(height, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return new Dimension(this.getPreferredSize().width, this.visibleRows * this.lineHeight);
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? this.lineHeight : this.charWidth;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        if (orientation == SwingConstants.VERTICAL) {
+            return Math.max(this.lineHeight, visibleRect.height - this.lineHeight);
+        }
+        return Math.max(this.charWidth, visibleRect.width - this.charWidth);
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        // Fill the viewport if the lines are narrower than it.
+        Container parent = this.getParent();
+        return parent instanceof JViewport && parent.getWidth() > this.getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        Container parent = this.getParent();
+        return parent instanceof JViewport && parent.getHeight() > this.getPreferredSize().height;
+    }
+}
@@ -0,0 +1,310 @@
+package calculator.parser;
+
+import calculator.parser.grammar.CalculatorGrammarLexer;
+
+/**
+ * A hand-written lexer that produces the same tokens as the ANTLR-generated
+ * CalculatorGrammarLexer, but works directly on a char array and never touches the
+ * ANTLR runtime. (We only borrow the token type constants, which the compiler inlines.)
+ *
+ * Tokens are returned one at a time by 'nextToken'; the position, line, and column of the
+ * current token can then be read off the lexer. Whitespace, comments, and line breaks
+ * inside parentheses are skipped, exactly like the ANTLR lexer does.
+ *
+ * The lexer is resumable: 'resume' hands it the next chunk of text while keeping the
+ * current line number and parenthesis mode, so a long input can be fed in line by line.
+ * Chunks are expected to end on line boundaries (that is, no token other than a run of
+ * line breaks may be split across two chunks).
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+final class FastLexer {
+    public static final int EOF = CalculatorGrammarLexer.EOF;
+    public static final int LINE_BREAK = CalculatorGrammarLexer.LINE_BREAK;
+    public static final int LINE_CONTINUATION = CalculatorGrammarLexer.LINE_CONTINUATION;
+    public static final int IDENTIFIER = CalculatorGrammarLexer.IDENTIFIER;
+    public static final int NUMBER = CalculatorGrammarLexer.NUMBER;
+    public static final int STRING = CalculatorGrammarLexer.STRING;
+    public static final int ASSIGN = CalculatorGrammarLexer.ASSIGN;
+    public static final int PLUS = CalculatorGrammarLexer.PLUS;
+    public static final int MINUS = CalculatorGrammarLexer.MINUS;
+    public static final int MULTIPLY = CalculatorGrammarLexer.MULTIPLY;
+    public static final int DIVIDE = CalculatorGrammarLexer.DIVIDE;
+    public static final int POW = CalculatorGrammarLexer.POW;
+    public static final int COMMA = CalculatorGrammarLexer.COMMA;
+    public static final int LPAREN = CalculatorGrammarLexer.LPAREN;
+    public static final int RPAREN = CalculatorGrammarLexer.RPAREN;
+    public static final int ERROR_TOKEN = CalculatorGrammarLexer.ERROR_TOKEN;
+
+    private static final int NONE = 0;
+
+    private char[] text;
+    private int pos;
+    private int end;
+
+    // Lexer state that carries over between chunks
+    private int line;
+    private int column;
+    private int modeDepth;
+    private int openRunType;
+
+    // Information about the most recently returned token
+    private int tokenType;
+    private int tokenStart;
+    private int tokenEnd;
+    private int tokenLine;
+    private int tokenColumn;
+
+    public FastLexer() {
+        this.reset(new char[0], 0, 0);
+    }
+
+    /**
+     * Starts lexing a brand new input, discarding all state from any previous input.
+     */
+    public void reset(char[] text, int start, int end) {
+        this.reset(text, start, end, 1);
+    }
+
+    /**
+     * Starts lexing a brand new input, like the method above, numbering its lines from
+     * 'firstLine' instead of 1.
+     */
+    public void reset(char[] text, int start, int end, int firstLine) {
+        this.line = firstLine;
+        this.column = 0;
+        this.modeDepth = 0;
+        this.openRunType = NONE;
+        this.resume(text, start, end);
+    }
+
+    /**
+     * Continues lexing with the next chunk of the same input.
+     */
+    public void resume(char[] text, int start, int end) {
+        this.text = text;
+        this.pos = start;
+        this.end = end;
+    }
+
+    /**
+     * Returns the number of currently unclosed parentheses, as seen by the lexer's mode stack.
+     */
+    public int getModeDepth() {
+        return this.modeDepth;
+    }
+
+    public int getLine() {
+        return this.line;
+    }
+
+    public int getTokenType() {
+        return this.tokenType;
+    }
+
+    public int getTokenStart() {
+        return this.tokenStart;
+    }
+
+    public int getTokenEnd() {
+        return this.tokenEnd;
+    }
+
+    public int getTokenLine() {
+        return this.tokenLine;
+    }
+
+    public int getTokenColumn() {
+        return this.tokenColumn;
+    }
+
+    public String getTokenText() {
+        if (this.tokenType == EOF) {
+            return "<EOF>";
+        }
+        return new String(this.text, this.tokenStart, this.tokenEnd - this.tokenStart);
+    }
+
+    /**
+     * Lexes the next token and returns its type. Returns EOF once the current chunk of
+     * input has been used up.
+     */
+    public int nextToken() {
+        // A run of line breaks at the very end of the previous chunk continues into this one.
+        if (this.openRunType != NONE) {
+            if (this.pos < this.end && isLineBreak(this.text[this.pos])) {
+                this.consumeLineBreaks();
+            }
+            if (this.pos < this.end) {
+                this.openRunType = NONE;
+            }
+        }
+
+        while (this.pos < this.end) {
+            char ch = this.text[this.pos];
+            this.tokenStart = this.pos;
+            this.tokenLine = this.line;
+            this.tokenColumn = this.column;
+
+            if (isLineBreak(ch)) {
+                this.consumeLineBreaks();
+                if (this.modeDepth == 0) {
+                    return this.emitRun(LINE_BREAK);
+                }
+            } else if (ch == ' ' || ch == '\t') {
+                while (this.pos < this.end && (this.text[this.pos] == ' ' || this.text[this.pos] == '\t')) {
+                    this.consume();
+                }
+            } else if (ch == '#') {
+                while (this.pos < this.end && !isLineBreak(this.text[this.pos])) {
+                    this.consume();
+                }
+            } else if (ch == '\\' && this.pos + 1 < this.end && isLineBreak(this.text[this.pos + 1])) {
+                this.consume();
+                this.consumeLineBreaks();
+                return this.emitRun(LINE_CONTINUATION);
+            } else if (isIdentifierStart(ch)) {
+                while (this.pos < this.end && isIdentifierPart(this.text[this.pos])) {
+                    this.consume();
+                }
+                return this.emit(IDENTIFIER);
+            } else if (isDigit(ch)) {
+                this.consumeDigits();
+                if (this.pos + 1 < this.end && this.text[this.pos] == '.' && isDigit(this.text[this.pos + 1])) {
+                    this.consume();
+                    this.consumeDigits();
+                }
+                return this.emit(NUMBER);
+            } else if (ch == '"') {
+                int close = this.findStringEnd();
+                if (close == -1) {
+                    this.consume();
+                    return this.emit(ERROR_TOKEN);
+                }
+                while (this.pos <= close) {
+                    this.consume();
+                }
+                return this.emit(STRING);
+            } else if (ch == ':' && this.pos + 1 < this.end && this.text[this.pos + 1] == '=') {
+                this.consume();
+                this.consume();
+                return this.emit(ASSIGN);
+            } else {
+                this.consume();
+                switch (ch) {
+                    case '+': return this.emit(PLUS);
+                    case '-': return this.emit(MINUS);
+                    case '*': return this.emit(MULTIPLY);
+                    case '/': return this.emit(DIVIDE);
+                    case '^': return this.emit(POW);
+                    case ',': return this.emit(COMMA);
+                    case '(':
+                        this.modeDepth += 1;
+                        return this.emit(LPAREN);
+                    case ')':
+                        // Only the "ignore newlines" mode pops on ')'; the default mode doesn't.
+                        if (this.modeDepth > 0) {
+                            this.modeDepth -= 1;
+                        }
+                        return this.emit(RPAREN);
+                    default:
+                        // Supplementary characters are a single (error) token, like in ANTLR.
+                        if (Character.isHighSurrogate(ch) && this.pos < this.end
+                                && Character.isLowSurrogate(this.text[this.pos])) {
+                            this.pos += 1;
+                        }
+                        return this.emit(ERROR_TOKEN);
+                }
+            }
+        }
+
+        this.tokenStart = this.pos;
+        this.tokenEnd = this.pos;
+        this.tokenLine = this.line;
+        this.tokenColumn = this.column;
+        this.tokenType = EOF;
+        return EOF;
+    }
+
+    private int emit(int type) {
+        this.openRunType = NONE;
+        this.tokenEnd = this.pos;
+        this.tokenType = type;
+        return type;
+    }
+
+    private int emitRun(int type) {
+        this.emit(type);
+        if (this.pos == this.end) {
+            this.openRunType = type;
+        }
+        return type;
+    }
+
+    private void consume() {
+        char ch = this.text[this.pos];
+        this.pos += 1;
+        if (ch == '\n') {
+            this.line += 1;
+            this.column = 0;
+        } else if (!Character.isLowSurrogate(ch)
+                || this.pos < 2
+                || !Character.isHighSurrogate(this.text[this.pos - 2])) {
+            // Columns count code points, so the second half of a surrogate pair is free.
+            this.column += 1;
+        }
+    }
+
+    private void consumeLineBreaks() {
+        while (this.pos < this.end && isLineBreak(this.text[this.pos])) {
+            this.consume();
+        }
+    }
+
+    private void consumeDigits() {
+        while (this.pos < this.end && isDigit(this.text[this.pos])) {
+            this.consume();
+        }
+    }
+
+    /**
+     * Returns the index of the closing quote of the string starting at 'pos', or -1 if the
+     * quote at 'pos' does not start a valid string.
+     */
+    private int findStringEnd() {
+        int i = this.pos + 1;
+        while (i < this.end) {
+            char ch = this.text[i];
+            if (ch == '"') {
+                return i;
+            } else if (ch == '\\') {
+                if (i + 1 < this.end && (this.text[i + 1] == '"' || this.text[i + 1] == '\\')) {
+                    i += 2;
+                } else {
+                    return -1;
+                }
+            } else if (isLineBreak(ch)) {
+                return -1;
+            } else {
+                i += 1;
+            }
+        }
+        return -1;
+    }
+
+    static boolean isLineBreak(char ch) {
+        return ch == '\n' || ch == '\r';
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private static boolean isIdentifierStart(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_';
+    }
+
+    private static boolean isIdentifierPart(char ch) {
+        return isIdentifierStart(ch) || isDigit(ch);
+    }
+}
@@ -0,0 +1,94 @@
+package calculator.parser;
+
+/**
+ * Collects multi-line input one line at a time (for example, as the user types continuation
+ * lines into the REPL) and reports when the input collected so far is complete enough to be
+ * parsed.
+ *
+ * The session keeps the lexer state (current line, parenthesis mode) and the paren balance
+ * between calls to 'feed', so each new line is lexed exactly once, no matter how many lines
+ * came before it. The rules for what counts as complete are the same ones the parsers use
+ * before throwing an IncompleteInputError: every paren must be closed, and the input must not
+ * end with a line continuation.
+ *
+ * Once 'feed' returns true, the caller should parse or evaluate 'getText()' and then call
+ * 'reset()' before starting on the next input.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class ParseSession {
+    private final FastLexer lexer;
+    private final StringBuilder text;
+    private char[] lineBuffer;
+
+    private int balanceCount;
+    private boolean lastWasLineContinuation;
+    private boolean sawUnbalancedLineBreak;
+
+    public ParseSession() {
+        this.lexer = new FastLexer();
+        this.text = new StringBuilder();
+        this.lineBuffer = new char[128];
+        this.reset();
+    }
+
+    /**
+     * Discards everything fed to this session so far.
+     */
+    public void reset() {
+        this.text.setLength(0);
+        this.lexer.reset(this.lineBuffer, 0, 0);
+        this.balanceCount = 0;
+        this.lastWasLineContinuation = false;
+        this.sawUnbalancedLineBreak = false;
+    }
+
+    /**
+     * Adds the next line of input to this session, and returns 'true' if all input fed so
+     * far is complete. If the line does not end with a line break, one is added.
+     */
+    public boolean feed(String line) {
+        int start = this.text.length();
+        this.text.append(line);
+        if (line.isEmpty() || !FastLexer.isLineBreak(line.charAt(line.length() - 1))) {
+            this.text.append('\n');
+        }
+        int length = this.text.length() - start;
+
+        if (this.lineBuffer.length < length) {
+            this.lineBuffer = new char[Math.max(length, this.lineBuffer.length * 2)];
+        }
+        this.text.getChars(start, start + length, this.lineBuffer, 0);
+        this.lexer.resume(this.lineBuffer, 0, length);
+
+        int type;
+        while ((type = this.lexer.nextToken()) != FastLexer.EOF) {
+            if (type == FastLexer.LPAREN) {
+                this.balanceCount += 1;
+            } else if (type == FastLexer.RPAREN) {
+                this.balanceCount -= 1;
+            } else if (type == FastLexer.LINE_BREAK && this.balanceCount != 0) {
+                // The parsers reject the whole input once any line ends unbalanced, no
+                // matter what follows it.
+                this.sawUnbalancedLineBreak = true;
+            }
+            this.lastWasLineContinuation = (type == FastLexer.LINE_CONTINUATION);
+        }
+
+        return this.isComplete();
+    }
+
+    /**
+     * Returns 'true' if the input fed so far is complete (or empty).
+     */
+    public boolean isComplete() {
+        return !this.sawUnbalancedLineBreak && this.balanceCount == 0 && !this.lastWasLineContinuation;
+    }
+
+    /**
+     * Returns all of the input fed to this session so far.
+     */
+    public String getText() {
+        return this.text.toString();
+    }
+}
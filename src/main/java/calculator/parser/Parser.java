@@ -9,84 +9,196 @@ import calculator.parser.grammar.CalculatorGrammarParserBaseVisitor;
 import datastructures.concrete.DoubleLinkedList;
 import datastructures.interfaces.IList;
 import org.antlr.v4.runtime.*;
-
-import java.io.IOException;
-import java.io.StringReader;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 
 /**
  * The parser for the Calculator.
  *
  * Uses ANTLR to parse strings into ASTs.
  *
+ * A single Parser reuses the same lexer, token stream, and ANTLR parser for every call to
+ * 'parse', resetting them instead of constructing new ones. Each parse is first attempted
+ * with ANTLR's fast SLL prediction mode and a bail-out error strategy; only if that fails do
+ * we rewind and reparse with full LL prediction so that genuine syntax errors get reported
+ * normally. Because of this, a Parser is NOT safe to share between threads.
+ *
+ * A Parser may alternatively be created with the fast path enabled, in which case it uses
+ * the hand-written PrattParser and never touches the ANTLR runtime at all. Both produce the
+ * same ASTs and errors.
+ *
  * You should not need to read this file in order to complete the assignment.
  */
 public class Parser {
+    private final PrattParser fastParser;
+
+    // The ANTLR machinery is only set up the first time it's needed
+    private BalanceCheckingLexer lexer;
+    private CommonTokenStream tokenStream;
+    private CalculatorGrammarParser parser;
+    private AstConverter converter;
+
+    public Parser() {
+        this(false);
+    }
+
+    /**
+     * Creates a new parser. If 'useFastPath' is true, the parser uses the hand-written
+     * PrattParser instead of ANTLR.
+     */
+    public Parser(boolean useFastPath) {
+        this.fastParser = useFastPath ? new PrattParser() : null;
+    }
+
+    /**
+     * Returns 'true' if this parser uses the hand-written PrattParser instead of ANTLR.
+     */
+    public boolean usesFastPath() {
+        return this.fastParser != null;
+    }
+
+    private void setUpAntlr() {
+        this.lexer = new BalanceCheckingLexer(CharStreams.fromString(""));
+        this.lexer.removeErrorListeners();
+        this.lexer.addErrorListener(new ThrowingErrorListener());
+
+        this.tokenStream = new CommonTokenStream(this.lexer);
+
+        this.parser = new CalculatorGrammarParser(this.tokenStream);
+        this.parser.removeErrorListeners();
+        this.parser.addErrorListener(new ThrowingErrorListener());
+
+        this.converter = new AstConverter();
+    }
+
     public AstNode parse(String rawInput) {
-        CharStream input;
-        try {
-            input = new ANTLRInputStream(new StringReader(rawInput));
-        } catch (IOException ex) {
-            throw new ParseError(
-                    "Unexpected fatal error loading text. This should never happen!",
-                    ex);
-        }
+        return this.parse(rawInput, 1);
+    }
 
-        CalculatorGrammarLexer lexer = new CalculatorGrammarLexer(input);
-        lexer.removeErrorListeners();
-        lexer.addErrorListener(new ThrowingErrorListener());
+    /**
+     * Parses 'rawInput', which starts on line 'firstLine' of some larger script (as the
+     * statements a StatementReader returns do), so that errors give positions in that script.
+     */
+    public AstNode parse(String rawInput, int firstLine) {
+        if (this.fastParser != null) {
+            return this.fastParser.parse(rawInput, firstLine);
+        }
+        if (this.parser == null) {
+            this.setUpAntlr();
+        }
 
-        CommonTokenStream tokenStream = this.ensureIsComplete(new CommonTokenStream(lexer));
+        // Setting a new input stream resets the lexer (including its mode stack and
+        // paren balance), and setting the token source resets the buffered tokens.
+        this.lexer.setInputStream(CharStreams.fromString(rawInput));
+        this.lexer.setLine(firstLine);
+        this.tokenStream.setTokenSource(this.lexer);
+        this.parser.setTokenStream(this.tokenStream);
 
-        CalculatorGrammarParser parser = new CalculatorGrammarParser(tokenStream);
-        parser.removeErrorListeners();
-        parser.addErrorListener(new ThrowingErrorListener());
+        CalculatorGrammarParser.ProgramContext entryPoint;
+        try {
+            entryPoint = this.parseWithPredictionMode(PredictionMode.SLL, new BailErrorStrategy());
+        } catch (ParseCancellationException ex) {
+            // SLL either hit a real syntax error or an input it can't handle without full
+            // context. Rewind and let full LL decide (and report the error, if any).
+            this.tokenStream.seek(0);
+            this.parser.reset();
+            try {
+                entryPoint = this.parseWithPredictionMode(PredictionMode.LL, new DefaultErrorStrategy());
+            } catch (ParseError error) {
+                // The balance check normally runs before the parser sees anything, so an
+                // incomplete input must win over any syntax error found earlier in it.
+                // Lexing the rest of the input re-runs that check on the remaining tokens.
+                this.tokenStream.fill();
+                throw error;
+            }
+        }
+        return this.converter.visitProgram(entryPoint);
+    }
 
-        CalculatorGrammarParser.ProgramContext entryPoint = parser.program();
-        return new AstConverter().visitProgram(entryPoint);
+    private CalculatorGrammarParser.ProgramContext parseWithPredictionMode(
+            PredictionMode mode, ANTLRErrorStrategy errorStrategy) {
+        this.parser.getInterpreter().setPredictionMode(mode);
+        this.parser.setErrorHandler(errorStrategy);
+        return this.parser.program();
     }
 
     public CommonTokenStream ensureIsComplete(CommonTokenStream stream) {
-        int balanceCount = 0;
-        int lastLine = 0;
-        boolean lastWasLineContinuation = false;
+        BalanceTracker tracker = new BalanceTracker();
         stream.fill();
         for (Token token : stream.getTokens()) {
+            tracker.accept(token);
+        }
+        return stream;
+    }
+
+    /**
+     * Tracks parenthesis nesting and line continuations across a stream of tokens, and throws
+     * an IncompleteInputError as soon as the tokens seen so far can't form a complete input.
+     */
+    private static class BalanceTracker {
+        private int balanceCount = 0;
+        private boolean lastWasLineContinuation = false;
+
+        public void accept(Token token) {
             int type = token.getType();
-            lastLine = token.getLine();
 
             // Check for parenthesis nesting
             if (type == CalculatorGrammarLexer.LPAREN) {
-                balanceCount += 1;
+                this.balanceCount += 1;
             } else if (type == CalculatorGrammarLexer.RPAREN) {
-                balanceCount -= 1;
+                this.balanceCount -= 1;
             } else if (type == CalculatorGrammarLexer.LINE_BREAK) {
-                this.verifyBalanceCount(token.getLine(), balanceCount);
+                this.verifyBalanceCount(token.getLine());
             }
 
             if (type != CalculatorGrammarLexer.EOF) {
-                lastWasLineContinuation = (type == CalculatorGrammarLexer.LINE_CONTINUATION);
+                this.lastWasLineContinuation = (type == CalculatorGrammarLexer.LINE_CONTINUATION);
+            } else {
+                this.verifyBalanceCount(token.getLine());
+
+                if (this.lastWasLineContinuation) {
+                    throw new IncompleteInputError("Line continuation at end of file at line " + token.getLine());
+                }
+            }
+        }
+
+        private void verifyBalanceCount(int lineno) {
+            if (this.balanceCount > 0) {
+                // If the balance count is 0, the lexer and parser itself will catch it.
+                throw new IncompleteInputError(
+                        String.format("Parens on line %d are unbalanced; missing %d closing parens",
+                                lineno, this.balanceCount));
+            } else if (this.balanceCount < 0) {
+                throw new IncompleteInputError(
+                        String.format("Parens on line %d are unbalanced; missing %d opening parens",
+                                lineno, -this.balanceCount));
             }
         }
+    }
 
-        this.verifyBalanceCount(lastLine, balanceCount);
+    /**
+     * A lexer that checks that the input is complete as it produces tokens, so we don't
+     * need a separate pass over the entire token stream before parsing.
+     */
+    private static class BalanceCheckingLexer extends CalculatorGrammarLexer {
+        private BalanceTracker tracker;
 
-        if (lastWasLineContinuation) {
-            throw new IncompleteInputError("Line continuation at end of file at line " + lastLine);
+        public BalanceCheckingLexer(CharStream input) {
+            super(input);
+            this.tracker = new BalanceTracker();
         }
 
-        return stream;
-    }
+        @Override
+        public void reset() {
+            super.reset();
+            this.tracker = new BalanceTracker();
+        }
 
-    private void verifyBalanceCount(int lineno, int balanceCount) {
-        if (balanceCount > 0) {
-            // If the balance count is 0, the lexer and parser itself will catch it.
-            throw new IncompleteInputError(
-                    String.format("Parens on line %d are unbalanced; missing %d closing parens",
-                            lineno, balanceCount));
-        } else if (balanceCount < 0) {
-            throw new IncompleteInputError(
-                    String.format("Parens on line %d are unbalanced; missing %d opening parens",
-                            lineno, -balanceCount));
+        @Override
+        public Token nextToken() {
+            Token token = super.nextToken();
+            this.tracker.accept(token);
+            return token;
         }
     }
 
@@ -175,7 +287,11 @@ public class Parser {
 
         @Override
         public AstNode visitRawString(CalculatorGrammarParser.RawStringContext ctx) {
-            throw new UnsupportedOperationException();
+            Token token = ctx.getStart();
+            throw new ParseError(String.format(
+                    "Line %d, col %d: Strings are not supported",
+                    token.getLine(),
+                    token.getCharPositionInLine()));
         }
 
         @Override
@@ -0,0 +1,344 @@
+package calculator.parser;
+
+import calculator.ast.AstNode;
+import calculator.errors.IncompleteInputError;
+import calculator.errors.ParseError;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+
+/**
+ * A hand-written precedence-climbing parser for the Calculator's grammar (see
+ * CalculatorGrammarParser.g4) that builds AstNodes directly from a char array, without going
+ * through the ANTLR runtime, parse-tree contexts, or a visitor.
+ *
+ * It produces exactly the same ASTs as the ANTLR-based parser and throws the same kinds of
+ * errors: an IncompleteInputError if the input has unbalanced parentheses or ends with a line
+ * continuation (which always takes precedence over syntax errors), and a ParseError for any
+ * other syntax error, or for a string literal (which the grammar allows but the AST can't
+ * represent).
+ *
+ * A PrattParser reuses its buffers between calls, so it is NOT safe to share between threads.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class PrattParser {
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Binding power of the binary operators. Higher binds tighter.
+    private static final int NO_OPERATOR = 0;
+    private static final int ADDITIVE = 1;
+    private static final int MULTIPLICATIVE = 2;
+
+    private final FastLexer lexer;
+    private char[] buffer;
+    private char[] input;
+
+    // The (non-hidden) tokens of the input, stored column-wise
+    private int[] types;
+    private int[] starts;
+    private int[] ends;
+    private int[] lines;
+    private int[] columns;
+    private int numTokens;
+
+    private int current;
+    // The index of the first string token parsed, or -1 if there's none
+    private int firstRawString;
+
+    public PrattParser() {
+        this.lexer = new FastLexer();
+        this.buffer = new char[INITIAL_CAPACITY];
+        this.types = new int[INITIAL_CAPACITY];
+        this.starts = new int[INITIAL_CAPACITY];
+        this.ends = new int[INITIAL_CAPACITY];
+        this.lines = new int[INITIAL_CAPACITY];
+        this.columns = new int[INITIAL_CAPACITY];
+    }
+
+    public AstNode parse(String rawInput) {
+        return this.parse(rawInput, 1);
+    }
+
+    /**
+     * Parses 'rawInput', which starts on line 'firstLine' of some larger script, so that
+     * errors give positions in that script.
+     */
+    public AstNode parse(String rawInput, int firstLine) {
+        int length = rawInput.length();
+        if (this.buffer.length < length) {
+            this.buffer = new char[Math.max(length, this.buffer.length * 2)];
+        }
+        rawInput.getChars(0, length, this.buffer, 0);
+        return this.parse(this.buffer, 0, length, firstLine);
+    }
+
+    /**
+     * Parses the characters text[start] to text[end - 1].
+     */
+    public AstNode parse(char[] text, int start, int end) {
+        return this.parse(text, start, end, 1);
+    }
+
+    /**
+     * Parses the characters text[start] to text[end - 1], numbering their lines from
+     * 'firstLine'.
+     */
+    public AstNode parse(char[] text, int start, int end, int firstLine) {
+        this.input = text;
+        this.tokenize(text, start, end, firstLine);
+        this.current = 0;
+        this.firstRawString = -1;
+
+        AstNode program = this.parseProgram();
+        if (this.firstRawString >= 0) {
+            // The grammar accepts strings, but there's no AstNode for them. Like the ANTLR
+            // parser, we only say so once the whole input turned out to be otherwise valid.
+            throw new ParseError(String.format(
+                    "Line %d, col %d: Strings are not supported",
+                    this.lines[this.firstRawString],
+                    this.columns[this.firstRawString]));
+        }
+        return program;
+    }
+
+    /**
+     * Lexes the entire input up front, checking that it is complete as we go.
+     */
+    private void tokenize(char[] text, int start, int end, int firstLine) {
+        this.lexer.reset(text, start, end, firstLine);
+        this.numTokens = 0;
+
+        int balanceCount = 0;
+        boolean lastWasLineContinuation = false;
+        int type;
+        do {
+            type = this.lexer.nextToken();
+
+            if (type == FastLexer.LPAREN) {
+                balanceCount += 1;
+            } else if (type == FastLexer.RPAREN) {
+                balanceCount -= 1;
+            } else if (type == FastLexer.LINE_BREAK || type == FastLexer.EOF) {
+                verifyBalanceCount(this.lexer.getTokenLine(), balanceCount);
+            }
+
+            if (type == FastLexer.LINE_CONTINUATION) {
+                lastWasLineContinuation = true;
+            } else if (type != FastLexer.EOF) {
+                lastWasLineContinuation = false;
+                this.addToken();
+            }
+        } while (type != FastLexer.EOF);
+
+        if (lastWasLineContinuation) {
+            throw new IncompleteInputError("Line continuation at end of file at line " + this.lexer.getTokenLine());
+        }
+        this.addToken();
+    }
+
+    static void verifyBalanceCount(int lineno, int balanceCount) {
+        if (balanceCount > 0) {
+            throw new IncompleteInputError(
+                    String.format("Parens on line %d are unbalanced; missing %d closing parens",
+                            lineno, balanceCount));
+        } else if (balanceCount < 0) {
+            throw new IncompleteInputError(
+                    String.format("Parens on line %d are unbalanced; missing %d opening parens",
+                            lineno, -balanceCount));
+        }
+    }
+
+    private void addToken() {
+        if (this.numTokens == this.types.length) {
+            int capacity = this.types.length * 2;
+            this.types = grow(this.types, capacity);
+            this.starts = grow(this.starts, capacity);
+            this.ends = grow(this.ends, capacity);
+            this.lines = grow(this.lines, capacity);
+            this.columns = grow(this.columns, capacity);
+        }
+        this.types[this.numTokens] = this.lexer.getTokenType();
+        this.starts[this.numTokens] = this.lexer.getTokenStart();
+        this.ends[this.numTokens] = this.lexer.getTokenEnd();
+        this.lines[this.numTokens] = this.lexer.getTokenLine();
+        this.columns[this.numTokens] = this.lexer.getTokenColumn();
+        this.numTokens += 1;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] out = new int[capacity];
+        System.arraycopy(array, 0, out, 0, array.length);
+        return out;
+    }
+
+    // program : statement* EOF
+    private AstNode parseProgram() {
+        IList<AstNode> statements = new DoubleLinkedList<>();
+        while (this.peek() != FastLexer.EOF) {
+            statements.add(this.parseStatement());
+        }
+        return new AstNode("block", statements);
+    }
+
+    // statement : IDENTIFIER ':=' addExpr LINE_BREAK | addExpr LINE_BREAK
+    private AstNode parseStatement() {
+        AstNode statement;
+        if (this.peek() == FastLexer.IDENTIFIER && this.peekAhead(1) == FastLexer.ASSIGN) {
+            AstNode variable = new AstNode(this.text(this.current));
+            this.current += 2;
+            statement = new AstNode("assign", asList(variable, this.parseBinary(ADDITIVE)));
+        } else {
+            statement = this.parseBinary(ADDITIVE);
+        }
+        this.expect(FastLexer.LINE_BREAK);
+        return statement;
+    }
+
+    /**
+     * Parses a chain of left-associative binary operators with the given binding power,
+     * whose operands bind tighter. (The additive level is addExpr in the grammar, and the
+     * multiplicative level is multiplyExpr.)
+     */
+    private AstNode parseBinary(int minPower) {
+        AstNode left = minPower == MULTIPLICATIVE ? this.parseNegation() : this.parseBinary(minPower + 1);
+        while (bindingPower(this.peek()) == minPower) {
+            String operator = operatorName(this.peek());
+            this.current += 1;
+            AstNode right = minPower == MULTIPLICATIVE ? this.parseNegation() : this.parseBinary(minPower + 1);
+            left = new AstNode(operator, asList(left, right));
+        }
+        return left;
+    }
+
+    // negExpr : '-' negExpr | powExpr
+    private AstNode parseNegation() {
+        if (this.peek() == FastLexer.MINUS) {
+            this.current += 1;
+            return new AstNode("negate", asList(this.parseNegation()));
+        }
+        return this.parsePower();
+    }
+
+    // powExpr : atomExpr '^' powExpr | atomExpr
+    private AstNode parsePower() {
+        AstNode base = this.parseAtom();
+        if (this.peek() == FastLexer.POW) {
+            this.current += 1;
+            return new AstNode("^", asList(base, this.parsePower()));
+        }
+        return base;
+    }
+
+    // atomExpr : NUMBER | STRING | IDENTIFIER | IDENTIFIER '(' arglist ')' | '(' addExpr ')'
+    private AstNode parseAtom() {
+        int type = this.peek();
+        if (type == FastLexer.NUMBER) {
+            AstNode number = new AstNode(Double.parseDouble(this.text(this.current)));
+            this.current += 1;
+            return number;
+        } else if (type == FastLexer.STRING) {
+            if (this.firstRawString < 0) {
+                this.firstRawString = this.current;
+            }
+            this.current += 1;
+            return new AstNode(this.text(this.current - 1));
+        } else if (type == FastLexer.IDENTIFIER) {
+            String name = this.text(this.current);
+            this.current += 1;
+            if (this.peek() != FastLexer.LPAREN) {
+                return new AstNode(name);
+            }
+            this.current += 1;
+            IList<AstNode> arguments = new DoubleLinkedList<>();
+            if (this.peek() != FastLexer.RPAREN) {
+                arguments.add(this.parseBinary(ADDITIVE));
+                while (this.peek() == FastLexer.COMMA) {
+                    this.current += 1;
+                    arguments.add(this.parseBinary(ADDITIVE));
+                }
+            }
+            this.expect(FastLexer.RPAREN);
+            return new AstNode(name, arguments);
+        } else if (type == FastLexer.LPAREN) {
+            this.current += 1;
+            AstNode inner = this.parseBinary(ADDITIVE);
+            this.expect(FastLexer.RPAREN);
+            return inner;
+        } else {
+            throw this.unexpected();
+        }
+    }
+
+    private static int bindingPower(int type) {
+        if (type == FastLexer.PLUS || type == FastLexer.MINUS) {
+            return ADDITIVE;
+        } else if (type == FastLexer.MULTIPLY || type == FastLexer.DIVIDE) {
+            return MULTIPLICATIVE;
+        } else {
+            return NO_OPERATOR;
+        }
+    }
+
+    private static String operatorName(int type) {
+        switch (type) {
+            case FastLexer.PLUS: return "+";
+            case FastLexer.MINUS: return "-";
+            case FastLexer.MULTIPLY: return "*";
+            default: return "/";
+        }
+    }
+
+    private int peek() {
+        return this.types[this.current];
+    }
+
+    private int peekAhead(int distance) {
+        int index = Math.min(this.current + distance, this.numTokens - 1);
+        return this.types[index];
+    }
+
+    private void expect(int type) {
+        if (this.peek() != type) {
+            throw this.unexpected();
+        }
+        this.current += 1;
+    }
+
+    private String text(int index) {
+        return new String(this.input, this.starts[index], this.ends[index] - this.starts[index]);
+    }
+
+    private ParseError unexpected() {
+        String tokenText = this.types[this.current] == FastLexer.EOF ? "<EOF>" : this.text(this.current);
+        return new ParseError(String.format(
+                "Line %d, col %d: Unxpected '%s'",
+                this.lines[this.current],
+                this.columns[this.current],
+                escape(tokenText)));
+    }
+
+    private static String escape(String str) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < str.length(); i++) {
+            char ch = str.charAt(i);
+            if (ch == '\n') {
+                builder.append("\\n");
+            } else if (ch == '\r') {
+                builder.append("\\r");
+            } else if (ch == '\t') {
+                builder.append("\\t");
+            } else {
+                builder.append(ch);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static IList<AstNode> asList(AstNode... nodes) {
+        IList<AstNode> list = new DoubleLinkedList<>();
+        for (AstNode node : nodes) {
+            list.add(node);
+        }
+        return list;
+    }
+}
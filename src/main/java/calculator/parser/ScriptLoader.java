@@ -0,0 +1,156 @@
+package calculator.parser;
+
+import calculator.ast.AstNode;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses large scripts using several threads at once.
+ *
+ * The script is first split into chunks of roughly 'chunkSize' characters. Chunks only ever
+ * end right after a top-level line break (one that is not inside parentheses and not part of
+ * a line continuation), so every chunk is a sequence of complete statements. This split is a
+ * single cheap pass of the FastLexer, tracking the same paren balance that the parsers check
+ * before they accept an input.
+ *
+ * The chunks are then parsed in parallel on a ForkJoinPool, each thread using its own Parser,
+ * and the statements of all chunks are put back together into a single 'block' node, in their
+ * original order. The result is exactly what a single Parser would have returned for the
+ * whole script.
+ *
+ * If any chunk fails to parse, the whole script is reparsed on the calling thread, so that
+ * errors (and the line numbers in them) are also exactly the same as with a single Parser.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class ScriptLoader {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Parser> parsers;
+    private final int chunkSize;
+
+    /**
+     * Creates a script loader that uses the common ForkJoinPool and the fast parser.
+     */
+    public ScriptLoader() {
+        this(ForkJoinPool.commonPool(), true, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ScriptLoader(ForkJoinPool pool, boolean useFastParser, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.pool = pool;
+        this.parsers = ThreadLocal.withInitial(() -> new Parser(useFastParser));
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Parses the entire script into a single 'block' node.
+     *
+     * @throws calculator.errors.ParseError  if the script is not valid
+     */
+    public AstNode load(String script) {
+        int[] boundaries = this.findChunkBoundaries(script);
+        int numChunks = boundaries.length - 1;
+        if (numChunks <= 1) {
+            return this.parsers.get().parse(script);
+        }
+
+        AstNode[] blocks = new AstNode[numChunks];
+        try {
+            this.pool.invoke(new ParseTask(script, boundaries, blocks, 0, numChunks));
+        } catch (RuntimeException ex) {
+            // Reparse everything in one go, so the error is reported relative to the whole
+            // script instead of to whichever chunk happened to contain it.
+            return this.parsers.get().parse(script);
+        }
+
+        IList<AstNode> statements = new DoubleLinkedList<>();
+        for (AstNode block : blocks) {
+            for (AstNode statement : block.getChildren()) {
+                statements.add(statement);
+            }
+        }
+        return new AstNode("block", statements);
+    }
+
+    /**
+     * Returns the offsets at which the script should be split into chunks, starting with 0
+     * and ending with the length of the script.
+     */
+    int[] findChunkBoundaries(String script) {
+        char[] text = script.toCharArray();
+        FastLexer lexer = new FastLexer();
+        lexer.reset(text, 0, text.length);
+
+        int[] boundaries = new int[2 + text.length / this.chunkSize];
+        int numBoundaries = 1;
+        int chunkStart = 0;
+        int balanceCount = 0;
+
+        int type;
+        while ((type = lexer.nextToken()) != FastLexer.EOF) {
+            if (type == FastLexer.LPAREN) {
+                balanceCount += 1;
+            } else if (type == FastLexer.RPAREN) {
+                balanceCount -= 1;
+            } else if (type == FastLexer.LINE_BREAK && balanceCount == 0) {
+                int end = lexer.getTokenEnd();
+                if (end - chunkStart >= this.chunkSize && end < text.length) {
+                    if (numBoundaries == boundaries.length - 1) {
+                        int[] bigger = new int[boundaries.length * 2];
+                        System.arraycopy(boundaries, 0, bigger, 0, numBoundaries);
+                        boundaries = bigger;
+                    }
+                    boundaries[numBoundaries] = end;
+                    numBoundaries += 1;
+                    chunkStart = end;
+                }
+            }
+        }
+
+        boundaries[numBoundaries] = text.length;
+        numBoundaries += 1;
+        int[] out = new int[numBoundaries];
+        System.arraycopy(boundaries, 0, out, 0, numBoundaries);
+        return out;
+    }
+
+    /**
+     * Parses the chunks in the range [low, high), and stores each resulting 'block' node in
+     * the corresponding slot of 'blocks'.
+     */
+    private class ParseTask extends RecursiveAction {
+        private final String script;
+        private final int[] boundaries;
+        private final AstNode[] blocks;
+        private final int low;
+        private final int high;
+
+        public ParseTask(String script, int[] boundaries, AstNode[] blocks, int low, int high) {
+            this.script = script;
+            this.boundaries = boundaries;
+            this.blocks = blocks;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.high - this.low == 1) {
+                String chunk = this.script.substring(this.boundaries[this.low], this.boundaries[this.high]);
+                this.blocks[this.low] = ScriptLoader.this.parsers.get().parse(chunk);
+            } else {
+                int middle = (this.low + this.high) >>> 1;
+                invokeAll(
+                        new ParseTask(this.script, this.boundaries, this.blocks, this.low, middle),
+                        new ParseTask(this.script, this.boundaries, this.blocks, middle, this.high));
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package calculator.parser;
+
+import calculator.errors.ParseError;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a script read from a character stream into its top-level statements, one at a time,
+ * without ever holding more than the current statement in memory.
+ *
+ * A statement ends at the first line break that is not inside parentheses and not escaped by
+ * a line continuation, just like in the grammar. The input is read in small fixed-size blocks
+ * straight from the underlying Reader (which therefore doesn't need to be buffered), and each
+ * physical line is lexed exactly once.
+ *
+ * Each statement returned by 'nextStatement' can be handed to a Parser on its own. Splitting
+ * the script this way yields the same statements (and the same errors) as parsing the whole
+ * script at once, as long as the parser is told which line the statement starts on (see
+ * 'getStatementLine'), so that the line numbers in error messages are those of the script.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class StatementReader {
+    private static final int BLOCK_SIZE = 8192;
+
+    private final Reader input;
+    private final FastLexer lexer;
+    private final char[] block;
+    private int blockPos;
+    private int blockEnd;
+    private boolean reachedEnd;
+
+    private char[] line;
+    private int lineLength;
+    private final StringBuilder statement;
+
+    // The number of lines read so far, and the line the last statement returned starts on
+    private int numLines;
+    private int statementLine;
+
+    public StatementReader(Reader input) {
+        this.input = input;
+        this.lexer = new FastLexer();
+        this.block = new char[BLOCK_SIZE];
+        this.line = new char[128];
+        this.statement = new StringBuilder();
+        this.lexer.reset(this.line, 0, 0);
+    }
+
+    /**
+     * Returns the text of the next statement in the script (including the line break that
+     * ends it), or null if there are no more statements.
+     *
+     * @throws ParseError  if reading from the underlying stream fails
+     */
+    public String nextStatement() {
+        this.statement.setLength(0);
+        int balanceCount = 0;
+        boolean hasTokens = false;
+
+        while (this.readLine()) {
+            this.numLines += 1;
+            this.lexer.resume(this.line, 0, this.lineLength);
+            boolean lineHasTokens = false;
+            boolean endsStatement = false;
+
+            int type;
+            while ((type = this.lexer.nextToken()) != FastLexer.EOF) {
+                lineHasTokens = true;
+                if (type == FastLexer.LPAREN) {
+                    balanceCount += 1;
+                } else if (type == FastLexer.RPAREN) {
+                    balanceCount -= 1;
+                } else if (type == FastLexer.LINE_BREAK) {
+                    // Either the statement is done, or it has too many closing parens, in which
+                    // case the parser will reject it (and so the rest of the script).
+                    endsStatement = true;
+                }
+            }
+
+            if (!lineHasTokens && !hasTokens) {
+                // Blank lines directly after a statement are part of its line break.
+                continue;
+            }
+            if (!hasTokens) {
+                this.statementLine = this.numLines;
+            }
+            hasTokens = true;
+            this.statement.append(this.line, 0, this.lineLength);
+            if (endsStatement) {
+                return this.statement.toString();
+            }
+        }
+
+        if (!hasTokens) {
+            return null;
+        }
+        // Scripts don't need to end with a line break.
+        char last = this.statement.charAt(this.statement.length() - 1);
+        if (!FastLexer.isLineBreak(last)) {
+            this.statement.append('\n');
+        }
+        return this.statement.toString();
+    }
+
+    /**
+     * Returns the line of the script (counting from 1) that the statement last returned by
+     * 'nextStatement' starts on.
+     */
+    public int getStatementLine() {
+        return this.statementLine;
+    }
+
+    /**
+     * Reads the next physical line (including its '\n', if any) into 'line'. Returns false
+     * once the end of the stream has been reached.
+     */
+    private boolean readLine() {
+        this.lineLength = 0;
+        while (true) {
+            if (this.blockPos == this.blockEnd && !this.fillBlock()) {
+                return this.lineLength > 0;
+            }
+            char ch = this.block[this.blockPos];
+            this.blockPos += 1;
+
+            if (this.lineLength == this.line.length) {
+                char[] bigger = new char[this.line.length * 2];
+                System.arraycopy(this.line, 0, bigger, 0, this.lineLength);
+                this.line = bigger;
+            }
+            this.line[this.lineLength] = ch;
+            this.lineLength += 1;
+
+            if (ch == '\n') {
+                return true;
+            }
+        }
+    }
+
+    private boolean fillBlock() {
+        if (this.reachedEnd) {
+            return false;
+        }
+        try {
+            int numRead;
+            do {
+                numRead = this.input.read(this.block, 0, this.block.length);
+            } while (numRead == 0);
+
+            if (numRead < 0) {
+                this.reachedEnd = true;
+                return false;
+            }
+            this.blockPos = 0;
+            this.blockEnd = numRead;
+            return true;
+        } catch (IOException ex) {
+            throw new ParseError("Unable to read script: " + ex.getMessage(), ex);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package calculator.scheduler;
+
+import calculator.Calculator;
+import calculator.EvaluationContext;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Shares a fixed number of evaluation slots fairly between many Calculator sessions, so that
+ * one session running something expensive can't hold up everyone else.
+ *
+ * Each session has its own queue of inputs, which are evaluated one at a time and in order.
+ * At most 'numPermits' inputs (from different sessions) are evaluated at once. Slots are
+ * handed out by stride scheduling: every session keeps a "pass" that advances by the time it
+ * has spent evaluating, divided by its weight, and the waiting session with the lowest pass
+ * goes next. A session with weight 2 therefore gets twice the share of a session with weight 1
+ * when both are busy.
+ *
+ * Evaluations are preempted at checkpoints (see EvaluationContext): once an evaluation has
+ * used up its time slice and a session that is further behind is waiting, it is paused and
+ * its slot goes to that session. A short input submitted while long-running ones are busy
+ * therefore only has to wait for the end of the current time slice, not for them to finish.
+ *
+ * A paused evaluation keeps its thread, so evaluations run on threads of their own; only the
+ * number running at any moment is bounded. For the same reason, operations that would
+ * otherwise use several cores (like large plots) run on the evaluation's own thread.
+ *
+ * Cancelling the future returned by 'submit' cancels the input: if it is being evaluated, the
+ * evaluation is aborted at its next check (see EvaluationContext), and if it hasn't started
+ * yet, it never will be.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class FairScheduler implements Closeable {
+    public static final long DEFAULT_TIME_SLICE_NANOS = 2_000_000;
+
+    private final Object lock;
+    private final long timeSliceNanos;
+    private final ExecutorService threads;
+    private final PriorityQueue<Session> ready;
+    private final Set<Session> activeSessions;
+    private boolean closed;
+    private int freePermits;
+    private long virtualTime;
+    private long nextSequenceNumber;
+
+    // Metrics, all guarded by 'lock'
+    private int numQueuedJobs;
+    private long numStartedJobs;
+    private long numCompletedJobs;
+    private long numPreemptions;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    public FairScheduler(int numPermits) {
+        this(numPermits, DEFAULT_TIME_SLICE_NANOS);
+    }
+
+    public FairScheduler(int numPermits, long timeSliceNanos) {
+        if (numPermits <= 0) {
+            throw new IllegalArgumentException("Number of permits must be positive");
+        }
+        this.lock = new Object();
+        this.timeSliceNanos = timeSliceNanos;
+        this.threads = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "calculator-evaluation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ready = new PriorityQueue<>((a, b) -> {
+            int byPass = Long.compare(a.pass, b.pass);
+            return byPass != 0 ? byPass : Long.compare(a.readySince, b.readySince);
+        });
+        this.activeSessions = new HashSet<>();
+        this.closed = false;
+        this.freePermits = numPermits;
+        this.virtualTime = 0;
+    }
+
+    /**
+     * Creates a new session that evaluates its inputs using the given calculator. Sessions
+     * with a higher weight get a proportionally larger share of the slots.
+     */
+    public Session newSession(Calculator calculator, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be positive");
+        }
+        return new Session(calculator, weight);
+    }
+
+    /**
+     * Returns a snapshot of the scheduler's current state and statistics.
+     */
+    public SchedulerMetrics getMetrics() {
+        synchronized (this.lock) {
+            return new SchedulerMetrics(
+                    this.numQueuedJobs,
+                    this.ready.size(),
+                    this.numStartedJobs - this.numCompletedJobs,
+                    this.numCompletedJobs,
+                    this.numPreemptions,
+                    this.numStartedJobs == 0 ? 0 : this.totalWaitNanos / this.numStartedJobs,
+                    this.maxWaitNanos);
+        }
+    }
+
+    /**
+     * Stops the scheduler's threads once all evaluations currently running have finished.
+     * Inputs that haven't started yet are never evaluated: their futures complete with a
+     * RejectedExecutionException, as do those of inputs submitted after the scheduler is
+     * closed. Closing the scheduler again does nothing.
+     */
+    @Override
+    public void close() {
+        List<Job> rejected = new ArrayList<>();
+        synchronized (this.lock) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            for (Session session : this.activeSessions) {
+                rejected.addAll(session.queue);
+                session.queue.clear();
+            }
+            this.numQueuedJobs -= rejected.size();
+            // Paused sessions still need their turn to finish what they're running; everyone
+            // else was only waiting to start an input that's now gone.
+            this.ready.removeIf(session -> !session.paused);
+            this.threads.shutdown();
+        }
+        for (Job job : rejected) {
+            job.future.completeExceptionally(new RejectedExecutionException("Scheduler is closed"));
+        }
+    }
+
+    /**
+     * Hands out free slots to waiting sessions. Must be called while holding 'lock'.
+     */
+    private void dispatch() {
+        while (this.freePermits > 0 && !this.ready.isEmpty()) {
+            Session session = this.ready.poll();
+            this.freePermits -= 1;
+            this.virtualTime = Math.max(this.virtualTime, session.pass);
+            session.sliceStart = System.nanoTime();
+
+            if (session.paused) {
+                session.paused = false;
+                this.lock.notifyAll();
+            } else {
+                Job job = session.queue.poll();
+                this.numQueuedJobs -= 1;
+                this.numStartedJobs += 1;
+                long wait = session.sliceStart - job.submittedAt;
+                this.totalWaitNanos += wait;
+                this.maxWaitNanos = Math.max(this.maxWaitNanos, wait);
+                this.threads.execute(() -> session.run(job));
+            }
+        }
+    }
+
+    private void makeReady(Session session) {
+        session.readySince = this.nextSequenceNumber;
+        this.nextSequenceNumber += 1;
+        this.ready.add(session);
+    }
+
+    public class Session {
+        private final Calculator calculator;
+        private final int weight;
+        private final ArrayDeque<Job> queue;
+
+        // All guarded by 'lock'
+        private long pass;
+        private long readySince;
+        private boolean active;
+        private boolean paused;
+        private volatile long sliceStart;
+
+        private Session(Calculator calculator, int weight) {
+            this.calculator = calculator;
+            this.weight = weight;
+            this.queue = new ArrayDeque<>();
+        }
+
+        /**
+         * Returns a new context to evaluate one of this session's inputs under. Each input
+         * gets its own, so that cancelling one doesn't affect the others.
+         */
+        private EvaluationContext newContext() {
+            return new EvaluationContext() {
+                @Override
+                protected void check() {
+                    Session.this.maybeYield();
+                }
+
+                @Override
+                protected boolean allowsParallelism() {
+                    // Work on other threads couldn't be paused, and would take up more than
+                    // this session's share of the cores.
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Queues up the input to be evaluated after all inputs submitted to this session
+         * before it. The returned future completes with the output, or with the error
+         * evaluating it caused. Cancelling it cancels the input.
+         */
+        public CompletableFuture<String> submit(String input) {
+            Job job = new Job(input, this.newContext());
+            synchronized (FairScheduler.this.lock) {
+                if (FairScheduler.this.closed) {
+                    job.future.completeExceptionally(new RejectedExecutionException("Scheduler is closed"));
+                    return job.future;
+                }
+                this.queue.add(job);
+                FairScheduler.this.numQueuedJobs += 1;
+                if (!this.active) {
+                    // A session that was idle doesn't get credit for the time it wasn't
+                    // using, or it could monopolize the slots when it comes back.
+                    this.active = true;
+                    FairScheduler.this.activeSessions.add(this);
+                    this.pass = Math.max(this.pass, FairScheduler.this.virtualTime);
+                    FairScheduler.this.makeReady(this);
+                    FairScheduler.this.dispatch();
+                }
+            }
+            return job.future;
+        }
+
+        /**
+         * Returns the number of inputs waiting to be evaluated in this session (not counting
+         * the one being evaluated, if any).
+         */
+        public int getQueueDepth() {
+            synchronized (FairScheduler.this.lock) {
+                return this.queue.size();
+            }
+        }
+
+        private void run(Job job) {
+            String output = null;
+            Throwable error = null;
+            try {
+                if (!job.future.isCancelled()) {
+                    output = job.context.call(() -> this.calculator.evaluate(job.input));
+                }
+            } catch (Throwable ex) {
+                error = ex;
+            } finally {
+                try {
+                    synchronized (FairScheduler.this.lock) {
+                        this.charge(System.nanoTime());
+                        FairScheduler.this.numCompletedJobs += 1;
+                        FairScheduler.this.freePermits += 1;
+                        if (this.queue.isEmpty()) {
+                            this.active = false;
+                            FairScheduler.this.activeSessions.remove(this);
+                        } else {
+                            FairScheduler.this.makeReady(this);
+                        }
+                        FairScheduler.this.dispatch();
+                    }
+                } finally {
+                    // Only complete the future once the scheduler is done with the job, so
+                    // the metrics are up to date by the time anyone sees the result.
+                    if (error == null) {
+                        job.future.complete(output);
+                    } else {
+                        job.future.completeExceptionally(error);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Called at checkpoints on the thread running this session's current input. Pauses
+         * the evaluation if its time slice is up and another session should go first.
+         */
+        private void maybeYield() {
+            if (System.nanoTime() - this.sliceStart < FairScheduler.this.timeSliceNanos) {
+                return;
+            }
+            synchronized (FairScheduler.this.lock) {
+                this.charge(System.nanoTime());
+                Session next = FairScheduler.this.ready.peek();
+                if (next == null || next.pass >= this.pass) {
+                    // Nobody else needs the slot more than we do.
+                    return;
+                }
+
+                FairScheduler.this.numPreemptions += 1;
+                this.paused = true;
+                FairScheduler.this.makeReady(this);
+                FairScheduler.this.freePermits += 1;
+                FairScheduler.this.dispatch();
+
+                boolean interrupted = false;
+                while (this.paused) {
+                    try {
+                        FairScheduler.this.lock.wait();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Advances this session's pass by the time used since the slice started, and starts
+         * a new slice. Must be called while holding 'lock'.
+         */
+        private void charge(long now) {
+            this.pass += (now - this.sliceStart) / this.weight;
+            this.sliceStart = now;
+        }
+    }
+
+    private static class Job {
+        private final String input;
+        private final EvaluationContext context;
+        private final long submittedAt;
+        private final CompletableFuture<String> future;
+
+        public Job(String input, EvaluationContext context) {
+            this.input = input;
+            this.context = context;
+            this.submittedAt = System.nanoTime();
+            this.future = new CompletableFuture<String>() {
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    boolean cancelled = super.cancel(mayInterruptIfRunning);
+                    if (cancelled) {
+                        // Aborts the evaluation if it's running, or as soon as it starts if
+                        // it hasn't yet (although 'run' won't even start it).
+                        context.cancel();
+                    }
+                    return cancelled;
+                }
+            };
+        }
+    }
+}
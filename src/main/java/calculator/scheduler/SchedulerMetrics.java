@@ -0,0 +1,79 @@
+package calculator.scheduler;
+
+/**
+ * A snapshot of a FairScheduler's state and statistics.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class SchedulerMetrics {
+    private final int numQueuedJobs;
+    private final int numWaitingSessions;
+    private final long numRunningJobs;
+    private final long numCompletedJobs;
+    private final long numPreemptions;
+    private final long averageWaitNanos;
+    private final long maxWaitNanos;
+
+    public SchedulerMetrics(int numQueuedJobs, int numWaitingSessions, long numRunningJobs,
+                            long numCompletedJobs, long numPreemptions,
+                            long averageWaitNanos, long maxWaitNanos) {
+        this.numQueuedJobs = numQueuedJobs;
+        this.numWaitingSessions = numWaitingSessions;
+        this.numRunningJobs = numRunningJobs;
+        this.numCompletedJobs = numCompletedJobs;
+        this.numPreemptions = numPreemptions;
+        this.averageWaitNanos = averageWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    /**
+     * Returns the total number of inputs, over all sessions, that have been submitted but
+     * haven't started evaluating yet.
+     */
+    public int getNumQueuedJobs() {
+        return this.numQueuedJobs;
+    }
+
+    /**
+     * Returns the number of sessions waiting for a slot, either to start their next input or
+     * to resume one that was preempted.
+     */
+    public int getNumWaitingSessions() {
+        return this.numWaitingSessions;
+    }
+
+    /**
+     * Returns the number of inputs that have started but not finished evaluating (including
+     * ones that are currently preempted).
+     */
+    public long getNumRunningJobs() {
+        return this.numRunningJobs;
+    }
+
+    public long getNumCompletedJobs() {
+        return this.numCompletedJobs;
+    }
+
+    public long getNumPreemptions() {
+        return this.numPreemptions;
+    }
+
+    /**
+     * Returns the average time between an input being submitted and it starting to evaluate.
+     */
+    public long getAverageWaitNanos() {
+        return this.averageWaitNanos;
+    }
+
+    public long getMaxWaitNanos() {
+        return this.maxWaitNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "queued=%d waiting=%d running=%d completed=%d preemptions=%d avgWait=%.1fus maxWait=%.1fus",
+                this.numQueuedJobs, this.numWaitingSessions, this.numRunningJobs, this.numCompletedJobs,
+                this.numPreemptions, this.averageWaitNanos / 1e3, this.maxWaitNanos / 1e3);
+    }
+}
@@ -0,0 +1,333 @@
+package calculator.server;
+
+import calculator.Calculator;
+import calculator.CalculatorEngine;
+import calculator.errors.EvaluationError;
+import calculator.errors.QuitError;
+import calculator.parser.ParseSession;
+import calculator.scheduler.FairScheduler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A server that lets other programs on the same machine use the calculator over a socket,
+ * without starting a JVM (let alone a GUI) of their own.
+ *
+ * The protocol is line-based, using UTF-8. Clients send input exactly as they would type it
+ * into the REPL, one line at a time. Once the lines sent so far form a complete input, the
+ * server evaluates it and sends back a single line: either the result, or "ERROR: " followed
+ * by the error message. Sending "quit()" closes the connection.
+ *
+ * Every connection gets its own Calculator session (so its own variables), and is served by
+ * its own thread: a virtual thread if the JVM supports them, or a regular one otherwise.
+ * Requests may be pipelined: a client can send many inputs without waiting for the responses.
+ * They are evaluated in order, and responses are buffered and only flushed once the server
+ * has caught up with everything the client has sent so far.
+ *
+ * The end of the client's input (which is all the server sees when a client closes just its
+ * sending side, or closes its connection normally) only means it has finished sending: every
+ * input sent before it is still answered, and then the connection is closed. A connection
+ * that breaks, being reset or failing to be written to, means the client has gone away: the
+ * input being evaluated at that point, if any, is cancelled, and the inputs after it are
+ * dropped.
+ *
+ * At most MAX_QUEUED_LINES lines a client has sent are kept waiting to be evaluated. Once
+ * that many are, the server stops reading from the client until it catches up, so a client
+ * that sends faster than it is served is held back by TCP rather than filling up the heap.
+ *
+ * Optionally, evaluations can go through a FairScheduler, which bounds how many run at once
+ * and keeps one client's expensive inputs from holding up everyone else's. The server closes
+ * the scheduler when it is closed itself.
+ *
+ * The server only listens on the loopback interface. Plotting is not supported by the server:
+ * inputs that try to plot get an error back.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class CalculatorServer implements Closeable {
+    public static final int DEFAULT_PORT = 7070;
+    private static final int BACKLOG = 128;
+    private static final int MAX_QUEUED_LINES = 1024;
+
+    // Queued once the client has finished sending, or has gone away. Compared by identity.
+    private static final String END_OF_INPUT = new String();
+
+    private final CalculatorEngine engine;
+    private final FairScheduler scheduler;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionThreads;
+    private final Set<Connection> openConnections;
+    private volatile boolean closed;
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        FairScheduler scheduler = new FairScheduler(Runtime.getRuntime().availableProcessors());
+        CalculatorServer server = new CalculatorServer(port, CalculatorEngine.get(true, false), scheduler);
+        System.out.println("Listening on " + server.serverSocket.getLocalSocketAddress());
+        server.serve();
+    }
+
+    /**
+     * Creates a server listening on the given port (or on any free port, if 'port' is 0).
+     * The server doesn't accept connections until 'start' or 'serve' is called.
+     */
+    public CalculatorServer(int port, CalculatorEngine engine) throws IOException {
+        this(port, engine, null);
+    }
+
+    /**
+     * Creates a server like the constructor above, but which evaluates all inputs through
+     * the given scheduler (if it isn't null).
+     */
+    public CalculatorServer(int port, CalculatorEngine engine, FairScheduler scheduler) throws IOException {
+        this.engine = engine;
+        this.scheduler = scheduler;
+        this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        this.connectionThreads = newConnectionExecutor();
+        this.openConnections = ConcurrentHashMap.newKeySet();
+        this.closed = false;
+    }
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread, if this JVM supports
+     * virtual threads, or on a (cached) platform thread otherwise.
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "calculator-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * Starts accepting connections on a background thread, and returns immediately.
+     */
+    public void start() {
+        Thread acceptor = new Thread(this::serve, "calculator-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Accepts connections on the current thread until the server is closed.
+     */
+    public void serve() {
+        while (!this.closed) {
+            Socket socket;
+            try {
+                socket = this.serverSocket.accept();
+            } catch (IOException ex) {
+                if (this.closed) {
+                    return;
+                }
+                continue;
+            }
+            Connection connection = new Connection(socket, this.engine.newSession());
+            this.openConnections.add(connection);
+            if (this.closed) {
+                // close() may have missed it
+                connection.cancel();
+            }
+            this.connectionThreads.execute(() -> this.handle(connection));
+        }
+    }
+
+    /**
+     * Stops accepting new connections, cancels the inputs being evaluated, closes all open
+     * connections, and closes the scheduler (if there is one).
+     */
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.serverSocket.close();
+        for (Connection connection : this.openConnections) {
+            connection.cancel();
+        }
+        this.connectionThreads.shutdown();
+        if (this.scheduler != null) {
+            this.scheduler.close();
+        }
+    }
+
+    /**
+     * Serves a connection on the current thread, until the client has finished sending and
+     * every input it sent is answered, or until it goes away. The lines the client sends are
+     * read on another thread, so that the client going away is noticed (and the input being
+     * evaluated cancelled) without waiting for the evaluation to finish.
+     */
+    private void handle(Connection connection) {
+        try {
+            connection.socket.setTcpNoDelay(true);
+            Writer output = new BufferedWriter(
+                    new OutputStreamWriter(connection.socket.getOutputStream(), StandardCharsets.UTF_8));
+            if (this.scheduler != null) {
+                connection.scheduled = this.scheduler.newSession(connection.calculator, 1);
+            }
+            this.connectionThreads.execute(connection::read);
+            ParseSession session = new ParseSession();
+
+            String line;
+            while ((line = connection.lines.take()) != END_OF_INPUT && !connection.disconnected) {
+                try {
+                    if (session.feed(line)) {
+                        String text = session.getText();
+                        session.reset();
+                        writeLine(output, connection.evaluate(text));
+                    }
+                } catch (EvaluationError ex) {
+                    writeLine(output, "ERROR: " + ex.getMessage());
+                } catch (QuitError ex) {
+                    break;
+                } catch (RuntimeException ex) {
+                    // Don't let anything unexpected take the connection down
+                    session.reset();
+                    writeLine(output, "ERROR: " + ex);
+                }
+                // Only flush once we've handled everything the client has sent so far, so that
+                // pipelined requests get their responses in as few packets as possible.
+                if (connection.lines.isEmpty()) {
+                    output.flush();
+                }
+            }
+            output.flush();
+        } catch (IOException | InterruptedException | RejectedExecutionException ex) {
+            // The client (or the server) went away; nothing left to do but clean up.
+            connection.cancel();
+        } finally {
+            this.openConnections.remove(connection);
+            connection.close();
+        }
+    }
+
+    /**
+     * The state of a single client's connection.
+     */
+    private static class Connection {
+        private final Socket socket;
+        private final Calculator calculator;
+        private final BlockingQueue<String> lines;
+        private FairScheduler.Session scheduled;
+        private volatile CompletableFuture<String> pending;
+        private volatile boolean disconnected;
+
+        public Connection(Socket socket, Calculator calculator) {
+            this.socket = socket;
+            this.calculator = calculator;
+            this.lines = new LinkedBlockingQueue<>(MAX_QUEUED_LINES);
+            this.disconnected = false;
+        }
+
+        /**
+         * Reads the lines the client sends until it has finished sending, waiting whenever
+         * MAX_QUEUED_LINES of them are queued. If the connection breaks instead, cancels
+         * whatever is being evaluated.
+         */
+        public void read() {
+            try {
+                BufferedReader input = new BufferedReader(
+                        new InputStreamReader(this.socket.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = input.readLine()) != null && !this.disconnected) {
+                    this.lines.put(line);
+                }
+                this.lines.put(END_OF_INPUT);
+            } catch (IOException | InterruptedException ex) {
+                this.cancel();
+            }
+        }
+
+        /**
+         * Marks the client as gone, drops the lines it sent that haven't been evaluated yet,
+         * cancels the input being evaluated (if any), and closes the socket. May be called
+         * from any thread, any number of times.
+         */
+        public void cancel() {
+            this.disconnected = true;
+            // Clearing the queue also lets a reader waiting for room in it move on.
+            this.lines.clear();
+            this.lines.offer(END_OF_INPUT);
+            this.calculator.cancel();
+            CompletableFuture<String> future = this.pending;
+            if (future != null) {
+                future.cancel(true);
+            }
+            this.close();
+        }
+
+        /**
+         * Closes the socket, which also stops the reader. May be called from any thread, any
+         * number of times.
+         */
+        public void close() {
+            try {
+                this.socket.close();
+            } catch (IOException ex) {
+                // Ignore
+            }
+        }
+
+        public String evaluate(String text) {
+            if (this.scheduled == null) {
+                return this.calculator.evaluate(text);
+            }
+            CompletableFuture<String> future = this.scheduled.submit(text);
+            this.pending = future;
+            try {
+                if (this.disconnected) {
+                    // cancel() may have missed it
+                    future.cancel(true);
+                }
+                return future.join();
+            } catch (CompletionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new EvaluationError(cause);
+            } finally {
+                this.pending = null;
+            }
+        }
+    }
+
+    private static void writeLine(Writer output, String response) throws IOException {
+        // Every response must be exactly one line, or clients will lose track of which
+        // response belongs to which request.
+        output.write(response.replace("\r", "\\r").replace("\n", "\\n"));
+        output.write('\n');
+    }
+}
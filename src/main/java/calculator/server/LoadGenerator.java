@@ -0,0 +1,186 @@
+package calculator.server;
+
+import calculator.CalculatorEngine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A client that puts load on a CalculatorServer and reports latency and throughput. Usage:
+ *
+ *     java calculator.server.LoadGenerator [PORT [CONNECTIONS [REQUESTS [DEPTH]]]]
+ *
+ * Opens CONNECTIONS connections to the server on localhost at PORT (or to a server started
+ * inside this JVM, if PORT is 0 or missing), and sends REQUESTS requests over each of them,
+ * keeping up to DEPTH requests in flight per connection. The latency of a request is the
+ * time from sending it to receiving its response.
+ *
+ * You should not need to read this file in order to complete the assignment.
+ */
+public class LoadGenerator {
+    public static final int DEFAULT_CONNECTIONS = 16;
+    public static final int DEFAULT_REQUESTS = 10000;
+    public static final int DEFAULT_DEPTH = 8;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        int numConnections = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CONNECTIONS;
+        int numRequests = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_REQUESTS;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_DEPTH;
+
+        CalculatorServer server = null;
+        if (port == 0) {
+            System.setProperty("java.awt.headless", "true");
+            server = new CalculatorServer(0, CalculatorEngine.get(true, false));
+            server.start();
+            port = server.getPort();
+        }
+
+        // A short warm-up, so we don't mostly measure the JIT.
+        run(port, numConnections, Math.min(numRequests, 1000), depth);
+        Result result = run(port, numConnections, numRequests, depth);
+        System.out.println(result);
+
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /**
+     * Sends 'numRequests' requests over each of 'numConnections' connections to the server on
+     * localhost at 'port', with at most 'depth' requests in flight per connection.
+     *
+     * @throws IOException  if a connection fails, or the server sends back an error
+     */
+    public static Result run(int port, int numConnections, int numRequests, int depth)
+            throws IOException, InterruptedException {
+        long[][] latencies = new long[numConnections][];
+        IOException[] errors = new IOException[numConnections];
+        Thread[] threads = new Thread[numConnections];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < numConnections; i++) {
+            int id = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    latencies[id] = runConnection(port, id, numRequests, depth);
+                } catch (IOException ex) {
+                    errors[id] = ex;
+                }
+            }, "load-generator-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        for (IOException error : errors) {
+            if (error != null) {
+                throw error;
+            }
+        }
+        long[] all = new long[numConnections * numRequests];
+        for (int i = 0; i < numConnections; i++) {
+            System.arraycopy(latencies[i], 0, all, i * numRequests, numRequests);
+        }
+        Arrays.sort(all);
+        return new Result(all, elapsed);
+    }
+
+    private static long[] runConnection(int port, int id, int numRequests, int depth) throws IOException {
+        long[] sentAt = new long[numRequests];
+        long[] latencies = new long[numRequests];
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            Writer output = new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            BufferedReader input = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            int numSent = 0;
+            for (int received = 0; received < numRequests; received++) {
+                // Top up the pipeline, then wait for the oldest outstanding response.
+                while (numSent < numRequests && numSent - received < depth) {
+                    output.write(request(id, numSent));
+                    sentAt[numSent] = System.nanoTime();
+                    numSent += 1;
+                }
+                output.flush();
+
+                String response = input.readLine();
+                if (response == null) {
+                    throw new IOException("Server closed the connection");
+                } else if (response.startsWith("ERROR")) {
+                    throw new IOException("Server returned " + response);
+                }
+                latencies[received] = System.nanoTime() - sentAt[received];
+            }
+            output.write("quit()\n");
+            output.flush();
+        }
+        return latencies;
+    }
+
+    /**
+     * Returns the i-th request to send: alternately a short assignment, and a numeric
+     * expression using the variable it assigned.
+     */
+    private static String request(int connection, int i) {
+        if (i % 2 == 0) {
+            return "x := " + (connection + i) + "\n";
+        } else {
+            return "toDouble(3 * sin(x) + (x - 2) ^ 2 / 7)\n";
+        }
+    }
+
+    public static class Result {
+        private final long[] sortedLatencies;
+        private final long elapsedNanos;
+
+        public Result(long[] sortedLatencies, long elapsedNanos) {
+            this.sortedLatencies = sortedLatencies;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getNumRequests() {
+            return this.sortedLatencies.length;
+        }
+
+        /**
+         * Returns the given percentile (between 0 and 100) of the request latencies, in
+         * nanoseconds.
+         */
+        public long getLatencyPercentile(double percentile) {
+            if (this.sortedLatencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * this.sortedLatencies.length) - 1;
+            return this.sortedLatencies[Math.max(0, Math.min(index, this.sortedLatencies.length - 1))];
+        }
+
+        /**
+         * Returns the number of requests handled per second.
+         */
+        public double getThroughput() {
+            return this.sortedLatencies.length / (this.elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests: %d%np50:        %.1f us%np99:        %.1f us%nthroughput: %.0f requests/sec",
+                    this.getNumRequests(),
+                    this.getLatencyPercentile(50) / 1e3,
+                    this.getLatencyPercentile(99) / 1e3,
+                    this.getThroughput());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package datastructures.concrete.dictionaries;
+
+import datastructures.interfaces.IDictionary;
+
+/**
+ * ReadOnlyDictionary provides a read-only view of another IDictionary.
+ *
+ * The dictionary can't be modified through an instance of this class, and any method that
+ * mutates the dictionary (put, remove) will throw an UnsupportedOperationException instead.
+ * Note that anyone with a reference to the original dictionary can still modify it (which will
+ * affect this dictionary since it's only a view), so the dictionary is not truly immutable.
+ */
+public class ReadOnlyDictionary<K, V> implements IDictionary<K, V> {
+    private final IDictionary<K, V> dictionary;
+
+    /**
+     * Creates a read-only view of the dictionary.
+     */
+    public ReadOnlyDictionary(IDictionary<K, V> dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public V get(K key) {
+        return dictionary.get(key);
+    }
+
+    @Override
+    public V getOrDefault(K key, V defaultValue) {
+        return dictionary.getOrDefault(key, defaultValue);
+    }
+
+    /**
+     * @throws UnsupportedOperationException This method is not supported on a ReadOnlyDictionary.
+     */
+    @Override
+    public void put(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @throws UnsupportedOperationException This method is not supported on a ReadOnlyDictionary.
+     */
+    @Override
+    public V remove(K key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return dictionary.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return dictionary.size();
+    }
+}
@@ -1,7 +1,15 @@
 package calculator;
 
+import calculator.ast.AstNode;
+import calculator.ast.operators.ExpressionOperators;
+import calculator.errors.EvaluationAbortedError;
 import calculator.errors.EvaluationError;
+import calculator.errors.MemoryLimitExceededError;
 import calculator.gui.ImageDrawer;
+import calculator.parser.ScriptLoader;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.dictionaries.ArrayDictionary;
+import datastructures.interfaces.IDictionary;
 import datastructures.interfaces.IList;
 import misc.BaseTest;
 import org.junit.FixMethodOrder;
@@ -9,11 +17,25 @@ import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
 import java.awt.geom.Rectangle2D;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ForkJoinPool;
 
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class TestCalculator extends BaseTest {
+    // A plot of a million points of a long expression, which takes several seconds
+    private static final String SLOW_PLOT;
+
+    static {
+        StringBuilder plot = new StringBuilder("plot(x");
+        for (int i = 0; i < 200; i++) {
+            plot.append(" + sin(x)");
+        }
+        SLOW_PLOT = plot.append(", x, 0, 1, 0.000001)").toString();
+    }
 
     @Test(timeout=SECOND)
     public void basicTestToDouble() {
@@ -148,11 +170,12 @@ public class TestCalculator extends BaseTest {
         calc.setImageDrawer(drawer);
 
         calc.evaluate("plot(3 * x, x, 0, 10, 1)");
-        IList<Double> xs = drawer.lastXValues;
-        IList<Double> ys = drawer.lastYValues;
+        double[] xs = drawer.lastXValues;
+        double[] ys = drawer.lastYValues;
+        assertEquals(11, xs.length);
         for (int i = 0; i <= 10; i += 1) {
-            assertEquals((double) i, xs.get(i));
-            assertEquals(3.0 * i, ys.get(i));
+            assertEquals((double) i, xs[i]);
+            assertEquals(3.0 * i, ys[i]);
         }
 
         calc.evaluate("c := 4");
@@ -162,10 +185,328 @@ public class TestCalculator extends BaseTest {
         ys = drawer.lastYValues;
         int index = 0;
         for (double i = -10; i <= 10; i += 0.25) {
-            assertEquals(i, xs.get(index));
-            assertEquals(i * i + 4 * i + 4, ys.get(index));
+            assertEquals(i, xs[index]);
+            assertEquals(i * i + 4 * i + 4, ys[index]);
             index += 1;
         }
+        assertEquals(index, xs.length);
+    }
+
+    @Test(timeout=SECOND)
+    public void testPlotMatchesToDouble() {
+        FakeImageDrawer drawer = new FakeImageDrawer();
+        Calculator calc = new Calculator(drawer);
+        calc.evaluate("c := 2.5");
+        calc.evaluate("f := sin(t * c) ^ 2 / (1 + t) - cos(c * 3) + -t");
+        calc.evaluate("plot(f * c + 1 / 3, t, -3, 7, 0.1)");
+        double[] xs = drawer.lastXValues;
+        double[] ys = drawer.lastYValues;
+        assertEquals(101, xs.length);
+        for (int i = 0; i < xs.length; i++) {
+            // -3 is a multiple of the step, so the points are too.
+            assertEquals((i - 30) * 0.1, xs[i]);
+            calc.evaluate("t := " + xs[i]);
+            String expected = calc.evaluate("toDouble(f * c + 1 / 3)");
+            assertEquals(expected, new AstNode(ys[i]).toString());
+            assertEquals(Double.parseDouble(expected), ys[i]);
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testLargePlotMatchesToDouble() {
+        FakeImageDrawer drawer = new FakeImageDrawer();
+        Calculator calc = new Calculator(drawer);
+        calc.evaluate("plot(sin(t) * t + cos(t / 3) ^ 2, t, -1000, 1000, 0.01)");
+        double[] xs = drawer.lastXValues;
+        double[] ys = drawer.lastYValues;
+        // All 200001 points are sampled, but only a few per column are drawn (with enough
+        // columns that the ImageDrawer still rasterizes them).
+        assertTrue(xs.length <= 4 * ImageDrawer.RASTER_THRESHOLD);
+        assertTrue(xs.length > ImageDrawer.RASTER_THRESHOLD);
+        assertEquals(-1000.0, xs[0]);
+        assertEquals(1000.0, xs[xs.length - 1]);
+        for (int i = 0; i < xs.length; i += 7) {
+            long index = Math.round(xs[i] / 0.01);
+            assertEquals(index * 0.01, xs[i]);
+            calc.evaluate("t := " + xs[i]);
+            assertEquals(calc.evaluate("toDouble(sin(t) * t + cos(t / 3) ^ 2)"), new AstNode(ys[i]).toString());
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testDownsampledPlotsAreStillRasterized() {
+        FakeImageDrawer drawer = new FakeImageDrawer();
+        Calculator calc = new Calculator(drawer);
+        // Only the first and last points of each column are kept, since x ^ 10 only goes up
+        // (and steeply, so drawing those as separate points would leave gaps).
+        calc.evaluate("plot(x ^ 10, x, 0, 10, 0.0001)");
+        assertTrue(drawer.lastXValues.length < 100001);
+        assertTrue(drawer.lastXValues.length > ImageDrawer.RASTER_THRESHOLD);
+
+        // Too few points left to rasterize, so they're all drawn.
+        calc.evaluate("plot(x ^ 0.5, x, -10, 0.01, 0.0001)");
+        assertEquals(100101, drawer.lastXValues.length);
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testExpensivePlotShowsPartialResults() {
+        FakeImageDrawer drawer = new FakeImageDrawer();
+        Calculator calc = new Calculator(drawer);
+        calc.evaluate("plot(sin(t) * t + cos(t / 3) ^ 2, t, 0, 10, 0.00001)");
+        assertTrue(drawer.numPartialPlots >= 1);
+        assertTrue(drawer.firstPartialPlotSize <= 512);
+
+        // The finished plot is drawn from all the points.
+        double[] xs = drawer.lastXValues;
+        double[] ys = drawer.lastYValues;
+        assertEquals(0.0, xs[0]);
+        assertEquals(10.0, xs[xs.length - 1]);
+        for (int i = 0; i < xs.length; i += 11) {
+            long index = Math.round(xs[i] / 0.00001);
+            assertEquals(index * 0.00001, xs[i]);
+            calc.evaluate("t := " + xs[i]);
+            assertEquals(calc.evaluate("toDouble(sin(t) * t + cos(t / 3) ^ 2)"), new AstNode(ys[i]).toString());
+        }
+        for (int i = 1; i < xs.length; i++) {
+            assertTrue(xs[i - 1] < xs[i]);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testDownsampledPlotKeepsExtremes() {
+        FakeImageDrawer drawer = new FakeImageDrawer();
+        Calculator calc = new Calculator(drawer);
+        calc.evaluate("plot(sin(x * 3000), x, 0, 10, 0.00003)");
+        double[] xs = drawer.lastXValues;
+        double[] ys = drawer.lastYValues;
+        assertTrue(xs.length <= 4 * ImageDrawer.RASTER_THRESHOLD);
+
+        int numPeaks = 0;
+        int numTroughs = 0;
+        for (int i = 0; i < xs.length; i++) {
+            if (i > 0) {
+                assertTrue(xs[i - 1] < xs[i]);
+            }
+            numPeaks += ys[i] > 0.99 ? 1 : 0;
+            numTroughs += ys[i] < -0.99 ? 1 : 0;
+        }
+        // Every one of the RASTER_THRESHOLD columns covers over a full period, so each keeps a
+        // peak and a trough.
+        assertTrue(numPeaks >= ImageDrawer.RASTER_THRESHOLD);
+        assertTrue(numTroughs >= ImageDrawer.RASTER_THRESHOLD);
+    }
+
+    @Test(timeout=SECOND)
+    public void testPlotSeveralExpressions() {
+        FakeImageDrawer drawer = new FakeImageDrawer();
+        Calculator calc = new Calculator(drawer);
+        calc.evaluate("c := 2.5");
+        calc.evaluate("plot(sin(t) * c, sin(t) * cos(t), t ^ 2 / c, t, -3, 7, 0.1)");
+        assertEquals(3, drawer.lastSeriesNames.length);
+        assertEquals("sin(t) * c", drawer.lastSeriesNames[0]);
+        assertEquals("t ^ 2 / c", drawer.lastSeriesNames[2]);
+
+        String[] expressions = {"sin(t) * c", "sin(t) * cos(t)", "t ^ 2 / c"};
+        for (int s = 0; s < expressions.length; s++) {
+            double[] xs = drawer.lastSeriesXValues[s];
+            double[] ys = drawer.lastSeriesYValues[s];
+            assertEquals(101, xs.length);
+            for (int i = 0; i < xs.length; i++) {
+                assertEquals((i - 30) * 0.1, xs[i]);
+                calc.evaluate("t := " + xs[i]);
+                assertEquals(calc.evaluate("toDouble(" + expressions[s] + ")"), new AstNode(ys[i]).toString());
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testAdaptivePlotSeveralExpressions() {
+        FakeImageDrawer drawer = new FakeImageDrawer();
+        Calculator calc = new Calculator(drawer);
+        calc.evaluate("plot(3 + 0 * x, 1 / x, x, x, -1, 1)");
+        assertEquals(3, drawer.lastSeriesNames.length);
+
+        // The flat series doesn't get in the way of the one with a singularity.
+        double[] xs = drawer.lastSeriesXValues[1];
+        int nearZero = 0;
+        for (double x : xs) {
+            nearZero += Math.abs(x) < 0.01 ? 1 : 0;
+        }
+        assertTrue(nearZero > 10);
+        for (int s = 0; s < 3; s++) {
+            for (int i = 0; i < drawer.lastSeriesXValues[s].length; i++) {
+                double x = drawer.lastSeriesXValues[s][i];
+                double[] expected = {3, 1 / x, x};
+                assertEquals(expected[s], drawer.lastSeriesYValues[s][i]);
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testPlot2d() {
+        FakeImageDrawer drawer = new FakeImageDrawer();
+        Calculator calc = new Calculator(drawer);
+        calc.evaluate("c := 1");
+        calc.evaluate("plot2d(x * y + c, x, 0, 2, y, -1, 1, 5)");
+        assertEquals("x", drawer.lastXAxisLabel);
+        assertEquals("y", drawer.lastYAxisLabel);
+        assertEquals(0.0, drawer.lastBounds[0]);
+        assertEquals(2.0, drawer.lastBounds[1]);
+        assertEquals(-1.0, drawer.lastBounds[2]);
+        assertEquals(1.0, drawer.lastBounds[3]);
+        assertEquals(5, drawer.lastHeatmap.length);
+        for (int row = 0; row < 5; row++) {
+            assertEquals(5, drawer.lastHeatmap[row].length);
+            for (int column = 0; column < 5; column++) {
+                double x = column * 0.5;
+                double y = -1 + row * 0.5;
+                assertEquals(x * y + 1, drawer.lastHeatmap[row][column]);
+            }
+        }
+        assertEquals("x", calc.evaluate("x"));
+        assertEquals("y", calc.evaluate("y"));
+
+        // About a point per pixel by default
+        calc.evaluate("plot2d(x * y, x, 0, 1, y, 0, 1)");
+        assertEquals(800, drawer.lastHeatmap.length);
+        assertEquals(800, drawer.lastHeatmap[0].length);
+    }
+
+    @Test(timeout=SECOND)
+    public void testContour() {
+        FakeImageDrawer drawer = new FakeImageDrawer();
+        Calculator calc = new Calculator(drawer);
+
+        // Without levels, the curve where the expression is 0
+        calc.evaluate("contour(x^2 + y^2 - 1, x, -2, 2, y, -2, 2)");
+        assertEquals(1, drawer.lastLevels.length);
+        assertEquals(0.0, drawer.lastLevels[0]);
+        double[] segments = drawer.lastSegments[0];
+        assertTrue(segments.length > 0);
+        for (int i = 0; i < segments.length; i += 2) {
+            assertTrue(Math.abs(Math.hypot(segments[i], segments[i + 1]) - 1) < 1e-3);
+        }
+
+        calc.evaluate("contour(x + y, x, 0, 1, y, 0, 1, 3, 21)");
+        assertEquals(3, drawer.lastLevels.length);
+        assertEquals(0.5, drawer.lastLevels[0]);
+        assertEquals(1.0, drawer.lastLevels[1]);
+        assertEquals(1.5, drawer.lastLevels[2]);
+        for (int level = 0; level < 3; level++) {
+            segments = drawer.lastSegments[level];
+            assertTrue(segments.length > 0);
+            for (int i = 0; i < segments.length; i += 2) {
+                assertTrue(Math.abs(segments[i] + segments[i + 1] - drawer.lastLevels[level]) < 1e-9);
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testPlot2dOnInvalidInputThrowsException() {
+        Calculator calc = new Calculator(new FakeImageDrawer());
+        String[] invalid = {
+            // Too few or too many arguments
+            "plot2d(x * y, x, 0, 1, y, 0)",
+            "plot2d(x * y, x, 0, 1, y, 0, 1, 10, 3)",
+            "contour(x * y, x, 0, 1, y, 0, 1, 3, 10, 2)",
+            // The same variable twice, or not a variable
+            "plot2d(x * x, x, 0, 1, x, 0, 1)",
+            "plot2d(x * y, x, 0, 1, 2 * y, 0, 1)",
+            // Undefined variables in the expression or the bounds
+            "plot2d(x * z, x, 0, 1, y, 0, 1)",
+            "plot2d(x * y, x, 0, z, y, 0, 1)",
+            // Bounds the wrong way around
+            "plot2d(x * y, x, 0, 1, y, 1, 0)",
+            // Bad resolutions and numbers of levels
+            "plot2d(x * y, x, 0, 1, y, 0, 1, 1)",
+            "plot2d(x * y, x, 0, 1, y, 0, 1, 2.5)",
+            "plot2d(x * y, x, 0, 1, y, 0, 1, 1000000)",
+            "contour(x * y, x, 0, 1, y, 0, 1, 0)",
+            "contour(x * y, x, 0, 1, y, 0, 1, 1000)",
+        };
+        for (String input : invalid) {
+            try {
+                calc.evaluate(input);
+                fail("Expected EvaluationError for " + input);
+            } catch (EvaluationError err) {
+                // Do nothing
+            }
+        }
+
+        calc.evaluate("y := 3");
+        try {
+            calc.evaluate("plot2d(x * y, x, 0, 1, y, 0, 1)");
+            fail("Expected EvaluationError");
+        } catch (EvaluationError err) {
+            // Do nothing
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testPlotRejectsTooManyPoints() {
+        Calculator calc = new Calculator(new FakeImageDrawer());
+        try {
+            calc.evaluate("plot(x, x, 0, 1, 0.0000000000001)");
+            fail("Expected EvaluationError");
+        } catch (EvaluationError ex) {
+            // Do nothing
+        }
+        assertEquals("x", calc.evaluate("x"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testAdaptivePlotSkipsFlatRegions() {
+        FakeImageDrawer drawer = new FakeImageDrawer();
+        Calculator calc = new Calculator(drawer);
+        calc.evaluate("plot(3 + 0 * x, x, -100, 100)");
+        double[] xs = drawer.lastXValues;
+        assertEquals(-100.0, xs[0]);
+        assertEquals(100.0, xs[xs.length - 1]);
+        // Just the coarse pass
+        assertTrue(xs.length <= 1000);
+        for (double y : drawer.lastYValues) {
+            assertEquals(3.0, y);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testAdaptivePlotMatchesToDouble() {
+        FakeImageDrawer drawer = new FakeImageDrawer();
+        Calculator calc = new Calculator(drawer);
+        calc.evaluate("plot(sin(t) * t, t, -50, 50)");
+        double[] xs = drawer.lastXValues;
+        double[] ys = drawer.lastYValues;
+        assertEquals(-50.0, xs[0]);
+        assertEquals(50.0, xs[xs.length - 1]);
+        // Far fewer points than a fixed step fine enough to look as smooth
+        assertTrue(xs.length < 10000);
+        for (int i = 0; i < xs.length; i++) {
+            if (i > 0) {
+                assertTrue(xs[i - 1] < xs[i]);
+            }
+            calc.evaluate("t := " + xs[i]);
+            assertEquals(calc.evaluate("toDouble(sin(t) * t)"), new AstNode(ys[i]).toString());
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testAdaptivePlotRefinesAroundSingularities() {
+        FakeImageDrawer drawer = new FakeImageDrawer();
+        Calculator calc = new Calculator(drawer);
+        calc.evaluate("plot(1 / x, x, -1, 1)");
+        double[] xs = drawer.lastXValues;
+
+        int nearZero = 0;
+        int farFromZero = 0;
+        for (double x : xs) {
+            if (Math.abs(x) < 0.01) {
+                nearZero += 1;
+            } else if (Math.abs(x) > 0.5 && Math.abs(x) < 0.51) {
+                farFromZero += 1;
+            }
+        }
+        assertTrue(nearZero > 4 * farFromZero);
+        assertEquals("x", calc.evaluate("x"));
     }
 
     @Test(timeout=SECOND)
@@ -204,6 +545,40 @@ public class TestCalculator extends BaseTest {
         }
     }
 
+    @Test(timeout=SECOND)
+    public void testPlotPicksVariableTheExpressionsUse() {
+        FakeImageDrawer drawer = new FakeImageDrawer();
+        Calculator calc = new Calculator(drawer);
+
+        // 'a' could be the variable with no step, but only 'x' is plotted against.
+        try {
+            calc.evaluate("plot(x, x, a, 10, 0.1)");
+            fail("Expected EvaluationError");
+        } catch (EvaluationError err) {
+            assertEquals("Variable undefined", err.getMessage());
+        }
+
+        // The same, through the value of another variable
+        calc.evaluate("f := x ^ 2");
+        try {
+            calc.evaluate("plot(f, x, a, 10, 0.1)");
+            fail("Expected EvaluationError");
+        } catch (EvaluationError err) {
+            assertEquals("Variable undefined", err.getMessage());
+        }
+
+        // Both are used, so there's no telling which one was meant.
+        try {
+            calc.evaluate("plot(x * a, x, a, 10, 0.1)");
+            fail("Expected EvaluationError");
+        } catch (EvaluationError err) {
+            assertTrue(err.getMessage().contains("Can't tell"));
+        }
+
+        calc.evaluate("plot(1 / x, x, x, -1, 1)");
+        assertEquals(2, drawer.lastSeriesNames.length);
+    }
+
     @Test(timeout=SECOND)
     public void testPlotOnInvalidInputThrowsException() {
         Calculator calc = new Calculator();
@@ -230,11 +605,402 @@ public class TestCalculator extends BaseTest {
         } catch (EvaluationError err) {
             // Do nothing
         }
+
+        try {
+            calc.evaluate("plot(3 * y, y, 0)");
+            fail("Expected EvaluationError");
+        } catch (EvaluationError err) {
+            // Do nothing
+        }
+
+        try {
+            calc.evaluate("plot(3 * y, y, 0, 10, 1, 2)");
+            fail("Expected EvaluationError");
+        } catch (EvaluationError err) {
+            // Do nothing
+        }
+
+        try {
+            calc.evaluate("plot(3 * y, 2 * y, 0, 10, 1)");
+            fail("Expected EvaluationError");
+        } catch (EvaluationError err) {
+            // Do nothing
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testEvaluateStream() {
+        Calculator calc = new Calculator();
+        String script = "x := 3\n\ny := (x +\n  4)\nz := y \\\n * 2\n\nz - x";
+        IList<String> outputs = new DoubleLinkedList<>();
+        calc.evaluateStream(new StringReader(script), outputs::add);
+
+        assertEquals(4, outputs.size());
+        assertEquals("3", outputs.get(0));
+        assertEquals("7", outputs.get(1));
+        assertEquals("14", outputs.get(2));
+        assertEquals("11", outputs.get(3));
+    }
+
+    @Test(timeout=SECOND)
+    public void testEvaluateStreamStopsAtFirstError() {
+        Calculator calc = new Calculator();
+        IList<String> outputs = new DoubleLinkedList<>();
+        try {
+            calc.evaluateStream(new StringReader("a := 1\nb := * 2\nc := 3\n"), outputs::add);
+            fail("Expected EvaluationError");
+        } catch (EvaluationError err) {
+            // Do nothing
+        }
+        assertEquals(1, outputs.size());
+        assertEquals("1", calc.evaluate("a"));
+        assertEquals("c", calc.evaluate("c"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testEvaluateStreamReportsScriptLines() {
+        String script = "a := (1 +\n  2)\n\nb := 3 \\\n + 4 # note\nc := * 3\n";
+        for (boolean fast : new boolean[] {false, true}) {
+            Calculator calc = new Calculator();
+            calc.setUseFastParser(fast);
+            try {
+                calc.evaluateStream(new StringReader(script), out -> { });
+                fail("Expected EvaluationError");
+            } catch (EvaluationError err) {
+                assertTrue(err.getMessage().startsWith("Line 6, col 5: "));
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testBatchRunnerContinuesAfterErrors() {
+        Calculator calc = new Calculator();
+        calc.setUseFastParser(true);
+        StringWriter output = new StringWriter();
+        BatchRunner runner = new BatchRunner(calc, output);
+
+        assertEquals(true, runner.run(new StringReader("a := 1\nb := * 2\nc := (a +\n 2)\n")));
+        assertEquals(false, runner.run(new StringReader("quit()\nd := 4\n")));
+        runner.flush();
+
+        assertEquals("1\nERROR: Line 2, col 5: Unxpected '*'\n3\n", output.toString().replace("\r\n", "\n"));
+        assertEquals(4L, runner.getNumStatements());
+        assertEquals(1L, runner.getNumErrors());
+        assertEquals("d", calc.evaluate("d"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testBatchRunnerContinuesAfterUnexpectedExceptions() {
+        Calculator calc = new Calculator();
+        calc.setUseFastParser(true);
+        calc.setImageDrawer(new ImageDrawer(null, 800, 800) {
+            @Override
+            public void drawScatterPlot(String title, String xAxisLabel, String yAxisLabel,
+                                        double[] xValues, double[] yValues,
+                                        Rectangle2D drawRegion) {
+                throw new IllegalStateException("Can't draw");
+            }
+        });
+        StringWriter output = new StringWriter();
+        BatchRunner runner = new BatchRunner(calc, output);
+
+        assertEquals(true, runner.run(new StringReader("a := 1\n\"hi\"\nplot(x, x, 0, 1, 0.5)\nb := 2\n")));
+        runner.flush();
+
+        String[] lines = output.toString().replace("\r\n", "\n").split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("1", lines[0]);
+        assertEquals("ERROR: Line 2, col 0: Strings are not supported", lines[1]);
+        assertEquals("ERROR: java.lang.IllegalStateException: Can't draw", lines[2]);
+        assertEquals("2", lines[3]);
+        assertEquals(2L, runner.getNumErrors());
+    }
+
+    @Test(timeout=SECOND)
+    public void testPlottingWithoutImageDrawer() {
+        Calculator calc = CalculatorEngine.get(true, false).newSession();
+        try {
+            calc.evaluate("plot(x, x, 0, 1, 0.5)");
+            fail("Expected EvaluationError");
+        } catch (EvaluationError ex) {
+            assertEquals("Plotting is not supported in this session", ex.getMessage());
+        }
+        assertEquals("2", calc.evaluate("1 + 1"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testBatchRunnerWithScriptLoader() {
+        Calculator calc = new Calculator();
+        StringWriter output = new StringWriter();
+        BatchRunner runner = new BatchRunner(calc, output);
+        runner.setScriptLoader(new ScriptLoader(ForkJoinPool.commonPool(), true, 4));
+
+        assertEquals(true, runner.run(new StringReader("a := 1\nb := a +\\\n 2\nc := a / 0\nb\n")));
+        assertEquals(true, runner.run(new StringReader("d := 1\ne := * 2\n")));
+        runner.flush();
+
+        assertEquals("1\n3\n1 / 0\n3\nERROR: Line 2, col 5: Unxpected '*'\n", output.toString().replace("\r\n", "\n"));
+        assertEquals("d", calc.evaluate("d"));
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testToDoubleOnLargeSum() {
+        // sin(x * 0) * 0 + sin(x * 1) * 1 + ... parses into one long chain of '+' nodes.
+        IDictionary<String, AstNode> variables = new ArrayDictionary<>();
+        variables.put("x", new AstNode(0.37));
+        AstNode sum = term(0);
+        double expected = Math.sin(0.37 * 0) * 0;
+        for (int i = 1; i < 50000; i++) {
+            sum = new AstNode(i % 3 == 0 ? "-" : "+", list(sum, term(i)));
+            double value = Math.sin(0.37 * i) * i;
+            expected = i % 3 == 0 ? expected - value : expected + value;
+        }
+        AstNode output = ExpressionOperators.handleToDouble(new AstNode("toDouble", list(sum)), variables);
+        assertEquals(expected, output.getNumericValue());
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testToDoubleOnLargeSumInVariable() {
+        // 200000 terms in one chain: far too deep for toDoubleHelper, so this only works if
+        // the value of 'p' is split up like an expression written out.
+        IDictionary<String, AstNode> variables = new ArrayDictionary<>();
+        variables.put("x", new AstNode(0.37));
+        AstNode sum = term(0);
+        double expected = 0;
+        for (int i = 1; i < 200000; i++) {
+            sum = new AstNode("+", list(sum, term(i)));
+            expected += Math.sin(0.37 * i) * i;
+        }
+        variables.put("p", sum);
+        variables.put("q", new AstNode("p"));
+
+        long steals = ForkJoinPool.commonPool().getStealCount();
+        AstNode output = ExpressionOperators.handleToDouble(new AstNode("toDouble", list(new AstNode("q"))), variables);
+        assertEquals(expected, output.getNumericValue());
+        if (ForkJoinPool.commonPool().getParallelism() > 1) {
+            assertTrue(ForkJoinPool.commonPool().getStealCount() > steals);
+        }
+
+        try {
+            ExpressionOperators.handleToDouble(new AstNode("toDouble", list(new AstNode("r"))), variables);
+            fail("Expected EvaluationError");
+        } catch (EvaluationError err) {
+            assertEquals("Variable undefined", err.getMessage());
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testToDoubleOnLargeBalancedTree() {
+        Calculator calc = new Calculator();
+        calc.evaluate("x := 1.1");
+        AstNode tree = balancedTree(0, 1 << 16);
+        AstNode output = calc.evaluate(new AstNode("toDouble", list(tree)));
+        assertEquals(evaluateBalancedTree(0, 1 << 16), output.getNumericValue());
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testToDoubleOnLargeTreeReportsFirstError() {
+        IDictionary<String, AstNode> variables = new ArrayDictionary<>();
+        AstNode sum = new AstNode("foo", list(new AstNode(1)));
+        for (int i = 1; i < 50000; i++) {
+            AstNode operand = i == 40000 ? new AstNode("undefinedVariable") : new AstNode(i);
+            sum = new AstNode("+", list(sum, operand));
+        }
+        try {
+            ExpressionOperators.handleToDouble(new AstNode("toDouble", list(sum)), variables);
+            fail("Expected EvaluationError");
+        } catch (EvaluationError err) {
+            assertEquals("Unkown Operation", err.getMessage());
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testConcurrentSessions() throws InterruptedException {
+        CalculatorEngine engine = CalculatorEngine.get(true, false);
+        int numThreads = 8;
+        String[] failures = new String[numThreads];
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    Calculator calc = engine.newSession();
+                    String expected = "" + (id * 1000 + i + 1);
+                    String actual = calc.evaluate("a := " + (id * 1000 + i) + "\nb := a + 1\ntoDouble(b)");
+                    if (!expected.equals(actual) || !calc.evaluate("c").equals("c")) {
+                        failures[id] = "Expected " + expected + " but was " + actual;
+                        return;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (String failure : failures) {
+            assertEquals(null, failure);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testChangingEngineKeepsVariables() {
+        Calculator calc = new Calculator();
+        calc.evaluate("x := 3");
+        calc.setUseFastParser(true);
+        calc.setParallelBlocks(true);
+        assertEquals(CalculatorEngine.get(true, true), calc.getEngine());
+        assertEquals("5", calc.evaluate("x + 2"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testTimeoutAbortsPlot() {
+        Calculator calc = new Calculator(new FakeImageDrawer());
+        calc.setTimeout(50);
+        try {
+            calc.evaluate(SLOW_PLOT);
+            fail("Expected EvaluationAbortedError");
+        } catch (EvaluationAbortedError ex) {
+            assertEquals(EvaluationAbortedError.Reason.TIMEOUT, ex.getReason());
+        }
+        // The plot's variable must not be left behind, and the session must still work.
+        assertEquals("x + 1", calc.evaluate("x + 1"));
+        calc.setTimeout(0);
+        assertEquals("3", calc.evaluate("toDouble(1 + 2)"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testNodeBudget() {
+        Calculator calc = new Calculator();
+        calc.setNodeBudget(1000);
+        StringBuilder sum = new StringBuilder("1");
+        for (int i = 0; i < 2000; i++) {
+            sum.append(" + 1");
+        }
+        try {
+            calc.evaluate("toDouble(" + sum + ")");
+            fail("Expected EvaluationAbortedError");
+        } catch (EvaluationAbortedError ex) {
+            assertEquals(EvaluationAbortedError.Reason.NODE_BUDGET, ex.getReason());
+        }
+        // The budget applies to each input separately.
+        assertEquals("3", calc.evaluate("toDouble(1 + 2)"));
+        assertEquals("3", calc.evaluate("toDouble(1 + 2)"));
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testCancelFromAnotherThread() throws InterruptedException {
+        Calculator calc = new Calculator(new FakeImageDrawer());
+        EvaluationError[] error = new EvaluationError[1];
+        Thread thread = new Thread(() -> {
+            try {
+                calc.evaluate(SLOW_PLOT);
+            } catch (EvaluationError ex) {
+                error[0] = ex;
+            }
+        });
+        thread.start();
+        while (thread.isAlive()) {
+            calc.cancel();
+            thread.join(10);
+        }
+        assertTrue(error[0] instanceof EvaluationAbortedError);
+        assertEquals(EvaluationAbortedError.Reason.CANCELLED, ((EvaluationAbortedError) error[0]).getReason());
+
+        // Cancelling only affects the evaluation in progress.
+        calc.cancel();
+        assertEquals("x + 1", calc.evaluate("x + 1"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testMemoryLimitStopsGrowingExpression() {
+        Calculator calc = new Calculator();
+        calc.setMemoryLimit(512 * AstNode.ESTIMATED_BYTES_PER_NODE);
+        assertEquals("x + x", calc.evaluate("a := x + x"));
+        try {
+            for (int i = 0; i < 20; i++) {
+                calc.evaluate("a := a + a");
+            }
+            fail("Expected MemoryLimitExceededError");
+        } catch (MemoryLimitExceededError ex) {
+            // Do nothing
+        }
+        // 'a' keeps the last value that fit: 511 nodes.
+        assertEquals(511L * AstNode.ESTIMATED_BYTES_PER_NODE, calc.getRetainedBytes());
+    }
+
+    @Test(timeout=SECOND)
+    public void testMemoryLimitAppliesToAllVariables() {
+        Calculator calc = new Calculator();
+        calc.setMemoryLimit(100 * AstNode.ESTIMATED_BYTES_PER_NODE);
+        StringBuilder sum = new StringBuilder("x");
+        for (int i = 0; i < 19; i++) {
+            sum.append(" + x");
+        }
+        // Each of these is 39 nodes, so only two fit.
+        calc.evaluate("a := " + sum);
+        calc.evaluate("b := " + sum);
+        try {
+            calc.evaluate("c := " + sum);
+            fail("Expected MemoryLimitExceededError");
+        } catch (MemoryLimitExceededError ex) {
+            // Do nothing
+        }
+        assertEquals("c", calc.evaluate("c"));
+        assertEquals(78L * AstNode.ESTIMATED_BYTES_PER_NODE, calc.getRetainedBytes());
+
+        // Replacing a value with a smaller one frees up memory.
+        calc.evaluate("a := 1");
+        calc.evaluate("c := " + sum);
+        assertEquals(79L * AstNode.ESTIMATED_BYTES_PER_NODE, calc.getRetainedBytes());
+    }
+
+    private static AstNode term(int i) {
+        AstNode product = new AstNode("*", list(new AstNode("x"), new AstNode(i)));
+        return new AstNode("*", list(new AstNode("sin", list(product)), new AstNode(i)));
+    }
+
+    private static AstNode balancedTree(int low, int high) {
+        if (high - low == 1) {
+            return new AstNode("*", list(new AstNode("x"), new AstNode(low)));
+        }
+        int middle = (low + high) / 2;
+        String operator = (high - low) % 3 == 0 ? "/" : "+";
+        return new AstNode(operator, list(balancedTree(low, middle), balancedTree(middle, high)));
+    }
+
+    private static double evaluateBalancedTree(int low, int high) {
+        if (high - low == 1) {
+            return 1.1 * low;
+        }
+        int middle = (low + high) / 2;
+        double left = evaluateBalancedTree(low, middle);
+        double right = evaluateBalancedTree(middle, high);
+        return (high - low) % 3 == 0 ? left / right : left + right;
+    }
+
+    private static IList<AstNode> list(AstNode... nodes) {
+        IList<AstNode> out = new DoubleLinkedList<>();
+        for (AstNode node : nodes) {
+            out.add(node);
+        }
+        return out;
     }
 
     private static class FakeImageDrawer extends ImageDrawer {
-        public IList<Double> lastXValues;
-        public IList<Double> lastYValues;
+        public double[] lastXValues;
+        public double[] lastYValues;
+        public String[] lastSeriesNames;
+        public double[][] lastSeriesXValues;
+        public double[][] lastSeriesYValues;
+        public int numPartialPlots;
+        public int firstPartialPlotSize;
+        public String lastXAxisLabel;
+        public String lastYAxisLabel;
+        public double[] lastBounds;
+        public double[][] lastHeatmap;
+        public double[] lastLevels;
+        public double[][] lastSegments;
 
         public FakeImageDrawer() {
             super(null, 800, 800);
@@ -242,10 +1008,54 @@ public class TestCalculator extends BaseTest {
 
         @Override
         public void drawScatterPlot(String title, String xAxisLabel, String yAxisLabel,
-                                    IList<Double> xValues, IList<Double> yValues,
+                                    double[] xValues, double[] yValues,
                                     Rectangle2D drawRegion) {
             this.lastXValues = xValues;
             this.lastYValues = yValues;
         }
+
+        @Override
+        public void drawScatterPlot(String title, String xAxisLabel, String yAxisLabel,
+                                    String[] seriesNames, double[][] xValues, double[][] yValues,
+                                    Rectangle2D drawRegion) {
+            this.lastSeriesNames = seriesNames;
+            this.lastSeriesXValues = xValues;
+            this.lastSeriesYValues = yValues;
+            if (seriesNames.length == 1) {
+                super.drawScatterPlot(title, xAxisLabel, yAxisLabel, seriesNames, xValues, yValues, drawRegion);
+            }
+        }
+
+        @Override
+        public void drawHeatmap(String title, String xAxisLabel, String yAxisLabel, double[][] values,
+                                double xMin, double xMax, double yMin, double yMax,
+                                Rectangle2D drawRegion) {
+            this.lastXAxisLabel = xAxisLabel;
+            this.lastYAxisLabel = yAxisLabel;
+            this.lastBounds = new double[] {xMin, xMax, yMin, yMax};
+            this.lastHeatmap = values;
+        }
+
+        @Override
+        public void drawContours(String title, String xAxisLabel, String yAxisLabel,
+                                 double[] levels, double[][] segments,
+                                 double xMin, double xMax, double yMin, double yMax,
+                                 Rectangle2D drawRegion) {
+            this.lastXAxisLabel = xAxisLabel;
+            this.lastYAxisLabel = yAxisLabel;
+            this.lastBounds = new double[] {xMin, xMax, yMin, yMax};
+            this.lastLevels = levels;
+            this.lastSegments = segments;
+        }
+
+        @Override
+        public void drawPartialScatterPlot(String title, String xAxisLabel, String yAxisLabel,
+                                           double[] xValues, double[] yValues) {
+            if (this.numPartialPlots == 0) {
+                this.firstPartialPlotSize = xValues.length;
+            }
+            this.numPartialPlots += 1;
+            super.drawPartialScatterPlot(title, xAxisLabel, yAxisLabel, xValues, yValues);
+        }
     }
 }
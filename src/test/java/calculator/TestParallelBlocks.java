@@ -0,0 +1,189 @@
+package calculator;
+
+import calculator.errors.EvaluationAbortedError;
+import calculator.errors.EvaluationError;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that evaluating blocks in parallel always gives the same results as evaluating
+ * them one statement at a time.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestParallelBlocks extends BaseTest {
+    private static final int NUM_VARIABLES = 6;
+
+    @Test(timeout=SECOND)
+    public void basicTestParallelBlocks() {
+        Calculator calc = new Calculator();
+        calc.setParallelBlocks(true);
+        calc.setUseFastParser(true);
+        assertEquals("10", calc.evaluate("a := 1\nb := a + 2\nc := 3\nd := toDouble(b * c) + a\n"));
+        assertEquals("4", calc.evaluate("b + a"));
+        assertEquals("9", calc.evaluate("b * c"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testUnresolvedVariablesAreTracked() {
+        Calculator calc = new Calculator();
+        calc.setParallelBlocks(true);
+        // 'y' refers to 'x' before it's defined, so reading 'y' later also reads 'x'.
+        assertEquals("5", calc.evaluate("y := x + 1\nx := 4\nz := 7\ny\n"));
+        assertEquals("5", calc.evaluate("y"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testErrorStopsAtSameStatement() {
+        Calculator calc = new Calculator();
+        calc.setParallelBlocks(true);
+        try {
+            calc.evaluate("a := 1\nb := toDouble(q)\nc := 3\n");
+            fail("Expected EvaluationError");
+        } catch (EvaluationError err) {
+            // Do nothing
+        }
+        assertEquals("1", calc.evaluate("a"));
+        assertEquals("b", calc.evaluate("b"));
+        assertEquals("c", calc.evaluate("c"));
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testContextCanKeepWorkOnItsThread() {
+        Calculator calc = new Calculator();
+        calc.setParallelBlocks(true);
+        calc.setUseFastParser(true);
+        // 20000 ones, in groups so that the tree isn't too deep
+        StringBuilder sum = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sum.append(i == 0 ? "(1" : " + (1");
+            for (int j = 1; j < 200; j++) {
+                sum.append(" + 1");
+            }
+            sum.append(")");
+        }
+        String script = "p := toDouble(" + sum + ")\nq := toDouble(" + sum + ")\n";
+
+        EvaluationContext context = new EvaluationContext() {
+            @Override
+            protected boolean allowsParallelism() {
+                return false;
+            }
+        };
+        assertEquals("20000", context.call(() -> calc.evaluate(script)));
+        // Work done on other threads would never have reached the context's checkpoints, but
+        // here every one of the ones has been visited.
+        assertTrue(context.getNumVisited() >= 2 * 20000);
+        assertEquals("20000", calc.evaluate("p"));
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testNodeBudgetCoversWholeBlock() {
+        Calculator calc = new Calculator();
+        calc.setParallelBlocks(true);
+        calc.setUseFastParser(true);
+        calc.setNodeBudget(2000);
+        StringBuilder sum = new StringBuilder("1");
+        for (int i = 1; i < 1500; i++) {
+            sum.append(" + 1");
+        }
+        try {
+            calc.evaluate("p := toDouble(" + sum + ")\nq := toDouble(" + sum + ")\n");
+            fail("Expected EvaluationAbortedError");
+        } catch (EvaluationAbortedError ex) {
+            assertEquals(EvaluationAbortedError.Reason.NODE_BUDGET, ex.getReason());
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testTimeoutStopsStatementsOnOtherThreads() {
+        Calculator calc = new Calculator();
+        calc.setParallelBlocks(true);
+        calc.setUseFastParser(true);
+        // Evaluating a40 visits 2^40 nodes, so it never finishes by itself.
+        for (int i = 40; i > 0; i--) {
+            calc.evaluate("a" + i + " := a" + (i - 1) + " + a" + (i - 1));
+        }
+        calc.evaluate("a0 := 1");
+        calc.setTimeout(100);
+        try {
+            calc.evaluate("p := toDouble(a40)\nq := toDouble(a40)\n");
+            fail("Expected EvaluationAbortedError");
+        } catch (EvaluationAbortedError ex) {
+            assertEquals(EvaluationAbortedError.Reason.TIMEOUT, ex.getReason());
+        }
+        assertEquals("p", calc.evaluate("p"));
+    }
+
+    @Test(timeout=20 * SECOND)
+    public void testMatchesSequentialOnRandomScripts() {
+        Random random = new Random(42);
+        for (int i = 0; i < 300; i++) {
+            StringBuilder script = new StringBuilder();
+            int numStatements = 2 + random.nextInt(15);
+            for (int j = 0; j < numStatements; j++) {
+                script.append(randomStatement(random)).append("\n");
+            }
+
+            Calculator sequential = new Calculator();
+            Calculator parallel = new Calculator();
+            parallel.setParallelBlocks(true);
+            String input = script.toString();
+            assertEquals("Script: " + input, outcome(sequential, input), outcome(parallel, input));
+            for (int v = 0; v < NUM_VARIABLES; v++) {
+                assertEquals("Script: " + input, sequential.evaluate("v" + v), parallel.evaluate("v" + v));
+            }
+        }
+    }
+
+    private static String outcome(Calculator calc, String script) {
+        try {
+            return calc.evaluate(script);
+        } catch (EvaluationError err) {
+            return "ERROR: " + err.getMessage();
+        }
+    }
+
+    /**
+     * Returns a random statement. Variables are only ever assigned expressions of variables
+     * with lower numbers, so no variable can end up referring to itself.
+     */
+    private static String randomStatement(Random random) {
+        int target = 1 + random.nextInt(NUM_VARIABLES - 1);
+        switch (random.nextInt(10)) {
+            case 0:
+                // A barrier in the middle of the script
+                return "assign(v" + target + ", " + randomExpression(random, 2, target) + ")";
+            case 1:
+                return "toDouble(" + randomExpression(random, 2, NUM_VARIABLES) + ")";
+            case 2:
+            case 3:
+                return randomExpression(random, 3, NUM_VARIABLES);
+            default:
+                return "v" + target + " := " + randomExpression(random, 3, target);
+        }
+    }
+
+    private static String randomExpression(Random random, int depth, int numVariables) {
+        int choice = depth == 0 ? random.nextInt(2) : random.nextInt(5);
+        switch (choice) {
+            case 0:
+                return "" + random.nextInt(10);
+            case 1:
+                return "v" + random.nextInt(numVariables);
+            case 2:
+                return "sin(" + randomExpression(random, depth - 1, numVariables) + ")";
+            default:
+                String[] operators = {"+", "-", "*", "/"};
+                return "(" + randomExpression(random, depth - 1, numVariables) + " "
+                        + operators[random.nextInt(operators.length)] + " "
+                        + randomExpression(random, depth - 1, numVariables) + ")";
+        }
+    }
+}
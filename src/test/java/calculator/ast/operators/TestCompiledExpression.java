@@ -0,0 +1,104 @@
+package calculator.ast.operators;
+
+import calculator.ast.AstNode;
+import calculator.errors.EvaluationError;
+import calculator.parser.Parser;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.dictionaries.ArrayDictionary;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import static org.junit.Assert.fail;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestCompiledExpression extends BaseTest {
+    @Test(timeout=SECOND)
+    public void testCommonSubexpressionsAreComputedOnce() {
+        IDictionary<String, AstNode> variables = new ArrayDictionary<>();
+        CompiledExpression expression = CompiledExpression.compile(
+                parse("sin(x) * 2 + sin(x) * 2 / (x ^ 2 - sin(x))"), "x", variables);
+        // sin(x), * 2, x ^ 2, -, /, +
+        assertEquals(6, expression.getNumInstructions());
+
+        // 'f' is only compiled once, however often it's used.
+        variables.put("f", parse("sin(x) ^ 2 + cos(x)"));
+        expression = CompiledExpression.compile(parse("f * f - f"), "x", variables);
+        assertEquals(6, expression.getNumInstructions());
+        double[] registers = expression.newRegisters();
+        double f = Math.pow(Math.sin(0.5), 2) + Math.cos(0.5);
+        assertEquals(f * f - f, expression.evaluate(0.5, registers));
+    }
+
+    @Test(timeout=SECOND)
+    public void testExpressionsCompiledTogetherShareInstructions() {
+        IDictionary<String, AstNode> variables = new ArrayDictionary<>();
+        variables.put("a", new AstNode(3));
+        IList<AstNode> expressions = new DoubleLinkedList<>();
+        expressions.add(parse("sin(x) * a"));
+        expressions.add(parse("sin(x) * cos(x)"));
+        expressions.add(parse("cos(x) + 1"));
+
+        CompiledExpression together = CompiledExpression.compile(expressions, "x", variables);
+        assertEquals(3, together.getNumResults());
+        // sin(x), * a, cos(x), *, + 1
+        assertEquals(5, together.getNumInstructions());
+
+        double[] registers = together.newRegisters();
+        for (double x = -4; x <= 4; x += 0.125) {
+            double first = together.evaluate(x, registers);
+            assertEquals(first, together.getResult(0, registers));
+            for (int i = 0; i < expressions.size(); i++) {
+                CompiledExpression alone = CompiledExpression.compile(expressions.get(i), "x", variables);
+                assertEquals(alone.evaluate(x, alone.newRegisters()), together.getResult(i, registers));
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testSamplesEveryResult() {
+        IList<AstNode> expressions = new DoubleLinkedList<>();
+        expressions.add(parse("x * x"));
+        expressions.add(parse("0 - x"));
+        CompiledExpression expression = CompiledExpression.compile(expressions, "x", new ArrayDictionary<>());
+
+        double[] xs = new double[100_000];
+        double[][] ys = new double[2][xs.length];
+        ParallelSampler.sample(expression, -1, 0.001, xs, ys);
+        for (int i = 0; i < xs.length; i += 37) {
+            assertEquals(-1 + i * 0.001, xs[i]);
+            assertEquals(xs[i] * xs[i], ys[0][i]);
+            assertEquals(0 - xs[i], ys[1][i]);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testTwoVariables() {
+        IDictionary<String, AstNode> variables = new ArrayDictionary<>();
+        variables.put("a", new AstNode(2));
+        CompiledExpression expression = CompiledExpression.compile(
+                parse("sin(x) * cos(y) + x ^ a - y"), "x", "y", variables);
+        double[] registers = expression.newRegisters();
+        for (double x = -2; x <= 2; x += 0.5) {
+            for (double y = -2; y <= 2; y += 0.5) {
+                assertEquals(Math.sin(x) * Math.cos(y) + Math.pow(x, 2) - y,
+                        expression.evaluate(x, y, registers));
+            }
+        }
+
+        // The second variable can't be left undefined in a single-variable expression.
+        try {
+            CompiledExpression.compile(parse("x + y"), "x", variables);
+            fail("Expected EvaluationError");
+        } catch (EvaluationError ex) {
+            // Do nothing
+        }
+    }
+
+    private static AstNode parse(String expression) {
+        return new Parser().parse(expression + "\n").getChildren().get(0);
+    }
+}
@@ -0,0 +1,109 @@
+package calculator.ast.operators;
+
+import calculator.ast.AstNode;
+import calculator.parser.Parser;
+import datastructures.concrete.dictionaries.ArrayDictionary;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import static org.junit.Assert.assertTrue;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestMarchingSquares extends BaseTest {
+    @Test(timeout=SECOND)
+    public void testGridMatchesExpression() {
+        // Not a whole number of tiles either way, and enough points to be sampled in parallel
+        double[] xs = spread(-3, 3, 3 * GridSampler.TILE_SIZE + 5);
+        double[] ys = spread(-1, 2, 2 * GridSampler.TILE_SIZE + 7);
+        CompiledExpression expression = compile("sin(x) * y + cos(x * y) / (1 + y ^ 2)");
+
+        double[][] values = GridSampler.sample(expression, xs, ys, "test");
+        assertEquals(ys.length, values.length);
+        for (int row = 0; row < ys.length; row++) {
+            assertEquals(xs.length, values[row].length);
+            for (int column = 0; column < xs.length; column++) {
+                double x = xs[column];
+                double y = ys[row];
+                assertEquals(Math.sin(x) * y + Math.cos(x * y) / (1 + Math.pow(y, 2)), values[row][column]);
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testCircle() {
+        double[] xs = spread(-2, 2, 201);
+        double[] ys = spread(-2, 2, 201);
+        double[][] values = GridSampler.sample(compile("x ^ 2 + y ^ 2 - 1"), xs, ys, "test");
+
+        double[] segments = MarchingSquares.contour(values, xs, ys, 0);
+        // About one segment per cell along the circle
+        assertTrue(segments.length / 4 > 100);
+        double left = 0;
+        double right = 0;
+        for (int i = 0; i < segments.length; i += 2) {
+            double x = segments[i];
+            double y = segments[i + 1];
+            assertTrue(Math.abs(Math.hypot(x, y) - 1) < 1e-3);
+            left = Math.min(left, x);
+            right = Math.max(right, x);
+        }
+        assertTrue(left < -0.99);
+        assertTrue(right > 0.99);
+    }
+
+    @Test(timeout=SECOND)
+    public void testSeveralLevels() {
+        double[] xs = spread(0, 1, 11);
+        double[] ys = spread(0, 1, 11);
+        double[][] values = GridSampler.sample(compile("x + y"), xs, ys, "test");
+
+        double[] levels = MarchingSquares.levels(values, 3);
+        assertEquals(3, levels.length);
+        assertEquals(0.5, levels[0]);
+        assertEquals(1.5, levels[2]);
+        double[][] segments = MarchingSquares.contours(values, xs, ys, levels);
+        for (int level = 0; level < levels.length; level++) {
+            assertTrue(segments[level].length > 0);
+            for (int i = 0; i < segments[level].length; i += 2) {
+                assertTrue(Math.abs(segments[level][i] + segments[level][i + 1] - levels[level]) < 1e-9);
+            }
+        }
+        // Found in one pass, but just as they would be one at a time
+        for (int level = 0; level < levels.length; level++) {
+            double[] alone = MarchingSquares.contour(values, xs, ys, levels[level]);
+            assertEquals(alone.length, segments[level].length);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testSkipsCellsWithoutValues() {
+        double[] xs = spread(-1, 1, 21);
+        double[] ys = spread(-1, 1, 21);
+        double[][] values = GridSampler.sample(compile("y - 1 / x"), xs, ys, "test");
+
+        // 1 / 0 is infinite in the middle column, so the cells on either side of it have no
+        // segments, and none joins the two branches of the hyperbola.
+        double[] segments = MarchingSquares.contour(values, xs, ys, 0);
+        assertTrue(segments.length > 0);
+        for (int i = 0; i < segments.length; i += 4) {
+            assertTrue(Math.signum(segments[i]) == Math.signum(segments[i + 2]));
+            assertTrue(Math.abs(segments[i]) >= 0.1);
+        }
+        assertEquals(0, MarchingSquares.levels(new double[][] {{Double.NaN}}, 5).length);
+    }
+
+    private static double[] spread(double min, double max, int count) {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = min + (max - min) * i / (count - 1);
+        }
+        return values;
+    }
+
+    private static CompiledExpression compile(String expression) {
+        AstNode node = new Parser().parse(expression + "\n").getChildren().get(0);
+        return CompiledExpression.compile(node, "x", "y", new ArrayDictionary<>());
+    }
+}
@@ -0,0 +1,155 @@
+package calculator.ast.operators;
+
+import calculator.Calculator;
+import calculator.ast.AstNode;
+import calculator.gui.ImageDrawer;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.dictionaries.ArrayDictionary;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestSampleTileCache extends BaseTest {
+    @Test(timeout=SECOND)
+    public void testExpressionsCompareByStructure() {
+        IDictionary<String, AstNode> variables = new ArrayDictionary<>();
+        variables.put("a", new AstNode(2));
+        CompiledExpression first = CompiledExpression.compile(sinOf("x", "a"), "x", variables);
+        CompiledExpression second = CompiledExpression.compile(sinOf("t", "a"), "t", variables);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+
+        variables.put("a", new AstNode(3));
+        CompiledExpression third = CompiledExpression.compile(sinOf("x", "a"), "x", variables);
+        assertFalse(first.equals(third));
+    }
+
+    @Test(timeout=SECOND)
+    public void testEvictsLeastRecentlyUsed() {
+        CompiledExpression expression = CompiledExpression.compile(
+                sinOf("x", "x"), "x", new ArrayDictionary<>());
+        int tileBytes = SampleTileCache.TILE_SIZE * Double.BYTES;
+        SampleTileCache cache = new SampleTileCache(3 * tileBytes);
+        for (int tile = 0; tile < 3; tile++) {
+            cache.put(expression, 0, 1, tile, new double[SampleTileCache.TILE_SIZE]);
+        }
+        assertNotNull(cache.get(expression, 0, 1, 0));
+        cache.put(expression, 0, 1, 3, new double[SampleTileCache.TILE_SIZE]);
+
+        assertEquals(3, cache.getNumTiles());
+        assertNotNull(cache.get(expression, 0, 1, 0));
+        assertNull(cache.get(expression, 0, 1, 1));
+        assertNotNull(cache.get(expression, 0, 1, 3));
+        assertNull(cache.get(expression, 0, 0.5, 3));
+    }
+
+    @Test(timeout=SECOND)
+    public void testReplotReusesTiles() {
+        Calculator calc = new Calculator(new ImageDrawer(
+                new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB)));
+        SampleTileCache cache = SampleTileCache.SHARED;
+        // Large enough to have several tiles, with a step nobody else uses
+        String plot = "plot(sin(x) * 3 + x, x, 0, 100, 0.0123)";
+
+        calc.evaluate(plot);
+        long hits = cache.getNumHits();
+        calc.evaluate(plot);
+        assertTrue(cache.getNumHits() - hits >= 100 / 0.0123 / SampleTileCache.TILE_SIZE - 1);
+    }
+
+    @Test(timeout=SECOND)
+    public void testShiftedReplotReusesTiles() {
+        Calculator calc = new Calculator(new ImageDrawer(
+                new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB)));
+        SampleTileCache cache = SampleTileCache.SHARED;
+        calc.evaluate("plot(sin(x) * 7 + x, x, 0, 100, 0.01)");
+
+        // The same points, starting one step later
+        long hits = cache.getNumHits();
+        calc.evaluate("plot(sin(x) * 7 + x, x, 0.01, 100, 0.01)");
+        assertTrue(cache.getNumHits() - hits >= 38);
+
+        // Half of the range is new.
+        hits = cache.getNumHits();
+        calc.evaluate("plot(sin(x) * 7 + x, x, 50, 150, 0.01)");
+        assertTrue(cache.getNumHits() - hits >= 19);
+    }
+
+    @Test(timeout=SECOND)
+    public void testFillMatchesSamplingAnywhereOnGrid() {
+        CompiledExpression expression = CompiledExpression.compile(
+                sinOf("x", "x"), "x", new ArrayDictionary<>());
+        SampleTileCache cache = new SampleTileCache(1 << 20);
+        int size = SampleTileCache.TILE_SIZE;
+        double step = 0.01;
+
+        double[] xs = new double[4 * size];
+        double[][] ys = new double[1][4 * size];
+        ParallelSampler.sample(expression, 0, step, -size, xs, ys, 0, xs.length, 1, 0);
+        cache.store(expression, 0, step, -size, ys[0], new boolean[4]);
+
+        // Starts partway into the second tile, so only the third and fourth are whole.
+        double[] shiftedXs = new double[3 * size];
+        double[] shiftedYs = new double[3 * size];
+        boolean[] filled = cache.fill(expression, 0, step, 10, shiftedXs, shiftedYs);
+        assertEquals(4, filled.length);
+        assertFalse(filled[0]);
+        assertTrue(filled[1] && filled[2]);
+        assertFalse(filled[3]);
+
+        double[] expectedXs = new double[3 * size];
+        double[][] expectedYs = new double[1][3 * size];
+        ParallelSampler.sample(expression, 0, step, 10, expectedXs, expectedYs, 0, expectedXs.length, 1, 0);
+        for (int i = SampleTileCache.tileStart(10, 1); i < SampleTileCache.tileStart(10, 3); i++) {
+            assertEquals(expectedXs[i], shiftedXs[i]);
+            assertEquals(expectedYs[0][i], shiftedYs[i]);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testPanningOnlySamplesNewTiles() {
+        CompiledExpression expression = CompiledExpression.compile(
+                sinOf("x", "x"), "x", new ArrayDictionary<>());
+        SampleTileCache cache = new SampleTileCache(1 << 20);
+        TiledPlotSource source = new TiledPlotSource(expression, "sin(x * x)", cache);
+
+        double[][][] points = source.sample(0, 100, 800);
+        int numTiles = cache.getNumTiles();
+        assertTrue(points[0][0].length > 0);
+        for (int i = 0; i < points[0][0].length; i++) {
+            assertEquals(Math.sin(points[0][0][i] * points[0][0][i]), points[1][0][i]);
+        }
+
+        // Half of the new range was already shown.
+        long misses = cache.getNumMisses();
+        source.sample(50, 150, 800);
+        long newMisses = cache.getNumMisses() - misses;
+        assertTrue(newMisses > 0);
+        assertTrue(newMisses <= numTiles / 2 + 1);
+
+        // And all of it is now.
+        misses = cache.getNumMisses();
+        source.sample(25, 125, 800);
+        assertEquals(0L, cache.getNumMisses() - misses);
+    }
+
+    private static AstNode sinOf(String variable, String factor) {
+        IList<AstNode> product = new DoubleLinkedList<>();
+        product.add(new AstNode(variable));
+        product.add(new AstNode(factor));
+        IList<AstNode> argument = new DoubleLinkedList<>();
+        argument.add(new AstNode("*", product));
+        return new AstNode("sin", argument);
+    }
+}
@@ -0,0 +1,115 @@
+package calculator.gui;
+
+import misc.BaseTest;
+import org.jfree.data.DomainOrder;
+import org.jfree.data.Range;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestArrayXYDataset extends BaseTest {
+    @Test(timeout=SECOND)
+    public void testWrapsArrays() {
+        ArrayXYDataset dataset = new ArrayXYDataset("a");
+        assertEquals(0, dataset.getItemCount(0));
+        assertNull(dataset.getDomainBounds(false));
+
+        double[] xs = {0, 1, 2, 3};
+        double[] ys = {5, -2, 7, 1};
+        dataset.setData(xs, ys);
+        assertEquals(1, dataset.getSeriesCount());
+        assertEquals(4, dataset.getItemCount(0));
+        assertEquals(2.0, dataset.getXValue(0, 2));
+        assertEquals(7.0, dataset.getYValue(0, 2));
+        assertEquals(-2.0, dataset.getY(0, 1).doubleValue());
+        assertSame(DomainOrder.ASCENDING, dataset.getDomainOrder());
+
+        assertEquals(0.0, dataset.getDomainLowerBound(false));
+        assertEquals(3.0, dataset.getDomainUpperBound(false));
+        assertEquals(-2.0, dataset.getRangeLowerBound(false));
+        assertEquals(7.0, dataset.getRangeUpperBound(false));
+    }
+
+    @Test(timeout=SECOND)
+    public void testBoundsSkipNonFiniteValues() {
+        ArrayXYDataset dataset = new ArrayXYDataset("a");
+        dataset.setData(
+                new double[] {-1, 0, 1, 2},
+                new double[] {-1, Double.POSITIVE_INFINITY, 1, Double.NaN});
+        assertEquals(-1.0, dataset.getDomainLowerBound(false));
+        assertEquals(1.0, dataset.getDomainUpperBound(false));
+        assertEquals(-1.0, dataset.getRangeLowerBound(false));
+        assertEquals(1.0, dataset.getRangeUpperBound(false));
+
+        dataset.setData(new double[] {0, 1}, new double[] {Double.NaN, Double.NaN});
+        assertNull(dataset.getDomainBounds(false));
+        assertNull(dataset.getRangeBounds(false));
+    }
+
+    @Test(timeout=SECOND)
+    public void testRangeBoundsWithinDomain() {
+        ArrayXYDataset dataset = new ArrayXYDataset("a");
+        dataset.setData(new double[] {3, 1, 2, 0}, new double[] {30, 10, 20, 0});
+        assertSame(DomainOrder.NONE, dataset.getDomainOrder());
+
+        Range all = dataset.getRangeBounds(Arrays.asList("a"), new Range(-10, 10), false);
+        assertEquals(0.0, all.getLowerBound());
+        assertEquals(30.0, all.getUpperBound());
+        Range some = dataset.getRangeBounds(Arrays.asList("a"), new Range(0.5, 2.5), false);
+        assertEquals(10.0, some.getLowerBound());
+        assertEquals(20.0, some.getUpperBound());
+        assertNull(dataset.getRangeBounds(Collections.emptyList(), new Range(-10, 10), false));
+    }
+
+    @Test(timeout=SECOND)
+    public void testSeveralSeries() {
+        ArrayXYDataset dataset = new ArrayXYDataset("a");
+        dataset.setData(
+                new String[] {"b", "c"},
+                new double[][] {{0, 1, 2}, {-5, 5}},
+                new double[][] {{1, 2, 3}, {10, Double.NaN}});
+        assertEquals(2, dataset.getSeriesCount());
+        assertEquals("c", dataset.getSeriesKey(1));
+        assertEquals(2, dataset.getItemCount(1));
+        assertEquals(10.0, dataset.getYValue(1, 0));
+        assertSame(DomainOrder.ASCENDING, dataset.getDomainOrder());
+
+        // Bounds cover every series, or only the visible ones.
+        assertEquals(-5.0, dataset.getDomainLowerBound(false));
+        assertEquals(2.0, dataset.getDomainUpperBound(false));
+        assertEquals(1.0, dataset.getRangeLowerBound(false));
+        assertEquals(10.0, dataset.getRangeUpperBound(false));
+        Range domain = dataset.getDomainBounds(Arrays.asList("b"), false);
+        assertEquals(0.0, domain.getLowerBound());
+        assertEquals(2.0, domain.getUpperBound());
+        Range range = dataset.getRangeBounds(Arrays.asList("b", "c"), new Range(0.5, 100), false);
+        assertEquals(2.0, range.getLowerBound());
+        assertEquals(3.0, range.getUpperBound());
+
+        try {
+            dataset.getXValue(2, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Do nothing
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testRejectsMismatchedArrays() {
+        ArrayXYDataset dataset = new ArrayXYDataset("a");
+        try {
+            dataset.setData(new double[3], new double[2]);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Do nothing
+        }
+    }
+}
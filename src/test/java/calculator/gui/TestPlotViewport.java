@@ -0,0 +1,34 @@
+package calculator.gui;
+
+import calculator.Calculator;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestPlotViewport extends BaseTest {
+    @Test(timeout=5 * SECOND)
+    public void testClearStopsPanningAndPendingRedraws() {
+        BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_ARGB);
+        ImageDrawer drawer = new ImageDrawer(image);
+        // Redraws are only run when we say so.
+        ArrayDeque<Runnable> redraws = new ArrayDeque<>();
+        PlotViewport viewport = new PlotViewport(new ImagePanel(image), drawer, redraws::add);
+        drawer.setViewport(viewport);
+        Calculator calc = new Calculator(drawer);
+
+        calc.evaluate("plot(x ^ 2, x, 0, 10, 0.01)");
+        viewport.pan(0.5);
+        assertEquals(1, redraws.size());
+
+        calc.evaluate("clear()");
+        // The redraw requested before the plot was cleared has nothing left to draw.
+        redraws.poll().run();
+        viewport.pan(0.5);
+        assertEquals(0, redraws.size());
+    }
+}
@@ -0,0 +1,187 @@
+package calculator.gui;
+
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertTrue;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestRasterPlotRenderer extends BaseTest {
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+    private static final int POINT_COLOR = 0xFF5555;
+
+    @Test(timeout=SECOND)
+    public void testDrawsLargePlotsThroughImageDrawer() {
+        int numPoints = 100_000;
+        double[] xs = new double[numPoints];
+        double[] ys = new double[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            xs[i] = i;
+            ys[i] = i;
+        }
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        new ImageDrawer(image).drawScatterPlot("Plot", "x", "output", xs, ys);
+
+        // The line goes up from left to right, across most of the image.
+        int numColumns = 0;
+        int previousRow = Integer.MAX_VALUE;
+        for (int x = 0; x < WIDTH; x++) {
+            int row = topmostPoint(image, x);
+            if (row >= 0) {
+                assertTrue(row <= previousRow);
+                previousRow = row;
+                numColumns += 1;
+            }
+        }
+        assertTrue(numColumns > WIDTH / 2);
+    }
+
+    @Test(timeout=SECOND)
+    public void testConstantIsFlat() {
+        double[] xs = new double[10_000];
+        double[] ys = new double[10_000];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i / 100.0;
+            ys[i] = 7;
+        }
+        BufferedImage image = render(RasterPlotRenderer.Style.SCATTER, xs, ys);
+
+        int top = Integer.MAX_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int x = 0; x < WIDTH; x++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                if ((image.getRGB(x, y) & 0xFFFFFF) == POINT_COLOR) {
+                    top = Math.min(top, y);
+                    bottom = Math.max(bottom, y);
+                }
+            }
+        }
+        assertTrue(bottom >= top);
+        assertTrue(bottom - top <= 3);
+    }
+
+    @Test(timeout=SECOND)
+    public void testLineJoinsPoints() {
+        double[] xs = {0, 1};
+        double[] ys = {0, 1};
+        BufferedImage scatter = render(RasterPlotRenderer.Style.SCATTER, xs, ys);
+        BufferedImage line = render(RasterPlotRenderer.Style.LINE, xs, ys);
+
+        assertTrue(countPoints(scatter) <= 2 * 9);
+        int numColumns = 0;
+        for (int x = 0; x < WIDTH; x++) {
+            numColumns += topmostPoint(line, x) >= 0 ? 1 : 0;
+        }
+        assertTrue(numColumns > WIDTH / 2);
+    }
+
+    @Test(timeout=SECOND)
+    public void testNothingToDraw() {
+        assertEquals(0, countPoints(render(RasterPlotRenderer.Style.SCATTER, new double[0], new double[0])));
+        assertEquals(0, countPoints(render(
+                RasterPlotRenderer.Style.LINE,
+                new double[] {1, Double.NaN, 3},
+                new double[] {Double.NaN, 2, Double.POSITIVE_INFINITY})));
+    }
+
+    @Test(timeout=SECOND)
+    public void testSeriesHaveTheirOwnColors() {
+        double[] xs = new double[5_000];
+        double[] low = new double[xs.length];
+        double[] high = new double[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i;
+            low[i] = 0;
+            high[i] = 10;
+        }
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        new ImageDrawer(image).drawScatterPlot(
+                "", "x", "y", new String[] {"low", "high"},
+                new double[][] {xs, xs}, new double[][] {low, high});
+
+        // The first series is drawn in the usual color, at the bottom, and the second one
+        // in another color, at the top.
+        int column = WIDTH / 3;
+        int first = topmostPoint(image, column);
+        assertTrue(first > HEIGHT / 2);
+        int second = -1;
+        for (int y = 0; y < HEIGHT && second < 0; y++) {
+            int rgb = image.getRGB(column, y) & 0xFFFFFF;
+            if (rgb == 0x5555FF) {
+                second = y;
+            }
+        }
+        assertTrue(second >= 0);
+        assertTrue(second < HEIGHT / 2);
+    }
+
+    @Test(timeout=SECOND)
+    public void testHeatmapColorsGrowWithValues() {
+        // Increases from left to right, with a hole in the middle
+        double[][] values = new double[50][100];
+        for (int row = 0; row < values.length; row++) {
+            for (int column = 0; column < values[row].length; column++) {
+                values[row][column] = column;
+            }
+        }
+        values[25][50] = Double.NaN;
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        new ImageDrawer(image).drawHeatmap("", "x", "y", values, 0, 1, 0, 1);
+
+        // The smallest values are dark blue and the largest yellow, so the colors get lighter.
+        int row = 3 * HEIGHT / 4;
+        int left = brightness(image.getRGB(WIDTH / 4, row));
+        int middle = brightness(image.getRGB(WIDTH / 2 + 10, row));
+        int right = brightness(image.getRGB(3 * WIDTH / 4, row));
+        assertTrue(left < middle);
+        assertTrue(middle < right);
+
+        // The missing value is left blank, somewhere near the middle (there are no grid lines).
+        int numBlank = 0;
+        for (int x = WIDTH / 2 - 40; x < WIDTH / 2 + 40; x++) {
+            for (int y = HEIGHT / 2 - 30; y < HEIGHT / 2 + 30; y++) {
+                numBlank += (image.getRGB(x, y) & 0xFFFFFF) == 0xFFFFFF ? 1 : 0;
+            }
+        }
+        assertTrue(numBlank > 0);
+        assertTrue(numBlank < 50);
+    }
+
+    private static int brightness(int rgb) {
+        return ((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF);
+    }
+
+    private static BufferedImage render(RasterPlotRenderer.Style style, double[] xs, double[] ys) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        new RasterPlotRenderer(style).render(
+                image.getGraphics(), "", "x", "y", xs, ys, new Rectangle2D.Double(0, 0, WIDTH, HEIGHT));
+        return image;
+    }
+
+    private static int topmostPoint(BufferedImage image, int x) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            if ((image.getRGB(x, y) & 0xFFFFFF) == POINT_COLOR) {
+                return y;
+            }
+        }
+        return -1;
+    }
+
+    private static int countPoints(BufferedImage image) {
+        int count = 0;
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                if ((image.getRGB(x, y) & 0xFFFFFF) == POINT_COLOR) {
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+}
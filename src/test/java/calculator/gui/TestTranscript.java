@@ -0,0 +1,83 @@
+package calculator.gui;
+
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestTranscript extends BaseTest {
+    @Test(timeout=SECOND)
+    public void testLinesOfSeveralEntries() {
+        Transcript transcript = new Transcript();
+        transcript.add(Transcript.Kind.INPUT, ">>> a := 3");
+        transcript.add(Transcript.Kind.OUTPUT, "3");
+        transcript.add(Transcript.Kind.OUTPUT, "first\nsecond");
+        transcript.add(Transcript.Kind.ERROR, "ERROR: Variable undefined");
+
+        assertEquals(5, transcript.getNumLines());
+        assertEquals(">>> a := 3", transcript.getLine(0));
+        assertEquals("3", transcript.getLine(1));
+        assertEquals("first", transcript.getLine(2));
+        assertEquals("second", transcript.getLine(3));
+        assertEquals(Transcript.Kind.OUTPUT, transcript.getKind(3));
+        assertEquals(Transcript.Kind.ERROR, transcript.getKind(4));
+        assertEquals(25, transcript.getMaxLineLength());
+    }
+
+    @Test(timeout=SECOND)
+    public void testDropsOldestEntries() {
+        Transcript transcript = new Transcript(3);
+        for (int i = 0; i < 10; i++) {
+            transcript.add(Transcript.Kind.OUTPUT, i + "\n" + i);
+        }
+        assertEquals(3, transcript.getNumEntries());
+        assertEquals(6, transcript.getNumLines());
+        assertEquals("7", transcript.getLine(0));
+        assertEquals("7", transcript.getLine(1));
+        assertEquals("9", transcript.getLine(5));
+    }
+
+    @Test(timeout=SECOND)
+    public void testSplitsLongLines() {
+        Transcript transcript = new Transcript();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < Transcript.MAX_LINE_LENGTH * 2 + 1; i++) {
+            text.append('x');
+        }
+        transcript.add(Transcript.Kind.OUTPUT, text.toString());
+        assertEquals(3, transcript.getNumLines());
+        assertEquals("x", transcript.getLine(2));
+        assertEquals(Transcript.MAX_LINE_LENGTH, transcript.getMaxLineLength());
+    }
+
+    @Test(timeout=SECOND)
+    public void testCollapsesLargeEntries() {
+        Transcript transcript = new Transcript();
+        StringBuilder text = new StringBuilder("line 0");
+        for (int i = 1; i < 100; i++) {
+            text.append("\nline ").append(i);
+        }
+        transcript.add(Transcript.Kind.OUTPUT, "small");
+        transcript.add(Transcript.Kind.OUTPUT, text.toString());
+        transcript.add(Transcript.Kind.OUTPUT, "after");
+
+        assertEquals(3, transcript.getNumLines());
+        assertTrue(transcript.isCollapsed(1));
+        assertTrue(transcript.getLine(1).startsWith("line 0 ..."));
+        assertFalse(transcript.toggle(0));
+
+        assertTrue(transcript.toggle(1));
+        assertEquals(102, transcript.getNumLines());
+        assertFalse(transcript.isCollapsed(1));
+        assertEquals("line 99", transcript.getLine(100));
+        assertEquals("after", transcript.getLine(101));
+
+        assertTrue(transcript.toggle(50));
+        assertEquals(3, transcript.getNumLines());
+        assertEquals("after", transcript.getLine(2));
+    }
+}
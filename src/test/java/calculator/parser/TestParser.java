@@ -0,0 +1,124 @@
+package calculator.parser;
+
+import calculator.ast.AstNode;
+import calculator.errors.IncompleteInputError;
+import calculator.errors.ParseError;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import static org.junit.Assert.fail;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestParser extends BaseTest {
+
+    @Test(timeout=SECOND)
+    public void basicTestParse() {
+        Parser parser = new Parser();
+        assertEquals("block(3 + 2 * 7)", parser.parse("3 + 2 * 7\n").toString());
+        assertEquals("block(assign(x, sin(y) ^ 2))", parser.parse("x := sin(y) ^ 2\n").toString());
+    }
+
+    @Test(timeout=SECOND)
+    public void testParserIsReusable() {
+        Parser parser = new Parser();
+        for (int i = 0; i < 100; i++) {
+            assertEquals("block(" + i + " + x)", parser.parse(i + " + x\n").toString());
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testParseMultipleStatements() {
+        Parser parser = new Parser();
+        AstNode ast = parser.parse("a := 1\nb := (a +\n 2)\nplot(a, \\\n x, 0, 1, 0.5)\n");
+        assertEquals(3, ast.getChildren().size());
+        assertEquals("assign(b, a + 2)", ast.getChildren().get(1).toString());
+        assertEquals("plot(a, x, 0, 1, 0.5)", ast.getChildren().get(2).toString());
+    }
+
+    @Test(timeout=SECOND)
+    public void testParserRecoversAfterErrors() {
+        Parser parser = new Parser();
+        try {
+            parser.parse("3 + + \n");
+            fail("Expected ParseError");
+        } catch (IncompleteInputError err) {
+            fail("Did not expect IncompleteInputError");
+        } catch (ParseError err) {
+            // Do nothing
+        }
+
+        try {
+            parser.parse("sin(3 + \n");
+            fail("Expected IncompleteInputError");
+        } catch (IncompleteInputError err) {
+            // Do nothing
+        }
+
+        assertEquals("block(1 + 2)", parser.parse("1 + 2\n").toString());
+    }
+
+    @Test(timeout=SECOND)
+    public void testIncompleteInputWinsOverSyntaxError() {
+        Parser parser = new Parser();
+        String[] inputs = {"3 3 (\n", "3 + * (4\n", "3)\n", "x := 3 \\\n"};
+        for (String input : inputs) {
+            try {
+                parser.parse(input);
+                fail("Expected IncompleteInputError for: " + input);
+            } catch (IncompleteInputError err) {
+                // Do nothing
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testParseSessionCompleteness() {
+        ParseSession session = new ParseSession();
+        assertEquals(true, session.feed("x := 3\n"));
+        assertEquals("x := 3\n", session.getText());
+
+        session.reset();
+        assertEquals(false, session.feed("plot(3 * x, \n"));
+        assertEquals(false, session.feed("  x, 0, (10 \n"));
+        assertEquals(false, session.feed("  - 1), \\\n"));
+        assertEquals(true, session.feed("  1)\n"));
+        assertEquals("block(plot(3 * x, x, 0, 10 - 1, 1))", new Parser().parse(session.getText()).toString());
+
+        session.reset();
+        assertEquals(false, session.feed("y := 1 + \\"));
+        assertEquals(false, session.feed(""));
+        assertEquals(true, session.feed("2"));
+        assertEquals("block(assign(y, 1 + 2))", new Parser().parse(session.getText()).toString());
+    }
+
+    @Test(timeout=SECOND)
+    public void testParseSessionIgnoresParensInStringsAndComments() {
+        ParseSession session = new ParseSession();
+        assertEquals(true, session.feed("x := 3 # (((\n"));
+        assertEquals(true, session.feed("\"(\"\n"));
+        assertEquals(false, session.feed("\"(\n"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testParseSessionAgreesWithParser() {
+        String[] inputs = {"3)\n", "(3))\n(\n", "f(\n1\n)\n", "a \\\n\n", "\n", "x := 1\n\n"};
+        for (String input : inputs) {
+            ParseSession session = new ParseSession();
+            boolean complete = true;
+            for (String line : input.split("(?<=\n)")) {
+                complete = session.feed(line);
+            }
+            boolean parserComplete = true;
+            try {
+                new Parser().parse(session.getText());
+            } catch (IncompleteInputError err) {
+                parserComplete = false;
+            } catch (ParseError err) {
+                // Syntax errors still count as complete input
+            }
+            assertEquals("Input: " + input, parserComplete, complete);
+        }
+    }
+}
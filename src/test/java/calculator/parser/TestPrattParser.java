@@ -0,0 +1,236 @@
+package calculator.parser;
+
+import calculator.ast.AstNode;
+import calculator.errors.IncompleteInputError;
+import calculator.errors.ParseError;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.Random;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Differential tests that check the hand-written PrattParser against the ANTLR-based parser.
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestPrattParser extends BaseTest {
+    private static final String[] TOKEN_SOUP = {
+        "x", "foo", "sin", "3", "4.5", "0.", "(", ")", "+", "-", "*", "/", "^", ",", ":=", ":",
+        "\n", "\r\n", "\\\n", "\\", " ", "\t", "# comment", "\"str\"", "\"", "$", ".", "\u00e9", "\ud83d\ude00",
+    };
+
+    @Test(timeout=SECOND)
+    public void basicTestParse() {
+        PrattParser parser = new PrattParser();
+        assertEquals("block(3 + 2 * 7)", parser.parse("3 + 2 * 7\n").toString());
+        assertEquals("block(assign(x, sin(y) ^ 2))", parser.parse("x := sin(y) ^ 2\n").toString());
+        assertEquals("block()", parser.parse("").toString());
+    }
+
+    @Test(timeout=SECOND)
+    public void testMatchesAntlrOnHandWrittenInputs() {
+        String[] inputs = {
+            "3 + 2 * 7\n",
+            "a - b - c\n",
+            "a - (b - c)\n",
+            "a / b * c\n",
+            "2 ^ 3 ^ 4\n",
+            "-2 ^ 2\n",
+            "--x\n",
+            "2 * -3\n",
+            "f()\n",
+            "plot(3 * x, x, 0, 10, 1)\n",
+            "x := (1 +\n  2)\n",
+            "y := 3 \\\n + 4\n",
+            "a := 1 # comment\n\n\r\nb := 2\n",
+            "1.5 + 20.25\n",
+            "2 ^ -3\n",
+            "3 := 4\n",
+            "x := 1 := 2\n",
+            "\n",
+            "3\n  \n",
+            "3",
+            "f(,)\n",
+            "f(1,)\n",
+            "3.\n",
+            "\"abc\"\n",
+            "\"abc\" +\n",
+            "3 3 (\n",
+            "3)\n",
+            "(3))\n(\n",
+            "x := 3 \\\n",
+            "x := 3 \\\n\n",
+            "x := 3 \\",
+            "a $ b\n",
+        };
+        for (String input : inputs) {
+            assertParsersAgree(input);
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testMatchesAntlrOnRandomValidPrograms() {
+        Random random = new Random(373);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder program = new StringBuilder();
+            int numStatements = 1 + random.nextInt(3);
+            for (int j = 0; j < numStatements; j++) {
+                if (random.nextBoolean()) {
+                    program.append("v").append(random.nextInt(3)).append(" := ");
+                }
+                program.append(randomExpression(random, 4));
+                program.append(random.nextInt(4) == 0 ? " # done\n" : "\n");
+            }
+            assertParsersAgree(program.toString());
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testMatchesAntlrOnRandomTokenSoup() {
+        Random random = new Random(143);
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder input = new StringBuilder();
+            int numTokens = random.nextInt(12);
+            for (int j = 0; j < numTokens; j++) {
+                input.append(TOKEN_SOUP[random.nextInt(TOKEN_SOUP.length)]);
+                if (random.nextBoolean()) {
+                    input.append(' ');
+                }
+            }
+            if (random.nextBoolean()) {
+                input.append('\n');
+            }
+            assertParsersAgree(input.toString());
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testIncompleteInputErrors() {
+        PrattParser parser = new PrattParser();
+        String[] inputs = {"sin(3 + \n", "3 3 (\n", "3 + * (4\n", "3)\n", "x := 3 \\\n"};
+        for (String input : inputs) {
+            try {
+                parser.parse(input);
+                fail("Expected IncompleteInputError for: " + input);
+            } catch (IncompleteInputError err) {
+                // Do nothing
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testParseErrorReportsPosition() {
+        try {
+            new PrattParser().parse("x := 3\ny := * 2\n");
+            fail("Expected ParseError");
+        } catch (IncompleteInputError err) {
+            fail("Did not expect IncompleteInputError");
+        } catch (ParseError err) {
+            assertEquals("Line 2, col 5: Unxpected '*'", err.getMessage());
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testStringsAreParseErrors() {
+        String input = "a := 1\nb := 2 + \"hi\"\n";
+        for (boolean fast : new boolean[] {false, true}) {
+            try {
+                new Parser(fast).parse(input);
+                fail("Expected ParseError");
+            } catch (IncompleteInputError err) {
+                fail("Did not expect IncompleteInputError");
+            } catch (ParseError err) {
+                assertEquals("Line 2, col 9: Strings are not supported", err.getMessage());
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testCalculatorWithFastParser() {
+        calculator.Calculator calc = new calculator.Calculator();
+        calc.setUseFastParser(true);
+        assertEquals("17", calc.evaluate("3 + 2 * 7"));
+        assertEquals("x + 3", calc.evaluate("y := x + 3"));
+        assertEquals("4", calc.evaluate("x := 4"));
+        assertEquals("7", calc.evaluate("y"));
+    }
+
+    private static String randomExpression(Random random, int depth) {
+        int choice = depth == 0 ? random.nextInt(2) : random.nextInt(9);
+        switch (choice) {
+            case 0:
+                return random.nextBoolean() ? "" + random.nextInt(100) : random.nextInt(10) + "." + random.nextInt(10);
+            case 1:
+                return "v" + random.nextInt(3);
+            case 2:
+                return "-" + randomExpression(random, depth - 1);
+            case 3:
+                return "(" + randomWhitespace(random) + randomExpression(random, depth - 1) + ")";
+            case 4:
+                StringBuilder call = new StringBuilder(random.nextBoolean() ? "sin(" : "f(");
+                int numArgs = random.nextInt(3);
+                for (int i = 0; i < numArgs; i++) {
+                    if (i > 0) {
+                        call.append(",").append(randomWhitespace(random));
+                    }
+                    call.append(randomExpression(random, depth - 1));
+                }
+                return call.append(")").toString();
+            default:
+                String[] operators = {"+", "-", "*", "/", "^"};
+                String operator = operators[random.nextInt(operators.length)];
+                String separator = random.nextInt(8) == 0 ? " \\\n " : " ";
+                return randomExpression(random, depth - 1) + separator + operator + " "
+                        + randomExpression(random, depth - 1);
+        }
+    }
+
+    private static String randomWhitespace(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return "\n  ";
+            case 1:
+                return "\t";
+            default:
+                return "";
+        }
+    }
+
+    private static void assertParsersAgree(String input) {
+        assertEquals("Input: " + input, outcome(new Parser(false), input), outcome(new Parser(true), input));
+    }
+
+    private static String outcome(Parser parser, String input) {
+        try {
+            return dump(parser.parse(input));
+        } catch (ParseError ex) {
+            if (ex.getMessage() != null && ex.getMessage().endsWith("Strings are not supported")) {
+                return ex.getMessage();
+            }
+            return ex.getClass().getName();
+        } catch (RuntimeException ex) {
+            return ex.getClass().getName();
+        }
+    }
+
+    /**
+     * Returns an unambiguous string representation of the AST (unlike AstNode.toString,
+     * which e.g. prints both '(a + b) + c' and 'a + (b + c)' as 'a + b + c').
+     */
+    private static String dump(AstNode node) {
+        if (node.isNumber()) {
+            return "num:" + node.getNumericValue();
+        } else if (node.isVariable()) {
+            return "var:" + node.getName();
+        } else {
+            StringBuilder out = new StringBuilder(node.getName()).append("[");
+            for (AstNode child : node.getChildren()) {
+                out.append(dump(child)).append(";");
+            }
+            return out.append("]").toString();
+        }
+    }
+}
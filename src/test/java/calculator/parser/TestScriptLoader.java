@@ -0,0 +1,69 @@
+package calculator.parser;
+
+import calculator.errors.IncompleteInputError;
+import calculator.errors.ParseError;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.fail;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestScriptLoader extends BaseTest {
+    @Test(timeout=SECOND)
+    public void basicTestLoad() {
+        ScriptLoader loader = new ScriptLoader(ForkJoinPool.commonPool(), true, 8);
+        assertEquals("block(assign(x, 3), assign(y, x + 1), sin(y))", loader.load("x := 3\ny := x + 1\nsin(y)\n").toString());
+        assertEquals("block()", loader.load("").toString());
+    }
+
+    @Test(timeout=SECOND)
+    public void testChunksEndOnTopLevelLineBreaks() {
+        ScriptLoader loader = new ScriptLoader(ForkJoinPool.commonPool(), true, 1);
+        String script = "a := f(1,\n 2)\nb := 3 \\\n + 4\n\n\nc\n";
+        int[] boundaries = loader.findChunkBoundaries(script);
+        assertEquals(4, boundaries.length);
+        assertEquals(0, boundaries[0]);
+        assertEquals("a := f(1,\n 2)\n", script.substring(boundaries[0], boundaries[1]));
+        assertEquals("b := 3 \\\n + 4\n\n\n", script.substring(boundaries[1], boundaries[2]));
+        assertEquals("c\n", script.substring(boundaries[2], boundaries[3]));
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testMatchesSingleParserOnLargeScript() {
+        Random random = new Random(31);
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            script.append("v").append(i).append(" := (v").append(random.nextInt(i + 1))
+                    .append(" + ").append(random.nextInt(100)).append(") * \\\n  f(")
+                    .append(random.nextInt(10)).append(",\n ").append(random.nextInt(10)).append(")\n");
+        }
+        String expected = new Parser(true).parse(script.toString()).toString();
+        for (boolean useFastParser : new boolean[] {true, false}) {
+            ScriptLoader loader = new ScriptLoader(ForkJoinPool.commonPool(), useFastParser, 4096);
+            assertEquals(expected, loader.load(script.toString()).toString());
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testErrorsMatchSingleParser() {
+        ScriptLoader loader = new ScriptLoader(ForkJoinPool.commonPool(), true, 1);
+        try {
+            loader.load("a := 1\nb := 2\nc := * 3\nd := 4\n");
+            fail("Expected ParseError");
+        } catch (ParseError err) {
+            assertEquals("Line 3, col 5: Unxpected '*'", err.getMessage());
+        }
+
+        try {
+            loader.load("a := 1\nb := (2\n");
+            fail("Expected IncompleteInputError");
+        } catch (IncompleteInputError err) {
+            // Do nothing
+        }
+    }
+}
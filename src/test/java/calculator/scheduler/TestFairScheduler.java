@@ -0,0 +1,145 @@
+package calculator.scheduler;
+
+import calculator.Calculator;
+import calculator.errors.EvaluationError;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.fail;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestFairScheduler extends BaseTest {
+    // Takes about half a second to evaluate
+    private static final String HEAVY_INPUT =
+            "plot(sin(t) * cos(t) + t ^ 2 + sin(t / 2) * cos(t / 3) + t ^ 0.5, t, 0, 1000000, 0.5)";
+
+    @Test(timeout=SECOND)
+    public void basicTestInputsRunInOrder() {
+        try (FairScheduler scheduler = new FairScheduler(2)) {
+            FairScheduler.Session session = scheduler.newSession(new Calculator(), 1);
+            CompletableFuture<String> first = session.submit("x := 3");
+            CompletableFuture<String> second = session.submit("x + 4");
+            assertEquals("3", first.join());
+            assertEquals("7", second.join());
+            assertEquals(2L, scheduler.getMetrics().getNumCompletedJobs());
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testErrorsCompleteFuture() {
+        try (FairScheduler scheduler = new FairScheduler(1)) {
+            FairScheduler.Session session = scheduler.newSession(new Calculator(), 1);
+            try {
+                session.submit("toDouble(y)").join();
+                fail("Expected EvaluationError");
+            } catch (CompletionException ex) {
+                assertEquals(true, ex.getCause() instanceof EvaluationError);
+            }
+            assertEquals("5", session.submit("2 + 3").join());
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testShortInputsAreNotStarvedByHeavyOnes() throws Exception {
+        try (FairScheduler scheduler = new FairScheduler(1, TimeUnit.MILLISECONDS.toNanos(1))) {
+            FairScheduler.Session heavy = scheduler.newSession(new Calculator(new NullImageDrawer()), 1);
+            FairScheduler.Session light = scheduler.newSession(new Calculator(), 1);
+
+            CompletableFuture<String> heavyResult = heavy.submit(HEAVY_INPUT);
+            // Give the heavy input time to get going and use up its time slice.
+            Thread.sleep(50);
+            assertEquals(1L, scheduler.getMetrics().getNumRunningJobs());
+
+            long start = System.nanoTime();
+            assertEquals("7", light.submit("3 + 4").get(2, TimeUnit.SECONDS));
+            long latency = System.nanoTime() - start;
+
+            assertEquals(false, heavyResult.isDone());
+            assertEquals(true, latency < TimeUnit.MILLISECONDS.toNanos(500));
+            assertEquals(true, scheduler.getMetrics().getNumPreemptions() >= 1);
+            heavyResult.cancel(true);
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testCancellingFutureCancelsInput() throws Exception {
+        try (FairScheduler scheduler = new FairScheduler(1)) {
+            FairScheduler.Session session = scheduler.newSession(new Calculator(new NullImageDrawer()), 1);
+            CompletableFuture<String> heavyResult = session.submit(HEAVY_INPUT);
+            CompletableFuture<String> queued = session.submit("a := 1");
+            while (scheduler.getMetrics().getNumRunningJobs() == 0) {
+                Thread.sleep(1);
+            }
+
+            // The input behind it is cancelled first, so it never gets to run.
+            assertEquals(true, queued.cancel(true));
+            assertEquals(true, heavyResult.cancel(true));
+            assertEquals("2", session.submit("1 + 1").get(2, TimeUnit.SECONDS));
+            assertEquals("a", session.submit("a").join());
+            assertEquals(true, heavyResult.isCancelled());
+            assertEquals(0L, scheduler.getMetrics().getNumRunningJobs());
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testCloseRejectsPendingAndNewInputs() throws Exception {
+        FairScheduler scheduler = new FairScheduler(1);
+        FairScheduler.Session session = scheduler.newSession(new Calculator(new NullImageDrawer()), 1);
+        CompletableFuture<String> heavyResult = session.submit(HEAVY_INPUT);
+        CompletableFuture<String> queued = session.submit("1 + 1");
+        while (scheduler.getMetrics().getNumRunningJobs() == 0) {
+            Thread.sleep(1);
+        }
+        scheduler.close();
+        scheduler.close();
+
+        assertRejected(queued);
+        assertRejected(session.submit("2 + 2"));
+        assertRejected(scheduler.newSession(new Calculator(), 1).submit("3 + 3"));
+        assertEquals(0, scheduler.getMetrics().getNumQueuedJobs());
+
+        // What was already running still finishes.
+        heavyResult.cancel(true);
+        while (scheduler.getMetrics().getNumRunningJobs() != 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testRejectsInvalidWeights() {
+        try (FairScheduler scheduler = new FairScheduler(1)) {
+            scheduler.newSession(new Calculator(), 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // Do nothing
+        }
+    }
+
+    private static void assertRejected(CompletableFuture<String> future) {
+        try {
+            future.join();
+            fail("Expected RejectedExecutionException");
+        } catch (CompletionException ex) {
+            assertEquals(true, ex.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    private static class NullImageDrawer extends calculator.gui.ImageDrawer {
+        public NullImageDrawer() {
+            super(null, 800, 600);
+        }
+
+        @Override
+        public void drawScatterPlot(String title, String xAxisLabel, String yAxisLabel,
+                                    double[] xValues, double[] yValues,
+                                    java.awt.geom.Rectangle2D drawRegion) {
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package calculator.server;
+
+import calculator.CalculatorEngine;
+import calculator.scheduler.FairScheduler;
+import misc.BaseTest;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestCalculatorServer extends BaseTest {
+    @Test(timeout=5 * SECOND)
+    public void testPipelinedRequests() throws IOException {
+        try (CalculatorServer server = new CalculatorServer(0, CalculatorEngine.get(true, false))) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                OutputStream output = socket.getOutputStream();
+                BufferedReader input = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+                // Everything is sent up front, before reading any responses.
+                String requests = "x := 3\ny := (x +\n 4)\n3 +\ny * 2\nquit()\nz := 5\n";
+                output.write(requests.getBytes(StandardCharsets.UTF_8));
+                output.flush();
+
+                assertEquals("3", input.readLine());
+                assertEquals("7", input.readLine());
+                assertEquals("ERROR: Line 1, col 3: Unxpected '\\n\\n'", input.readLine());
+                assertEquals("14", input.readLine());
+                assertEquals(null, input.readLine());
+            }
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testHalfCloseAnswersEveryInput() throws IOException {
+        try (CalculatorServer server = new CalculatorServer(0, CalculatorEngine.get(true, false))) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                BufferedReader input = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+                // Closing the sending side only means there's nothing more to come.
+                socket.getOutputStream().write("1+1\n2+2\nx := 3\nx*2\n".getBytes(StandardCharsets.UTF_8));
+                socket.shutdownOutput();
+
+                assertEquals("2", input.readLine());
+                assertEquals("4", input.readLine());
+                assertEquals("3", input.readLine());
+                assertEquals("6", input.readLine());
+                assertEquals(null, input.readLine());
+            }
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testManyPipelinedRequests() throws IOException, InterruptedException {
+        try (CalculatorServer server = new CalculatorServer(0, CalculatorEngine.get(true, false))) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                // Far more than the server queues at once, sent without reading any responses
+                int count = 20000;
+                Thread sender = new Thread(() -> {
+                    try {
+                        OutputStream output = socket.getOutputStream();
+                        for (int i = 0; i < count; i++) {
+                            output.write((i + " + 1\n").getBytes(StandardCharsets.UTF_8));
+                        }
+                        socket.shutdownOutput();
+                    } catch (IOException ex) {
+                        // Reported by the responses going missing
+                    }
+                });
+                sender.start();
+
+                BufferedReader input = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                for (int i = 0; i < count; i++) {
+                    assertEquals(Integer.toString(i + 1), input.readLine());
+                }
+                assertEquals(null, input.readLine());
+                sender.join();
+            }
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testPlottingIsAnError() throws IOException {
+        try (CalculatorServer server = new CalculatorServer(0, CalculatorEngine.get(true, false))) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                assertEquals("ERROR: Plotting is not supported in this session", send(socket, "plot(x, x, 0, 1, 0.5)"));
+                assertEquals("ERROR: Plotting is not supported in this session", send(socket, "clear()"));
+                assertEquals("2", send(socket, "1 + 1"));
+            }
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testSessionsAreIsolated() throws IOException {
+        try (CalculatorServer server = new CalculatorServer(0, CalculatorEngine.get(true, false))) {
+            server.start();
+            try (Socket first = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                 Socket second = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                assertEquals("1", send(first, "a := 1"));
+                assertEquals("a", send(second, "a"));
+                assertEquals("1", send(first, "a"));
+            }
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testWithScheduler() throws IOException {
+        try (FairScheduler scheduler = new FairScheduler(1);
+             CalculatorServer server = new CalculatorServer(0, CalculatorEngine.get(true, false), scheduler)) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                assertEquals("2", send(socket, "a := 2"));
+                assertEquals("ERROR: Variable undefined", send(socket, "toDouble(b)"));
+                assertEquals("6", send(socket, "a * 3"));
+            }
+            assertEquals(3L, scheduler.getMetrics().getNumCompletedJobs());
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testDisconnectCancelsEvaluation() throws IOException, InterruptedException {
+        try (FairScheduler scheduler = new FairScheduler(1);
+             CalculatorServer server = new CalculatorServer(0, CalculatorEngine.get(true, false), scheduler)) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                // Evaluating a40 visits 2^40 nodes, so this never finishes by itself.
+                for (int i = 40; i > 0; i--) {
+                    send(socket, "a" + i + " := a" + (i - 1) + " + a" + (i - 1));
+                }
+                assertEquals("1", send(socket, "a0 := 1"));
+                socket.getOutputStream().write("toDouble(a40)\n".getBytes(StandardCharsets.UTF_8));
+                while (scheduler.getMetrics().getNumRunningJobs() == 0) {
+                    Thread.sleep(1);
+                }
+                // Reset the connection rather than just closing it, which would only mean
+                // there's no more input.
+                socket.setSoLinger(true, 0);
+            }
+            while (scheduler.getMetrics().getNumRunningJobs() != 0) {
+                Thread.sleep(1);
+            }
+            assertEquals(42L, scheduler.getMetrics().getNumCompletedJobs());
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testLoadGenerator() throws IOException, InterruptedException {
+        try (CalculatorServer server = new CalculatorServer(0, CalculatorEngine.get(true, false))) {
+            server.start();
+            LoadGenerator.Result result = LoadGenerator.run(server.getPort(), 4, 200, 4);
+            assertEquals(800, result.getNumRequests());
+            assertEquals(true, result.getLatencyPercentile(50) <= result.getLatencyPercentile(99));
+        }
+    }
+
+    private static String send(Socket socket, String request) throws IOException {
+        socket.getOutputStream().write((request + "\n").getBytes(StandardCharsets.UTF_8));
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+    }
+}